@@ -5,6 +5,7 @@ import org.apache.logging.log4j.Logger;
 import org.hucompute.wikidragon.core.model.MediaWiki;
 import org.hucompute.wikidragon.core.model.MediaWikiConst;
 import org.hucompute.wikidragon.core.model.Page;
+import org.hucompute.wikidragon.core.model.WikiDragonConst;
 import org.hucompute.wikidragon.core.model.neo.NeoWikiDragonDatabase;
 import org.hucompute.wikidragon.core.parsing.XOWAPageMassParser;
 import org.hucompute.wikidragon.core.parsing.filter.XOWAPageMassParserAllFilter;
@@ -25,6 +26,7 @@ public class WikiDragon {
         System.out.println("WikiDragon <-db DBDirectory> [-r] importlinks [dumpfile1] [dumpfile2] [dumpfile3] ...");
         System.out.println("WikiDragon <-db DBDirectory> [-r] parsehtml");
         System.out.println("WikiDragon <-db DBDirectory> [-r] getpageinfo <title>");
+        System.out.println("WikiDragon <-db DBDirectory> migratestorage");
         System.exit(0);
     }
 
@@ -70,9 +72,15 @@ public class WikiDragon {
                     lCommandIndex = i;
                     break;
                 }
+                case "migratestorage": {
+                    lCommand = args[i];
+                    lCommandIndex = i;
+                    break;
+                }
                 case "getpageinfo": {
                     lCommand = args[i];
                     lCommandIndex = i;
+                    if (i+1 < args.length) lPageTitle = args[++i];
                     break;
                 }
             }
@@ -137,6 +145,29 @@ public class WikiDragon {
                 }
                 break;
             }
+            case "migratestorage": {
+                try (NeoWikiDragonDatabase lDatabase = new NeoWikiDragonDatabase(lDBDirectory, false)) {
+                    lDatabase.migrateStorageLayout();
+                }
+                break;
+            }
+            case "getpageinfo": {
+                if (lPageTitle == null) printSyntax();
+                try (NeoWikiDragonDatabase lDatabase = new NeoWikiDragonDatabase(lDBDirectory, WikiDragonConst.OpenMode.READONLY)) {
+                    for (MediaWiki lWiki:lDatabase.getMediaWikiCollection().getMediaWikis()) {
+                        if ((lMediaWiki != null) && !lMediaWiki.equals(lWiki.getDbName())) continue;
+                        Page lPage = lWiki.getPage(lPageTitle);
+                        if (lPage == null) {
+                            System.out.println(lWiki.getDbName()+"\t"+lPageTitle+"\tnot found");
+                        }
+                        else {
+                            System.out.println(lWiki.getDbName()+"\t"+lPage.getId()+"\t"+lPage.getNamespaceID()+"\t"+lPage.getQualifiedTitle()+"\t"+lPage.getRevisionCount()+" revisions"
+                                    +(lPage.getLatestRevision() == null ? "" : "\tlatest "+lPage.getLatestRevision().getId()+" at "+lPage.getLatestRevision().getTimestamp()));
+                        }
+                    }
+                }
+                break;
+            }
         }
     }
 
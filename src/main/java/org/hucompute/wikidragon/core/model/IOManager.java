@@ -23,6 +23,7 @@ import gnu.trove.map.hash.TObjectLongHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.util.LinkGraphSnapshot;
 import org.hucompute.wikidragon.core.util.StringUtil;
 import org.hucompute.wikidragon.html.HTML2TEIParser;
 
@@ -110,19 +111,22 @@ public class IOManager {
     }
 
     public void exportRevisionsTEICorpus(Collection<Revision> pRevisions, Writer pWriter) throws WikiDragonException, IOException {
-        pWriter.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
-        pWriter.write("<teiCorpus>\n");
-        long lCounter = 0;
-        for (Revision lRevision:pRevisions) {
-            String lTEI = getTEI(lRevision);
-            pWriter.write(lTEI);
-            pWriter.write("\n");
-            lCounter++;
-            if (lCounter % 100 == 0) {
-                logger.info(lCounter+" revisions exported");
+        try (WikiTransaction lSession = wikiDragonDatabase.beginReadSession()) {
+            pWriter.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+            pWriter.write("<teiCorpus>\n");
+            long lCounter = 0;
+            for (Revision lRevision:pRevisions) {
+                String lTEI = getTEI(lRevision);
+                pWriter.write(lTEI);
+                pWriter.write("\n");
+                lCounter++;
+                if (lCounter % 100 == 0) {
+                    logger.info(lCounter+" revisions exported");
+                }
             }
+            pWriter.write("</teiCorpus>\n");
+            lSession.success();
         }
-        pWriter.write("</teiCorpus>\n");
     }
 
     public void exportPageTiersGraphML(Collection<PageTier> pPageTiers, File pFile, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException, IOException {
@@ -133,47 +137,50 @@ public class IOManager {
     }
 
     public void exportPageTiersGraphML(Collection<PageTier> pPageTiers, Writer pWriter, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException, IOException {
-        Set<MediaWikiConst.LinkType> lLinkSet = new HashSet<>();
-        for (MediaWikiConst.LinkType lType:pLinkTypes) {
-            lLinkSet.add(lType);
-        }
-        Set<PageTier> lSet = new HashSet<>(pPageTiers);
-        pWriter.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
-        pWriter.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns http://graphml.graphdrawing.org/xmlns/1.0/graphml.xsd\">\n");
-        pWriter.write("<key id=\"d0\" for=\"node\" attr.name=\"title\" attr.type=\"string\"/>\n");
-        pWriter.write("<key id=\"d1\" for=\"node\" attr.name=\"ns\" attr.type=\"integer\"/>\n");
-        pWriter.write("<key id=\"d2\" for=\"node\" attr.name=\"articleID\" attr.type=\"integer\"/>\n");
-        pWriter.write("<key id=\"d3\" for=\"node\" attr.name=\"timestamp\" attr.type=\"string\"/>\n");
-        pWriter.write("<key id=\"d4\" for=\"edge\" attr.name=\"type\" attr.type=\"string\"/>\n");
-        TObjectLongHashMap<String> lNodeMap = new TObjectLongHashMap<>();
-        long lNodeIDCounter = 0;
-        for (PageTier lTier:pPageTiers) {
-            lNodeIDCounter++;
-            Page lPage = lTier.getPage();
-            lNodeMap.put(lPage.getId()+"\t"+StringUtil.zonedDateTime2String(lTier.getTimestamp(), ZoneId.of("UTC")), lNodeIDCounter);
-            pWriter.write("<node id=\"n"+lNodeIDCounter+"\">\n");
-            pWriter.write("<data key=\"d0\">"+StringUtil.encodeXml(lPage.getTitle())+"</data>\n");
-            pWriter.write("<data key=\"d1\">"+lPage.getNamespaceID()+"</data>\n");
-            pWriter.write("<data key=\"d2\">"+lPage.getId()+"</data>\n");
-            pWriter.write("<data key=\"d3\">"+StringUtil.encodeXml(StringUtil.zonedDateTime2String(lTier.getTimestamp(), ZoneId.of("UTC")))+"</data>\n");
-            pWriter.write("</node>\n");
-        }
-        long lEdgeIDCounter = 0;
-        for (PageTier lTier:pPageTiers) {
-            long lSourceID = lNodeMap.get(lTier.getPage().getId()+"\t"+StringUtil.zonedDateTime2String(lTier.getTimestamp(), ZoneId.of("UTC")));
-            for (WikiPageLink lLink:lTier.getWikiPageLinksOut()) {
-                if (lLinkSet.contains(lLink.getLinkType())) {
-                    lEdgeIDCounter++;
-                    long lTargetID = lNodeMap.get(lLink.getTarget().getId()+"\t"+StringUtil.zonedDateTime2String(lLink.getTimestamp(), ZoneId.of("UTC")));
-                    if (lTargetID > 0) {
-                        pWriter.write("<edge id=\"e"+lEdgeIDCounter+"\" source=\"n"+lSourceID+"\" target=\"n"+lTargetID+"\">\n");
-                        pWriter.write("<data key=\"d4\">"+StringUtil.encodeXml(lLink.getLinkType().name())+"</data>\n");
-                        pWriter.write("</edge>\n");
+        try (WikiTransaction lSession = wikiDragonDatabase.beginReadSession()) {
+            Set<MediaWikiConst.LinkType> lLinkSet = new HashSet<>();
+            for (MediaWikiConst.LinkType lType:pLinkTypes) {
+                lLinkSet.add(lType);
+            }
+            Set<PageTier> lSet = new HashSet<>(pPageTiers);
+            pWriter.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+            pWriter.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns http://graphml.graphdrawing.org/xmlns/1.0/graphml.xsd\">\n");
+            pWriter.write("<key id=\"d0\" for=\"node\" attr.name=\"title\" attr.type=\"string\"/>\n");
+            pWriter.write("<key id=\"d1\" for=\"node\" attr.name=\"ns\" attr.type=\"integer\"/>\n");
+            pWriter.write("<key id=\"d2\" for=\"node\" attr.name=\"articleID\" attr.type=\"integer\"/>\n");
+            pWriter.write("<key id=\"d3\" for=\"node\" attr.name=\"timestamp\" attr.type=\"string\"/>\n");
+            pWriter.write("<key id=\"d4\" for=\"edge\" attr.name=\"type\" attr.type=\"string\"/>\n");
+            TObjectLongHashMap<String> lNodeMap = new TObjectLongHashMap<>();
+            long lNodeIDCounter = 0;
+            for (PageTier lTier:pPageTiers) {
+                lNodeIDCounter++;
+                Page lPage = lTier.getPage();
+                lNodeMap.put(lPage.getId()+"\t"+StringUtil.zonedDateTime2String(lTier.getTimestamp(), ZoneId.of("UTC")), lNodeIDCounter);
+                pWriter.write("<node id=\"n"+lNodeIDCounter+"\">\n");
+                pWriter.write("<data key=\"d0\">"+StringUtil.encodeXml(lPage.getTitle())+"</data>\n");
+                pWriter.write("<data key=\"d1\">"+lPage.getNamespaceID()+"</data>\n");
+                pWriter.write("<data key=\"d2\">"+lPage.getId()+"</data>\n");
+                pWriter.write("<data key=\"d3\">"+StringUtil.encodeXml(StringUtil.zonedDateTime2String(lTier.getTimestamp(), ZoneId.of("UTC")))+"</data>\n");
+                pWriter.write("</node>\n");
+            }
+            long lEdgeIDCounter = 0;
+            for (PageTier lTier:pPageTiers) {
+                long lSourceID = lNodeMap.get(lTier.getPage().getId()+"\t"+StringUtil.zonedDateTime2String(lTier.getTimestamp(), ZoneId.of("UTC")));
+                for (WikiPageLink lLink:lTier.getWikiPageLinksOut()) {
+                    if (lLinkSet.contains(lLink.getLinkType())) {
+                        lEdgeIDCounter++;
+                        long lTargetID = lNodeMap.get(lLink.getTarget().getId()+"\t"+StringUtil.zonedDateTime2String(lLink.getTimestamp(), ZoneId.of("UTC")));
+                        if (lTargetID > 0) {
+                            pWriter.write("<edge id=\"e"+lEdgeIDCounter+"\" source=\"n"+lSourceID+"\" target=\"n"+lTargetID+"\">\n");
+                            pWriter.write("<data key=\"d4\">"+StringUtil.encodeXml(lLink.getLinkType().name())+"</data>\n");
+                            pWriter.write("</edge>\n");
+                        }
                     }
                 }
             }
+            pWriter.write("</graphml>\n");
+            lSession.success();
         }
-        pWriter.write("</graphml>\n");
     }
 
     public void exportPageTiersBF(Collection<PageTier> pPageTiers, File pFile, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException, IOException {
@@ -184,38 +191,41 @@ public class IOManager {
     }
 
     public void exportPageTiersBF(Collection<PageTier> pPageTiers, Writer pWriter, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException, IOException {
-        Set<MediaWikiConst.LinkType> lLinkSet = new HashSet<>();
-        for (MediaWikiConst.LinkType lType:pLinkTypes) {
-            lLinkSet.add(lType);
-        }
-        Set<PageTier> lSet = new HashSet<>(pPageTiers);
-        pWriter.write("directed\n");
-        pWriter.write("SimilarityGraph\n");
-        pWriter.write("Vertex Attributes:[Title¤String];[NSID¤Integer];[Timestamp¤String];\n");
-        pWriter.write("Edge Attributes:[Type¤String];\n");
-        pWriter.write("ProbabilityMassOfGraph: 0\n");
-        pWriter.write("Vertices:\n");
-        TObjectLongHashMap<String> lNodeMap = new TObjectLongHashMap<>();
-        long lNodeIDCounter = 0;
-        for (PageTier lTier:pPageTiers) {
-            lNodeIDCounter++;
-            Page lPage = lTier.getPage();
-            lNodeMap.put(lPage.getId()+"\t"+StringUtil.zonedDateTime2String(lTier.getTimestamp(), ZoneId.of("UTC")), lNodeIDCounter);
-            pWriter.write("n"+lNodeIDCounter+"¤[Title¤"+StringUtil.encodeBF(lPage.getTitle())+"¤]¤[NSID¤"+lPage.getNamespaceID()+"¤]¤[Timestamp¤"+StringUtil.encodeBF(StringUtil.zonedDateTime2String(lTier.getTimestamp(), ZoneId.of("UTC")))+"¤]¤\n");
-        }
-        pWriter.write("Edges:\n");
-        long lEdgeIDCounter = 0;
-        for (PageTier lTier:pPageTiers) {
-            long lSourceID = lNodeMap.get(lTier.getPage().getId()+"\t"+StringUtil.zonedDateTime2String(lTier.getTimestamp(), ZoneId.of("UTC")));
-            for (WikiPageLink lLink:lTier.getWikiPageLinksOut()) {
-                if (lLinkSet.contains(lLink.getLinkType())) {
-                    lEdgeIDCounter++;
-                    long lTargetID = lNodeMap.get(lLink.getTarget().getId()+"\t"+StringUtil.zonedDateTime2String(lLink.getTimestamp(), ZoneId.of("UTC")));
-                    if (lTargetID > 0) {
-                        pWriter.write("n"+lSourceID+"¤n"+lTargetID+"¤1.0¤[Type¤"+StringUtil.encodeBF(lLink.getLinkType().name())+"¤]¤\n");
+        try (WikiTransaction lSession = wikiDragonDatabase.beginReadSession()) {
+            Set<MediaWikiConst.LinkType> lLinkSet = new HashSet<>();
+            for (MediaWikiConst.LinkType lType:pLinkTypes) {
+                lLinkSet.add(lType);
+            }
+            Set<PageTier> lSet = new HashSet<>(pPageTiers);
+            pWriter.write("directed\n");
+            pWriter.write("SimilarityGraph\n");
+            pWriter.write("Vertex Attributes:[Title¤String];[NSID¤Integer];[Timestamp¤String];\n");
+            pWriter.write("Edge Attributes:[Type¤String];\n");
+            pWriter.write("ProbabilityMassOfGraph: 0\n");
+            pWriter.write("Vertices:\n");
+            TObjectLongHashMap<String> lNodeMap = new TObjectLongHashMap<>();
+            long lNodeIDCounter = 0;
+            for (PageTier lTier:pPageTiers) {
+                lNodeIDCounter++;
+                Page lPage = lTier.getPage();
+                lNodeMap.put(lPage.getId()+"\t"+StringUtil.zonedDateTime2String(lTier.getTimestamp(), ZoneId.of("UTC")), lNodeIDCounter);
+                pWriter.write("n"+lNodeIDCounter+"¤[Title¤"+StringUtil.encodeBF(lPage.getTitle())+"¤]¤[NSID¤"+lPage.getNamespaceID()+"¤]¤[Timestamp¤"+StringUtil.encodeBF(StringUtil.zonedDateTime2String(lTier.getTimestamp(), ZoneId.of("UTC")))+"¤]¤\n");
+            }
+            pWriter.write("Edges:\n");
+            long lEdgeIDCounter = 0;
+            for (PageTier lTier:pPageTiers) {
+                long lSourceID = lNodeMap.get(lTier.getPage().getId()+"\t"+StringUtil.zonedDateTime2String(lTier.getTimestamp(), ZoneId.of("UTC")));
+                for (WikiPageLink lLink:lTier.getWikiPageLinksOut()) {
+                    if (lLinkSet.contains(lLink.getLinkType())) {
+                        lEdgeIDCounter++;
+                        long lTargetID = lNodeMap.get(lLink.getTarget().getId()+"\t"+StringUtil.zonedDateTime2String(lLink.getTimestamp(), ZoneId.of("UTC")));
+                        if (lTargetID > 0) {
+                            pWriter.write("n"+lSourceID+"¤n"+lTargetID+"¤1.0¤[Type¤"+StringUtil.encodeBF(lLink.getLinkType().name())+"¤]¤\n");
+                        }
                     }
                 }
             }
+            lSession.success();
         }
     }
 
@@ -227,54 +237,60 @@ public class IOManager {
     }
 
     public void exportPageTiersSQL(Collection<Page> pPages, Writer pWriter, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException, IOException {
-        Set<MediaWikiConst.LinkType> lLinkSet = new HashSet<>();
-        for (MediaWikiConst.LinkType lType:pLinkTypes) {
-            lLinkSet.add(lType);
-        }
-        Set<Page> lSet = new HashSet<>(pPages);
-        pWriter.write("directed\n");
-        pWriter.write("SimilarityGraph\n");
-        pWriter.write("Vertex Attributes:[Title¤String];[NSID¤Integer];[Timestamp¤String];\n");
-        pWriter.write("Edge Attributes:[Type¤String];\n");
-        pWriter.write("ProbabilityMassOfGraph: 0\n");
-        pWriter.write("Vertices:\n");
-        TObjectLongHashMap<String> lNodeMap = new TObjectLongHashMap<>();
-        long lNodeIDCounter = 0;
-        for (Page lPage:pPages) {
-            lNodeIDCounter++;
-            lNodeMap.put(lPage.getId()+"\t"+StringUtil.zonedDateTime2String(WikiDragonConst.NULLDATETIME, ZoneId.of("UTC")), lNodeIDCounter);
-            pWriter.write("n"+lNodeIDCounter+"¤[Title¤"+StringUtil.encodeBF(lPage.getTitle())+"¤]¤[NSID¤"+lPage.getNamespaceID()+"¤]¤[Timestamp¤"+StringUtil.encodeBF(StringUtil.zonedDateTime2String(WikiDragonConst.NULLDATETIME, ZoneId.of("UTC")))+"¤]¤\n");
-        }
-        pWriter.write("Edges:\n");
-        long lEdgeIDCounter = 0;
-        for (Page lPage:pPages) {
-            long lSourceID = lNodeMap.get(lPage.getId()+"\t"+StringUtil.zonedDateTime2String(WikiDragonConst.NULLDATETIME, ZoneId.of("UTC")));
-            for (WikiPageLink lLink:lPage.getWikiPageLinksOut()) {
-                if (lLinkSet.contains(lLink.getLinkType())) {
-                    lEdgeIDCounter++;
-                    long lTargetID = lNodeMap.get(lLink.getTarget().getId()+"\t"+StringUtil.zonedDateTime2String(WikiDragonConst.NULLDATETIME, ZoneId.of("UTC")));
-                    if (lTargetID > 0) {
-                        pWriter.write("n"+lSourceID+"¤n"+lTargetID+"¤1.0¤[Type¤"+StringUtil.encodeBF(lLink.getLinkType().name())+"¤]¤\n");
+        try (WikiTransaction lSession = wikiDragonDatabase.beginReadSession()) {
+            Set<MediaWikiConst.LinkType> lLinkSet = new HashSet<>();
+            for (MediaWikiConst.LinkType lType:pLinkTypes) {
+                lLinkSet.add(lType);
+            }
+            Set<Page> lSet = new HashSet<>(pPages);
+            pWriter.write("directed\n");
+            pWriter.write("SimilarityGraph\n");
+            pWriter.write("Vertex Attributes:[Title¤String];[NSID¤Integer];[Timestamp¤String];\n");
+            pWriter.write("Edge Attributes:[Type¤String];\n");
+            pWriter.write("ProbabilityMassOfGraph: 0\n");
+            pWriter.write("Vertices:\n");
+            TObjectLongHashMap<String> lNodeMap = new TObjectLongHashMap<>();
+            long lNodeIDCounter = 0;
+            for (Page lPage:pPages) {
+                lNodeIDCounter++;
+                lNodeMap.put(lPage.getId()+"\t"+StringUtil.zonedDateTime2String(WikiDragonConst.NULLDATETIME, ZoneId.of("UTC")), lNodeIDCounter);
+                pWriter.write("n"+lNodeIDCounter+"¤[Title¤"+StringUtil.encodeBF(lPage.getTitle())+"¤]¤[NSID¤"+lPage.getNamespaceID()+"¤]¤[Timestamp¤"+StringUtil.encodeBF(StringUtil.zonedDateTime2String(WikiDragonConst.NULLDATETIME, ZoneId.of("UTC")))+"¤]¤\n");
+            }
+            pWriter.write("Edges:\n");
+            long lEdgeIDCounter = 0;
+            for (Page lPage:pPages) {
+                long lSourceID = lNodeMap.get(lPage.getId()+"\t"+StringUtil.zonedDateTime2String(WikiDragonConst.NULLDATETIME, ZoneId.of("UTC")));
+                for (WikiPageLink lLink:lPage.getWikiPageLinksOut()) {
+                    if (lLinkSet.contains(lLink.getLinkType())) {
+                        lEdgeIDCounter++;
+                        long lTargetID = lNodeMap.get(lLink.getTarget().getId()+"\t"+StringUtil.zonedDateTime2String(WikiDragonConst.NULLDATETIME, ZoneId.of("UTC")));
+                        if (lTargetID > 0) {
+                            pWriter.write("n"+lSourceID+"¤n"+lTargetID+"¤1.0¤[Type¤"+StringUtil.encodeBF(lLink.getLinkType().name())+"¤]¤\n");
+                        }
                     }
                 }
             }
+            lSession.success();
         }
     }
 
     public void exportPageTiersTEICorpus(Collection<PageTier> pPageTiers, Writer pWriter) throws WikiDragonException, IOException {
-        pWriter.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
-        pWriter.write("<teiCorpus>\n");
-        long lCounter = 0;
-        for (PageTier lPageTiers:pPageTiers) {
-            String lTEI = getTEI(lPageTiers);
-            pWriter.write(lTEI);
-            pWriter.write("\n");
-            lCounter++;
-            if (lCounter % 100 == 0) {
-                logger.info(lCounter+" pageTiers exported");
+        try (WikiTransaction lSession = wikiDragonDatabase.beginReadSession()) {
+            pWriter.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+            pWriter.write("<teiCorpus>\n");
+            long lCounter = 0;
+            for (PageTier lPageTiers:pPageTiers) {
+                String lTEI = getTEI(lPageTiers);
+                pWriter.write(lTEI);
+                pWriter.write("\n");
+                lCounter++;
+                if (lCounter % 100 == 0) {
+                    logger.info(lCounter+" pageTiers exported");
+                }
             }
+            pWriter.write("</teiCorpus>\n");
+            lSession.success();
         }
-        pWriter.write("</teiCorpus>\n");
     }
 
     public void exportBorlandFormatCurrent(MediaWiki pMediaWiki, File pFile, int... pNamespaceIDs) throws WikiDragonException, IOException {
@@ -282,24 +298,54 @@ public class IOManager {
     }
 
     public void exportBorlandFormatCurrent(MediaWiki pMediaWiki, Writer pWriter, int... pNamespaceIDs) throws WikiDragonException, IOException {
-        try (WikiTransaction tx = wikiDragonDatabase.beginTx()) {
-            Map<Integer, Namespace> lMap = pMediaWiki.getNamespaceIdMap();
-            Set<Page> lPages = new HashSet<>();
+        try (LinkGraphSnapshot lSnapshot = LinkGraphSnapshot.build(pMediaWiki, WikiDragonConst.NULLDATETIME)) {
+            exportBorlandFormat(pMediaWiki, lSnapshot, pWriter, pNamespaceIDs);
+        }
+    }
+
+    /**
+     * Export the pages of the given namespaces and the links between them taken from a LinkGraphSnapshot
+     * @param pMediaWiki MediaWiki the snapshot has been built from
+     * @param pSnapshot
+     * @param pWriter
+     * @param pNamespaceIDs Namespaces to export. None means all of them.
+     * @throws WikiDragonException
+     * @throws IOException
+     */
+    public void exportBorlandFormat(MediaWiki pMediaWiki, LinkGraphSnapshot pSnapshot, Writer pWriter, int... pNamespaceIDs) throws WikiDragonException, IOException {
+        try (WikiTransaction tx = wikiDragonDatabase.beginReadSession()) {
             Set<Integer> lNamespaceIDs = new HashSet<>();
-            if (pNamespaceIDs.length == 0) {
-                lNamespaceIDs.addAll(lMap.keySet());
+            for (int i:pNamespaceIDs) {
+                lNamespaceIDs.add(i);
             }
-            else {
-                for (int i:pNamespaceIDs) {
-                    lNamespaceIDs.add(i);
+            PrintWriter lWriter = new PrintWriter(pWriter);
+            lWriter.write("directed\n");
+            lWriter.write("SimilarityGraph\n");
+            lWriter.write("Vertex Attributes:[Title¤String];[NSID¤Integer];[Timestamp¤String];\n");
+            lWriter.write("Edge Attributes:[Type¤String];\n");
+            lWriter.write("ProbabilityMassOfGraph: 0\n");
+            lWriter.write("Vertices:\n");
+            String[] lKeys = new String[pSnapshot.getNodeCount()];
+            for (int i=0; i<lKeys.length; i++) {
+                if (lNamespaceIDs.isEmpty() || lNamespaceIDs.contains(pSnapshot.getNamespaceId(i))) {
+                    Page lPage = pMediaWiki.getPage(pSnapshot.getPageId(i));
+                    Revision lLatestRevision = lPage.getLatestRevision();
+                    lKeys[i] = lPage.getId() + "_" + lLatestRevision.getId();
+                    lWriter.write(lKeys[i] + "¤[Title¤" + StringUtil.encodeBF(lPage.getTitle()) + "¤]¤[NSID¤" + lPage.getNamespaceID() + "¤]¤[Timestamp¤" + StringUtil.encodeBF(StringUtil.zonedDateTime2String(lLatestRevision.getTimestamp(), ZoneId.of("UTC"))) + "¤]¤\n");
                 }
             }
-            for (int i:lNamespaceIDs) {
-                for (Page lPage:lMap.get(i).getPages()) {
-                    lPages.add(lPage);
+            lWriter.write("Edges:\n");
+            for (int i=0; i<lKeys.length; i++) {
+                if (lKeys[i] == null) continue;
+                for (int e=pSnapshot.getOutEdgeStart(i); e<pSnapshot.getOutEdgeStart(i+1); e++) {
+                    String lTargetKey = lKeys[pSnapshot.getOutTarget(e)];
+                    if (lTargetKey != null) {
+                        lWriter.write(lKeys[i] + "¤" + lTargetKey + "¤1.0¤[Type¤" + StringUtil.encodeBF(pSnapshot.getOutLinkType(e).name()) + "¤]¤\n");
+                    }
                 }
             }
-            exportBorlandFormatCurrent(pWriter, lPages);
+            lWriter.flush();
+            lWriter.close();
             tx.success();
         }
     }
@@ -310,7 +356,7 @@ public class IOManager {
     }
 
     public void exportBorlandFormatCurrent(Writer pWriter, Set<Page> pPages) throws WikiDragonException, IOException {
-        try (WikiTransaction tx = wikiDragonDatabase.beginTx()) {
+        try (WikiTransaction tx = wikiDragonDatabase.beginReadSession()) {
             PrintWriter lWriter = new PrintWriter(pWriter);
             lWriter.write("directed\n");
             lWriter.write("SimilarityGraph\n");
@@ -20,7 +20,11 @@
 package org.hucompute.wikidragon.core.model;
 
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.parsing.XOWAParserPool;
 import org.hucompute.wikidragon.core.parsing.filter.XOWATierMassParserFilter;
+import org.hucompute.wikidragon.core.util.PageTitleCache;
+import org.hucompute.wikidragon.core.util.PageTitleDictionary;
+import org.hucompute.wikidragon.core.util.PageTitleFilter;
 
 import java.io.File;
 import java.time.ZonedDateTime;
@@ -93,8 +97,55 @@ public interface MediaWiki extends WikiObject {
 
     public Page createPage(long pId, Namespace pNamespace, String pTitle) throws WikiDragonException;
 
+    /**
+     * Get the dictionary mapping namespace and normalized title to page node ids. It is built on first request and
+     * invalidated when pages are created. Once it exists, it is used by Namespace.getPage as well.
+     * @return PageTitleDictionary
+     * @throws WikiDragonException
+     */
+    public PageTitleDictionary getPageTitleDictionary() throws WikiDragonException;
+
+    /**
+     * Get the generation of the WikiPageLinks of this MediaWiki. It changes whenever links have been added since it has
+     * been read last, so files derived from the links can detect that they are outdated.
+     * @return Generation
+     */
+    public long getWikiPageLinkGeneration();
+
+    /**
+     * Get the bounded cache from namespace and title to pages which is shared by link extraction and parsing
+     * @return PageTitleCache
+     */
+    public PageTitleCache getPageTitleCache();
+
+    /**
+     * Get the pool of XOWAParser contexts shared by all threads parsing this MediaWiki
+     * @return XOWAParserPool
+     */
+    public XOWAParserPool getXOWAParserPool();
+
+    /**
+     * Get the Bloom filter over namespace and normalized title of all pages. It is built from the PageTitleDictionary
+     * on first request, kept up to date when pages are created and persisted on close. Once it exists, Namespace.getPage
+     * uses it to reject unknown titles before the index is queried.
+     * @return PageTitleFilter
+     * @throws WikiDragonException
+     */
+    public PageTitleFilter getPageTitleFilter() throws WikiDragonException;
+
     public Set<Page> getCategorizedPages(boolean pRecursive, Page... pCategoryPage) throws WikiDragonException;
 
+    /**
+     * Stream the link changes between two timestamps page by page. Only the changes of one page are held in memory at a time.
+     * Dates are resolved to snapshots as described at Page.getWikiPageLinkChanges.
+     * @param pFrom
+     * @param pTo
+     * @param pVisitor Called for every page whose outgoing links have changed
+     * @param pLinkTypes LinkTypes to include. None means all of them.
+     * @throws WikiDragonException
+     */
+    public void getWikiPageLinkChanges(ZonedDateTime pFrom, ZonedDateTime pTo, WikiPageLinkChanges.Visitor pVisitor, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException;
+
     public void importLinkDump(File pInputFile, MediaWikiConst.LinkType pLinkType) throws WikiDragonException;
 
     public void createPageTiersHTML(ZonedDateTime pTimestamp, XOWATierMassParserFilter pXOWATierMassParserFilter) throws WikiDragonException;
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.model;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.parsing.XOWAParserPool;
+import org.hucompute.wikidragon.core.util.CommentDictionary;
+import org.hucompute.wikidragon.core.util.PageTitleCache;
+import org.hucompute.wikidragon.core.util.PageTitleDictionary;
+import org.hucompute.wikidragon.core.util.PageTitleFilter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Per-MediaWiki resources of a WikiDragonDatabase which are derived from the stored pages or kept beside them: the
+ * PageTitleDictionary, PageTitleFilter, PageTitleCache, XOWAParserPool, comment dictionary and WikiPageLink generation.
+ * Files are kept in the wikidragon directory of the database. Implementations provide access to the pages and the
+ * properties of a MediaWiki node.
+ * @author Rüdiger Gleim
+ */
+public abstract class MediaWikiResources {
+
+    private static Logger logger = LogManager.getLogger(MediaWikiResources.class);
+
+    public static final String ATTR_MEDIAWIKI_COMMENTDICTIONARY = "ATTR_MEDIAWIKI_COMMENTDICTIONARY";
+    public static final String ATTR_MEDIAWIKI_COMMENTDICTIONARYCHUNK = "ATTR_MEDIAWIKI_COMMENTDICTIONARYCHUNK_";
+    public static final String ATTR_MEDIAWIKI_WIKIPAGELINKGENERATION = "ATTR_MEDIAWIKI_WIKIPAGELINKGENERATION";
+
+    protected File directory;
+
+    protected TLongObjectHashMap<PageTitleDictionary> pageTitleDictionaryMap = new TLongObjectHashMap<>();
+    protected TLongHashSet absentPageTitleDictionaries = new TLongHashSet();
+    protected TLongObjectHashMap<PageTitleFilter> pageTitleFilterMap = new TLongObjectHashMap<>();
+    protected TLongHashSet absentPageTitleFilters = new TLongHashSet();
+    // Filters which have been built or extended since they were written
+    protected TLongHashSet modifiedPageTitleFilters = new TLongHashSet();
+    protected double pageTitleFilterFalsePositiveRate = PageTitleFilter.DEFAULT_FALSE_POSITIVE_RATE;
+    protected TLongObjectHashMap<PageTitleCache> pageTitleCacheMap = new TLongObjectHashMap<>();
+    protected TLongObjectHashMap<XOWAParserPool> xowaParserPoolMap = new TLongObjectHashMap<>();
+    protected TLongObjectHashMap<CommentDictionary> commentDictionaryMap = new TLongObjectHashMap<>();
+    // MediaWikis whose link generation has been incremented but not been read since
+    protected TLongHashSet unsealedWikiPageLinkGenerations = new TLongHashSet();
+
+    /**
+     * @param pDirectory Directory of the files, usually the wikidragon directory of the database
+     */
+    public MediaWikiResources(File pDirectory) {
+        directory = pDirectory;
+    }
+
+    /**
+     * Add the titles and node ids of all pages of a MediaWiki
+     * @param pMediaWiki
+     * @param pBuilder
+     */
+    protected abstract void addPageTitles(MediaWiki pMediaWiki, PageTitleDictionary.Builder pBuilder);
+
+    protected abstract Object getMediaWikiProperty(long pMediaWikiNodeId, String pKey, Object pDefaultValue);
+
+    protected abstract void setMediaWikiProperty(long pMediaWikiNodeId, String pKey, Object pValue);
+
+    /**
+     * Called after the WikiPageLink generation of a MediaWiki has been incremented, outside of any lock
+     * @param pMediaWikiNodeId
+     */
+    protected void wikiPageLinkGenerationIncremented(long pMediaWikiNodeId) {
+    }
+
+    /**
+     * Lock the MediaWiki for writing until the current transaction ends. Stores without transactions do nothing.
+     * @param pMediaWikiNodeId
+     */
+    protected void lockMediaWiki(long pMediaWikiNodeId) {
+    }
+
+    public File getPageTitleDictionaryFile(long pMediaWikiNodeId) {
+        return new File(directory, "titledictionary_"+pMediaWikiNodeId+".dat");
+    }
+
+    /**
+     * Get the PageTitleDictionary of a MediaWiki if it has already been built. An existing dictionary file is mapped on demand.
+     * @param pMediaWikiNodeId
+     * @return The dictionary or null
+     * @throws WikiDragonException
+     */
+    public PageTitleDictionary getPageTitleDictionary(long pMediaWikiNodeId) throws WikiDragonException {
+        synchronized (pageTitleDictionaryMap) {
+            PageTitleDictionary lResult = pageTitleDictionaryMap.get(pMediaWikiNodeId);
+            if ((lResult == null) && !absentPageTitleDictionaries.contains(pMediaWikiNodeId)) {
+                File lFile = getPageTitleDictionaryFile(pMediaWikiNodeId);
+                if (!lFile.exists()) {
+                    absentPageTitleDictionaries.add(pMediaWikiNodeId);
+                }
+                else {
+                    try {
+                        lResult = PageTitleDictionary.open(lFile);
+                    }
+                    catch (IOException e) {
+                        throw new WikiDragonException(e.getMessage(), e);
+                    }
+                    pageTitleDictionaryMap.put(pMediaWikiNodeId, lResult);
+                }
+            }
+            return lResult;
+        }
+    }
+
+    /**
+     * Get the PageTitleDictionary of a MediaWiki. The dictionary is built from the pages if it does not exist yet.
+     * @param pMediaWiki
+     * @param pMediaWikiNodeId
+     * @return The dictionary
+     * @throws WikiDragonException
+     */
+    public PageTitleDictionary buildPageTitleDictionary(MediaWiki pMediaWiki, long pMediaWikiNodeId) throws WikiDragonException {
+        synchronized (pageTitleDictionaryMap) {
+            PageTitleDictionary lResult = getPageTitleDictionary(pMediaWikiNodeId);
+            if (lResult == null) {
+                logger.info("Building PageTitleDictionary for "+pMediaWiki.getDbName()+"...");
+                PageTitleDictionary.Builder lBuilder = new PageTitleDictionary.Builder();
+                addPageTitles(pMediaWiki, lBuilder);
+                try {
+                    lResult = lBuilder.build(getPageTitleDictionaryFile(pMediaWikiNodeId));
+                }
+                catch (IOException e) {
+                    throw new WikiDragonException(e.getMessage(), e);
+                }
+                pageTitleDictionaryMap.put(pMediaWikiNodeId, lResult);
+                absentPageTitleDictionaries.remove(pMediaWikiNodeId);
+                logger.info("Building PageTitleDictionary for "+pMediaWiki.getDbName()+"... done");
+            }
+            return lResult;
+        }
+    }
+
+    /**
+     * Drop the PageTitleDictionary of a MediaWiki, e.g. because pages have been added.
+     * Called for every created page, so it is cheap once the dictionary is gone.
+     * @param pMediaWikiNodeId
+     */
+    public void invalidatePageTitleDictionary(long pMediaWikiNodeId) {
+        synchronized (pageTitleDictionaryMap) {
+            if (absentPageTitleDictionaries.contains(pMediaWikiNodeId)) return;
+            absentPageTitleDictionaries.add(pMediaWikiNodeId);
+            PageTitleDictionary lDictionary = pageTitleDictionaryMap.remove(pMediaWikiNodeId);
+            if (lDictionary != null) lDictionary.close();
+            File lFile = getPageTitleDictionaryFile(pMediaWikiNodeId);
+            if (lFile.exists() && !lFile.delete()) {
+                logger.warn("Could not delete outdated PageTitleDictionary "+lFile.getAbsolutePath());
+            }
+        }
+    }
+
+    public void closePageTitleDictionaries() {
+        synchronized (pageTitleDictionaryMap) {
+            for (PageTitleDictionary lDictionary:pageTitleDictionaryMap.valueCollection()) {
+                lDictionary.close();
+            }
+            pageTitleDictionaryMap.clear();
+        }
+    }
+
+    public File getPageTitleFilterFile(long pMediaWikiNodeId) {
+        return new File(directory, "titlefilter_"+pMediaWikiNodeId+".dat");
+    }
+
+    /**
+     * Set the false positive rate of PageTitleFilters which are built from now on
+     * @param pFalsePositiveRate
+     */
+    public void setPageTitleFilterFalsePositiveRate(double pFalsePositiveRate) {
+        pageTitleFilterFalsePositiveRate = pFalsePositiveRate;
+    }
+
+    /**
+     * Get the PageTitleFilter of a MediaWiki if it has already been built. An existing filter file is loaded on demand.
+     * @param pMediaWikiNodeId
+     * @return The filter or null
+     * @throws WikiDragonException
+     */
+    public PageTitleFilter getPageTitleFilter(long pMediaWikiNodeId) throws WikiDragonException {
+        synchronized (pageTitleFilterMap) {
+            PageTitleFilter lResult = pageTitleFilterMap.get(pMediaWikiNodeId);
+            if ((lResult == null) && !absentPageTitleFilters.contains(pMediaWikiNodeId)) {
+                File lFile = getPageTitleFilterFile(pMediaWikiNodeId);
+                if (!lFile.exists()) {
+                    absentPageTitleFilters.add(pMediaWikiNodeId);
+                }
+                else {
+                    try {
+                        lResult = PageTitleFilter.load(lFile);
+                    }
+                    catch (IOException e) {
+                        throw new WikiDragonException(e.getMessage(), e);
+                    }
+                    pageTitleFilterMap.put(pMediaWikiNodeId, lResult);
+                }
+            }
+            return lResult;
+        }
+    }
+
+    /**
+     * Get the PageTitleFilter of a MediaWiki. The filter is built from the PageTitleDictionary if it does not exist yet.
+     * @param pMediaWiki
+     * @param pMediaWikiNodeId
+     * @return The filter
+     * @throws WikiDragonException
+     */
+    public PageTitleFilter buildPageTitleFilter(MediaWiki pMediaWiki, long pMediaWikiNodeId) throws WikiDragonException {
+        synchronized (pageTitleFilterMap) {
+            PageTitleFilter lResult = getPageTitleFilter(pMediaWikiNodeId);
+            if (lResult == null) {
+                logger.info("Building PageTitleFilter for "+pMediaWiki.getDbName()+"...");
+                lResult = PageTitleFilter.build(pMediaWiki.getPageTitleDictionary(), pageTitleFilterFalsePositiveRate);
+                pageTitleFilterMap.put(pMediaWikiNodeId, lResult);
+                absentPageTitleFilters.remove(pMediaWikiNodeId);
+                modifiedPageTitleFilters.add(pMediaWikiNodeId);
+                logger.info("Building PageTitleFilter for "+pMediaWiki.getDbName()+"... done");
+            }
+            return lResult;
+        }
+    }
+
+    /**
+     * Add the title of a new page to the PageTitleFilter of a MediaWiki. A filter file which has not been loaded is
+     * outdated and deleted, so is the file of a loaded filter until it is written again on close. This way a crash
+     * leads to a rebuild instead of missing titles. Called for every created page, so it is cheap once the file is gone.
+     * @param pMediaWikiNodeId
+     * @param pNamespaceID
+     * @param pNormalizedTitle
+     */
+    public void addToPageTitleFilter(long pMediaWikiNodeId, int pNamespaceID, String pNormalizedTitle) {
+        synchronized (pageTitleFilterMap) {
+            PageTitleFilter lFilter = pageTitleFilterMap.get(pMediaWikiNodeId);
+            if (lFilter != null) {
+                lFilter.add(pNamespaceID, pNormalizedTitle);
+                if (!modifiedPageTitleFilters.add(pMediaWikiNodeId)) return;
+            }
+            else {
+                if (absentPageTitleFilters.contains(pMediaWikiNodeId)) return;
+                absentPageTitleFilters.add(pMediaWikiNodeId);
+            }
+            File lFile = getPageTitleFilterFile(pMediaWikiNodeId);
+            if (lFile.exists() && !lFile.delete()) {
+                logger.warn("Could not delete outdated PageTitleFilter "+lFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Write modified PageTitleFilters and drop all loaded ones
+     */
+    public void closePageTitleFilters() {
+        synchronized (pageTitleFilterMap) {
+            for (long lMediaWikiNodeId:modifiedPageTitleFilters.toArray()) {
+                PageTitleFilter lFilter = pageTitleFilterMap.get(lMediaWikiNodeId);
+                if (lFilter == null) continue;
+                File lFile = getPageTitleFilterFile(lMediaWikiNodeId);
+                try {
+                    if (!lFile.getParentFile().exists()) lFile.getParentFile().mkdirs();
+                    lFilter.write(lFile);
+                }
+                catch (IOException e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+            modifiedPageTitleFilters.clear();
+            pageTitleFilterMap.clear();
+            absentPageTitleFilters.clear();
+        }
+    }
+
+    /**
+     * Get the shared PageTitleCache of a MediaWiki, creating it on first access
+     * @param pMediaWiki
+     * @param pMediaWikiNodeId
+     * @return PageTitleCache
+     */
+    public PageTitleCache getPageTitleCache(MediaWiki pMediaWiki, long pMediaWikiNodeId) {
+        synchronized (pageTitleCacheMap) {
+            PageTitleCache lResult = pageTitleCacheMap.get(pMediaWikiNodeId);
+            if (lResult == null) {
+                lResult = new PageTitleCache(pMediaWiki);
+                pageTitleCacheMap.put(pMediaWikiNodeId, lResult);
+            }
+            return lResult;
+        }
+    }
+
+    /**
+     * Outdate the red links of the PageTitleCache of a MediaWiki, e.g. because pages have been added
+     * @param pMediaWikiNodeId
+     */
+    public void invalidatePageTitleCache(long pMediaWikiNodeId) {
+        synchronized (pageTitleCacheMap) {
+            PageTitleCache lCache = pageTitleCacheMap.get(pMediaWikiNodeId);
+            if (lCache != null) lCache.invalidateNegatives();
+        }
+    }
+
+    /**
+     * Get the shared pool of XOWAParser contexts of a MediaWiki, creating it on first access
+     * @param pMediaWiki
+     * @param pMediaWikiNodeId
+     * @return XOWAParserPool
+     */
+    public XOWAParserPool getXOWAParserPool(MediaWiki pMediaWiki, long pMediaWikiNodeId) {
+        synchronized (xowaParserPoolMap) {
+            XOWAParserPool lResult = xowaParserPoolMap.get(pMediaWikiNodeId);
+            if (lResult == null) {
+                lResult = new XOWAParserPool(pMediaWiki);
+                xowaParserPoolMap.put(pMediaWikiNodeId, lResult);
+            }
+            return lResult;
+        }
+    }
+
+    /**
+     * Get the generation of the WikiPageLinks of a MediaWiki. Files derived from the links store it to detect that they
+     * are outdated. Reading seals the generation, so the next modification of links increments it.
+     * @param pMediaWikiNodeId
+     * @return Generation, 0 if links have never been added
+     */
+    public long getWikiPageLinkGeneration(long pMediaWikiNodeId) {
+        synchronized (unsealedWikiPageLinkGenerations) {
+            unsealedWikiPageLinkGenerations.remove(pMediaWikiNodeId);
+            return (long)getMediaWikiProperty(pMediaWikiNodeId, ATTR_MEDIAWIKI_WIKIPAGELINKGENERATION, 0L);
+        }
+    }
+
+    /**
+     * Increment the WikiPageLink generation of a MediaWiki unless it has not been read since the last increment.
+     * Bulk imports therefore write the property once instead of once per page.
+     * @param pMediaWikiNodeId
+     */
+    public void wikiPageLinksModified(long pMediaWikiNodeId) {
+        synchronized (unsealedWikiPageLinkGenerations) {
+            if (unsealedWikiPageLinkGenerations.contains(pMediaWikiNodeId)) return;
+            setMediaWikiProperty(pMediaWikiNodeId, ATTR_MEDIAWIKI_WIKIPAGELINKGENERATION, (long)getMediaWikiProperty(pMediaWikiNodeId, ATTR_MEDIAWIKI_WIKIPAGELINKGENERATION, 0L)+1);
+            unsealedWikiPageLinkGenerations.add(pMediaWikiNodeId);
+        }
+        wikiPageLinkGenerationIncremented(pMediaWikiNodeId);
+    }
+
+    /**
+     * Get the dictionary of frequent revision comments of a MediaWiki. It is loaded from the MediaWiki on first access.
+     * Dictionaries stored as one array by former versions are rewritten in chunks on the next persist.
+     * @param pMediaWikiNodeId
+     * @return The dictionary
+     */
+    public CommentDictionary getCommentDictionary(long pMediaWikiNodeId) {
+        synchronized (commentDictionaryMap) {
+            CommentDictionary lResult = commentDictionaryMap.get(pMediaWikiNodeId);
+            if (lResult == null) {
+                lResult = new CommentDictionary();
+                String[] lLegacyEntries = (String[])getMediaWikiProperty(pMediaWikiNodeId, ATTR_MEDIAWIKI_COMMENTDICTIONARY, null);
+                if (lLegacyEntries != null) {
+                    lResult.load(lLegacyEntries, false);
+                }
+                else {
+                    String[] lChunk;
+                    for (int i=0; (lChunk = (String[])getMediaWikiProperty(pMediaWikiNodeId, ATTR_MEDIAWIKI_COMMENTDICTIONARYCHUNK+i, null)) != null; i++) {
+                        lResult.load(lChunk, true);
+                    }
+                }
+                commentDictionaryMap.put(pMediaWikiNodeId, lResult);
+            }
+            return lResult;
+        }
+    }
+
+    /**
+     * Write back comment dictionaries which have been extended since they were persisted last and mark them persisted.
+     * Only the chunks containing new entries are written. Only for writes which are durable immediately- within a
+     * transaction use {@link #writeCommentDictionaries()} and {@link #commentDictionariesPersisted(TLongIntHashMap)}.
+     */
+    public void persistCommentDictionaries() {
+        commentDictionariesPersisted(writeCommentDictionaries());
+    }
+
+    /**
+     * Write the chunks of the comment dictionaries which contain entries that have not been committed yet into the
+     * current transaction. The MediaWiki is locked first, so concurrent transactions write their chunks one after the
+     * other and a later commit never replaces a chunk with an older version of it.
+     * @return Number of entries written per MediaWiki node id, to be passed to commentDictionariesPersisted after the
+     * transaction has been committed
+     */
+    public TLongIntHashMap writeCommentDictionaries() {
+        TLongIntHashMap lResult = new TLongIntHashMap();
+        long[] lMediaWikiNodeIds;
+        synchronized (commentDictionaryMap) {
+            lMediaWikiNodeIds = commentDictionaryMap.keys();
+        }
+        for (long lMediaWikiNodeId:lMediaWikiNodeIds) {
+            CommentDictionary lDictionary;
+            synchronized (commentDictionaryMap) {
+                lDictionary = commentDictionaryMap.get(lMediaWikiNodeId);
+            }
+            if (!lDictionary.isModified()) continue;
+            lockMediaWiki(lMediaWikiNodeId);
+            lResult.put(lMediaWikiNodeId, lDictionary.write((pChunk, pEntries) -> setMediaWikiProperty(lMediaWikiNodeId, ATTR_MEDIAWIKI_COMMENTDICTIONARYCHUNK+pChunk, pEntries)));
+            if (getMediaWikiProperty(lMediaWikiNodeId, ATTR_MEDIAWIKI_COMMENTDICTIONARY, null) != null) {
+                // Setting null removes the property
+                setMediaWikiProperty(lMediaWikiNodeId, ATTR_MEDIAWIKI_COMMENTDICTIONARY, null);
+            }
+        }
+        return lResult;
+    }
+
+    /**
+     * Mark the entries written by writeCommentDictionaries as persisted once their transaction has been committed.
+     * Entries written by a transaction which has been rolled back are written again by the next transaction.
+     * @param pWritten Result of writeCommentDictionaries
+     */
+    public void commentDictionariesPersisted(TLongIntHashMap pWritten) {
+        synchronized (commentDictionaryMap) {
+            for (long lMediaWikiNodeId:pWritten.keys()) {
+                CommentDictionary lDictionary = commentDictionaryMap.get(lMediaWikiNodeId);
+                if (lDictionary != null) lDictionary.markPersisted(pWritten.get(lMediaWikiNodeId));
+            }
+        }
+    }
+
+}
@@ -91,6 +91,48 @@ public interface Page extends WikiObject {
 
     public Set<WikiPageLink> getWikiPageLinksOut(ZonedDateTime pTimestamp, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException;
 
+    /**
+     * Get the incoming links at a timestamp as compact records. Pages are not materialized.
+     * @param pTimestamp
+     * @param pLinkTypes LinkTypes to include. None means all of them.
+     * @return WikiPageLinkRecordList
+     * @throws WikiDragonException
+     */
+    public WikiPageLinkRecordList getWikiPageLinkRecordsIn(ZonedDateTime pTimestamp, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException;
+
+    /**
+     * Get the outgoing links at a timestamp as compact records. Pages are not materialized.
+     * @param pTimestamp
+     * @param pLinkTypes LinkTypes to include. None means all of them.
+     * @return WikiPageLinkRecordList
+     * @throws WikiDragonException
+     */
+    public WikiPageLinkRecordList getWikiPageLinkRecordsOut(ZonedDateTime pTimestamp, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException;
+
+    /**
+     * Get the outgoing links which have been added or removed between two timestamps in a single pass over the stored
+     * timestamps of the links. Each date is mapped to the latest snapshot at or before it in which links of the
+     * respective LinkType have been stored, so arbitrary dates can be compared. Dates before the first snapshot see no
+     * links. WikiDragonConst.NULLDATETIME addresses the links of the SQL dumps.
+     * @param pFrom
+     * @param pTo
+     * @param pLinkTypes LinkTypes to include. None means all of them.
+     * @return WikiPageLinkChanges
+     * @throws WikiDragonException
+     */
+    public WikiPageLinkChanges getWikiPageLinkChanges(ZonedDateTime pFrom, ZonedDateTime pTo, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException;
+
+    /**
+     * Store a value computed by graph analytics, e.g. the PageRank of the page in the link network at a timestamp
+     * @param pMetric Name of the metric
+     * @param pTimestamp Timestamp of the link network
+     * @param pValue
+     * @throws WikiDragonException
+     */
+    public void setGraphMetric(String pMetric, ZonedDateTime pTimestamp, double pValue) throws WikiDragonException;
+
+    public double getGraphMetric(String pMetric, ZonedDateTime pTimestamp, double pDefaultValue) throws WikiDragonException;
+
     public Map<String, List<WikiDataEntity>> getAspectWikiDataEntityMap() throws WikiDragonException;
 
     public void createAspectWikiDataEntityRelation(WikiDataEntity pWikiDataEntity, String pAspect) throws WikiDragonException;
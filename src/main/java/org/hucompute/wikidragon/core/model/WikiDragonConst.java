@@ -35,6 +35,8 @@ public class WikiDragonConst {
 
     public static enum Compression {NONE,DIFFBZIP2,BZIP2,GZIP,LZMA2}
 
+    public static enum OpenMode {READWRITE,READONLY}
+
     public static final long NULLNODEID = -1;
 
     public static ZonedDateTime NULLDATETIME = ZonedDateTime.of(3000, 1, 1, 0, 0, 0, 0, ZoneId.of("UTC"));
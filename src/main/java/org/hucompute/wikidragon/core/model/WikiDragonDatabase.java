@@ -34,8 +34,21 @@ public interface WikiDragonDatabase extends AutoCloseable {
 
     public WikiTransaction beginTx();
 
+    /**
+     * Begin a read session bound to the current thread. Reads within the session share its transaction. Sessions nest:
+     * only closing the outermost one ends it.
+     * @return WikiTransaction to be closed by the caller
+     */
+    public WikiTransaction beginReadSession();
+
     public void close();
 
+    /**
+     * Check if the database has been opened with WikiDragonConst.OpenMode.READONLY. Writes on such a database fail.
+     * @return true if the database is read-only
+     */
+    public boolean isReadOnly();
+
     public IOManager getIOManager();
 
     public Iterable<WikiDataEntity> getWikiDataEntities();
@@ -19,9 +19,6 @@
 
 package org.hucompute.wikidragon.core.model;
 
-import org.hucompute.wikidragon.core.util.StringUtil;
-
-import java.time.ZoneId;
 import java.time.ZonedDateTime;
 
 /**
@@ -29,14 +26,16 @@ import java.time.ZonedDateTime;
  */
 public class WikiPageLink {
 
-    public static enum WikiPageLinkSource {HtmlParsedAdHoc, HtmlParsedDB, SQLDump};
+    public static enum WikiPageLinkSource {HtmlParsedAdHoc, HtmlParsedDB, SQLDump, WikiTextParsedAdHoc};
 
     protected MediaWikiConst.LinkType linkType;
     protected Page source;
     protected Page target;
     protected WikiPageLinkSource wikiPageLinkSource;
     protected ZonedDateTime timestamp;
-    private String timestampUTCString;
+    // Epoch millis, so equality does not depend on the zone of the timestamp
+    private long timestampMillis;
+    private int hashCode;
 
     public WikiPageLink(MediaWikiConst.LinkType linkType, Page source, Page target, WikiPageLinkSource wikiPageLinkSource, ZonedDateTime pTimestamp) {
         this.linkType = linkType;
@@ -44,7 +43,7 @@ public class WikiPageLink {
         this.target = target;
         this.wikiPageLinkSource = wikiPageLinkSource;
         this.timestamp = pTimestamp == null ? WikiDragonConst.NULLDATETIME : pTimestamp;
-        timestampUTCString = StringUtil.zonedDateTime2String(this.timestamp.withZoneSameInstant(ZoneId.of("UTC")));
+        timestampMillis = this.timestamp.toInstant().toEpochMilli();
     }
 
     public MediaWikiConst.LinkType getLinkType() {
@@ -72,10 +71,14 @@ public class WikiPageLink {
             return false;
         }
         WikiPageLink lOther = (WikiPageLink)o;
-        return timestampUTCString.equals(lOther.timestampUTCString) && linkType.equals(lOther.linkType) && (source.getId() == lOther.source.getId()) && (target.getId() == lOther.target.getId());
+        return (timestampMillis == lOther.timestampMillis) && (linkType == lOther.linkType) && (source.getId() == lOther.source.getId()) && (target.getId() == lOther.target.getId());
     }
 
     public int hashCode() {
-        return (timestampUTCString+"\t"+linkType.name()+"\t"+source.getId()+"\t"+target.getId()).hashCode();
+        // Cached since page ids are immutable. 0 is recomputed, which is harmless.
+        if (hashCode == 0) {
+            hashCode = WikiPageLinkRecord.hashCode(source.getId(), target.getId(), linkType.ordinal(), timestampMillis);
+        }
+        return hashCode;
     }
 }
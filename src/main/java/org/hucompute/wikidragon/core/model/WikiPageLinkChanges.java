@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.model;
+
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Outgoing links of a page which have been added or removed between two timestamps. Added links carry the later,
+ * removed links the earlier timestamp.
+ * @author Rüdiger Gleim
+ */
+public class WikiPageLinkChanges {
+
+    public interface Visitor {
+
+        /**
+         * Called for every page whose outgoing links have changed
+         * @return false to stop the scan
+         */
+        public boolean visit(Page pPage, WikiPageLinkChanges pChanges) throws WikiDragonException;
+
+    }
+
+    protected ZonedDateTime from;
+    protected ZonedDateTime to;
+    protected WikiPageLinkRecordList added;
+    protected WikiPageLinkRecordList removed;
+
+    public WikiPageLinkChanges(WikiDragonDatabase pWikiDragonDatabase, ZonedDateTime pFrom, ZonedDateTime pTo) {
+        from = pFrom;
+        to = pTo;
+        added = new WikiPageLinkRecordList(pWikiDragonDatabase, 0);
+        removed = new WikiPageLinkRecordList(pWikiDragonDatabase, 0);
+    }
+
+    /**
+     * Classify a link by the timestamps at which it is valid
+     * @param pSourceNodeId
+     * @param pTargetNodeId
+     * @param pLinkType
+     * @param pValidAtFrom
+     * @param pValidAtTo
+     */
+    public void add(long pSourceNodeId, long pTargetNodeId, MediaWikiConst.LinkType pLinkType, boolean pValidAtFrom, boolean pValidAtTo) {
+        if (pValidAtTo && !pValidAtFrom) {
+            added.add(pSourceNodeId, pTargetNodeId, pLinkType, to.toInstant().toEpochMilli());
+        }
+        else if (pValidAtFrom && !pValidAtTo) {
+            removed.add(pSourceNodeId, pTargetNodeId, pLinkType, from.toInstant().toEpochMilli());
+        }
+    }
+
+    public ZonedDateTime getFrom() {
+        return from;
+    }
+
+    public ZonedDateTime getTo() {
+        return to;
+    }
+
+    public WikiPageLinkRecordList getAdded() {
+        return added;
+    }
+
+    public WikiPageLinkRecordList getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.model;
+
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * Compact form of a WikiPageLink which refers to its pages by node id. Pages are materialized only on request via
+ * the WikiObjectFactory of the database, so large link sets can be handled without creating Page objects.
+ * @author Rüdiger Gleim
+ */
+public final class WikiPageLinkRecord {
+
+    protected static final MediaWikiConst.LinkType[] LINKTYPES = MediaWikiConst.LinkType.values();
+
+    private final long sourceNodeId;
+    private final long targetNodeId;
+    private final byte linkType;
+    private final long timestamp;
+
+    /**
+     * @param pSourceNodeId
+     * @param pTargetNodeId
+     * @param pLinkType
+     * @param pTimestamp Epoch millis
+     */
+    public WikiPageLinkRecord(long pSourceNodeId, long pTargetNodeId, MediaWikiConst.LinkType pLinkType, long pTimestamp) {
+        sourceNodeId = pSourceNodeId;
+        targetNodeId = pTargetNodeId;
+        linkType = (byte)pLinkType.ordinal();
+        timestamp = pTimestamp;
+    }
+
+    public long getSourceNodeId() {
+        return sourceNodeId;
+    }
+
+    public long getTargetNodeId() {
+        return targetNodeId;
+    }
+
+    public MediaWikiConst.LinkType getLinkType() {
+        return LINKTYPES[linkType];
+    }
+
+    /**
+     * @return Epoch millis
+     */
+    public long getTimestampMillis() {
+        return timestamp;
+    }
+
+    public ZonedDateTime getTimestamp() {
+        return ZonedDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.of("UTC"));
+    }
+
+    public WikiPageLink.WikiPageLinkSource getWikiPageLinkSource() {
+        return timestamp == WikiDragonConst.NULLDATETIME.toInstant().toEpochMilli() ? WikiPageLink.WikiPageLinkSource.SQLDump : WikiPageLink.WikiPageLinkSource.HtmlParsedDB;
+    }
+
+    /**
+     * Materialize the source page. A new object is created on every call.
+     * @param pWikiDragonDatabase
+     * @return Page
+     * @throws WikiDragonException
+     */
+    public Page getSource(WikiDragonDatabase pWikiDragonDatabase) throws WikiDragonException {
+        return (Page)pWikiDragonDatabase.getWikiObjectFactory().getWikiObject(Long.toString(sourceNodeId));
+    }
+
+    /**
+     * Materialize the target page. A new object is created on every call.
+     * @param pWikiDragonDatabase
+     * @return Page
+     * @throws WikiDragonException
+     */
+    public Page getTarget(WikiDragonDatabase pWikiDragonDatabase) throws WikiDragonException {
+        return (Page)pWikiDragonDatabase.getWikiObjectFactory().getWikiObject(Long.toString(targetNodeId));
+    }
+
+    public WikiPageLink toWikiPageLink(WikiDragonDatabase pWikiDragonDatabase) throws WikiDragonException {
+        return new WikiPageLink(getLinkType(), getSource(pWikiDragonDatabase), getTarget(pWikiDragonDatabase), getWikiPageLinkSource(), getTimestamp());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof WikiPageLinkRecord)) {
+            return false;
+        }
+        WikiPageLinkRecord lOther = (WikiPageLinkRecord)o;
+        return (sourceNodeId == lOther.sourceNodeId) && (targetNodeId == lOther.targetNodeId) && (linkType == lOther.linkType) && (timestamp == lOther.timestamp);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode(sourceNodeId, targetNodeId, linkType, timestamp);
+    }
+
+    /**
+     * Hash of a link given by its primitive components, usable for primitive keyed collections as well
+     */
+    public static int hashCode(long pSource, long pTarget, int pLinkType, long pTimestamp) {
+        long h = pSource * 0x9E3779B97F4A7C15L;
+        h = (h ^ pTarget) * 0x9E3779B97F4A7C15L;
+        h = (h ^ pTimestamp) * 0x9E3779B97F4A7C15L;
+        h ^= pLinkType;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return sourceNodeId+"-"+getLinkType()+"->"+targetNodeId+"@"+timestamp;
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.model;
+
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * List of link records stored column-wise in primitive arrays. Neither WikiPageLinkRecords nor Pages are created
+ * unless they are requested explicitly.
+ * @author Rüdiger Gleim
+ */
+public class WikiPageLinkRecordList {
+
+    protected WikiDragonDatabase wikiDragonDatabase;
+    protected TLongArrayList sourceNodeIds;
+    protected TLongArrayList targetNodeIds;
+    protected TByteArrayList linkTypes;
+    protected TLongArrayList timestamps;
+
+    public WikiPageLinkRecordList(WikiDragonDatabase pWikiDragonDatabase) {
+        this(pWikiDragonDatabase, 16);
+    }
+
+    public WikiPageLinkRecordList(WikiDragonDatabase pWikiDragonDatabase, int pCapacity) {
+        wikiDragonDatabase = pWikiDragonDatabase;
+        sourceNodeIds = new TLongArrayList(pCapacity);
+        targetNodeIds = new TLongArrayList(pCapacity);
+        linkTypes = new TByteArrayList(pCapacity);
+        timestamps = new TLongArrayList(pCapacity);
+    }
+
+    /**
+     * @param pSourceNodeId
+     * @param pTargetNodeId
+     * @param pLinkType
+     * @param pTimestamp Epoch millis
+     */
+    public void add(long pSourceNodeId, long pTargetNodeId, MediaWikiConst.LinkType pLinkType, long pTimestamp) {
+        sourceNodeIds.add(pSourceNodeId);
+        targetNodeIds.add(pTargetNodeId);
+        linkTypes.add((byte)pLinkType.ordinal());
+        timestamps.add(pTimestamp);
+    }
+
+    public void add(WikiPageLinkRecord pRecord) {
+        add(pRecord.getSourceNodeId(), pRecord.getTargetNodeId(), pRecord.getLinkType(), pRecord.getTimestampMillis());
+    }
+
+    public int size() {
+        return sourceNodeIds.size();
+    }
+
+    public boolean isEmpty() {
+        return sourceNodeIds.isEmpty();
+    }
+
+    public WikiDragonDatabase getWikiDragonDatabase() {
+        return wikiDragonDatabase;
+    }
+
+    public long getSourceNodeId(int pIndex) {
+        return sourceNodeIds.getQuick(pIndex);
+    }
+
+    public long getTargetNodeId(int pIndex) {
+        return targetNodeIds.getQuick(pIndex);
+    }
+
+    public MediaWikiConst.LinkType getLinkType(int pIndex) {
+        return WikiPageLinkRecord.LINKTYPES[linkTypes.getQuick(pIndex)];
+    }
+
+    public long getTimestampMillis(int pIndex) {
+        return timestamps.getQuick(pIndex);
+    }
+
+    public WikiPageLinkRecord get(int pIndex) {
+        return new WikiPageLinkRecord(getSourceNodeId(pIndex), getTargetNodeId(pIndex), getLinkType(pIndex), getTimestampMillis(pIndex));
+    }
+
+    public int hashCode(int pIndex) {
+        return WikiPageLinkRecord.hashCode(getSourceNodeId(pIndex), getTargetNodeId(pIndex), linkTypes.getQuick(pIndex), getTimestampMillis(pIndex));
+    }
+
+    /**
+     * @return Distinct node ids of the targets
+     */
+    public TLongHashSet getTargetNodeIdSet() {
+        return new TLongHashSet(targetNodeIds);
+    }
+
+    /**
+     * @return Distinct node ids of the sources
+     */
+    public TLongHashSet getSourceNodeIdSet() {
+        return new TLongHashSet(sourceNodeIds);
+    }
+
+    /**
+     * Materialize all entries as WikiPageLinks. Pages which occur several times are created once.
+     * @return WikiPageLinks
+     * @throws WikiDragonException
+     */
+    public Set<WikiPageLink> toWikiPageLinks() throws WikiDragonException {
+        Set<WikiPageLink> lResult = new HashSet<>();
+        TLongObjectHashMap<Page> lPageMap = new TLongObjectHashMap<>();
+        for (int i=0; i<size(); i++) {
+            WikiPageLinkRecord lRecord = get(i);
+            Page lSource = lPageMap.get(lRecord.getSourceNodeId());
+            if (lSource == null) {
+                lSource = lRecord.getSource(wikiDragonDatabase);
+                lPageMap.put(lRecord.getSourceNodeId(), lSource);
+            }
+            Page lTarget = lPageMap.get(lRecord.getTargetNodeId());
+            if (lTarget == null) {
+                lTarget = lRecord.getTarget(wikiDragonDatabase);
+                lPageMap.put(lRecord.getTargetNodeId(), lTarget);
+            }
+            lResult.add(new WikiPageLink(lRecord.getLinkType(), lSource, lTarget, lRecord.getWikiPageLinkSource(), lRecord.getTimestamp()));
+        }
+        return lResult;
+    }
+
+}
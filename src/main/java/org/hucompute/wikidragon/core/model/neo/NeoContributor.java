@@ -93,6 +93,7 @@ public class NeoContributor extends NeoWikiObject implements Contributor {
             NeoContributor lResult = null;
             // Check if it already exists
             if (pNeoMediaWiki.getContributor(pId) != null) throw new WikiDragonException("Contributor with Id '"+pId+"' already exists");
+            lNeoWikiDragonDatabase.checkWritable();
             Node lNode = lNeoWikiDragonDatabase.database.createNode();
             lNeoWikiDragonDatabase.getMediaWikiNodeIndex(pNeoMediaWiki.node.getId()).add(lNode, ATTR_WIKIOBJECT_TYPE, NeoWikiDragonDatabase.NodeType.CONTRIBUTOR.name());
             lResult = (NeoContributor) lNeoWikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode, NeoWikiDragonDatabase.NodeType.CONTRIBUTOR);
@@ -19,16 +19,23 @@
 
 package org.hucompute.wikidragon.core.model.neo;
 
+import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.set.hash.TLongHashSet;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.*;
 import org.hucompute.wikidragon.core.parsing.XOWAParser;
+import org.hucompute.wikidragon.core.parsing.XOWAParserPool;
 import org.hucompute.wikidragon.core.parsing.XOWATierMassParser;
 import org.hucompute.wikidragon.core.parsing.filter.XOWATierMassParserFilter;
 import org.hucompute.wikidragon.core.util.IOUtil;
-import org.hucompute.wikidragon.core.util.SQLTupelIterator;
+import org.hucompute.wikidragon.core.util.LinkTimestampUtil;
+import org.hucompute.wikidragon.core.util.PageTitleCache;
+import org.hucompute.wikidragon.core.util.PageTitleDictionary;
+import org.hucompute.wikidragon.core.util.PageTitleFilter;
+import org.hucompute.wikidragon.core.util.SQLDumpReader;
+import org.hucompute.wikidragon.core.util.StringUtil;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 
@@ -49,6 +56,8 @@ public class NeoMediaWiki extends NeoWikiObject implements MediaWiki {
     protected static final String ATTR_MEDIAWIKI_CASE = "ATTR_MEDIAWIKI_CASE";
     protected static final String ATTR_MEDIAWIKI_APIURL = "ATTR_MEDIAWIKI_APIURL";
     protected static final String ATTR_MEDIAWIKI_NAMESPACES = "ATTR_MEDIAWIKI_NAMESPACES";
+    // Snapshots in which WikiPageLinks have been stored, as LinkType name and epoch millis separated by a tab
+    protected static final String ATTR_MEDIAWIKI_WIKIPAGELINKSNAPSHOTS = "ATTR_MEDIAWIKI_WIKIPAGELINKSNAPSHOTS";
 
     private static Logger logger = LogManager.getLogger(NeoMediaWiki.class);
 
@@ -147,13 +156,39 @@ public class NeoMediaWiki extends NeoWikiObject implements MediaWiki {
 
     @Override
     public Page createPage(long pId, Namespace pNamespace, String pTitle) throws WikiDragonException {
+        wikiDragonDatabase.checkWritable();
         return NeoPage.create(this, pId, (NeoNamespace) pNamespace, pTitle);
     }
 
+    @Override
+    public PageTitleDictionary getPageTitleDictionary() throws WikiDragonException {
+        return wikiDragonDatabase.mediaWikiResources.buildPageTitleDictionary(this, node.getId());
+    }
+
+    @Override
+    public long getWikiPageLinkGeneration() {
+        return wikiDragonDatabase.mediaWikiResources.getWikiPageLinkGeneration(node.getId());
+    }
+
+    @Override
+    public PageTitleCache getPageTitleCache() {
+        return wikiDragonDatabase.mediaWikiResources.getPageTitleCache(this, node.getId());
+    }
+
+    @Override
+    public PageTitleFilter getPageTitleFilter() throws WikiDragonException {
+        return wikiDragonDatabase.mediaWikiResources.buildPageTitleFilter(this, node.getId());
+    }
+
     @Override
     public Page getPage(long pId) {
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             Page lResult = null;
+            if (wikiDragonDatabase.isSchemaLayout()) {
+                lResult = (Page)wikiDragonDatabase.wikiObjectFactory.getWikiObject(wikiDragonDatabase.findNode(NeoWikiDragonDatabase.NodeType.PAGE, NeoPage.ATTR_PAGE_ID, pId, node.getId()), NeoWikiDragonDatabase.NodeType.PAGE);
+                tx.success();
+                return lResult;
+            }
             for (Node lNode:wikiDragonDatabase.getMediaWikiNodeIndex(node.getId()).get(NeoPage.ATTR_PAGE_ID, pId)) {
                 assert lResult == null;
                 lResult = (Page)((NeoWikiObjectFactory)wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(lNode);
@@ -224,6 +259,11 @@ public class NeoMediaWiki extends NeoWikiObject implements MediaWiki {
     public Revision getRevision(long pId) {
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             Revision lResult = null;
+            if (wikiDragonDatabase.isSchemaLayout()) {
+                lResult = (Revision)wikiDragonDatabase.wikiObjectFactory.getWikiObject(wikiDragonDatabase.findNode(NeoWikiDragonDatabase.NodeType.REVISION, NeoRevision.ATTR_REVISION_ID, pId, node.getId()), NeoWikiDragonDatabase.NodeType.REVISION);
+                tx.success();
+                return lResult;
+            }
             for (Node lNode:wikiDragonDatabase.getMediaWikiNodeIndex(node.getId()).get(NeoRevision.ATTR_REVISION_ID, pId)) {
                 assert lResult == null;
                 lResult = (Revision)((NeoWikiObjectFactory)wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(lNode);
@@ -289,6 +329,11 @@ public class NeoMediaWiki extends NeoWikiObject implements MediaWiki {
     public Contributor getContributor(String pName) {
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             Contributor lResult = null;
+            if (wikiDragonDatabase.isSchemaLayout()) {
+                lResult = (Contributor)wikiDragonDatabase.wikiObjectFactory.getWikiObject(wikiDragonDatabase.findNode(NeoWikiDragonDatabase.NodeType.CONTRIBUTOR, NeoContributor.ATTR_CONTRIBUTOR_NAME, pName, node.getId()), NeoWikiDragonDatabase.NodeType.CONTRIBUTOR);
+                tx.success();
+                return lResult;
+            }
             for (Node lNode:wikiDragonDatabase.getMediaWikiNodeIndex(node.getId()).get(NeoContributor.ATTR_CONTRIBUTOR_NAME, pName)) {
                 assert lResult == null;
                 lResult = (Contributor)((NeoWikiObjectFactory)wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(lNode);
@@ -302,6 +347,11 @@ public class NeoMediaWiki extends NeoWikiObject implements MediaWiki {
     public Contributor getContributor(long pId) {
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             Contributor lResult = null;
+            if (wikiDragonDatabase.isSchemaLayout()) {
+                lResult = (Contributor)wikiDragonDatabase.wikiObjectFactory.getWikiObject(wikiDragonDatabase.findNode(NeoWikiDragonDatabase.NodeType.CONTRIBUTOR, NeoContributor.ATTR_CONTRIBUTOR_ID, pId, node.getId()), NeoWikiDragonDatabase.NodeType.CONTRIBUTOR);
+                tx.success();
+                return lResult;
+            }
             for (Node lNode:wikiDragonDatabase.getMediaWikiNodeIndex(node.getId()).get(NeoContributor.ATTR_CONTRIBUTOR_ID, pId)) {
                 assert lResult == null;
                 lResult = (Contributor)((NeoWikiObjectFactory)wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(lNode);
@@ -318,12 +368,14 @@ public class NeoMediaWiki extends NeoWikiObject implements MediaWiki {
 
     @Override
     public void createPageTiersHTML(ZonedDateTime pTimestamp, XOWATierMassParserFilter pXOWATierMassParserFilter) throws WikiDragonException {
+        wikiDragonDatabase.checkWritable();
         XOWATierMassParser lXOWATierMassParser = new XOWATierMassParser(this, pTimestamp, pXOWATierMassParserFilter);
         lXOWATierMassParser.parse();
     }
 
     @Override
     public void createPageTiersHTML(ZonedDateTime pTimestamp, XOWATierMassParserFilter pXOWATierMassParserFilter, int pMaxThreads) throws WikiDragonException {
+        wikiDragonDatabase.checkWritable();
         XOWATierMassParser lXOWATierMassParser = new XOWATierMassParser(this, pTimestamp, pXOWATierMassParserFilter, pMaxThreads);
         lXOWATierMassParser.parse();
     }
@@ -379,38 +431,40 @@ public class NeoMediaWiki extends NeoWikiObject implements MediaWiki {
     }
 
     public void importWikiDataEntityUsageDump(File pInputFile) throws WikiDragonException {
-        try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
+        wikiDragonDatabase.checkWritable();
+        try (Transaction tx = wikiDragonDatabase.database.beginTx(); SQLDumpReader lReader = new SQLDumpReader(IOUtil.getInputStream(pInputFile))) {
             Map<String, WikiDataEntity> lEntityMap = new HashMap<>();
             Map<Long, Page> lPageMap = new HashMap<>();
-            SQLTupelIterator i = new SQLTupelIterator(IOUtil.getInputStream(pInputFile), "UTF-8");
             long lLinkCounter = 0;
             long lImportedLinkCounter = 0;
-            while (i.hasNext()) {
-                if (lLinkCounter % 100000 == 0) {
-                    logger.info("Importing Links. Parsed=" + lLinkCounter + ", Imported=" + lImportedLinkCounter);
-                }
-                lLinkCounter++;
-                String[] lFields = i.next();
-                String lEntityID = lFields[1];
-                String lAspect = lFields[2];
-                long lPageID = Long.parseLong(lFields[3]);
-                Page lPage = lPageMap.get(lPageID);
-                if (lPage == null) {
-                    lPage = getPage(lPageID);
-                    if (lPage != null) {
-                        lPageMap.put(lPageID, lPage);
+            SQLDumpReader.TupleBatch lBatch;
+            while ((lBatch = lReader.nextBatch()) != null) {
+                for (int t=0; t<lBatch.size(); t++) {
+                    if (lLinkCounter % 100000 == 0) {
+                        logger.info("Importing Links. Parsed=" + lLinkCounter + ", Imported=" + lImportedLinkCounter);
                     }
-                }
-                if (lPage != null) {
-                    WikiDataEntity lEntity = lEntityMap.get(lEntityID);
-                    if (lEntity == null) {
-                        lEntity = wikiDragonDatabase.getWikiDataEntity(lEntityID);
+                    lLinkCounter++;
+                    String lEntityID = lBatch.getString(t, 1);
+                    String lAspect = lBatch.getString(t, 2);
+                    long lPageID = lBatch.getLong(t, 3);
+                    Page lPage = lPageMap.get(lPageID);
+                    if (lPage == null) {
+                        lPage = getPage(lPageID);
+                        if (lPage != null) {
+                            lPageMap.put(lPageID, lPage);
+                        }
                     }
-                    if (lEntity == null) {
-                        lEntity = wikiDragonDatabase.createWikiDataEntity(lEntityID);
-                        lEntityMap.put(lEntityID, lEntity);
+                    if (lPage != null) {
+                        WikiDataEntity lEntity = lEntityMap.get(lEntityID);
+                        if (lEntity == null) {
+                            lEntity = wikiDragonDatabase.getWikiDataEntity(lEntityID);
+                        }
+                        if (lEntity == null) {
+                            lEntity = wikiDragonDatabase.createWikiDataEntity(lEntityID);
+                            lEntityMap.put(lEntityID, lEntity);
+                        }
+                        lPage.createAspectWikiDataEntityRelation(lEntity, lAspect);
                     }
-                    lPage.createAspectWikiDataEntityRelation(lEntity, lAspect);
                 }
             }
             tx.success();
@@ -420,6 +474,16 @@ public class NeoMediaWiki extends NeoWikiObject implements MediaWiki {
         }
     }
 
+    @Override
+    public XOWAParserPool getXOWAParserPool() {
+        return wikiDragonDatabase.mediaWikiResources.getXOWAParserPool(this, node.getId());
+    }
+
+    /**
+     * @return XOWAParser owned by this object. It must not be used by several threads at once, use getXOWAParserPool instead.
+     * @throws WikiDragonException
+     */
+    @Deprecated
     public synchronized XOWAParser getXOWAParser() throws WikiDragonException {
         if (xowaParser == null) {
             xowaParser = new XOWAParser(this);
@@ -427,6 +491,75 @@ public class NeoMediaWiki extends NeoWikiObject implements MediaWiki {
         return xowaParser;
     }
 
+    @Override
+    public void getWikiPageLinkChanges(ZonedDateTime pFrom, ZonedDateTime pTo, WikiPageLinkChanges.Visitor pVisitor, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        try (WikiTransaction tx = wikiDragonDatabase.beginReadSession()) {
+            long[] lFrom = getWikiPageLinkSnapshotsAt(StringUtil.zonedDateTime2Long(pFrom));
+            long[] lTo = getWikiPageLinkSnapshotsAt(StringUtil.zonedDateTime2Long(pTo));
+            WikiObjectIterator<Page> i = getPageIterator();
+            try {
+                while (i.hasNext()) {
+                    Page lPage = i.next();
+                    WikiPageLinkChanges lChanges = ((NeoPage)lPage).getWikiPageLinkChanges(pFrom, pTo, lFrom, lTo, pLinkTypes);
+                    if (!lChanges.isEmpty() && !pVisitor.visit(lPage, lChanges)) break;
+                }
+            }
+            finally {
+                i.close();
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * Record that WikiPageLinks of the given types have been stored at a snapshot. WikiDragonConst.NULLDATETIME, the
+     * time of the SQL dumps, is no snapshot and left out.
+     * @param pTimestamp Epoch millis
+     * @param pLinkTypes
+     */
+    protected void addWikiPageLinkSnapshot(long pTimestamp, Collection<MediaWikiConst.LinkType> pLinkTypes) {
+        if (pTimestamp == StringUtil.zonedDateTime2Long(WikiDragonConst.NULLDATETIME)) return;
+        Set<String> lKeys = new HashSet<>();
+        for (MediaWikiConst.LinkType lLinkType:pLinkTypes) {
+            lKeys.add(lLinkType.name()+"\t"+pTimestamp);
+        }
+        if (Arrays.asList((String[])getProperty(ATTR_MEDIAWIKI_WIKIPAGELINKSNAPSHOTS, new String[0])).containsAll(lKeys)) return;
+        try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
+            // Concurrent writers of links must not overwrite each other's snapshots
+            tx.acquireWriteLock(node);
+            TreeSet<String> lFields = new TreeSet<>(Arrays.asList((String[])getProperty(ATTR_MEDIAWIKI_WIKIPAGELINKSNAPSHOTS, new String[0])));
+            if (lFields.addAll(lKeys)) {
+                setProperty(ATTR_MEDIAWIKI_WIKIPAGELINKSNAPSHOTS, lFields.toArray(new String[lFields.size()]));
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * Map a timestamp to the latest snapshot at or before it for each LinkType, like NeoBatMediaWiki. WikiDragonConst.NULLDATETIME
+     * is kept, since it addresses the links of the SQL dumps. So is any timestamp for a LinkType without recorded
+     * snapshots, i.e. links stored before snapshots have been recorded.
+     * @param pTimestamp Epoch millis
+     * @return Epoch millis of the snapshot by LinkType ordinal, Long.MIN_VALUE if there is none
+     */
+    protected long[] getWikiPageLinkSnapshotsAt(long pTimestamp) {
+        long[] lResult = new long[MediaWikiConst.LinkType.values().length];
+        Arrays.fill(lResult, pTimestamp);
+        if (pTimestamp == StringUtil.zonedDateTime2Long(WikiDragonConst.NULLDATETIME)) return lResult;
+        TLongArrayList[] lSnapshots = new TLongArrayList[lResult.length];
+        for (String lField:(String[])getProperty(ATTR_MEDIAWIKI_WIKIPAGELINKSNAPSHOTS, new String[0])) {
+            int lOrdinal = MediaWikiConst.LinkType.valueOf(lField.substring(0, lField.indexOf('\t'))).ordinal();
+            if (lSnapshots[lOrdinal] == null) lSnapshots[lOrdinal] = new TLongArrayList();
+            lSnapshots[lOrdinal].add(Long.parseLong(lField.substring(lField.indexOf('\t')+1)));
+        }
+        for (int i=0; i<lResult.length; i++) {
+            if (lSnapshots[i] == null) continue;
+            lSnapshots[i].sort();
+            lResult[i] = LinkTimestampUtil.floorSnapshot(lSnapshots[i].toArray(), pTimestamp);
+        }
+        return lResult;
+    }
+
     @Override
     public void importLinkDump(File pInputFile, MediaWikiConst.LinkType pLinkType) throws WikiDragonException {
         throw new WikiDragonException("Not implemented");
@@ -455,6 +588,7 @@ public class NeoMediaWiki extends NeoWikiObject implements MediaWiki {
             NeoMediaWikiCollection lNeoMediaWikiCollection = (NeoMediaWikiCollection)pNeoWikiDragonDatabase.getMediaWikiCollection();
             if (lNeoMediaWikiCollection.getMediaWiki(pDbName) != null) throw new WikiDragonException("MediaWiki with name '"+pDbName+"' already exists in collection");
             NeoMediaWiki lResult = null;
+            pNeoWikiDragonDatabase.checkWritable();
             Node lNode = pNeoWikiDragonDatabase.database.createNode();
             lResult = (NeoMediaWiki) pNeoWikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode, NeoWikiDragonDatabase.NodeType.MEDIAWIKI);
             lResult.setProperty(ATTR_WIKIOBJECT_MEDIAWIKINODEID, lNode.getId());
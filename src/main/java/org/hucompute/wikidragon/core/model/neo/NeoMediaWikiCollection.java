@@ -46,6 +46,11 @@ public class NeoMediaWikiCollection extends NeoWikiObject implements MediaWikiCo
      */
     protected static final String ATTR_MEDIAWIKICOLLECTION_MEDIAWIKIS = "ATTR_MEDIAWIKICOLLECTION_MEDIAWIKIS";
 
+    /**
+     * Storage layout version of the whole database, see NeoWikiDragonDatabase.STORAGELAYOUT_*. Not indexed.
+     */
+    protected static final String ATTR_MEDIAWIKICOLLECTION_STORAGELAYOUT = "ATTR_MEDIAWIKICOLLECTION_STORAGELAYOUT";
+
     protected NeoMediaWikiCollection(NeoWikiDragonDatabase pNeoWikiDragonDatabase, Node pNode) {
         super(pNeoWikiDragonDatabase, pNode);
     }
@@ -54,6 +59,11 @@ public class NeoMediaWikiCollection extends NeoWikiObject implements MediaWikiCo
     public MediaWiki getMediaWiki(String pDbName) {
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             MediaWiki lResult = null;
+            if (wikiDragonDatabase.isSchemaLayout()) {
+                lResult = (NeoMediaWiki)wikiDragonDatabase.wikiObjectFactory.getWikiObject(wikiDragonDatabase.findNode(NeoWikiDragonDatabase.NodeType.MEDIAWIKI, NeoMediaWiki.ATTR_MEDIAWIKI_DBNAME, pDbName, GLOBALINDEXID), NeoWikiDragonDatabase.NodeType.MEDIAWIKI);
+                tx.success();
+                return lResult;
+            }
             for (Node lNode : wikiDragonDatabase.getMediaWikiNodeIndex(GLOBALINDEXID).get(NeoMediaWiki.ATTR_MEDIAWIKI_DBNAME, pDbName)) {
                 assert lResult == null;
                 lResult = (NeoMediaWiki)wikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode);
@@ -87,6 +97,7 @@ public class NeoMediaWikiCollection extends NeoWikiObject implements MediaWikiCo
 
     @Override
     public MediaWiki importMediaWiki(InputStream pInputStream, String pCharset, RevisionCompressor pRevisionCompressor) throws WikiDragonException {
+        wikiDragonDatabase.checkWritable();
         NeoMediaWikiDumpImporter lNeoMediaWikiDumpImporter = new NeoMediaWikiDumpImporter(this, pRevisionCompressor);
         lNeoMediaWikiDumpImporter.importMediaWikiDump(pInputStream, pCharset);
         return lNeoMediaWikiDumpImporter.getMediaWiki();
@@ -110,8 +121,10 @@ public class NeoMediaWikiCollection extends NeoWikiObject implements MediaWikiCo
             NeoMediaWikiCollection lResult = null;
             // Check if it already exists
             if (pNeoWikiDragonDatabase.getMediaWikiCollection() != null) throw new WikiDragonException("MediaWikiCollection already exists");
+            pNeoWikiDragonDatabase.checkWritable();
             Node lNode = pNeoWikiDragonDatabase.database.createNode();
             lNode.setProperty(ATTR_WIKIOBJECT_TYPE, NeoWikiDragonDatabase.NodeType.MEDIAWIKI_COLLECTION.name());
+            lNode.addLabel(NeoWikiDragonDatabase.getLabel(NeoWikiDragonDatabase.NodeType.MEDIAWIKI_COLLECTION));
             pNeoWikiDragonDatabase.getMediaWikiNodeIndex(GLOBALINDEXID).add(lNode, ATTR_WIKIOBJECT_TYPE, NeoWikiDragonDatabase.NodeType.MEDIAWIKI_COLLECTION.name());
             lResult = (NeoMediaWikiCollection)pNeoWikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode);
             tx.success();
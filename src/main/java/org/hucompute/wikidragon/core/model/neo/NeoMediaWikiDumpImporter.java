@@ -19,6 +19,7 @@
 
 package org.hucompute.wikidragon.core.model.neo;
 
+import gnu.trove.map.hash.TLongIntHashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -106,7 +107,7 @@ public class NeoMediaWikiDumpImporter implements ImportListener, RevisionCompres
             lMediaWikiDumpParser.parse(lReader);
             lReader.close();
             revisionCompressor.close();
-            transaction.success();
+            commit();
             return mediaWiki;
         }
         catch (Exception e) {
@@ -117,6 +118,19 @@ public class NeoMediaWikiDumpImporter implements ImportListener, RevisionCompres
         }
     }
 
+    /**
+     * Commit the current transaction together with new comment dictionary entries, which are marked persisted only
+     * once the commit has succeeded
+     */
+    protected void commit() {
+        TLongIntHashMap lWritten = wikiDragonDatabase.mediaWikiResources.writeCommentDictionaries();
+        transaction.success();
+        Transaction lTransaction = transaction;
+        transaction = null;
+        lTransaction.close();
+        wikiDragonDatabase.mediaWikiResources.commentDictionariesPersisted(lWritten);
+    }
+
     @Override
     public void mediaWiki(Map<String, String> pRootAttributes, String pSiteName, String pDbName, String pBase, String pGenerator, MediaWikiConst.Case pCase, String pApiUrl) throws WikiDragonException {
         mediaWiki = (NeoMediaWiki) wikiDragonDatabase.getMediaWikiCollection().getMediaWiki(pDbName);
@@ -205,8 +219,7 @@ public class NeoMediaWikiDumpImporter implements ImportListener, RevisionCompres
         pPage.createRevision(pRevisionID, pParentId, pTimestamp, lContributor, pComment, pMinor, pModel, pFormat, pSHA1, pCompressedText, pCompression, pBytes);
         revisionCounter++;
         if (revisionCounter % 100 == 0) {
-            transaction.success();
-            transaction.close();
+            commit();
             transaction = wikiDragonDatabase.database.beginTx();
         }
         elapsedTimeCreateRevisions += System.currentTimeMillis()-lStart;
@@ -218,8 +231,7 @@ public class NeoMediaWikiDumpImporter implements ImportListener, RevisionCompres
         pPage.createRevision(pRevisionID, pParentId, pTimestamp, pIP, pComment, pMinor, pModel, pFormat, pSHA1, pCompressedText, pCompression, pBytes);
         revisionCounter++;
         if (revisionCounter % 100 == 0) {
-            transaction.success();
-            transaction.close();
+            commit();
             transaction = wikiDragonDatabase.database.beginTx();
         }
         elapsedTimeCreateRevisions += System.currentTimeMillis()-lStart;
@@ -29,6 +29,8 @@ import org.apache.lucene.search.TermQuery;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.*;
 import org.hucompute.wikidragon.core.util.ArrayUtil;
+import org.hucompute.wikidragon.core.util.PageTitleDictionary;
+import org.hucompute.wikidragon.core.util.PageTitleFilter;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.index.IndexHits;
@@ -134,6 +136,44 @@ public class NeoNamespace extends NeoWikiObject implements Namespace {
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             pTitle = getNormalizedPageTitle(pTitle);
             Page lResult = null;
+            PageTitleDictionary lPageTitleDictionary = null;
+            try {
+                PageTitleFilter lPageTitleFilter = wikiDragonDatabase.mediaWikiResources.getPageTitleFilter(getMediaWikiId());
+                if ((lPageTitleFilter != null) && (pTitle != null) && !lPageTitleFilter.mightContain(getId(), pTitle)) {
+                    tx.success();
+                    return null;
+                }
+                lPageTitleDictionary = wikiDragonDatabase.mediaWikiResources.getPageTitleDictionary(getMediaWikiId());
+            }
+            catch (WikiDragonException e) {
+                logger.error(e.getMessage(), e);
+            }
+            if (lPageTitleDictionary != null) {
+                try {
+                    long lNodeId = lPageTitleDictionary.get(getId(), pTitle);
+                    if (lNodeId != WikiDragonConst.NULLNODEID) {
+                        lResult = (Page)((NeoWikiObjectFactory)wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(wikiDragonDatabase.database.getNodeById(lNodeId), NeoWikiDragonDatabase.NodeType.PAGE);
+                    }
+                    tx.success();
+                    return lResult;
+                }
+                catch (IllegalStateException e) {
+                    // Dictionary has been invalidated concurrently- use the index
+                }
+            }
+            if (wikiDragonDatabase.isSchemaLayout()) {
+                for (Node lNode:wikiDragonDatabase.findNodes(NeoWikiDragonDatabase.NodeType.PAGE, NeoPage.ATTR_PAGE_TITLE, pTitle, getMediaWikiId())) {
+                    if (((Integer)lNode.getProperty(NeoPage.ATTR_PAGE_NAMESPACEID, -1)) == getId()) {
+                        if (lResult != null) {
+                            logger.warn("Duplicate Page for: "+pTitle);
+                            break;
+                        }
+                        lResult = (Page)((NeoWikiObjectFactory)wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(lNode, NeoWikiDragonDatabase.NodeType.PAGE);
+                    }
+                }
+                tx.success();
+                return lResult;
+            }
             BooleanQuery lBooleanQuery = new BooleanQuery.Builder().add(new BooleanClause(new TermQuery(new Term(NeoPage.ATTR_PAGE_TITLE, pTitle)), BooleanClause.Occur.MUST))
                     .add(new BooleanClause(new TermQuery(new Term(NeoPage.ATTR_PAGE_NAMESPACEID, Integer.toString(getId()))), BooleanClause.Occur.MUST)).build();
             Node lNode = null;
@@ -211,6 +251,7 @@ public class NeoNamespace extends NeoWikiObject implements Namespace {
             for (String lAlias:pAliases) {
                 if (pNeoMediaWiki.getNamespace(lAlias) != null) throw new WikiDragonException("Namespace with name, canonical name or alias '"+pCanonicalName+"' already exists");
             }
+            lNeoWikiDragonDatabase.checkWritable();
             Node lNode = lNeoWikiDragonDatabase.database.createNode();
             lResult = (NeoNamespace)lNeoWikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode, NeoWikiDragonDatabase.NodeType.NAMESPACE);
             lResult.setProperty(ATTR_WIKIOBJECT_MEDIAWIKINODEID, pNeoMediaWiki.node.getId());
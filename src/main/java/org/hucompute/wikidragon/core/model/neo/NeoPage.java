@@ -26,6 +26,8 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.TermQuery;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.*;
+import org.hucompute.wikidragon.core.util.LinkTypeUtil;
+import org.hucompute.wikidragon.core.util.LinkTimestampUtil;
 import org.hucompute.wikidragon.core.util.StringUtil;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
@@ -51,6 +53,7 @@ public class NeoPage extends NeoWikiObject implements Page {
     protected static final String ATTR_PAGE_REVISIONTIMESTAMPS = "ATTR_PAGE_REVISIONTIMESTAMPS"; // not indexed
 
     protected static final String ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY = "ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY"; // not indexed
+    protected static final String ATTR_PAGE_GRAPHMETRIC_PREFIX = "ATTR_PAGE_GRAPHMETRIC_"; // not indexed
 
     protected String cachedQualifiedTitle = null;
 
@@ -118,6 +121,13 @@ public class NeoPage extends NeoWikiObject implements Page {
             if (lRevisions == null) lRevisions = updateRevisionListCache();
             if (lRevisions.length > 0) {
                 String[] lRevisionTimestampStrings = (String[]) node.getProperty(ATTR_PAGE_REVISIONTIMESTAMPS, null);
+                if (lRevisionTimestampStrings == null) {
+                    // Not cached in read-only databases
+                    lRevisionTimestampStrings = new String[lRevisions.length];
+                    for (int i = 0; i < lRevisions.length; i++) {
+                        lRevisionTimestampStrings[i] = StringUtil.zonedDateTime2String(StringUtil.string2ZonedDateTime((String)wikiDragonDatabase.database.getNodeById(lRevisions[i]).getProperty(NeoRevision.ATTR_REVISION_TIMESTAMP_UTC)));
+                    }
+                }
                 ZonedDateTime[] lRevisionTimestamps = new ZonedDateTime[lRevisionTimestampStrings.length];
                 for (int i = 0; i < lRevisionTimestampStrings.length; i++) {
                     lRevisionTimestamps[i] = StringUtil.string2ZonedDateTime(lRevisionTimestampStrings[i]);
@@ -229,8 +239,11 @@ public class NeoPage extends NeoWikiObject implements Page {
                 lResult[k] = lList.get(k);
                 lTimestampArray[k] = lTimestampMap.get(lList.get(k));
             }
-            setProperty(ATTR_PAGE_REVISIONIDS, lResult);
-            setProperty(ATTR_PAGE_REVISIONTIMESTAMPS, lTimestampArray);
+            // Read-only databases compute the list on every request
+            if (!wikiDragonDatabase.isReadOnly()) {
+                setProperty(ATTR_PAGE_REVISIONIDS, lResult);
+                setProperty(ATTR_PAGE_REVISIONTIMESTAMPS, lTimestampArray);
+            }
             tx.success();
             return lResult;
         }
@@ -248,6 +261,17 @@ public class NeoPage extends NeoWikiObject implements Page {
     public PageTier getPageTierAt(ZonedDateTime pTimestamp) {
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             PageTier lResult = null;
+            if (wikiDragonDatabase.isSchemaLayout()) {
+                String lTimestampUTCString = StringUtil.zonedDateTime2String(pTimestamp.withZoneSameInstant(ZoneId.of("UTC")));
+                for (Node lNode:wikiDragonDatabase.findNodes(NeoWikiDragonDatabase.NodeType.PAGETIER, NeoPageTier.ATTR_PAGETIER_PAGENODEID, node.getId(), getMediaWikiId())) {
+                    if (lTimestampUTCString.equals(lNode.getProperty(NeoPageTier.ATTR_PAGETIER_TIMESTAMP_UTC, null))) {
+                        lResult = (PageTier)wikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode, NeoWikiDragonDatabase.NodeType.PAGETIER);
+                        break;
+                    }
+                }
+                tx.success();
+                return lResult;
+            }
             BooleanQuery lBooleanQuery = new BooleanQuery.Builder().add(new BooleanClause(new TermQuery(new Term(NeoPageTier.ATTR_PAGETIER_PAGENODEID, Long.toString(node.getId()))), BooleanClause.Occur.MUST))
                     .add(new BooleanClause(new TermQuery(new Term(NeoPageTier.ATTR_PAGETIER_TIMESTAMP_UTC, StringUtil.zonedDateTime2String(pTimestamp.withZoneSameInstant(ZoneId.of("UTC"))))), BooleanClause.Occur.MUST)).build();
             Node lNode = ((NeoWikiDragonDatabase)wikiDragonDatabase).getMediaWikiNodeIndex(getMediaWikiId()).query(lBooleanQuery).getSingle();
@@ -263,6 +287,14 @@ public class NeoPage extends NeoWikiObject implements Page {
     public List<PageTier> getPageTierList() {
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             List<PageTier> lResult = new ArrayList<>();
+            if (wikiDragonDatabase.isSchemaLayout()) {
+                for (Node lNode:wikiDragonDatabase.findNodes(NeoWikiDragonDatabase.NodeType.PAGETIER, NeoPageTier.ATTR_PAGETIER_PAGENODEID, node.getId(), getMediaWikiId())) {
+                    lResult.add((PageTier)wikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode, NeoWikiDragonDatabase.NodeType.PAGETIER));
+                }
+                lResult.sort((s1,s2)->s1.getTimestamp().compareTo(s2.getTimestamp()));
+                tx.success();
+                return lResult;
+            }
             IndexHits<Node> lIndexHits = ((NeoWikiDragonDatabase)wikiDragonDatabase).getMediaWikiNodeIndex(getMediaWikiId()).get(NeoPageTier.ATTR_PAGETIER_PAGENODEID, Long.toString(node.getId()));
             while (lIndexHits.hasNext()) {
                 lResult.add((PageTier)((NeoWikiObjectFactory)wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(lIndexHits.next()));
@@ -329,53 +361,70 @@ public class NeoPage extends NeoWikiObject implements Page {
         return getWikiPageLinks(pTimestamp, Direction.OUTGOING, pLinkTypes);
     }
 
-    private Set<WikiPageLink> getWikiPageLinks(ZonedDateTime pTimestamp, Direction pDirection, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
-        Set<String> lFilter = new HashSet<>();
-        for (MediaWikiConst.LinkType lLinkType:pLinkTypes) {
-            lFilter.add(lLinkType.name());
+    @Override
+    public WikiPageLinkRecordList getWikiPageLinkRecordsIn(ZonedDateTime pTimestamp, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        return getWikiPageLinkRecords(pTimestamp, Direction.INCOMING, pLinkTypes);
+    }
+
+    @Override
+    public WikiPageLinkRecordList getWikiPageLinkRecordsOut(ZonedDateTime pTimestamp, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        return getWikiPageLinkRecords(pTimestamp, Direction.OUTGOING, pLinkTypes);
+    }
+
+    private WikiPageLinkRecordList getWikiPageLinkRecords(ZonedDateTime pTimestamp, Direction pDirection, MediaWikiConst.LinkType... pLinkTypes) {
+        try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
+            long lTimestamp = StringUtil.zonedDateTime2Long(pTimestamp);
+            WikiPageLinkRecordList lResult = new WikiPageLinkRecordList(wikiDragonDatabase);
+            // Let the store only return relationships of the requested types and direction
+            for (Relationship r : node.getRelationships(pDirection, getRelTypeArray(pLinkTypes))) {
+                if (LinkTimestampUtil.contains(r.getProperty(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY, null), lTimestamp)) {
+                    lResult.add(r.getStartNode().getId(), r.getEndNode().getId(), LinkTypeUtil.getLinkType(r.getType().name()), lTimestamp);
+                }
+            }
+            tx.success();
+            return lResult;
         }
+    }
+
+    @Override
+    public WikiPageLinkChanges getWikiPageLinkChanges(ZonedDateTime pFrom, ZonedDateTime pTo, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        NeoMediaWiki lMediaWiki = (NeoMediaWiki)getMediaWiki();
+        return getWikiPageLinkChanges(pFrom, pTo, lMediaWiki.getWikiPageLinkSnapshotsAt(StringUtil.zonedDateTime2Long(pFrom)), lMediaWiki.getWikiPageLinkSnapshotsAt(StringUtil.zonedDateTime2Long(pTo)), pLinkTypes);
+    }
+
+    /**
+     * @param pFrom
+     * @param pTo
+     * @param pFromSnapshots Snapshot of pFrom by LinkType ordinal, see NeoMediaWiki.getWikiPageLinkSnapshotsAt
+     * @param pToSnapshots Snapshot of pTo by LinkType ordinal
+     * @param pLinkTypes
+     * @return WikiPageLinkChanges
+     */
+    protected WikiPageLinkChanges getWikiPageLinkChanges(ZonedDateTime pFrom, ZonedDateTime pTo, long[] pFromSnapshots, long[] pToSnapshots, MediaWikiConst.LinkType... pLinkTypes) {
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
-            String lTimestampUTCString = StringUtil.zonedDateTime2String(pTimestamp.withZoneSameInstant(ZoneId.of("UTC")));
+            WikiPageLinkChanges lResult = new WikiPageLinkChanges(wikiDragonDatabase, pFrom, pTo);
+            for (Relationship r : node.getRelationships(Direction.OUTGOING, getRelTypeArray(pLinkTypes))) {
+                Object lTimestamps = r.getProperty(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY, null);
+                MediaWikiConst.LinkType lLinkType = LinkTypeUtil.getLinkType(r.getType().name());
+                lResult.add(node.getId(), r.getEndNode().getId(), lLinkType, LinkTimestampUtil.contains(lTimestamps, pFromSnapshots[lLinkType.ordinal()]), LinkTimestampUtil.contains(lTimestamps, pToSnapshots[lLinkType.ordinal()]));
+            }
+            tx.success();
+            return lResult;
+        }
+    }
+
+    private Set<WikiPageLink> getWikiPageLinks(ZonedDateTime pTimestamp, Direction pDirection, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
+            WikiPageLinkRecordList lRecords = getWikiPageLinkRecords(pTimestamp, pDirection, pLinkTypes);
+            WikiPageLink.WikiPageLinkSource lSource = pTimestamp.equals(WikiDragonConst.NULLDATETIME) ? WikiPageLink.WikiPageLinkSource.SQLDump : WikiPageLink.WikiPageLinkSource.HtmlParsedDB;
             Set<WikiPageLink> lResult = new HashSet<>();
-            for (Relationship r : node.getRelationships()) {
-                if (pDirection.equals(Direction.BOTH) || (pDirection.equals(Direction.OUTGOING) && (r.getStartNode().equals(node))) || (pDirection.equals(Direction.INCOMING) && (r.getEndNode().equals(node)))) {
-                    WikiDragonConst.RelTypes lReltype = WikiDragonConst.RelTypes.valueOf(r.getType().name());
-                    MediaWikiConst.LinkType lLinkType = null;
-                    switch (lReltype) {
-                        case WIKIPAGELINK_ARTICLE: {
-                            lLinkType = MediaWikiConst.LinkType.ARTICLE;
-                            break;
-                        }
-                        case WIKIPAGELINK_CATEGORIZATION: {
-                            lLinkType = MediaWikiConst.LinkType.CATEGORIZATION;
-                            break;
-                        }
-                        case WIKIPAGELINK_REDIRECT: {
-                            lLinkType = MediaWikiConst.LinkType.REDIRECT;
-                            break;
-                        }
-                    }
-                    if (lLinkType != null) {
-                        if ((lFilter.size() == 0) || lFilter.contains(lLinkType.name())) {
-                            String[] lTimestamps = (String[]) r.getProperty(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY);
-                            boolean lTimestampHit = false;
-                            for (String lString : lTimestamps) {
-                                if (lString.equals(lTimestampUTCString)) {
-                                    lTimestampHit = true;
-                                    break;
-                                }
-                            }
-                            if (lTimestampHit) {
-                                if (pDirection.equals(Direction.OUTGOING)) {
-                                    Page lTarget = (Page) ((NeoWikiObjectFactory) wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(r.getEndNode());
-                                    lResult.add(new WikiPageLink(lLinkType, this, lTarget, pTimestamp.equals(WikiDragonConst.NULLDATETIME) ? WikiPageLink.WikiPageLinkSource.SQLDump : WikiPageLink.WikiPageLinkSource.HtmlParsedDB, pTimestamp));
-                                } else if (pDirection.equals(Direction.INCOMING)) {
-                                    Page lSource = (Page) ((NeoWikiObjectFactory) wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(r.getStartNode());
-                                    lResult.add(new WikiPageLink(lLinkType, lSource, this, pTimestamp.equals(WikiDragonConst.NULLDATETIME) ? WikiPageLink.WikiPageLinkSource.SQLDump : WikiPageLink.WikiPageLinkSource.HtmlParsedDB, pTimestamp));
-                                }
-                            }
-                        }
-                    }
+            for (int i=0; i<lRecords.size(); i++) {
+                if (pDirection.equals(Direction.OUTGOING)) {
+                    Page lTarget = (Page) ((NeoWikiObjectFactory) wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(wikiDragonDatabase.database.getNodeById(lRecords.getTargetNodeId(i)), NeoWikiDragonDatabase.NodeType.PAGE);
+                    lResult.add(new WikiPageLink(lRecords.getLinkType(i), this, lTarget, lSource, pTimestamp));
+                } else {
+                    Page lSourcePage = (Page) ((NeoWikiObjectFactory) wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(wikiDragonDatabase.database.getNodeById(lRecords.getSourceNodeId(i)), NeoWikiDragonDatabase.NodeType.PAGE);
+                    lResult.add(new WikiPageLink(lRecords.getLinkType(i), lSourcePage, this, lSource, pTimestamp));
                 }
             }
             tx.success();
@@ -383,6 +432,26 @@ public class NeoPage extends NeoWikiObject implements Page {
         }
     }
 
+    protected static WikiDragonConst.RelTypes[] getRelTypeArray(MediaWikiConst.LinkType... pLinkTypes) {
+        Set<WikiDragonConst.RelTypes> lResult = LinkTypeUtil.getRelTypes(pLinkTypes);
+        return lResult.toArray(new WikiDragonConst.RelTypes[lResult.size()]);
+    }
+
+    @Override
+    public void setGraphMetric(String pMetric, ZonedDateTime pTimestamp, double pValue) throws WikiDragonException {
+        wikiDragonDatabase.checkWritable();
+        setProperty(getGraphMetricKey(pMetric, pTimestamp), pValue);
+    }
+
+    @Override
+    public double getGraphMetric(String pMetric, ZonedDateTime pTimestamp, double pDefaultValue) throws WikiDragonException {
+        return (double)getProperty(getGraphMetricKey(pMetric, pTimestamp), pDefaultValue);
+    }
+
+    protected static String getGraphMetricKey(String pMetric, ZonedDateTime pTimestamp) {
+        return ATTR_PAGE_GRAPHMETRIC_PREFIX+pMetric+"_"+StringUtil.zonedDateTime2Long(pTimestamp);
+    }
+
     @Override
     public Map<String, List<WikiDataEntity>> getAspectWikiDataEntityMap() throws WikiDragonException {
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
@@ -404,6 +473,7 @@ public class NeoPage extends NeoWikiObject implements Page {
 
     @Override
     public void createAspectWikiDataEntityRelation(WikiDataEntity pWikiDataEntity, String pAspect) throws WikiDragonException {
+        wikiDragonDatabase.checkWritable();
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             Relationship r = node.createRelationshipTo(((NeoWikiDataEntity)pWikiDataEntity).node, WikiDragonConst.RelTypes.WIKIDATAENTITYLINK);
             r.setProperty(NeoWikiDataEntity.ATTR_WIKIDATAENTITY_ASPECT, pAspect);
@@ -412,78 +482,43 @@ public class NeoPage extends NeoWikiObject implements Page {
     }
 
     /**
-     * There is at most one relationship of a given type between two pages. Each relationship has a string array
+     * There is at most one relationship of a given type between two pages. Each relationship has a sorted long array
      * containing the timestamps of its validity. WikiDragonConst.NULLDATETIME marks the Timestamp of the SQL Dump.
      */
     @Override
     public void addWikiPageLinksOut(ZonedDateTime pTimestamp, Map<MediaWikiConst.LinkType, Set<Page>> pTypePagesMap) throws WikiDragonException {
+        wikiDragonDatabase.checkWritable();
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
-            String lTimestampUTCString = StringUtil.zonedDateTime2String(pTimestamp.withZoneSameInstant(ZoneId.of("UTC")));
-            // Fetch Old Status
-            Map<WikiDragonConst.RelTypes, Map<Page, Relationship>> lTypePagesMapOld = new HashMap<>();
-            for (Relationship r : node.getRelationships(Direction.OUTGOING)) {
-                WikiDragonConst.RelTypes lReltype = WikiDragonConst.RelTypes.valueOf(r.getType().name());
-                Map<Page, Relationship> lMap = lTypePagesMapOld.get(lReltype);
-                if (lMap == null) {
-                    lMap = new HashMap<>();
-                    lTypePagesMapOld.put(lReltype, lMap);
-                }
-                lMap.put((Page) wikiDragonDatabase.wikiObjectFactory.getWikiObject(r.getEndNode()), r);
-            }
-
-            // Build new Status
-            Map<WikiDragonConst.RelTypes, Set<Page>> lTypePagesMapNew = new HashMap<>();
+            long lTimestamp = StringUtil.zonedDateTime2Long(pTimestamp);
             for (Map.Entry<MediaWikiConst.LinkType, Set<Page>> lEntry : pTypePagesMap.entrySet()) {
-                switch (lEntry.getKey()) {
-                    case ARTICLE: {
-                        lTypePagesMapNew.put(WIKIPAGELINK_ARTICLE, lEntry.getValue());
-                        break;
-                    }
-                    case CATEGORIZATION: {
-                        lTypePagesMapNew.put(WIKIPAGELINK_CATEGORIZATION, lEntry.getValue());
-                        break;
-                    }
-                    case REDIRECT: {
-                        lTypePagesMapNew.put(WIKIPAGELINK_REDIRECT, lEntry.getValue());
-                        break;
-                    }
+                if (lEntry.getValue().isEmpty()) continue;
+                WikiDragonConst.RelTypes lRelType = LinkTypeUtil.getRelType(lEntry.getKey());
+                // Fetch old status of this type only, keyed by target node id
+                TLongObjectHashMap<Relationship> lOldMap = new TLongObjectHashMap<>();
+                for (Relationship r : node.getRelationships(Direction.OUTGOING, lRelType)) {
+                    lOldMap.put(r.getEndNodeId(), r);
                 }
-            }
-
-            // Add/Update Relationships
-            for (Map.Entry<WikiDragonConst.RelTypes, Set<Page>> lNewEntry : lTypePagesMapNew.entrySet()) {
-                if (!lTypePagesMapOld.containsKey(lNewEntry.getKey())) {
-                    for (Page lPage : lNewEntry.getValue()) {
-                        Relationship r = node.createRelationshipTo(((NeoPage) lPage).node, lNewEntry.getKey());
-                        r.setProperty(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY, new String[]{lTimestampUTCString});
-                    }
-                } else {
-                    for (Page lPage : lNewEntry.getValue()) {
-                        Relationship r = lTypePagesMapOld.get(lNewEntry.getKey()).get(lPage);
-                        if (r == null) {
-                            r = node.createRelationshipTo(((NeoPage) lPage).node, lNewEntry.getKey());
-                            r.setProperty(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY, new String[]{lTimestampUTCString});
-                        } else {
-                            String[] lTimestamps = (String[]) r.getProperty(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY);
-                            TreeSet<String> lTimestampSet = new TreeSet<>();
-                            if (lTimestamps != null) {
-                                for (String lTimestamp : lTimestamps) {
-                                    lTimestampSet.add(lTimestamp);
-                                }
-                            }
-                            lTimestampSet.add(lTimestampUTCString);
-                            String[] lNewTimestamps = new String[lTimestampSet.size()];
-                            int i = 0;
-                            for (String lString : lTimestampSet) {
-                                lNewTimestamps[i++] = lString;
-                            }
+                // Add/Update Relationships
+                for (Page lPage : lEntry.getValue()) {
+                    Node lTarget = ((NeoPage) lPage).node;
+                    Relationship r = lOldMap.get(lTarget.getId());
+                    if (r == null) {
+                        r = node.createRelationshipTo(lTarget, lRelType);
+                        r.setProperty(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY, new long[]{lTimestamp});
+                    } else {
+                        Object lOldValue = r.getProperty(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY, null);
+                        long[] lOldTimestamps = LinkTimestampUtil.toLongArray(lOldValue);
+                        long[] lNewTimestamps = LinkTimestampUtil.insert(lOldTimestamps, lTimestamp);
+                        if ((lNewTimestamps != lOldTimestamps) || !(lOldValue instanceof long[])) {
                             r.setProperty(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY, lNewTimestamps);
                         }
                     }
                 }
             }
+            ((NeoMediaWiki)getMediaWiki()).addWikiPageLinkSnapshot(lTimestamp, pTypePagesMap.keySet());
             tx.success();
         }
+        wikiDragonDatabase.mediaWikiResources.wikiPageLinksModified(getMediaWikiId());
     }
 
     @Override
@@ -504,11 +539,13 @@ public class NeoPage extends NeoWikiObject implements Page {
 
     protected static NeoPage create(NeoMediaWiki pNeoMediaWiki, long pId, NeoNamespace pNeoNamespace, String pTitle) throws WikiDragonException {
         NeoWikiDragonDatabase lNeoWikiDragonDatabase = pNeoMediaWiki.wikiDragonDatabase;
+        NeoPage lResult = null;
         try (Transaction tx = lNeoWikiDragonDatabase.database.beginTx()) {
-            NeoPage lResult = null;
             // Check if it already exists
             if (pNeoMediaWiki.getPage(pId) != null) throw new WikiDragonException("Page with pageId '"+pId+"' already exists");
             pTitle = pNeoNamespace.getNormalizedPageTitle(pTitle);
+            lNeoWikiDragonDatabase.checkWritable();
+            lNeoWikiDragonDatabase.mediaWikiResources.invalidatePageTitleDictionary(pNeoMediaWiki.node.getId());
             Node lNode = lNeoWikiDragonDatabase.database.createNode();
             lResult = (NeoPage)lNeoWikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode, NeoWikiDragonDatabase.NodeType.PAGE);
             lResult.setProperty(ATTR_WIKIOBJECT_MEDIAWIKINODEID, pNeoMediaWiki.node.getId());
@@ -517,7 +554,10 @@ public class NeoPage extends NeoWikiObject implements Page {
             lResult.setProperty(ATTR_PAGE_NAMESPACEID, pNeoNamespace.getId());
             lResult.setProperty(ATTR_PAGE_TITLE, pTitle);
             tx.success();
-            return lResult;
         }
+        lNeoWikiDragonDatabase.mediaWikiResources.addToPageTitleFilter(pNeoMediaWiki.node.getId(), pNeoNamespace.getId(), pTitle);
+        // Red links cached before the page has been committed are outdated now
+        lNeoWikiDragonDatabase.mediaWikiResources.invalidatePageTitleCache(pNeoMediaWiki.node.getId());
+        return lResult;
     }
 }
@@ -102,6 +102,7 @@ public class NeoPageTier extends NeoWikiObject implements PageTier {
 
     @Override
     public void setTierAttribute(TierAttribute pTierAttribute, String pValue, WikiDragonConst.Compression pDefaultCompression) throws WikiDragonException {
+        wikiDragonDatabase.checkWritable();
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             if (pDefaultCompression.equals(WikiDragonConst.Compression.DIFFBZIP2)) {
                 Page lPage = getPage();
@@ -330,6 +331,7 @@ public class NeoPageTier extends NeoWikiObject implements PageTier {
             // Check if it already exists
             if (pPage.getPageTierAt(pTimestamp) != null) throw new WikiDragonException("PageTier at '"+ StringUtil.zonedDateTime2String(pTimestamp)+"' already exists");
             long lMediaWikiID = pPage.getMediaWikiId();
+            lNeoWikiDragonDatabase.checkWritable();
             Node lNode = lNeoWikiDragonDatabase.database.createNode();
             lResult = (NeoPageTier)lNeoWikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode, NeoWikiDragonDatabase.NodeType.PAGETIER);
             lResult.setProperty(ATTR_WIKIOBJECT_MEDIAWIKINODEID, lMediaWikiID);
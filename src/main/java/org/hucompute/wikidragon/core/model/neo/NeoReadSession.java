@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.model.neo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hucompute.wikidragon.core.model.WikiTransaction;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+
+/**
+ * Transaction bound to the thread which opened it. Property reads of NeoWikiObjects within the session reuse it
+ * instead of opening a transaction per call. Nested sessions on the same thread share the outermost one, which commits
+ * on close unless failure() has been called. WikiDragonDatabase.beginTx() within a session returns the session as well.
+ * Plain Neo4j transactions opened within the session are nested into it by Neo4j. If one of them is closed without
+ * success the session is rolled back and a warning is logged instead of failing the reading thread.
+ * @author Rüdiger Gleim
+ */
+public class NeoReadSession implements WikiTransaction {
+
+    private static Logger logger = LogManager.getLogger(NeoReadSession.class);
+
+    protected NeoWikiDragonDatabase wikiDragonDatabase;
+    protected Transaction tx;
+    protected int depth;
+    protected boolean failed;
+
+    protected NeoReadSession(NeoWikiDragonDatabase pNeoWikiDragonDatabase) {
+        wikiDragonDatabase = pNeoWikiDragonDatabase;
+        tx = pNeoWikiDragonDatabase.database.beginTx();
+        depth = 1;
+    }
+
+    @Override
+    public void success() {
+        // Decided when the outermost session is closed
+    }
+
+    @Override
+    public void failure() {
+        failed = true;
+    }
+
+    @Override
+    public void terminate() {
+        failed = true;
+        tx.terminate();
+    }
+
+    @Override
+    public void close() {
+        depth--;
+        if (depth == 0) {
+            try {
+                if (failed) {
+                    tx.failure();
+                }
+                else {
+                    tx.success();
+                }
+                tx.close();
+            }
+            catch (TransactionFailureException e) {
+                if (failed) throw e;
+                logger.warn("Read session has been rolled back by a nested transaction: "+e.getMessage());
+            }
+            finally {
+                wikiDragonDatabase.endReadSession(this);
+            }
+        }
+    }
+
+}
@@ -27,6 +27,7 @@ import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.*;
 import org.hucompute.wikidragon.core.util.HTMLWikiLinkExtraction;
 import org.hucompute.wikidragon.core.util.IOUtil;
+import org.hucompute.wikidragon.core.util.PropertyCodec;
 import org.hucompute.wikidragon.core.util.StringUtil;
 import org.jsoup.Jsoup;
 import org.neo4j.graphdb.Node;
@@ -54,6 +55,7 @@ public class NeoRevision extends NeoWikiObject implements Revision {
     protected static final String ATTR_REVISION_TIMESTAMP_ZONEID = "ATTR_REVISION_TIMESTAMP_ZONEID";
     protected static final String ATTR_REVISION_IP = "ATTR_REVISION_IP";
     protected static final String ATTR_REVISION_COMMENT = "ATTR_REVISION_COMMENT";
+    protected static final String ATTR_REVISION_COMMENTID = "ATTR_REVISION_COMMENTID";
     protected static final String ATTR_REVISION_MINOR = "ATTR_REVISION_MINOR";
     protected static final String ATTR_REVISION_MODEL = "ATTR_REVISION_MODEL";
     protected static final String ATTR_REVISION_FORMAT = "ATTR_REVISION_FORMAT";
@@ -106,18 +108,39 @@ public class NeoRevision extends NeoWikiObject implements Revision {
 
     @Override
     public String getComment() {
-        return (String)getProperty(ATTR_REVISION_COMMENT, null);
+        String lResult = (String)getProperty(ATTR_REVISION_COMMENT, null);
+        if (lResult == null) {
+            Integer lCommentID = (Integer)getProperty(ATTR_REVISION_COMMENTID, null);
+            if (lCommentID != null) {
+                lResult = wikiDragonDatabase.mediaWikiResources.getCommentDictionary(getMediaWikiId()).get(lCommentID);
+            }
+        }
+        return lResult;
+    }
+
+    /**
+     * Store a comment either as reference into the comment dictionary of the MediaWiki or, if it is not frequent enough, as plain string
+     * @param pComment
+     */
+    protected void setComment(String pComment) {
+        int lCommentID = wikiDragonDatabase.mediaWikiResources.getCommentDictionary(getMediaWikiId()).intern(pComment);
+        if (lCommentID >= 0) {
+            setProperty(ATTR_REVISION_COMMENTID, lCommentID);
+        }
+        else {
+            setProperty(ATTR_REVISION_COMMENT, pComment);
+        }
     }
 
     @Override
     public String getIp() {
-        return (String)getProperty(ATTR_REVISION_IP, null);
+        return PropertyCodec.decodeIP(getProperty(ATTR_REVISION_IP, null));
     }
 
     @Override
     public String getAuthor() {
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
-            String lResult = (String)getProperty(ATTR_REVISION_IP, null);
+            String lResult = PropertyCodec.decodeIP(getProperty(ATTR_REVISION_IP, null));
             if (lResult == null) {
                 Contributor lContributor = getContributor();
                 if (lContributor != null) {
@@ -133,10 +156,7 @@ public class NeoRevision extends NeoWikiObject implements Revision {
     public MediaWikiConst.Model getModel() {
         MediaWikiConst.Model lResult = null;
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
-            String lModelString = (String) getProperty(ATTR_REVISION_MODEL, null);
-            if (lModelString != null) {
-                lResult = MediaWikiConst.Model.valueOf(lModelString);
-            }
+            lResult = PropertyCodec.decodeEnum(MediaWikiConst.Model.class, getProperty(ATTR_REVISION_MODEL, null));
             tx.success();
             return lResult;
         }
@@ -146,10 +166,7 @@ public class NeoRevision extends NeoWikiObject implements Revision {
     public MediaWikiConst.Format getFormat() {
         MediaWikiConst.Format lResult = null;
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
-            String lFormatString = (String) getProperty(ATTR_REVISION_FORMAT, null);
-            if (lFormatString != null) {
-                lResult = MediaWikiConst.Format.valueOf(lFormatString);
-            }
+            lResult = PropertyCodec.decodeEnum(MediaWikiConst.Format.class, getProperty(ATTR_REVISION_FORMAT, null));
             tx.success();
             return lResult;
         }
@@ -263,8 +280,7 @@ public class NeoRevision extends NeoWikiObject implements Revision {
         for (MediaWikiConst.LinkType lType:pAcceptLinkTypes) {
             lAccept.add(lType);
         }
-        Map<Integer, Map<String, Page>> lCacheMap = new HashMap<>();
-        Set<WikiPageLink> lPreResult = HTMLWikiLinkExtraction.extractWikiPageLinks(lMediaWiki, getPage(), getHtml(), getTimestamp(), lCacheMap);
+        Set<WikiPageLink> lPreResult = HTMLWikiLinkExtraction.extractWikiPageLinks(lMediaWiki, getPage(), getHtml(), getTimestamp());
         Set<WikiPageLink> lResult = new HashSet<>();
         if (lAccept.size()> 0) {
             for (WikiPageLink lLink:lPreResult) {
@@ -285,7 +301,7 @@ public class NeoRevision extends NeoWikiObject implements Revision {
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             byte[] lBytes = getCompressedRawHtml();
             if (lBytes == null) {
-                lResult = ((NeoMediaWiki) ((NeoWikiObjectFactory) wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(getMediaWikiId())).getXOWAParser().parse(getPage(), this);
+                lResult = ((NeoMediaWiki) ((NeoWikiObjectFactory) wikiDragonDatabase.getWikiObjectFactory()).getWikiObject(getMediaWikiId())).getXOWAParserPool().parse(getPage(), this);
             } else {
                 WikiDragonConst.Compression lCompression = getHtmlCompression();
                 switch (lCompression) {
@@ -368,12 +384,12 @@ public class NeoRevision extends NeoWikiObject implements Revision {
 
     @Override
     public WikiDragonConst.Compression getHtmlCompression() {
-        return WikiDragonConst.Compression.valueOf((String)getProperty(ATTR_REVISION_COMPRESSIONHTML));
+        return PropertyCodec.decodeEnum(WikiDragonConst.Compression.class, getProperty(ATTR_REVISION_COMPRESSIONHTML));
     }
 
     @Override
     public void setHtmlCompression(WikiDragonConst.Compression pCompression) {
-        setProperty(ATTR_REVISION_COMPRESSIONHTML, pCompression.name());
+        setProperty(ATTR_REVISION_COMPRESSIONHTML, PropertyCodec.encodeEnum(pCompression));
     }
 
     @Override
@@ -427,10 +443,7 @@ public class NeoRevision extends NeoWikiObject implements Revision {
     public WikiDragonConst.Compression getRawTextCompression() {
         WikiDragonConst.Compression lResult = null;
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
-            String lCompressionString = (String) getProperty(ATTR_REVISION_COMPRESSION, null);
-            if (lCompressionString != null) {
-                lResult = WikiDragonConst.Compression.valueOf(lCompressionString);
-            }
+            lResult = PropertyCodec.decodeEnum(WikiDragonConst.Compression.class, getProperty(ATTR_REVISION_COMPRESSION, null));
             tx.success();
             return lResult;
         }
@@ -451,6 +464,11 @@ public class NeoRevision extends NeoWikiObject implements Revision {
         return new RevisionSequenceContentIterator(this, pRevisionContentType);
     }
 
+    @Override
+    protected Object getIndexValue(String pProperty, Object pValue) {
+        return ATTR_REVISION_IP.equals(pProperty) ? PropertyCodec.decodeIP(pValue) : pValue;
+    }
+
     @Override
     protected boolean isIndexedGlobal(String pProperty) {
         return false;
@@ -477,6 +495,7 @@ public class NeoRevision extends NeoWikiObject implements Revision {
             NeoRevision lResult = null;
             // Check if it already exists
             if (lNeoMediaWiki.getRevision(pRevisionID) != null) throw new WikiDragonException("Revision with revisionId '"+pRevisionID+"' already exists");
+            lNeoWikiDragonDatabase.checkWritable();
             Node lNode = lNeoWikiDragonDatabase.database.createNode();
             lResult = (NeoRevision)lNeoWikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode, NeoWikiDragonDatabase.NodeType.REVISION);
             lResult.setProperty(ATTR_WIKIOBJECT_MEDIAWIKINODEID, lNeoMediaWiki.node.getId());
@@ -486,16 +505,16 @@ public class NeoRevision extends NeoWikiObject implements Revision {
             if (pParentID != NULLNODEID) lResult.setProperty(ATTR_REVISION_PARENTID, pParentID);
             lResult.setProperty(ATTR_REVISION_TIMESTAMP_UTC, StringUtil.zonedDateTime2String(pTimestamp.withZoneSameInstant(ZoneId.of("UTC"))));
             lResult.setProperty(ATTR_REVISION_TIMESTAMP_ZONEID, pTimestamp.getZone().getId());
-            if (pIP != null) lResult.setProperty(ATTR_REVISION_IP, pIP);
-            if ((pComment != null) && (pComment.length() > 0)) lResult.setProperty(ATTR_REVISION_COMMENT, pComment);
+            if (pIP != null) lResult.setProperty(ATTR_REVISION_IP, PropertyCodec.encodeIP(pIP));
+            if ((pComment != null) && (pComment.length() > 0)) lResult.setComment(pComment);
             lResult.setProperty(ATTR_REVISION_MINOR, pMinor);
             if (pModel == null) pModel = MediaWikiConst.Model.WIKITEXT;
-            lResult.setProperty(ATTR_REVISION_MODEL, pModel.name());
+            lResult.setProperty(ATTR_REVISION_MODEL, PropertyCodec.encodeEnum(pModel));
             if (pFormat == null) pFormat = MediaWikiConst.Format.TEXT_XWIKI;
-            lResult.setProperty(ATTR_REVISION_FORMAT, pFormat.name());
+            lResult.setProperty(ATTR_REVISION_FORMAT, PropertyCodec.encodeEnum(pFormat));
             lResult.setProperty(ATTR_REVISION_SHA1, pSHA1);
             lResult.setProperty(ATTR_REVISION_COMPRESSEDRAWTEXT, pCompressedRawText);
-            lResult.setProperty(ATTR_REVISION_COMPRESSION, pCompression.name());
+            lResult.setProperty(ATTR_REVISION_COMPRESSION, PropertyCodec.encodeEnum(pCompression));
             lResult.setProperty(ATTR_REVISION_BYTES, pBytes);
             tx.success();
             return lResult;
@@ -514,6 +533,7 @@ public class NeoRevision extends NeoWikiObject implements Revision {
             NeoRevision lResult = null;
             // Check if it already exists
             if (lNeoMediaWiki.getRevision(pRevisionID) != null) throw new WikiDragonException("Revision with revisionId '"+pRevisionID+"' already exists");
+            lNeoWikiDragonDatabase.checkWritable();
             Node lNode = lNeoWikiDragonDatabase.database.createNode();
             lResult = (NeoRevision)lNeoWikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode, NeoWikiDragonDatabase.NodeType.REVISION);
             lResult.setProperty(ATTR_WIKIOBJECT_MEDIAWIKINODEID, lNeoMediaWiki.node.getId());
@@ -524,15 +544,15 @@ public class NeoRevision extends NeoWikiObject implements Revision {
             lResult.setProperty(ATTR_REVISION_TIMESTAMP_UTC, StringUtil.zonedDateTime2String(pTimestamp.withZoneSameInstant(ZoneId.of("UTC"))));
             lResult.setProperty(ATTR_REVISION_TIMESTAMP_ZONEID, pTimestamp.getZone().getId());
             if (pContributor.node.getId() != NULLNODEID) lResult.setProperty(ATTR_REVISION_CONTRIBUTORNODEID, pContributor.node.getId());
-            if ((pComment != null) && (pComment.length() > 0)) lResult.setProperty(ATTR_REVISION_COMMENT, pComment);
+            if ((pComment != null) && (pComment.length() > 0)) lResult.setComment(pComment);
             lResult.setProperty(ATTR_REVISION_MINOR, pMinor);
             if (pModel == null) pModel = MediaWikiConst.Model.WIKITEXT;
-            lResult.setProperty(ATTR_REVISION_MODEL, pModel.name());
+            lResult.setProperty(ATTR_REVISION_MODEL, PropertyCodec.encodeEnum(pModel));
             if (pFormat == null) pFormat = MediaWikiConst.Format.TEXT_XWIKI;
-            lResult.setProperty(ATTR_REVISION_FORMAT, pFormat.name());
+            lResult.setProperty(ATTR_REVISION_FORMAT, PropertyCodec.encodeEnum(pFormat));
             lResult.setProperty(ATTR_REVISION_SHA1, pSHA1);
             lResult.setProperty(ATTR_REVISION_COMPRESSEDRAWTEXT, pCompressedRawText);
-            lResult.setProperty(ATTR_REVISION_COMPRESSION, pCompression.name());
+            lResult.setProperty(ATTR_REVISION_COMPRESSION, PropertyCodec.encodeEnum(pCompression));
             lResult.setProperty(ATTR_REVISION_BYTES, pBytes);
             tx.success();
             return lResult;
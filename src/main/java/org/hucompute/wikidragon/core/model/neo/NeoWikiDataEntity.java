@@ -56,6 +56,7 @@ public class NeoWikiDataEntity extends NeoWikiObject implements WikiDataEntity {
             // Check if it already exists
             if (pNeoWikiDragonDatabase.getWikiDataEntity(pEntityID) != null)
                 throw new WikiDragonException("WikiDataEntity with entityID '" + pEntityID + "' already exists");
+            pNeoWikiDragonDatabase.checkWritable();
             Node lNode = pNeoWikiDragonDatabase.database.createNode();
             lResult = (NeoWikiDataEntity) pNeoWikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode, NeoWikiDragonDatabase.NodeType.WIKIDATAENTITY);
             lResult.setProperty(ATTR_WIKIOBJECT_TYPE, NeoWikiDragonDatabase.NodeType.WIKIDATAENTITY.name());
@@ -26,21 +26,29 @@ import org.bouncycastle.util.Iterable;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.*;
 import org.hucompute.wikidragon.core.util.IOUtil;
+import org.hucompute.wikidragon.core.util.PageTitleDictionary;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseBuilder;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.graphdb.index.Index;
 import org.neo4j.graphdb.index.RelationshipIndex;
+import org.neo4j.graphdb.schema.IndexDefinition;
 import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.impl.store.id.IdGeneratorFactory;
+import org.neo4j.kernel.impl.store.id.IdType;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.kernel.lifecycle.LifecycleException;
 
 import java.io.*;
 import java.nio.charset.Charset;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Properties;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Rüdiger Gleim
@@ -51,14 +59,30 @@ public class NeoWikiDragonDatabase implements WikiDragonDatabase {
 
     protected enum NodeType {MEDIAWIKI_COLLECTION, MEDIAWIKI, NAMESPACE, PAGE, REVISION, CONTRIBUTOR, PAGETIER, LEXICON,
         SUPERLEMMA, LEMMA, MEANING, SYNTACTICWORD, LEXICONENTRYGENERALATTRIBUTE, WIKIDATAENTITY};
+    /**
+     * Storage layout using legacy Lucene indexes only
+     */
+    public static final int STORAGELAYOUT_LEGACY = 1;
+    /**
+     * Storage layout with one label per NodeType and native schema indexes. Legacy indexes are still maintained.
+     */
+    public static final int STORAGELAYOUT_SCHEMA = 2;
+    public static final int STORAGELAYOUT_CURRENT = STORAGELAYOUT_SCHEMA;
+
+    private static final int MIGRATION_BATCH_SIZE = 10000;
+
     protected GraphDatabaseService database;
     protected NeoWikiObjectFactory wikiObjectFactory;
 
     private File databaseDirectory;
     private Map<String, String> parameters;
+    private WikiDragonConst.OpenMode openMode = WikiDragonConst.OpenMode.READWRITE;
+    private ThreadLocal<NeoReadSession> readSession = new ThreadLocal<>();
+    private int storageLayout = STORAGELAYOUT_LEGACY;
 
     private TLongObjectHashMap<Index<Node>> mediaWikiNodeIndexMap;
     private TLongObjectHashMap<RelationshipIndex> mediaWikiRelationshipIndexMap;
+    protected MediaWikiResources mediaWikiResources;
 
     protected IOManager ioManager;
 
@@ -85,6 +109,39 @@ public class NeoWikiDragonDatabase implements WikiDragonDatabase {
         }
     }
 
+    /**
+     * Open an existing database. With WikiDragonConst.OpenMode.READONLY the store is opened without write access, all
+     * objects handed out may be used by several threads concurrently and any write fails with an exception.
+     * @param pDatabaseDirectory
+     * @param pOpenMode
+     * @throws WikiDragonException
+     */
+    public NeoWikiDragonDatabase(File pDatabaseDirectory, WikiDragonConst.OpenMode pOpenMode) throws WikiDragonException {
+        databaseDirectory = pDatabaseDirectory;
+        openMode = pOpenMode;
+        Properties lProperties = new Properties();
+        try {
+            BufferedReader lReader = new BufferedReader(new InputStreamReader(this.getClass().getResourceAsStream("/neo4j.properties"), Charset.forName("UTF-8")));
+            lProperties.load(lReader);
+            lReader.close();
+            parameters = new HashMap<>();
+            for (String lKey:lProperties.stringPropertyNames()) {
+                parameters.put(lKey, lProperties.getProperty(lKey));
+            }
+        }
+        catch (IOException e) {
+            throw new WikiDragonException(e.getMessage(), e);
+        }
+        initialize();
+    }
+
+    public NeoWikiDragonDatabase(File pDatabaseDirectory, WikiDragonConst.OpenMode pOpenMode, Map<String, String> pParameters) throws WikiDragonException {
+        databaseDirectory = pDatabaseDirectory;
+        openMode = pOpenMode;
+        parameters = pParameters;
+        initialize();
+    }
+
     public NeoWikiDragonDatabase(File pDatabaseDirectory, boolean pReset, Map<String, String> pParameters) throws WikiDragonException {
         databaseDirectory = pDatabaseDirectory;
         parameters = pParameters;
@@ -131,14 +188,38 @@ public class NeoWikiDragonDatabase implements WikiDragonDatabase {
     public void close() {
         if (database != null) {
             logger.info("Closing database in "+databaseDirectory.getAbsolutePath()+"...");
-            database.shutdown();
+            mediaWikiResources.closePageTitleDictionaries();
+            mediaWikiResources.closePageTitleFilters();
+            if (!isReadOnly()) mediaWikiResources.persistCommentDictionaries();
+            try {
+                database.shutdown();
+            }
+            catch (LifecycleException e) {
+                // Neo4j 3.2 tries to force schema indexes on shutdown, which fails if they have been opened read-only
+                if (!isReadOnly()) throw e;
+                logger.warn("Shutdown of read-only database reported: "+e.getMessage());
+            }
             database = null;
             logger.info("Closing database in "+databaseDirectory.getAbsolutePath()+"... done");
         }
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return openMode == WikiDragonConst.OpenMode.READONLY;
+    }
+
+    /**
+     * Fail fast if the database has been opened read-only
+     * @throws WikiDragonException
+     */
+    protected void checkWritable() throws WikiDragonException {
+        if (isReadOnly()) throw new WikiDragonException("Database in "+databaseDirectory.getAbsolutePath()+" has been opened read-only");
+    }
+
     @Override
     public void reset() throws WikiDragonException {
+        checkWritable();
         logger.info("Resetting database in "+databaseDirectory.getAbsolutePath()+"...");
         try {
             close();
@@ -169,11 +250,43 @@ public class NeoWikiDragonDatabase implements WikiDragonDatabase {
         return wikiObjectFactory;
     }
 
+    /**
+     * Within a read session of the current thread the transaction is a placebo which joins the session: Closing it
+     * without success() does not mark the session for rollback, only an explicit failure() does.
+     * @return WikiTransaction
+     */
     @Override
     public WikiTransaction beginTx() {
+        if (isInReadSession()) return beginReadSession();
         return new NeoWikiTransaction(this);
     }
 
+    @Override
+    public WikiTransaction beginReadSession() {
+        NeoReadSession lResult = readSession.get();
+        if (lResult == null) {
+            lResult = new NeoReadSession(this);
+            readSession.set(lResult);
+        }
+        else {
+            lResult.depth++;
+        }
+        return lResult;
+    }
+
+    protected void endReadSession(NeoReadSession pNeoReadSession) {
+        if (readSession.get() == pNeoReadSession) {
+            readSession.remove();
+        }
+    }
+
+    /**
+     * @return true if the current thread is within a read session
+     */
+    protected boolean isInReadSession() {
+        return readSession.get() != null;
+    }
+
     @Override
     public Iterable<WikiDataEntity> getWikiDataEntities() {
         return new Iterable<WikiDataEntity>() {
@@ -234,8 +347,190 @@ public class NeoWikiDragonDatabase implements WikiDragonDatabase {
         }
     }
 
+    /**
+     * Set the false positive rate of PageTitleFilters which are built from now on
+     * @param pFalsePositiveRate
+     */
+    public void setPageTitleFilterFalsePositiveRate(double pFalsePositiveRate) {
+        mediaWikiResources.setPageTitleFilterFalsePositiveRate(pFalsePositiveRate);
+    }
+
+    protected MediaWikiResources createMediaWikiResources() {
+        return new MediaWikiResources(new File(databaseDirectory, "wikidragon")) {
+            @Override
+            protected void addPageTitles(MediaWiki pMediaWiki, PageTitleDictionary.Builder pBuilder) {
+                try (Transaction tx = database.beginTx()) {
+                    for (Page lPage:pMediaWiki.getPages()) {
+                        pBuilder.add(lPage.getNamespaceID(), lPage.getTitle(), ((NeoPage)lPage).node.getId());
+                    }
+                    tx.success();
+                }
+            }
+
+            @Override
+            protected Object getMediaWikiProperty(long pMediaWikiNodeId, String pKey, Object pDefaultValue) {
+                return ((NeoMediaWiki)wikiObjectFactory.getWikiObject(pMediaWikiNodeId)).getProperty(pKey, pDefaultValue);
+            }
+
+            @Override
+            protected void setMediaWikiProperty(long pMediaWikiNodeId, String pKey, Object pValue) {
+                ((NeoMediaWiki)wikiObjectFactory.getWikiObject(pMediaWikiNodeId)).setProperty(pKey, pValue);
+            }
+
+            @Override
+            protected void lockMediaWiki(long pMediaWikiNodeId) {
+                // Nested transactions share the locks of the top level transaction
+                try (Transaction tx = database.beginTx()) {
+                    tx.acquireWriteLock(database.getNodeById(pMediaWikiNodeId));
+                    tx.success();
+                }
+            }
+        };
+    }
+
+    protected static Label getLabel(NodeType pNodeType) {
+        return Label.label(pNodeType.name());
+    }
+
+    /**
+     * Properties of each NodeType which are covered by a schema index in STORAGELAYOUT_SCHEMA
+     * @return Map of NodeType to indexed properties
+     */
+    protected static Map<NodeType, String[]> getSchemaIndexDefinitions() {
+        Map<NodeType, String[]> lResult = new HashMap<>();
+        lResult.put(NodeType.MEDIAWIKI, new String[]{NeoMediaWiki.ATTR_MEDIAWIKI_DBNAME});
+        lResult.put(NodeType.NAMESPACE, new String[]{NeoNamespace.ATTR_NAMESPACE_ID});
+        lResult.put(NodeType.PAGE, new String[]{NeoPage.ATTR_PAGE_ID, NeoPage.ATTR_PAGE_TITLE});
+        lResult.put(NodeType.REVISION, new String[]{NeoRevision.ATTR_REVISION_ID, NeoRevision.ATTR_REVISION_PAGENODEID});
+        lResult.put(NodeType.CONTRIBUTOR, new String[]{NeoContributor.ATTR_CONTRIBUTOR_ID, NeoContributor.ATTR_CONTRIBUTOR_NAME});
+        lResult.put(NodeType.PAGETIER, new String[]{NeoPageTier.ATTR_PAGETIER_PAGENODEID});
+        lResult.put(NodeType.WIKIDATAENTITY, new String[]{NeoWikiDataEntity.ATTR_WIKIDATAENTITY_ENTITYID});
+        return lResult;
+    }
+
+    public int getStorageLayout() {
+        return storageLayout;
+    }
+
+    /**
+     * @return true if lookups may use labels and schema indexes
+     */
+    protected boolean isSchemaLayout() {
+        return storageLayout >= STORAGELAYOUT_SCHEMA;
+    }
+
+    /**
+     * Find nodes of a type by an exact property value using the schema index. Only valid in STORAGELAYOUT_SCHEMA.
+     * Has to be called within a transaction.
+     * @param pNodeType
+     * @param pKey
+     * @param pValue
+     * @param pMediaWikiNodeId Restrict to nodes of this MediaWiki or NeoWikiObject.GLOBALINDEXID for no restriction
+     * @return List of matching nodes
+     */
+    protected List<Node> findNodes(NodeType pNodeType, String pKey, Object pValue, long pMediaWikiNodeId) {
+        List<Node> lResult = new ArrayList<>();
+        try (ResourceIterator<Node> i = database.findNodes(getLabel(pNodeType), pKey, pValue)) {
+            while (i.hasNext()) {
+                Node lNode = i.next();
+                if ((pMediaWikiNodeId == NeoWikiObject.GLOBALINDEXID) || (((Long)lNode.getProperty(NeoWikiObject.ATTR_WIKIOBJECT_MEDIAWIKINODEID, NeoWikiObject.GLOBALINDEXID)) == pMediaWikiNodeId)) {
+                    lResult.add(lNode);
+                }
+            }
+        }
+        return lResult;
+    }
+
+    protected Node findNode(NodeType pNodeType, String pKey, Object pValue, long pMediaWikiNodeId) {
+        List<Node> lNodes = findNodes(pNodeType, pKey, pValue, pMediaWikiNodeId);
+        if (lNodes.size() > 1) logger.warn("Duplicate "+pNodeType.name()+" for "+pKey+"="+pValue);
+        return lNodes.isEmpty() ? null : lNodes.get(0);
+    }
+
+    protected void createSchemaIndexes() {
+        try (Transaction tx = database.beginTx()) {
+            Set<String> lExisting = new HashSet<>();
+            for (IndexDefinition lIndex:database.schema().getIndexes()) {
+                for (String lKey:lIndex.getPropertyKeys()) {
+                    lExisting.add(lIndex.getLabel().name()+"\t"+lKey);
+                }
+            }
+            for (Map.Entry<NodeType, String[]> lEntry:getSchemaIndexDefinitions().entrySet()) {
+                for (String lKey:lEntry.getValue()) {
+                    if (!lExisting.contains(lEntry.getKey().name()+"\t"+lKey)) {
+                        database.schema().indexFor(getLabel(lEntry.getKey())).on(lKey).create();
+                    }
+                }
+            }
+            tx.success();
+        }
+        try (Transaction tx = database.beginTx()) {
+            database.schema().awaitIndexesOnline(1, TimeUnit.HOURS);
+            tx.success();
+        }
+    }
+
+    protected void setStorageLayout(int pStorageLayout) {
+        try (Transaction tx = database.beginTx()) {
+            ((NeoMediaWikiCollection)getMediaWikiCollection()).setProperty(NeoMediaWikiCollection.ATTR_MEDIAWIKICOLLECTION_STORAGELAYOUT, pStorageLayout);
+            tx.success();
+        }
+        storageLayout = pStorageLayout;
+    }
+
+    /**
+     * Migrate a store with STORAGELAYOUT_LEGACY in place to STORAGELAYOUT_CURRENT: label all nodes by their type in
+     * batches, create the schema indexes and record the new layout. Can be resumed after an interruption.
+     * @throws WikiDragonException
+     */
+    public void migrateStorageLayout() throws WikiDragonException {
+        checkWritable();
+        if (storageLayout >= STORAGELAYOUT_CURRENT) {
+            logger.info("Storage layout of "+databaseDirectory.getAbsolutePath()+" is up to date");
+            return;
+        }
+        logger.info("Migrating storage layout of "+databaseDirectory.getAbsolutePath()+" from "+storageLayout+" to "+STORAGELAYOUT_CURRENT+"...");
+        long lMaxNodeId = getHighestPossibleNodeIdInUse();
+        long lLabelled = 0;
+        for (long lStart = 0; lStart <= lMaxNodeId; lStart += MIGRATION_BATCH_SIZE) {
+            try (Transaction tx = database.beginTx()) {
+                for (long lId = lStart; lId < Math.min(lStart+MIGRATION_BATCH_SIZE, lMaxNodeId+1); lId++) {
+                    Node lNode;
+                    try {
+                        lNode = database.getNodeById(lId);
+                    }
+                    catch (NotFoundException e) {
+                        continue;
+                    }
+                    String lType = (String)lNode.getProperty(NeoWikiObject.ATTR_WIKIOBJECT_TYPE, null);
+                    if (lType != null) {
+                        Label lLabel = Label.label(lType);
+                        if (!lNode.hasLabel(lLabel)) {
+                            lNode.addLabel(lLabel);
+                            lLabelled++;
+                        }
+                    }
+                }
+                tx.success();
+            }
+            logger.info("Migrating storage layout: "+Math.min(lStart+MIGRATION_BATCH_SIZE, lMaxNodeId+1)+"/"+(lMaxNodeId+1)+" nodes checked, "+lLabelled+" labelled");
+        }
+        createSchemaIndexes();
+        setStorageLayout(STORAGELAYOUT_CURRENT);
+        logger.info("Migrating storage layout of "+databaseDirectory.getAbsolutePath()+"... done");
+    }
+
+    /**
+     * Highest node id which may be in use, taken from the id generator of the node store instead of scanning all nodes
+     * @return node id
+     */
+    protected long getHighestPossibleNodeIdInUse() {
+        return ((GraphDatabaseAPI)database).getDependencyResolver().resolveDependency(IdGeneratorFactory.class).get(IdType.NODE).getHighestPossibleIdInUse();
+    }
+
     protected void initialize() throws WikiDragonException {
         logger.info("Initializing database in "+databaseDirectory.getAbsolutePath()+"...");
+        if (isReadOnly() && !databaseDirectory.exists()) throw new WikiDragonException("Cannot open non-existing database in "+databaseDirectory.getAbsolutePath()+" read-only");
         if (databaseDirectory.exists()) databaseDirectory.mkdirs();
         GraphDatabaseFactory lGraphDatabaseFactory = new GraphDatabaseFactory();
         GraphDatabaseBuilder lGraphDatabaseBuilder = lGraphDatabaseFactory.newEmbeddedDatabaseBuilder(databaseDirectory);
@@ -244,7 +539,14 @@ public class NeoWikiDragonDatabase implements WikiDragonDatabase {
                 lGraphDatabaseBuilder.setConfig(lEntry.getKey(), lEntry.getValue());
             }
         }
+        if (isReadOnly()) {
+            lGraphDatabaseBuilder.setConfig(GraphDatabaseSettings.read_only, "true");
+        }
         database = lGraphDatabaseBuilder.newGraphDatabase();
+        // Kept across resets, like its settings
+        if (mediaWikiResources == null) mediaWikiResources = createMediaWikiResources();
+        boolean lMissingCollection = false;
+        boolean lNewStore = false;
         try (Transaction tx = database.beginTx()) {
             // Init Indexes
             mediaWikiNodeIndexMap = new TLongObjectHashMap<>();
@@ -252,12 +554,32 @@ public class NeoWikiDragonDatabase implements WikiDragonDatabase {
             //
             wikiObjectFactory = new NeoWikiObjectFactory(this);
             if (getMediaWikiCollection() == null) {
-                logger.debug("Creating initial MediaWikiCollection in " + databaseDirectory.getAbsolutePath());
-                NeoMediaWikiCollection.create(this);
+                if (isReadOnly()) {
+                    lMissingCollection = true;
+                }
+                else {
+                    logger.debug("Creating initial MediaWikiCollection in " + databaseDirectory.getAbsolutePath());
+                    NeoMediaWikiCollection.create(this);
+                    lNewStore = true;
+                }
+            }
+            else {
+                storageLayout = (int)((NeoMediaWikiCollection)getMediaWikiCollection()).getProperty(NeoMediaWikiCollection.ATTR_MEDIAWIKICOLLECTION_STORAGELAYOUT, STORAGELAYOUT_LEGACY);
             }
             tx.success();
-            logger.info("Initializing database in " + databaseDirectory.getAbsolutePath() + "... done");
         }
+        if (lNewStore) {
+            createSchemaIndexes();
+            setStorageLayout(STORAGELAYOUT_CURRENT);
+        }
+        else if (storageLayout < STORAGELAYOUT_CURRENT) {
+            logger.warn("Database in "+databaseDirectory.getAbsolutePath()+" uses storage layout "+storageLayout+"- falling back to legacy index lookups. Use migrateStorageLayout() to upgrade.");
+        }
+        if (lMissingCollection) {
+            close();
+            throw new WikiDragonException("No WikiDragon database found in "+databaseDirectory.getAbsolutePath());
+        }
+        logger.info("Initializing database in " + databaseDirectory.getAbsolutePath() + "... done");
     }
 
 }
@@ -23,6 +23,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hucompute.wikidragon.core.model.WikiDragonDatabase;
 import org.hucompute.wikidragon.core.model.WikiObject;
+import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 
@@ -41,8 +42,9 @@ public abstract class NeoWikiObject implements WikiObject {
     protected NeoWikiDragonDatabase wikiDragonDatabase;
     protected Node node;
 
-    private NeoWikiDragonDatabase.NodeType cachedNodeType;
-    private long cachedMediaWikiId = -1;
+    // Volatile since objects may be shared between threads in read-only mode
+    private volatile NeoWikiDragonDatabase.NodeType cachedNodeType;
+    private volatile long cachedMediaWikiId = -1;
 
     protected NeoWikiObject(NeoWikiDragonDatabase pNeoWikiDragonDatabase, Node pNode) {
         wikiDragonDatabase = pNeoWikiDragonDatabase;
@@ -51,6 +53,7 @@ public abstract class NeoWikiObject implements WikiObject {
 
     @Override
     public void delete() {
+        checkWritable();
         node.delete();
     }
 
@@ -83,6 +86,9 @@ public abstract class NeoWikiObject implements WikiObject {
     }
 
     protected Object getProperty(String pKey) {
+        if (wikiDragonDatabase.isInReadSession()) {
+            return node.getProperty(pKey);
+        }
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             Object lResult = node.getProperty(pKey);
             tx.success();
@@ -91,6 +97,9 @@ public abstract class NeoWikiObject implements WikiObject {
     }
 
     protected Object getProperty(String pKey, Object pDefaultValue) {
+        if (wikiDragonDatabase.isInReadSession()) {
+            return node.getProperty(pKey, pDefaultValue);
+        }
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             Object lResult = node.getProperty(pKey, pDefaultValue);
             tx.success();
@@ -99,6 +108,7 @@ public abstract class NeoWikiObject implements WikiObject {
     }
 
     protected void setProperty(String pKey, Object pValue) {
+        checkWritable();
         if (pValue == null) {
             removeProperty(pKey);
         }
@@ -106,11 +116,11 @@ public abstract class NeoWikiObject implements WikiObject {
             try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
                 if (isIndexedGlobal(pKey)) {
                     wikiDragonDatabase.getMediaWikiNodeIndex(GLOBALINDEXID).remove(node, pKey);
-                    wikiDragonDatabase.getMediaWikiNodeIndex(GLOBALINDEXID).add(node, pKey, pValue);
+                    wikiDragonDatabase.getMediaWikiNodeIndex(GLOBALINDEXID).add(node, pKey, getIndexValue(pKey, pValue));
                 }
                 if (isIndexedMediaWiki(pKey)) {
                     wikiDragonDatabase.getMediaWikiNodeIndex(getMediaWikiId()).remove(node, pKey);
-                    wikiDragonDatabase.getMediaWikiNodeIndex(getMediaWikiId()).add(node, pKey, pValue);
+                    wikiDragonDatabase.getMediaWikiNodeIndex(getMediaWikiId()).add(node, pKey, getIndexValue(pKey, pValue));
                 }
                 node.setProperty(pKey, pValue);
                 switch (pKey) {
@@ -118,6 +128,10 @@ public abstract class NeoWikiObject implements WikiObject {
                         cachedMediaWikiId = (Long)pValue;
                         break;
                     }
+                    case ATTR_WIKIOBJECT_TYPE: {
+                        node.addLabel(Label.label((String)pValue));
+                        break;
+                    }
                 }
                 tx.success();
             }
@@ -125,6 +139,7 @@ public abstract class NeoWikiObject implements WikiObject {
     }
 
     protected void removeProperty(String pKey) {
+        checkWritable();
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             if (isIndexedGlobal(pKey)) {
                 wikiDragonDatabase.getMediaWikiNodeIndex(GLOBALINDEXID).remove(node, pKey);
@@ -137,6 +152,26 @@ public abstract class NeoWikiObject implements WikiObject {
         }
     }
 
+    /**
+     * Fail fast on writes if the database has been opened read-only. This is only the backstop for the plain setters
+     * of the API, which do not declare a WikiDragonException. Methods declaring it check
+     * {@link NeoWikiDragonDatabase#checkWritable()} first, so their callers always get a WikiDragonException.
+     */
+    protected void checkWritable() {
+        if (wikiDragonDatabase.isReadOnly()) throw new IllegalStateException("Database has been opened read-only");
+    }
+
+    /**
+     * Value under which an indexed property is put into the index. Properties stored in a compact encoding are
+     * indexed in their plain form, so they can be queried with the values of the API.
+     * @param pProperty
+     * @param pValue Stored value
+     * @return Indexed value
+     */
+    protected Object getIndexValue(String pProperty, Object pValue) {
+        return pValue;
+    }
+
     protected abstract boolean isIndexedGlobal(String pProperty);
 
     protected abstract boolean isIndexedMediaWiki(String pProperty);
@@ -52,6 +52,9 @@ public class NeoWikiObjectFactory implements WikiObjectFactory {
      * @return WikiObject based on this Id
      */
     protected WikiObject getWikiObject(long pUniqueId) {
+        if (wikiDragonDatabase.isInReadSession()) {
+            return getWikiObject(wikiDragonDatabase.database.getNodeById(pUniqueId));
+        }
         try (Transaction tx = wikiDragonDatabase.database.beginTx()) {
             WikiObject lResult = getWikiObject(wikiDragonDatabase.database.getNodeById(pUniqueId));
             tx.success();
@@ -19,8 +19,10 @@
 
 package org.hucompute.wikidragon.core.model.neo;
 
+import gnu.trove.map.hash.TLongIntHashMap;
 import org.hucompute.wikidragon.core.model.WikiTransaction;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.coreapi.PlaceboTransaction;
 
 /**
  * @author Rüdiger Gleim
@@ -29,6 +31,9 @@ public class NeoWikiTransaction implements WikiTransaction {
 
     protected NeoWikiDragonDatabase wikiDragonDatabase;
     protected Transaction tx;
+    // Comment dictionary entries written into this transaction, persisted once it has been committed
+    protected TLongIntHashMap writtenCommentDictionaries;
+    protected boolean failed;
 
     protected NeoWikiTransaction(NeoWikiDragonDatabase pNeoWikiDragonDatabase) {
         wikiDragonDatabase = pNeoWikiDragonDatabase;
@@ -37,22 +42,31 @@ public class NeoWikiTransaction implements WikiTransaction {
 
     @Override
     public void success() {
+        // A nested transaction is committed by the top level one, which writes the comment dictionaries itself
+        if (!(tx instanceof PlaceboTransaction)) {
+            writtenCommentDictionaries = wikiDragonDatabase.mediaWikiResources.writeCommentDictionaries();
+        }
         tx.success();
     }
 
     @Override
     public void failure() {
+        failed = true;
         tx.failure();
     }
 
     @Override
     public void terminate() {
+        failed = true;
         tx.terminate();
     }
 
     @Override
     public void close() {
         tx.close();
+        if ((writtenCommentDictionaries != null) && !failed) {
+            wikiDragonDatabase.mediaWikiResources.commentDictionariesPersisted(writtenCommentDictionaries);
+        }
     }
 
     @Override
@@ -19,6 +19,10 @@
 
 package org.hucompute.wikidragon.core.model.neobat;
 
+import gnu.trove.impl.Constants;
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongLongHashMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
 import org.apache.logging.log4j.LogManager;
@@ -26,13 +30,23 @@ import org.apache.logging.log4j.Logger;
 import org.bouncycastle.util.Iterable;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.*;
+import org.hucompute.wikidragon.core.parsing.PageTierNetworkExtractor;
 import org.hucompute.wikidragon.core.parsing.XOWAParser;
+import org.hucompute.wikidragon.core.parsing.XOWAParserPool;
 import org.hucompute.wikidragon.core.parsing.XOWATierMassParser;
 import org.hucompute.wikidragon.core.parsing.filter.XOWATierMassParserFilter;
-import org.hucompute.wikidragon.core.util.HTMLWikiLinkExtraction;
+import org.hucompute.wikidragon.core.util.CategoryClosureIndex;
+import org.hucompute.wikidragon.core.util.CategoryMembershipSeries;
 import org.hucompute.wikidragon.core.util.IOUtil;
-import org.hucompute.wikidragon.core.util.SQLTupelIterator;
+import org.hucompute.wikidragon.core.util.LinkTimestampUtil;
+import org.hucompute.wikidragon.core.util.LinkTypeUtil;
+import org.hucompute.wikidragon.core.util.LinkTripleSorter;
+import org.hucompute.wikidragon.core.util.PageTitleCache;
+import org.hucompute.wikidragon.core.util.PageTitleDictionary;
+import org.hucompute.wikidragon.core.util.PageTitleFilter;
+import org.hucompute.wikidragon.core.util.SQLDumpReader;
 import org.hucompute.wikidragon.core.util.StringUtil;
+import org.hucompute.wikidragon.core.util.WikiTextLinkExtraction;
 
 import java.io.File;
 import java.io.IOException;
@@ -143,6 +157,26 @@ public class NeoBatMediaWiki extends NeoBatWikiObject implements MediaWiki {
         return NeoBatPage.create(this, pId, (NeoBatNamespace)pNeoNamespace, pTitle);
     }
 
+    @Override
+    public PageTitleDictionary getPageTitleDictionary() throws WikiDragonException {
+        return wikiDragonDatabase.mediaWikiResources.buildPageTitleDictionary(this, node);
+    }
+
+    @Override
+    public long getWikiPageLinkGeneration() {
+        return wikiDragonDatabase.mediaWikiResources.getWikiPageLinkGeneration(node);
+    }
+
+    @Override
+    public PageTitleCache getPageTitleCache() {
+        return wikiDragonDatabase.mediaWikiResources.getPageTitleCache(this, node);
+    }
+
+    @Override
+    public PageTitleFilter getPageTitleFilter() throws WikiDragonException {
+        return wikiDragonDatabase.mediaWikiResources.buildPageTitleFilter(this, node);
+    }
+
     @Override
     public Page getPage(long pId) {
         Page lResult = null;
@@ -278,6 +312,16 @@ public class NeoBatMediaWiki extends NeoBatWikiObject implements MediaWiki {
         return NeoBatContributor.create(this, pName, pId);
     }
 
+    @Override
+    public XOWAParserPool getXOWAParserPool() {
+        return wikiDragonDatabase.mediaWikiResources.getXOWAParserPool(this, node);
+    }
+
+    /**
+     * @return XOWAParser owned by this object. It must not be used by several threads at once, use getXOWAParserPool instead.
+     * @throws WikiDragonException
+     */
+    @Deprecated
     public synchronized XOWAParser getXOWAParser() throws WikiDragonException {
         if (xowaParser == null) {
             xowaParser = new XOWAParser(this);
@@ -287,38 +331,39 @@ public class NeoBatMediaWiki extends NeoBatWikiObject implements MediaWiki {
 
     @Override
     public void importWikiDataEntityUsageDump(File pInputFile) throws WikiDragonException {
-        try {
+        try (SQLDumpReader lReader = new SQLDumpReader(IOUtil.getInputStream(pInputFile))) {
             Map<String, WikiDataEntity> lEntityMap = new HashMap<>();
             Map<Long, Page> lPageMap = new HashMap<>();
-            SQLTupelIterator i = new SQLTupelIterator(IOUtil.getInputStream(pInputFile), "UTF-8");
             long lLinkCounter = 0;
             long lImportedLinkCounter = 0;
-            while (i.hasNext()) {
-                if (lLinkCounter % 100000 == 0) {
-                    logger.info("Importing Links. Parsed=" + lLinkCounter + ", Imported=" + lImportedLinkCounter);
-                }
-                lLinkCounter++;
-                String[] lFields = i.next();
-                String lEntityID = lFields[1];
-                String lAspect = lFields[2];
-                long lPageID = Long.parseLong(lFields[3]);
-                Page lPage = lPageMap.get(lPageID);
-                if (lPage == null) {
-                    lPage = getPage(lPageID);
-                    if (lPage != null) {
-                        lPageMap.put(lPageID, lPage);
+            SQLDumpReader.TupleBatch lBatch;
+            while ((lBatch = lReader.nextBatch()) != null) {
+                for (int t=0; t<lBatch.size(); t++) {
+                    if (lLinkCounter % 100000 == 0) {
+                        logger.info("Importing Links. Parsed=" + lLinkCounter + ", Imported=" + lImportedLinkCounter);
                     }
-                }
-                if (lPage != null) {
-                    WikiDataEntity lEntity = lEntityMap.get(lEntityID);
-                    if (lEntity == null) {
-                        lEntity = wikiDragonDatabase.getWikiDataEntity(lEntityID);
+                    lLinkCounter++;
+                    String lEntityID = lBatch.getString(t, 1);
+                    String lAspect = lBatch.getString(t, 2);
+                    long lPageID = lBatch.getLong(t, 3);
+                    Page lPage = lPageMap.get(lPageID);
+                    if (lPage == null) {
+                        lPage = getPage(lPageID);
+                        if (lPage != null) {
+                            lPageMap.put(lPageID, lPage);
+                        }
                     }
-                    if (lEntity == null) {
-                        lEntity = wikiDragonDatabase.createWikiDataEntity(lEntityID);
-                        lEntityMap.put(lEntityID, lEntity);
+                    if (lPage != null) {
+                        WikiDataEntity lEntity = lEntityMap.get(lEntityID);
+                        if (lEntity == null) {
+                            lEntity = wikiDragonDatabase.getWikiDataEntity(lEntityID);
+                        }
+                        if (lEntity == null) {
+                            lEntity = wikiDragonDatabase.createWikiDataEntity(lEntityID);
+                            lEntityMap.put(lEntityID, lEntity);
+                        }
+                        lPage.createAspectWikiDataEntityRelation(lEntity, lAspect);
                     }
-                    lPage.createAspectWikiDataEntityRelation(lEntity, lAspect);
                 }
             }
         }
@@ -328,109 +373,95 @@ public class NeoBatMediaWiki extends NeoBatWikiObject implements MediaWiki {
     }
 
     @Override
-    public void importLinkDump(File pInputFile, MediaWikiConst.LinkType pLinkType) throws WikiDragonException {
+    public void getWikiPageLinkChanges(ZonedDateTime pFrom, ZonedDateTime pTo, WikiPageLinkChanges.Visitor pVisitor, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        long[] lFrom = getWikiPageLinkSnapshotsAt(StringUtil.zonedDateTime2Long(pFrom));
+        long[] lTo = getWikiPageLinkSnapshotsAt(StringUtil.zonedDateTime2Long(pTo));
+        WikiObjectIterator<Page> i = getPageIterator();
         try {
+            while (i.hasNext()) {
+                Page lPage = i.next();
+                WikiPageLinkChanges lChanges = ((NeoBatPage)lPage).getWikiPageLinkChanges(pFrom, pTo, lFrom, lTo, pLinkTypes);
+                if (!lChanges.isEmpty() && !pVisitor.visit(lPage, lChanges)) break;
+            }
+        }
+        finally {
+            i.close();
+        }
+    }
+
+    @Override
+    public void importLinkDump(File pInputFile, MediaWikiConst.LinkType pLinkType) throws WikiDragonException {
+        try (SQLDumpReader lReader = new SQLDumpReader(IOUtil.getInputStream(pInputFile))) {
             TLongObjectHashMap<Page> lPageMap = new TLongObjectHashMap<>();
-            Map<String, Page> lTitleMap = new HashMap<>();
-            SQLTupelIterator i = new SQLTupelIterator(IOUtil.getInputStream(pInputFile), "UTF-8");
+            PageTitleDictionary lPageTitleDictionary = getPageTitleDictionary();
             Page lPrevPage = null;
             long lPrevPageID = -1;
             Set<Page> lLinkedPages = new HashSet<>();
             long lLinkCounter = 0;
             long lImportedLinkCounter = 0;
-            while (i.hasNext()) {
-                if (lLinkCounter % 100000 == 0) {
-                    logger.info("Importing Links. Parsed="+lLinkCounter+", Imported="+lImportedLinkCounter);
-                }
-                lLinkCounter++;
-                String[] lFields = i.next();
-                Page lCurrentPage = null;
-                long lCurrentPageID = -1;
-                String lTargetTitle = null;
-                int lTargetNamespaceID = -1;
-                switch (pLinkType) {
-                    case ARTICLE: {
-                        lCurrentPageID = Long.parseLong(lFields[0]);
-                        if (lCurrentPageID == lPrevPageID) {
-                            lCurrentPage = lPrevPage;
-                        }
-                        else {
-                            lCurrentPage = lPageMap.get(lCurrentPageID);
-                            if (lCurrentPage == null) {
-                                lCurrentPage = getPage(lCurrentPageID);
-                                if (lCurrentPage != null) {
-                                    lPageMap.put(lCurrentPageID, lCurrentPage);
-                                }
-                            }
-                        }
-                        lTargetNamespaceID = Integer.parseInt(lFields[1]);
-                        lTargetTitle = lFields[2].replace("_", " ");
-                        break;
+            SQLDumpReader.TupleBatch lBatch;
+            while ((lBatch = lReader.nextBatch()) != null) {
+                for (int t=0; t<lBatch.size(); t++) {
+                    if (lLinkCounter % 1000000 == 0) {
+                        logger.info("Importing Links. Parsed="+lLinkCounter+", Imported="+lImportedLinkCounter);
                     }
-                    case CATEGORIZATION: {
-                        lCurrentPageID = Long.parseLong(lFields[0]);
-                        if (lCurrentPageID == lPrevPageID) {
-                            lCurrentPage = lPrevPage;
-                        }
-                        else {
-                            lCurrentPage = lPageMap.get(lCurrentPageID);
-                            if (lCurrentPage == null) {
-                                lCurrentPage = getPage(lCurrentPageID);
-                                if (lCurrentPage != null) {
-                                    lPageMap.put(lCurrentPageID, lCurrentPage);
-                                }
+                    lLinkCounter++;
+                    long lCurrentPageID = lBatch.getLong(t, 0);
+                    Page lCurrentPage = null;
+                    if (lCurrentPageID == lPrevPageID) {
+                        lCurrentPage = lPrevPage;
+                    }
+                    else {
+                        lCurrentPage = lPageMap.get(lCurrentPageID);
+                        if (lCurrentPage == null) {
+                            lCurrentPage = getPage(lCurrentPageID);
+                            if (lCurrentPage != null) {
+                                lPageMap.put(lCurrentPageID, lCurrentPage);
                             }
                         }
-                        lTargetNamespaceID = 14;
-                        lTargetTitle = lFields[1].replace("_", " ");
-                        break;
                     }
-                    case REDIRECT: {
-                        lCurrentPageID = Long.parseLong(lFields[0]);
-                        if (lCurrentPageID == lPrevPageID) {
-                            lCurrentPage = lPrevPage;
+                    String lTargetTitle = null;
+                    int lTargetNamespaceID = -1;
+                    switch (pLinkType) {
+                        case ARTICLE: {
+                            lTargetNamespaceID = lBatch.getInt(t, 1);
+                            lTargetTitle = lBatch.getString(t, 2).replace("_", " ");
+                            break;
                         }
-                        else {
-                            lCurrentPage = lPageMap.get(lCurrentPageID);
-                            if (lCurrentPage == null) {
-                                lCurrentPage = getPage(lCurrentPageID);
-                                if (lCurrentPage != null) {
-                                    lPageMap.put(lCurrentPageID, lCurrentPage);
-                                }
-                            }
+                        case CATEGORIZATION: {
+                            lTargetNamespaceID = 14;
+                            lTargetTitle = lBatch.getString(t, 1).replace("_", " ");
+                            break;
                         }
-                        lTargetNamespaceID = Integer.parseInt(lFields[1]);
-                        lTargetTitle = lFields[2].replace("_", " ");
-                        if (lFields[3].length() > 0) {
+                        case REDIRECT: {
                             // Skip InterWiki Links
-                            lTargetTitle = null;
+                            if (lBatch.getLength(t, 3) == 0) {
+                                lTargetNamespaceID = lBatch.getInt(t, 1);
+                                lTargetTitle = lBatch.getString(t, 2).replace("_", " ");
+                            }
+                            break;
                         }
-                        break;
                     }
-                }
-                if ((lPrevPage != null) && (lPrevPage != lCurrentPage)) {
-                    if (lLinkedPages.size() > 0) {
-                        Map<MediaWikiConst.LinkType, Set<Page>> lMap = new HashMap<>();
-                        lMap.put(pLinkType, lLinkedPages);
-                        ((NeoBatPage)lPrevPage).addWikiPageLinksOut(WikiDragonConst.NULLDATETIME, lMap);
+                    if ((lPrevPage != null) && (lPrevPage != lCurrentPage)) {
+                        if (lLinkedPages.size() > 0) {
+                            Map<MediaWikiConst.LinkType, Set<Page>> lMap = new HashMap<>();
+                            lMap.put(pLinkType, lLinkedPages);
+                            ((NeoBatPage)lPrevPage).addWikiPageLinksOut(WikiDragonConst.NULLDATETIME, lMap);
+                        }
+                        lLinkedPages.clear();
                     }
-                    lLinkedPages.clear();
-                }
-                if (lTargetTitle != null) {
-                    Page lTargetPage = lTitleMap.get(lTargetNamespaceID+"\t"+lTargetTitle);
-                    if (lTargetPage == null) {
-                        lTargetPage = getPage(lTargetNamespaceID, lTargetTitle);
+                    if (lTargetTitle != null) {
+                        // Titles in the dumps are already normalized
+                        long lTargetNode = lPageTitleDictionary.get(lTargetNamespaceID, lTargetTitle);
+                        Page lTargetPage = lTargetNode == WikiDragonConst.NULLNODEID ? null : (Page)wikiDragonDatabase.wikiObjectFactory.getWikiObject(lTargetNode, NeoBatWikiDragonDatabase.NodeType.PAGE);
                         if (lTargetPage != null) {
-                            lTitleMap.put(lTargetNamespaceID+"\t"+lTargetTitle, lTargetPage);
+                            lImportedLinkCounter++;
+                            lLinkedPages.add(lTargetPage);
                         }
                     }
-                    if (lTargetPage != null) {
-                        lImportedLinkCounter++;
-                        lLinkedPages.add(lTargetPage);
-                    }
+                    lPrevPage = lCurrentPage;
+                    lPrevPageID = lCurrentPageID;
                 }
-                lPrevPage = lCurrentPage;
-                lPrevPageID = lCurrentPageID;
             }
             if (lPrevPage != null) {
                 if (lLinkedPages.size() > 0) {
@@ -448,6 +479,118 @@ public class NeoBatMediaWiki extends NeoBatWikiObject implements MediaWiki {
         }
     }
 
+    /**
+     * Bulk variant of importLinkDump for a single dump
+     * @param pInputFile
+     * @param pLinkType
+     * @throws WikiDragonException
+     */
+    public void importLinkDumpBulk(File pInputFile, MediaWikiConst.LinkType pLinkType) throws WikiDragonException {
+        Map<MediaWikiConst.LinkType, File> lMap = new EnumMap<>(MediaWikiConst.LinkType.class);
+        lMap.put(pLinkType, pInputFile);
+        importLinkDumpsBulk(lMap);
+    }
+
+    /**
+     * Import link dumps in two passes. The first pass resolves source and target of every row to node ids and spills
+     * the resulting triples to disk. They are sorted by source node externally and the second pass writes the
+     * relationships of one source node after the other, so duplicates are dropped and writes are sequential.
+     * Memory is bounded by the sort buffer and the page id map regardless of the size of the dumps.
+     * @param pTypeFileMap Dump file by LinkType
+     * @throws WikiDragonException
+     */
+    public void importLinkDumpsBulk(Map<MediaWikiConst.LinkType, File> pTypeFileMap) throws WikiDragonException {
+        MediaWikiConst.LinkType[] lLinkTypes = MediaWikiConst.LinkType.values();
+        PageTitleDictionary lPageTitleDictionary = getPageTitleDictionary();
+        logger.info("Mapping page ids to nodes...");
+        TLongLongHashMap lPageNodeMap = new TLongLongHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1, WikiDragonConst.NULLNODEID);
+        for (Page lPage:getPages()) {
+            lPageNodeMap.put(lPage.getId(), ((NeoBatPage)lPage).node);
+        }
+        try (LinkTripleSorter lSorter = new LinkTripleSorter(wikiDragonDatabase.getLinkImportDirectory(node))) {
+            // Pass 1: Resolve endpoints
+            for (Map.Entry<MediaWikiConst.LinkType, File> lEntry:pTypeFileMap.entrySet()) {
+                MediaWikiConst.LinkType lLinkType = lEntry.getKey();
+                long lLinkCounter = 0;
+                long lResolvedLinkCounter = 0;
+                try (SQLDumpReader lReader = new SQLDumpReader(IOUtil.getInputStream(lEntry.getValue()))) {
+                    SQLDumpReader.TupleBatch lBatch;
+                    while ((lBatch = lReader.nextBatch()) != null) {
+                        for (int t=0; t<lBatch.size(); t++) {
+                            if (lLinkCounter % 1000000 == 0) {
+                                logger.info("Resolving "+lLinkType+" Links. Parsed="+lLinkCounter+", Resolved="+lResolvedLinkCounter);
+                            }
+                            lLinkCounter++;
+                            long lSourceNode = lPageNodeMap.get(lBatch.getLong(t, 0));
+                            if (lSourceNode == WikiDragonConst.NULLNODEID) continue;
+                            long lTargetNode = WikiDragonConst.NULLNODEID;
+                            switch (lLinkType) {
+                                case ARTICLE: {
+                                    lTargetNode = lPageTitleDictionary.get(lBatch.getInt(t, 1), lBatch.getString(t, 2).replace("_", " "));
+                                    break;
+                                }
+                                case CATEGORIZATION: {
+                                    lTargetNode = lPageTitleDictionary.get(14, lBatch.getString(t, 1).replace("_", " "));
+                                    break;
+                                }
+                                case REDIRECT: {
+                                    // Skip InterWiki Links
+                                    if (lBatch.getLength(t, 3) == 0) {
+                                        lTargetNode = lPageTitleDictionary.get(lBatch.getInt(t, 1), lBatch.getString(t, 2).replace("_", " "));
+                                    }
+                                    break;
+                                }
+                            }
+                            if (lTargetNode != WikiDragonConst.NULLNODEID) {
+                                lSorter.add(lSourceNode, lTargetNode, lLinkType.ordinal());
+                                lResolvedLinkCounter++;
+                            }
+                        }
+                    }
+                }
+                logger.info("Resolving "+lLinkType+" Links. Parsed="+lLinkCounter+", Resolved="+lResolvedLinkCounter+" done");
+            }
+            lPageNodeMap = null;
+
+            // Pass 2: Write relationships grouped by source node
+            long lTimestamp = StringUtil.zonedDateTime2Long(WikiDragonConst.NULLDATETIME);
+            long lImportedLinkCounter = 0;
+            try (LinkTripleSorter.Cursor lCursor = lSorter.sort()) {
+                Map<WikiDragonConst.RelTypes, TLongArrayList> lTypeTargetsMap = new EnumMap<>(WikiDragonConst.RelTypes.class);
+                long lPrevSourceNode = WikiDragonConst.NULLNODEID;
+                while (lCursor.next()) {
+                    if ((lCursor.getSource() != lPrevSourceNode) && (lPrevSourceNode != WikiDragonConst.NULLNODEID)) {
+                        NeoBatPage.addWikiPageLinksOut(wikiDragonDatabase, node, lPrevSourceNode, lTimestamp, lTypeTargetsMap);
+                        lTypeTargetsMap.clear();
+                    }
+                    lPrevSourceNode = lCursor.getSource();
+                    WikiDragonConst.RelTypes lRelType = LinkTypeUtil.getRelType(lLinkTypes[lCursor.getType()]);
+                    TLongArrayList lTargets = lTypeTargetsMap.get(lRelType);
+                    if (lTargets == null) {
+                        lTargets = new TLongArrayList();
+                        lTypeTargetsMap.put(lRelType, lTargets);
+                    }
+                    lTargets.add(lCursor.getTarget());
+                    if (lImportedLinkCounter % 1000000 == 0) {
+                        logger.info("Writing Links. Imported="+lImportedLinkCounter);
+                    }
+                    lImportedLinkCounter++;
+                }
+                if (lPrevSourceNode != WikiDragonConst.NULLNODEID) {
+                    NeoBatPage.addWikiPageLinksOut(wikiDragonDatabase, node, lPrevSourceNode, lTimestamp, lTypeTargetsMap);
+                }
+            }
+            logger.info("Writing Links. Imported="+lImportedLinkCounter+" done");
+        }
+        catch (IOException e) {
+            throw new WikiDragonException(e.getMessage(), e);
+        }
+        // Store that we have extracted this kind of information
+        for (MediaWikiConst.LinkType lLinkType:pTypeFileMap.keySet()) {
+            addWikiPageLinkAvailable(WikiDragonConst.NULLDATETIME, lLinkType);
+        }
+    }
+
     @Override
     public void createPageTiersHTML(ZonedDateTime pTimestamp, XOWATierMassParserFilter pXOWATierMassParserFilter) throws WikiDragonException {
         XOWATierMassParser lXOWATierMassParser = new XOWATierMassParser(this, pTimestamp, pXOWATierMassParserFilter);
@@ -494,32 +637,56 @@ public class NeoBatMediaWiki extends NeoBatWikiObject implements MediaWiki {
 
     @Override
     public void extractPageTierNetwork(ZonedDateTime pTimestamp) throws WikiDragonException {
-        long lPageCounter = 0;
-        Set<Page> lPages = new HashSet<>();
-        for (Page lPage:getPages()) {
-            lPages.add(lPage);
-        }
-        Map<Integer, Map<String, Page>> lCacheMap = new HashMap<>();
-        for (Page lPage:lPages) {
-            try (WikiTransaction tx = getWikiDragonDatabase().beginTx()) {
-                lPageCounter++;
-                logger.info("Extracting PageTier Network: " + lPageCounter + " pages parsed");
-                PageTier lPageTier = lPage.getPageTierAt(pTimestamp);
-                if (lPageTier != null) {
-                    String lHtml = lPageTier.getTierAttribute(PageTier.TierAttribute.HTML);
-                    Set<WikiPageLink> lLinks = HTMLWikiLinkExtraction.extractWikiPageLinks(this, lPage, lHtml, pTimestamp, lCacheMap);
-                    Map<MediaWikiConst.LinkType, Set<Page>> lMap = new HashMap<>();
-                    for (MediaWikiConst.LinkType lType : MediaWikiConst.LinkType.values()) {
-                        lMap.put(lType, new HashSet<>());
-                    }
-                    for (WikiPageLink lLink : lLinks) {
-                        lMap.get(lLink.getLinkType()).add(lLink.getTarget());
-                    }
-                    ((NeoBatPage) lPage).addWikiPageLinksOut(pTimestamp, lMap);
-                }
-                tx.success();
-            }
+        extractPageTierNetwork(pTimestamp, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Extract the link network of the PageTiers at the given timestamp. An interrupted extraction resumes where it stopped
+     * when the database has been closed properly since. The BatchInserter persists links only on shutdown, so after a
+     * crash the pages of the last session are extracted again.
+     * @param pTimestamp
+     * @param pThreads Number of extraction workers
+     * @throws WikiDragonException
+     */
+    public void extractPageTierNetwork(ZonedDateTime pTimestamp, int pThreads) throws WikiDragonException {
+        if (isPageTierNetworkExtracted(pTimestamp)) {
+            logger.info("PageTier Network at "+StringUtil.zonedDateTime2String(pTimestamp.withZoneSameInstant(ZoneId.of("UTC")))+" has already been extracted");
+            return;
         }
+        // Make sure title lookups during link extraction are served by the filter and the dictionary
+        getPageTitleFilter();
+        PageTierNetworkExtractor lExtractor = new PageTierNetworkExtractor(this, pTimestamp, pThreads, wikiDragonDatabase.getPageTierNetworkJournalFile(node, pTimestamp));
+        lExtractor.setPendingJournalFile(wikiDragonDatabase.getPendingJournalFile(wikiDragonDatabase.getPageTierNetworkJournalFile(node, pTimestamp)));
+        lExtractor.extract();
+        for (MediaWikiConst.LinkType lLinkType:MediaWikiConst.LinkType.values()) {
+            addWikiPageLinkAvailable(pTimestamp, lLinkType);
+        }
+        lExtractor.deleteJournal();
+    }
+
+    /**
+     * Extract the link network at the given timestamp by scanning the raw text of the revisions valid at that time.
+     * Much faster than rendering, but links produced by templates are only found if configured as link templates.
+     * The links are stored like those of the PageTier network, so only one of both can be extracted per timestamp.
+     * @param pTimestamp
+     * @param pThreads Number of extraction workers
+     * @param pWikiTextLinkExtraction Configured scanner
+     * @throws WikiDragonException
+     */
+    public void extractWikiTextNetwork(ZonedDateTime pTimestamp, int pThreads, WikiTextLinkExtraction pWikiTextLinkExtraction) throws WikiDragonException {
+        if (isPageTierNetworkExtracted(pTimestamp)) {
+            logger.info("Network at "+StringUtil.zonedDateTime2String(pTimestamp.withZoneSameInstant(ZoneId.of("UTC")))+" has already been extracted");
+            return;
+        }
+        getPageTitleFilter();
+        PageTierNetworkExtractor lExtractor = new PageTierNetworkExtractor(this, pTimestamp, pThreads, wikiDragonDatabase.getWikiTextNetworkJournalFile(node, pTimestamp));
+        lExtractor.setPendingJournalFile(wikiDragonDatabase.getPendingJournalFile(wikiDragonDatabase.getWikiTextNetworkJournalFile(node, pTimestamp)));
+        lExtractor.setWikiTextLinkExtraction(pWikiTextLinkExtraction);
+        lExtractor.extract();
+        for (MediaWikiConst.LinkType lLinkType:MediaWikiConst.LinkType.values()) {
+            addWikiPageLinkAvailable(pTimestamp, lLinkType);
+        }
+        lExtractor.deleteJournal();
     }
 
     @Override
@@ -533,20 +700,20 @@ public class NeoBatMediaWiki extends NeoBatWikiObject implements MediaWiki {
             }
         }
         else {
-            List<Page> lQueue = new ArrayList<>();
+            Deque<Page> lQueue = new ArrayDeque<>();
             Set<Page> lKnown = new HashSet<>();
             for (Page lSeed:pCategoryPage) {
-                lQueue.add(0, lSeed);
+                lQueue.addLast(lSeed);
             }
             lKnown.addAll(lQueue);
             while (lQueue.size() > 0) {
-                Page lPage = lQueue.remove(lQueue.size()-1);
+                Page lPage = lQueue.removeFirst();
                 for (WikiPageLink lLink : lPage.getWikiPageLinksIn(MediaWikiConst.LinkType.CATEGORIZATION)) {
                     Page lSub = lLink.getSource();
                     if (!lKnown.contains(lSub)) {
                         lKnown.add(lSub);
                         lResult.add(lSub);
-                        lQueue.add(0, lSub);
+                        lQueue.addLast(lSub);
                     }
                 }
             }
@@ -554,6 +721,118 @@ public class NeoBatMediaWiki extends NeoBatWikiObject implements MediaWiki {
         return lResult;
     }
 
+    /**
+     * Get all pages below the given categories within a depth at one timestamp. The query is answered by a
+     * CategoryClosureIndex of that depth, which is built on first request.
+     * @param pTimestamp Timestamp of the PageTier network or WikiDragonConst.NULLDATETIME for the links of the SQL dumps
+     * @param pMaxDepth 1 for directly categorized pages
+     * @param pCategoryPage
+     * @return Pages
+     * @throws WikiDragonException
+     */
+    public Set<Page> getCategorizedPages(ZonedDateTime pTimestamp, int pMaxDepth, Page... pCategoryPage) throws WikiDragonException {
+        CategoryClosureIndex lIndex = getCategoryClosureIndex(pTimestamp, pMaxDepth);
+        TLongHashSet lPageIds = new TLongHashSet();
+        for (Page lCategory:pCategoryPage) {
+            lPageIds.addAll(lIndex.getMemberPageIds(lCategory.getId(), pMaxDepth));
+        }
+        Set<Page> lResult = new HashSet<>();
+        TLongIterator i = lPageIds.iterator();
+        while (i.hasNext()) {
+            Page lPage = getPage(i.next());
+            if (lPage != null) lResult.add(lPage);
+        }
+        return lResult;
+    }
+
+    /**
+     * Get the CategoryClosureIndex at one timestamp up to a depth. It is built on first request and rebuilt once links
+     * have been added.
+     * @param pTimestamp Timestamp of the PageTier network or WikiDragonConst.NULLDATETIME for the links of the SQL dumps
+     * @param pMaxDepth Maximum depth, at least 1. The unlimited closure of the top level categories of a large wiki
+     *                  covers most of its pages, so keep it as small as the queries allow.
+     * @return CategoryClosureIndex
+     * @throws WikiDragonException
+     */
+    public CategoryClosureIndex getCategoryClosureIndex(ZonedDateTime pTimestamp, int pMaxDepth) throws WikiDragonException {
+        return wikiDragonDatabase.getCategoryClosureIndex(this, pTimestamp, pMaxDepth);
+    }
+
+    /**
+     * Stream the direct members of a category at each of the given timestamps, e.g. a monthly grid. The categorization
+     * links of all network snapshots are read once and swept over the timestamps instead of traversing the category at
+     * each of them. A timestamp sees the links of the latest snapshot at or before it. Subcategories count as members
+     * but are not expanded.
+     * @param pCategoryPage
+     * @param pTimestamps
+     * @param pMembers true to pass the node ids of the members to the visitor, false for counts only
+     * @param pVisitor
+     * @throws WikiDragonException
+     */
+    public void visitCategoryMembership(Page pCategoryPage, List<ZonedDateTime> pTimestamps, boolean pMembers, CategoryMembershipSeries.Visitor pVisitor) throws WikiDragonException {
+        CategoryMembershipSeries lSeries = new CategoryMembershipSeries(getWikiPageLinkSnapshots(MediaWikiConst.LinkType.CATEGORIZATION), pMembers);
+        TLongObjectHashMap<long[]> lTimestampMap = ((NeoBatPage)pCategoryPage).getWikiPageLinkTimestampsIn(MediaWikiConst.LinkType.CATEGORIZATION);
+        for (long lSourceNode:lTimestampMap.keys()) {
+            lSeries.addMember(lSourceNode, lTimestampMap.get(lSourceNode));
+        }
+        lSeries.sweep(pTimestamps, pVisitor);
+    }
+
+    /**
+     * Get the number of direct members of a category at each of the given timestamps, see visitCategoryMembership
+     * @param pCategoryPage
+     * @param pTimestamps Timestamps in ascending order
+     * @return Member counts
+     * @throws WikiDragonException
+     */
+    public int[] getCategoryMembershipCounts(Page pCategoryPage, List<ZonedDateTime> pTimestamps) throws WikiDragonException {
+        int[] lResult = new int[pTimestamps.size()];
+        int[] lIndex = new int[1];
+        visitCategoryMembership(pCategoryPage, pTimestamps, false, (pTimestamp, pMemberCount, pMemberNodeIds) -> {
+            lResult[lIndex[0]++] = pMemberCount;
+            return true;
+        });
+        return lResult;
+    }
+
+    /**
+     * Map a timestamp to the latest snapshot at or before it for each LinkType. WikiDragonConst.NULLDATETIME is kept,
+     * since it addresses the links of the SQL dumps.
+     * @param pTimestamp Epoch millis
+     * @return Epoch millis of the snapshot by LinkType ordinal, Long.MIN_VALUE if there is none
+     */
+    protected long[] getWikiPageLinkSnapshotsAt(long pTimestamp) {
+        long[] lResult = new long[MediaWikiConst.LinkType.values().length];
+        for (MediaWikiConst.LinkType lLinkType:MediaWikiConst.LinkType.values()) {
+            if (pTimestamp == StringUtil.zonedDateTime2Long(WikiDragonConst.NULLDATETIME)) {
+                lResult[lLinkType.ordinal()] = pTimestamp;
+            }
+            else {
+                long[] lSnapshots = getWikiPageLinkSnapshots(lLinkType);
+                Arrays.sort(lSnapshots);
+                lResult[lLinkType.ordinal()] = LinkTimestampUtil.floorSnapshot(lSnapshots, pTimestamp);
+            }
+        }
+        return lResult;
+    }
+
+    /**
+     * Get the network snapshots in which links of a type have been stored. The links of the SQL dumps have no time and are left out.
+     * @param pLinkType
+     * @return Epoch millis
+     */
+    protected long[] getWikiPageLinkSnapshots(MediaWikiConst.LinkType pLinkType) {
+        String lPrefix = pLinkType.name()+"\t";
+        long lNullDateTime = StringUtil.zonedDateTime2Long(WikiDragonConst.NULLDATETIME);
+        TLongArrayList lResult = new TLongArrayList();
+        for (String lField:(String[])getProperty(ATTR_MEDIAWIKI_WIKIPAGELINKSTOREDTYPES, new String[0])) {
+            if (!lField.startsWith(lPrefix)) continue;
+            long lTimestamp = StringUtil.zonedDateTime2Long(ZonedDateTime.parse(lField.substring(lPrefix.length())));
+            if (lTimestamp != lNullDateTime) lResult.add(lTimestamp);
+        }
+        return lResult.toArray();
+    }
+
     /**
      * Intended to be used by the importsql dumps since we have separate types there..
      * @param pTimestamp
@@ -568,6 +847,9 @@ public class NeoBatMediaWiki extends NeoBatWikiObject implements MediaWiki {
             lSet.add(lString);
         }
         lSet.add(lKey);
+        if (pLinkType == MediaWikiConst.LinkType.CATEGORIZATION) {
+            wikiDragonDatabase.invalidateCategoryClosureIndex(node, pTimestamp);
+        }
         if (lFields.length != lSet.size()) {
             lFields = new String[lSet.size()];
             int i=0;
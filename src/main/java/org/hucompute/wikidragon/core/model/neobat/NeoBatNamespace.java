@@ -29,6 +29,8 @@ import org.apache.lucene.search.TermQuery;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.*;
 import org.hucompute.wikidragon.core.util.ArrayUtil;
+import org.hucompute.wikidragon.core.util.PageTitleDictionary;
+import org.hucompute.wikidragon.core.util.PageTitleFilter;
 import org.neo4j.graphdb.index.IndexHits;
 
 import java.util.*;
@@ -131,6 +133,23 @@ public class NeoBatNamespace extends NeoBatWikiObject implements Namespace {
     public Page getPage(String pTitle) {
         Page lResult = null;
         pTitle = getNormalizedPageTitle(pTitle);
+        PageTitleDictionary lPageTitleDictionary = null;
+        try {
+            PageTitleFilter lPageTitleFilter = wikiDragonDatabase.mediaWikiResources.getPageTitleFilter(getMediaWikiId());
+            if ((lPageTitleFilter != null) && (pTitle != null) && !lPageTitleFilter.mightContain(getId(), pTitle)) return null;
+            lPageTitleDictionary = wikiDragonDatabase.mediaWikiResources.getPageTitleDictionary(getMediaWikiId());
+        }
+        catch (WikiDragonException e) {
+            logger.error(e.getMessage(), e);
+        }
+        if (lPageTitleDictionary != null) {
+            try {
+                return (Page)wikiDragonDatabase.wikiObjectFactory.getWikiObject(lPageTitleDictionary.get(getId(), pTitle), NeoBatWikiDragonDatabase.NodeType.PAGE);
+            }
+            catch (IllegalStateException e) {
+                // Dictionary has been invalidated concurrently- use the index
+            }
+        }
         BooleanQuery lBooleanQuery = new BooleanQuery.Builder().add(new BooleanClause(new TermQuery(new Term(NeoBatPage.ATTR_PAGE_TITLE, pTitle)), BooleanClause.Occur.MUST))
                 .add(new BooleanClause(new TermQuery(new Term(NeoBatPage.ATTR_PAGE_NAMESPACEID, Integer.toString(getId()))), BooleanClause.Occur.MUST)).build();
         // TODO: Use getSingle() instead of the loop method
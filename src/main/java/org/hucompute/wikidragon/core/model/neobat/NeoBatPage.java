@@ -19,6 +19,7 @@
 
 package org.hucompute.wikidragon.core.model.neobat;
 
+import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
@@ -27,6 +28,8 @@ import org.apache.lucene.search.TermQuery;
 import org.bouncycastle.util.Iterable;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.*;
+import org.hucompute.wikidragon.core.util.LinkTypeUtil;
+import org.hucompute.wikidragon.core.util.LinkTimestampUtil;
 import org.hucompute.wikidragon.core.util.StringUtil;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.index.IndexHits;
@@ -50,6 +53,7 @@ public class NeoBatPage extends NeoBatWikiObject implements Page {
     protected static final String ATTR_PAGE_REVISIONTIMESTAMPS = "ATTR_PAGE_REVISIONTIMESTAMPS"; // not indexed
 
     protected static final String ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY = "ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY"; // not indexed
+    protected static final String ATTR_PAGE_GRAPHMETRIC_PREFIX = "ATTR_PAGE_GRAPHMETRIC_"; // not indexed
 
     protected String cachedQualifiedTitle;
 
@@ -305,6 +309,20 @@ public class NeoBatPage extends NeoBatWikiObject implements Page {
         return getWikiPageLinks(pTimestamp, Direction.OUTGOING, pLinkTypes);
     }
 
+    @Override
+    public void setGraphMetric(String pMetric, ZonedDateTime pTimestamp, double pValue) throws WikiDragonException {
+        setProperty(getGraphMetricKey(pMetric, pTimestamp), pValue);
+    }
+
+    @Override
+    public double getGraphMetric(String pMetric, ZonedDateTime pTimestamp, double pDefaultValue) throws WikiDragonException {
+        return (double)getProperty(getGraphMetricKey(pMetric, pTimestamp), pDefaultValue);
+    }
+
+    protected static String getGraphMetricKey(String pMetric, ZonedDateTime pTimestamp) {
+        return ATTR_PAGE_GRAPHMETRIC_PREFIX+pMetric+"_"+StringUtil.zonedDateTime2Long(pTimestamp);
+    }
+
     @Override
     public Map<String, List<WikiDataEntity>> getAspectWikiDataEntityMap() throws WikiDragonException {
         Map<String, List<WikiDataEntity>> lResult = new HashMap<>();
@@ -331,134 +349,158 @@ public class NeoBatPage extends NeoBatWikiObject implements Page {
         wikiDragonDatabase.database.createRelationship(node, ((NeoBatWikiDataEntity)pWikiDataEntity).node, WikiDragonConst.RelTypes.WIKIDATAENTITYLINK, lMap);
     }
 
-    private Set<WikiPageLink> getWikiPageLinks(ZonedDateTime pTimestamp, Direction pDirection, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
-        Set<String> lFilter = new HashSet<>();
-        for (MediaWikiConst.LinkType lLinkType:pLinkTypes) {
-            lFilter.add(lLinkType.name());
+    @Override
+    public WikiPageLinkRecordList getWikiPageLinkRecordsIn(ZonedDateTime pTimestamp, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        return getWikiPageLinkRecords(pTimestamp, Direction.INCOMING, pLinkTypes);
+    }
+
+    @Override
+    public WikiPageLinkRecordList getWikiPageLinkRecordsOut(ZonedDateTime pTimestamp, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        return getWikiPageLinkRecords(pTimestamp, Direction.OUTGOING, pLinkTypes);
+    }
+
+    private WikiPageLinkRecordList getWikiPageLinkRecords(ZonedDateTime pTimestamp, Direction pDirection, MediaWikiConst.LinkType... pLinkTypes) {
+        // The BatchInserter cannot filter by type or direction, so check both on the relationship record before reading any properties
+        Set<WikiDragonConst.RelTypes> lRelTypes = LinkTypeUtil.getRelTypes(pLinkTypes);
+        long lTimestamp = StringUtil.zonedDateTime2Long(pTimestamp);
+        WikiPageLinkRecordList lResult = new WikiPageLinkRecordList(wikiDragonDatabase);
+        for (BatchRelationship r:wikiDragonDatabase.database.getRelationships(node)) {
+            if ((pDirection.equals(Direction.OUTGOING) && (r.getStartNode() != node)) || (pDirection.equals(Direction.INCOMING) && (r.getEndNode() != node))) continue;
+            MediaWikiConst.LinkType lLinkType = LinkTypeUtil.getLinkType(r.getType().name());
+            if ((lLinkType == null) || !lRelTypes.contains(LinkTypeUtil.getRelType(lLinkType))) continue;
+            if (LinkTimestampUtil.contains(wikiDragonDatabase.database.getRelationshipProperties(r.getId()).get(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY), lTimestamp)) {
+                lResult.add(r.getStartNode(), r.getEndNode(), lLinkType, lTimestamp);
+            }
         }
-        String lTimestampUTCString = StringUtil.zonedDateTime2String(pTimestamp.withZoneSameInstant(ZoneId.of("UTC")));
-        Set<WikiPageLink> lResult = new HashSet<>();
+        return lResult;
+    }
+
+    @Override
+    public WikiPageLinkChanges getWikiPageLinkChanges(ZonedDateTime pFrom, ZonedDateTime pTo, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        NeoBatMediaWiki lMediaWiki = (NeoBatMediaWiki)getMediaWiki();
+        return getWikiPageLinkChanges(pFrom, pTo, lMediaWiki.getWikiPageLinkSnapshotsAt(StringUtil.zonedDateTime2Long(pFrom)), lMediaWiki.getWikiPageLinkSnapshotsAt(StringUtil.zonedDateTime2Long(pTo)), pLinkTypes);
+    }
+
+    /**
+     * @param pFrom
+     * @param pTo
+     * @param pFromSnapshots Snapshot of pFrom by LinkType ordinal, see NeoBatMediaWiki.getWikiPageLinkSnapshotsAt
+     * @param pToSnapshots Snapshot of pTo by LinkType ordinal
+     * @param pLinkTypes
+     * @return WikiPageLinkChanges
+     */
+    protected WikiPageLinkChanges getWikiPageLinkChanges(ZonedDateTime pFrom, ZonedDateTime pTo, long[] pFromSnapshots, long[] pToSnapshots, MediaWikiConst.LinkType... pLinkTypes) {
+        Set<WikiDragonConst.RelTypes> lRelTypes = LinkTypeUtil.getRelTypes(pLinkTypes);
+        WikiPageLinkChanges lResult = new WikiPageLinkChanges(wikiDragonDatabase, pFrom, pTo);
         for (BatchRelationship r:wikiDragonDatabase.database.getRelationships(node)) {
-            if (pDirection.equals(Direction.BOTH) || (pDirection.equals(Direction.OUTGOING) && (r.getStartNode() == node)) || (pDirection.equals(Direction.INCOMING) && (r.getEndNode() == node))) {
-                WikiDragonConst.RelTypes lReltype = WikiDragonConst.RelTypes.valueOf(r.getType().name());
-                MediaWikiConst.LinkType lLinkType = null;
-                switch (lReltype) {
-                    case WIKIPAGELINK_ARTICLE: {
-                        lLinkType = MediaWikiConst.LinkType.ARTICLE;
-                        break;
-                    }
-                    case WIKIPAGELINK_CATEGORIZATION: {
-                        lLinkType = MediaWikiConst.LinkType.CATEGORIZATION;
-                        break;
-                    }
-                    case WIKIPAGELINK_REDIRECT: {
-                        lLinkType = MediaWikiConst.LinkType.REDIRECT;
-                        break;
-                    }
-                }
-                if (lLinkType != null) {
-                    if ((lFilter.size() == 0) || lFilter.contains(lLinkType.name())) {
-                        String[] lTimestamps = (String[]) wikiDragonDatabase.database.getRelationshipProperties(r.getId()).get(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY);
-                        boolean lTimestampHit = false;
-                        for (String lString : lTimestamps) {
-                            if (lString.equals(lTimestampUTCString)) {
-                                lTimestampHit = true;
-                                break;
-                            }
-                        }
-                        if (lTimestampHit) {
-                            if (pDirection.equals(Direction.OUTGOING)) {
-                                Page lTarget = (NeoBatPage) wikiDragonDatabase.getWikiObjectFactory().getWikiObject(Long.toString(r.getEndNode()));
-                                lResult.add(new WikiPageLink(lLinkType, this, lTarget, pTimestamp.equals(WikiDragonConst.NULLDATETIME) ? WikiPageLink.WikiPageLinkSource.SQLDump : WikiPageLink.WikiPageLinkSource.HtmlParsedDB, pTimestamp));
-                            } else if (pDirection.equals(Direction.INCOMING)) {
-                                Page lSource = (NeoBatPage) wikiDragonDatabase.getWikiObjectFactory().getWikiObject(Long.toString(r.getStartNode()));
-                                lResult.add(new WikiPageLink(lLinkType, lSource, this, pTimestamp.equals(WikiDragonConst.NULLDATETIME) ? WikiPageLink.WikiPageLinkSource.SQLDump : WikiPageLink.WikiPageLinkSource.HtmlParsedDB, pTimestamp));
-                            }
-                        }
-                    }
-                }
+            if (r.getStartNode() != node) continue;
+            MediaWikiConst.LinkType lLinkType = LinkTypeUtil.getLinkType(r.getType().name());
+            if ((lLinkType == null) || !lRelTypes.contains(LinkTypeUtil.getRelType(lLinkType))) continue;
+            Object lTimestamps = wikiDragonDatabase.database.getRelationshipProperties(r.getId()).get(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY);
+            lResult.add(node, r.getEndNode(), lLinkType, LinkTimestampUtil.contains(lTimestamps, pFromSnapshots[lLinkType.ordinal()]), LinkTimestampUtil.contains(lTimestamps, pToSnapshots[lLinkType.ordinal()]));
+        }
+        return lResult;
+    }
+
+    /**
+     * Get the validity timestamps of all incoming links of a type regardless of the timestamp
+     * @param pLinkType
+     * @return Sorted epoch millis by source node id
+     */
+    public TLongObjectHashMap<long[]> getWikiPageLinkTimestampsIn(MediaWikiConst.LinkType pLinkType) {
+        String lRelTypeName = LinkTypeUtil.getRelType(pLinkType).name();
+        TLongObjectHashMap<long[]> lResult = new TLongObjectHashMap<>();
+        for (BatchRelationship r:wikiDragonDatabase.database.getRelationships(node)) {
+            if ((r.getEndNode() != node) || !r.getType().name().equals(lRelTypeName)) continue;
+            lResult.put(r.getStartNode(), LinkTimestampUtil.toLongArray(wikiDragonDatabase.database.getRelationshipProperties(r.getId()).get(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY)));
+        }
+        return lResult;
+    }
+
+    private Set<WikiPageLink> getWikiPageLinks(ZonedDateTime pTimestamp, Direction pDirection, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        WikiPageLinkRecordList lRecords = getWikiPageLinkRecords(pTimestamp, pDirection, pLinkTypes);
+        WikiPageLink.WikiPageLinkSource lSource = pTimestamp.equals(WikiDragonConst.NULLDATETIME) ? WikiPageLink.WikiPageLinkSource.SQLDump : WikiPageLink.WikiPageLinkSource.HtmlParsedDB;
+        Set<WikiPageLink> lResult = new HashSet<>();
+        for (int i=0; i<lRecords.size(); i++) {
+            if (pDirection.equals(Direction.OUTGOING)) {
+                Page lTarget = (NeoBatPage) wikiDragonDatabase.wikiObjectFactory.getWikiObject(lRecords.getTargetNodeId(i));
+                lResult.add(new WikiPageLink(lRecords.getLinkType(i), this, lTarget, lSource, pTimestamp));
+            } else {
+                Page lSourcePage = (NeoBatPage) wikiDragonDatabase.wikiObjectFactory.getWikiObject(lRecords.getSourceNodeId(i));
+                lResult.add(new WikiPageLink(lRecords.getLinkType(i), lSourcePage, this, lSource, pTimestamp));
             }
         }
         return lResult;
     }
 
     /**
-     * There is at most one relationship of a given type between two pages. Each relationship has a string array
+     * There is at most one relationship of a given type between two pages. Each relationship has a sorted long array
      * containing the timestamps of its validity. WikiDragonConst.NULLDATETIME marks the Timestamp of the SQL Dump.
      */
     public void addWikiPageLinksOut(ZonedDateTime pTimestamp, Map<MediaWikiConst.LinkType, Set<Page>> pTypePagesMap) throws WikiDragonException {
-        String lTimestampUTCString = StringUtil.zonedDateTime2String(pTimestamp.withZoneSameInstant(ZoneId.of("UTC")));
-        // Fetch Old Status
-        Map<WikiDragonConst.RelTypes, Map<Page, BatchRelationship>> lTypePagesMapOld = new HashMap<>();
-        for (BatchRelationship r:wikiDragonDatabase.database.getRelationships(node)) {
-            if (r.getStartNode() == node) {
-                WikiDragonConst.RelTypes lReltype = WikiDragonConst.RelTypes.valueOf(r.getType().name());
-                Map<Page, BatchRelationship> lMap = lTypePagesMapOld.get(lReltype);
-                if (lMap == null) {
-                    lMap = new HashMap<>();
-                    lTypePagesMapOld.put(lReltype, lMap);
-                }
-                lMap.put((Page) wikiDragonDatabase.wikiObjectFactory.getWikiObject(r.getEndNode()), r);
+        Map<WikiDragonConst.RelTypes, TLongArrayList> lTypeTargetsMap = new EnumMap<>(WikiDragonConst.RelTypes.class);
+        for (Map.Entry<MediaWikiConst.LinkType, Set<Page>> lEntry:pTypePagesMap.entrySet()) {
+            if (lEntry.getValue().isEmpty()) continue;
+            TLongArrayList lTargets = new TLongArrayList(lEntry.getValue().size());
+            for (Page lPage:lEntry.getValue()) {
+                lTargets.add(((NeoBatPage)lPage).node);
             }
+            lTypeTargetsMap.put(LinkTypeUtil.getRelType(lEntry.getKey()), lTargets);
         }
+        addWikiPageLinksOut(wikiDragonDatabase, getMediaWikiId(), node, StringUtil.zonedDateTime2Long(pTimestamp), lTypeTargetsMap);
+    }
 
-        // Build new Status
-        Map<WikiDragonConst.RelTypes, Set<Page>> lTypePagesMapNew = new HashMap<>();
-        for (Map.Entry<MediaWikiConst.LinkType, Set<Page>> lEntry:pTypePagesMap.entrySet()) {
-            switch (lEntry.getKey()) {
-                case ARTICLE: {
-                    lTypePagesMapNew.put(WIKIPAGELINK_ARTICLE, lEntry.getValue());
-                    break;
-                }
-                case CATEGORIZATION: {
-                    lTypePagesMapNew.put(WIKIPAGELINK_CATEGORIZATION, lEntry.getValue());
-                    break;
-                }
-                case REDIRECT: {
-                    lTypePagesMapNew.put(WIKIPAGELINK_REDIRECT, lEntry.getValue());
-                    break;
-                }
+    /**
+     * Add links of a page given by node ids without materializing Page objects. Targets must be unique per RelType.
+     * @param pDatabase
+     * @param pMediaWikiNodeId
+     * @param pSourceNode
+     * @param pTimestamp Epoch millis
+     * @param pTypeTargetsMap Target node ids by RelType
+     */
+    protected static void addWikiPageLinksOut(NeoBatWikiDragonDatabase pDatabase, long pMediaWikiNodeId, long pSourceNode, long pTimestamp, Map<WikiDragonConst.RelTypes, TLongArrayList> pTypeTargetsMap) {
+        if (pTypeTargetsMap.isEmpty()) return;
+        // Fetch old status of the affected types only, keyed by RelType and target node id. Properties are read on demand.
+        // BatchInserter.getRelationships cannot filter by type or direction, so all relationship records of the node are
+        // walked- this touches the relationship chain only, no property records.
+        Map<WikiDragonConst.RelTypes, TLongObjectHashMap<BatchRelationship>> lTypeTargetMapOld = new EnumMap<>(WikiDragonConst.RelTypes.class);
+        for (WikiDragonConst.RelTypes lRelType:pTypeTargetsMap.keySet()) {
+            lTypeTargetMapOld.put(lRelType, new TLongObjectHashMap<>());
+        }
+        for (BatchRelationship r:pDatabase.database.getRelationships(pSourceNode)) {
+            if (r.getStartNode() == pSourceNode) {
+                TLongObjectHashMap<BatchRelationship> lMap = lTypeTargetMapOld.get(WikiDragonConst.RelTypes.valueOf(r.getType().name()));
+                if (lMap != null) lMap.put(r.getEndNode(), r);
             }
         }
 
         // Add/Update Relationships
-        for (Map.Entry<WikiDragonConst.RelTypes, Set<Page>> lNewEntry:lTypePagesMapNew.entrySet()) {
-            if (!lTypePagesMapOld.containsKey(lNewEntry.getKey())) {
-                for (Page lPage:lNewEntry.getValue()) {
-                    Map<String, Object > lParamMap = new HashMap<>();
-                    lParamMap.put(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY, new String[]{lTimestampUTCString});
-                    wikiDragonDatabase.database.createRelationship(node, ((NeoBatPage)lPage).node, lNewEntry.getKey(), lParamMap);
+        for (Map.Entry<WikiDragonConst.RelTypes, TLongArrayList> lEntry:pTypeTargetsMap.entrySet()) {
+            WikiDragonConst.RelTypes lRelType = lEntry.getKey();
+            TLongObjectHashMap<BatchRelationship> lOldMap = lTypeTargetMapOld.get(lRelType);
+            TLongArrayList lTargets = lEntry.getValue();
+            for (int i=0; i<lTargets.size(); i++) {
+                long lTarget = lTargets.getQuick(i);
+                BatchRelationship r = lOldMap.get(lTarget);
+                if (r == null) {
+                    Map<String, Object> lParamMap = new HashMap<>();
+                    lParamMap.put(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY, new long[]{pTimestamp});
+                    pDatabase.database.createRelationship(pSourceNode, lTarget, lRelType, lParamMap);
                 }
-            }
-            else {
-                for (Page lPage:lNewEntry.getValue()) {
-                    BatchRelationship r = lTypePagesMapOld.get(lNewEntry.getKey()).get(lPage);
-                    if (r == null) {
-                        Map<String, Object > lParamMap = new HashMap<>();
-                        lParamMap.put(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY, new String[]{lTimestampUTCString});
-                        wikiDragonDatabase.database.createRelationship(node, ((NeoBatPage)lPage).node, lNewEntry.getKey(), lParamMap);
-                    }
-                    else {
-                        Map<String, Object> lParamMap = wikiDragonDatabase.database.getRelationshipProperties(r.getId());
-                        String[] lTimestamps = (String[])lParamMap.get(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY);
-                        TreeSet<String> lTimestampSet = new TreeSet<>();
-                        if (lTimestamps != null) {
-                            for (String lTimestamp:lTimestamps) {
-                                lTimestampSet.add(lTimestamp);
-                            }
-                        }
-                        lTimestampSet.add(lTimestampUTCString);
-                        String[] lNewTimestamps = new String[lTimestampSet.size()];
-                        int i=0;
-                        for (String lString:lTimestampSet) {
-                            lNewTimestamps[i++] = lString;
-                        }
+                else {
+                    Map<String, Object> lParamMap = pDatabase.database.getRelationshipProperties(r.getId());
+                    Object lOldValue = lParamMap.get(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY);
+                    long[] lOldTimestamps = LinkTimestampUtil.toLongArray(lOldValue);
+                    long[] lNewTimestamps = LinkTimestampUtil.insert(lOldTimestamps, pTimestamp);
+                    if ((lNewTimestamps != lOldTimestamps) || !(lOldValue instanceof long[])) {
+                        lParamMap = new HashMap<>(lParamMap);
                         lParamMap.put(ATTR_PAGE_WIKIPAGELINK_TIMESTAMPARRAY, lNewTimestamps);
-                        wikiDragonDatabase.database.setRelationshipProperties(r.getId(), lParamMap);
+                        pDatabase.database.setRelationshipProperties(r.getId(), lParamMap);
                     }
                 }
             }
         }
+        pDatabase.mediaWikiResources.wikiPageLinksModified(pMediaWikiNodeId);
     }
 
     @Override
@@ -483,6 +525,7 @@ public class NeoBatPage extends NeoBatWikiObject implements Page {
         // Check if it already exists
         if (pNeoBatMediaWiki.getPage(pId) != null) throw new WikiDragonException("Page with pageId '"+pId+"' already exists");
         pTitle = pNeoBatNamespace.getNormalizedPageTitle(pTitle);
+        lNeoBatWikiDragonDatabase.mediaWikiResources.invalidatePageTitleDictionary(pNeoBatMediaWiki.node);
         long lNode = lNeoBatWikiDragonDatabase.database.createNode(new HashMap<>());
         lResult = (NeoBatPage)lNeoBatWikiDragonDatabase.wikiObjectFactory.getWikiObject(lNode, NeoBatWikiDragonDatabase.NodeType.PAGE);
         lResult.disableAutosaveOnce();
@@ -492,6 +535,8 @@ public class NeoBatPage extends NeoBatWikiObject implements Page {
         lResult.setProperty(ATTR_PAGE_NAMESPACEID, pNeoBatNamespace.getId());
         lResult.setProperty(ATTR_PAGE_TITLE, pTitle);
         lResult.saveProperties();
+        lNeoBatWikiDragonDatabase.mediaWikiResources.addToPageTitleFilter(pNeoBatMediaWiki.node, pNeoBatNamespace.getId(), pTitle);
+        lNeoBatWikiDragonDatabase.mediaWikiResources.invalidatePageTitleCache(pNeoBatMediaWiki.node);
         return lResult;
     }
 }
@@ -25,14 +25,20 @@ import org.apache.logging.log4j.Logger;
 import org.bouncycastle.util.Iterable;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.*;
+import org.hucompute.wikidragon.core.util.CategoryClosureIndex;
 import org.hucompute.wikidragon.core.util.IOUtil;
+import org.hucompute.wikidragon.core.util.PageTitleDictionary;
+import org.hucompute.wikidragon.core.util.StringUtil;
 import org.neo4j.index.lucene.unsafe.batchinsert.LuceneBatchInserterIndexProvider;
 import org.neo4j.unsafe.batchinsert.BatchInserterIndex;
 
 import java.io.*;
 import java.nio.charset.Charset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -43,6 +49,8 @@ public class NeoBatWikiDragonDatabase implements WikiDragonDatabase {
 
     private static Logger logger = LogManager.getLogger(NeoBatWikiDragonDatabase.class);
 
+    protected static final String PENDINGJOURNAL_SUFFIX = ".pending";
+
     protected enum NodeType {MEDIAWIKI_COLLECTION, MEDIAWIKI, NAMESPACE, PAGE, REVISION, CONTRIBUTOR, PAGETIER, LEXICON,
         SUPERLEMMA, LEMMA, MEANING, SYNTACTICWORD, LEXICONENTRYGENERALATTRIBUTE, WIKIDATAENTITY};
     protected SynchronizedBatchInserter database;
@@ -54,6 +62,9 @@ public class NeoBatWikiDragonDatabase implements WikiDragonDatabase {
 
     private TLongObjectHashMap<BatchInserterIndex> mediaWikiNodeIndexMap;
     private TLongObjectHashMap<BatchInserterIndex> mediaWikiRelationshipIndexMap;
+    protected MediaWikiResources mediaWikiResources;
+    // CategoryClosureIndexes by MediaWiki node id
+    private TLongObjectHashMap<List<CategoryClosureIndex>> categoryClosureIndexMap = new TLongObjectHashMap<>();
 
     protected IOManager ioManager;
 
@@ -128,15 +139,29 @@ public class NeoBatWikiDragonDatabase implements WikiDragonDatabase {
             logger.info("Closing database in "+databaseDirectory.getAbsolutePath()+"...");
             logger.debug("Flushing...");
             flush();
+            mediaWikiResources.closePageTitleDictionaries();
+            mediaWikiResources.closePageTitleFilters();
+            closeCategoryClosureIndexes();
             logger.debug("Shutdown IndexProvider...");
             luceneBatchInserterIndexProvider.shutdown();
             logger.debug("Shutdown Database...");
             database.shutdown();
             database = null;
+            commitPendingJournals();
             logger.info("Closing database in "+databaseDirectory.getAbsolutePath()+"... done");
         }
     }
 
+    /**
+     * The BatchInserter always holds the store lock exclusively- use NeoWikiDragonDatabase with
+     * WikiDragonConst.OpenMode.READONLY for concurrent read-only access.
+     * @return false
+     */
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
     @Override
     public void reset() throws WikiDragonException {
         logger.info("Resetting database in "+databaseDirectory.getAbsolutePath()+"...");
@@ -171,6 +196,16 @@ public class NeoBatWikiDragonDatabase implements WikiDragonDatabase {
         return new NeoBatWikiTransaction(this);
     }
 
+    /**
+     * The BatchInserter does not use transactions for reads- a read session is a no-op transaction here which never flushes.
+     * It is safe to open read sessions from many threads concurrently.
+     * @return WikiTransaction
+     */
+    @Override
+    public WikiTransaction beginReadSession() {
+        return new NeoBatWikiTransaction(this, false);
+    }
+
     @Override
     public Iterable<WikiDataEntity> getWikiDataEntities() {
         return new Iterable<WikiDataEntity>() {
@@ -202,11 +237,16 @@ public class NeoBatWikiDragonDatabase implements WikiDragonDatabase {
     }
 
     protected void flush() {
-        for (BatchInserterIndex lIndex:mediaWikiNodeIndexMap.valueCollection()) {
-            lIndex.flush();
+        mediaWikiResources.persistCommentDictionaries();
+        synchronized (mediaWikiNodeIndexMap) {
+            for (BatchInserterIndex lIndex:mediaWikiNodeIndexMap.valueCollection()) {
+                lIndex.flush();
+            }
         }
-        for (BatchInserterIndex lIndex:mediaWikiRelationshipIndexMap.valueCollection()) {
-            lIndex.flush();
+        synchronized (mediaWikiRelationshipIndexMap) {
+            for (BatchInserterIndex lIndex:mediaWikiRelationshipIndexMap.valueCollection()) {
+                lIndex.flush();
+            }
         }
     }
 
@@ -234,6 +274,233 @@ public class NeoBatWikiDragonDatabase implements WikiDragonDatabase {
         }
     }
 
+    /**
+     * Journal of pages whose links have been stored by an extraction of the PageTier network at pTimestamp
+     * @param pMediaWikiNodeId
+     * @param pTimestamp
+     * @return File
+     */
+    protected File getPageTierNetworkJournalFile(long pMediaWikiNodeId, ZonedDateTime pTimestamp) {
+        return new File(databaseDirectory, "wikidragon"+File.separator+"tiernetwork_"+pMediaWikiNodeId+"_"+StringUtil.zonedDateTime2Long(pTimestamp)+".journal");
+    }
+
+    /**
+     * Journal entries of the current session. The BatchInserter makes writes durable only on shutdown, so they are
+     * merged into pJournalFile by close and discarded on initialization if the last session has not been closed.
+     * @param pJournalFile
+     * @return File
+     */
+    protected File getPendingJournalFile(File pJournalFile) {
+        return new File(pJournalFile.getPath()+PENDINGJOURNAL_SUFFIX);
+    }
+
+    protected File[] listPendingJournalFiles() {
+        File[] lResult = new File(databaseDirectory, "wikidragon").listFiles((pDir, pName) -> pName.endsWith(PENDINGJOURNAL_SUFFIX));
+        return lResult == null ? new File[0] : lResult;
+    }
+
+    /**
+     * Append pending journals to their journals. Must only be called after the BatchInserter has been shut down.
+     */
+    protected void commitPendingJournals() {
+        for (File lPendingFile:listPendingJournalFiles()) {
+            File lJournalFile = new File(lPendingFile.getPath().substring(0, lPendingFile.getPath().length()-PENDINGJOURNAL_SUFFIX.length()));
+            try (FileInputStream lInput = new FileInputStream(lPendingFile); FileOutputStream lOutput = new FileOutputStream(lJournalFile, true)) {
+                // Skip a trailing incomplete entry
+                long lRemaining = (lPendingFile.length() / 8) * 8;
+                byte[] lBuffer = new byte[1 << 16];
+                int lRead;
+                while ((lRemaining > 0) && ((lRead = lInput.read(lBuffer, 0, (int)Math.min(lBuffer.length, lRemaining))) > 0)) {
+                    lOutput.write(lBuffer, 0, lRead);
+                    lRemaining -= lRead;
+                }
+                lOutput.getFD().sync();
+            }
+            catch (IOException e) {
+                logger.error("Could not commit journal "+lPendingFile.getAbsolutePath()+": "+e.getMessage(), e);
+                continue;
+            }
+            if (!lPendingFile.delete()) {
+                logger.warn("Could not delete journal "+lPendingFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Delete pending journals of a session which has not been closed- its links have not been persisted
+     */
+    protected void discardPendingJournals() {
+        for (File lPendingFile:listPendingJournalFiles()) {
+            logger.warn("Discarding journal "+lPendingFile.getAbsolutePath()+" of a session which has not been closed");
+            if (!lPendingFile.delete()) {
+                logger.warn("Could not delete journal "+lPendingFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Journal of pages whose links have been stored by a wikitext network extraction at pTimestamp
+     * @param pMediaWikiNodeId
+     * @param pTimestamp
+     * @return File
+     */
+    protected File getWikiTextNetworkJournalFile(long pMediaWikiNodeId, ZonedDateTime pTimestamp) {
+        return new File(databaseDirectory, "wikidragon"+File.separator+"wikitextnetwork_"+pMediaWikiNodeId+"_"+StringUtil.zonedDateTime2Long(pTimestamp)+".journal");
+    }
+
+    /**
+     * Directory for the temporary run files of a bulk link import of a MediaWiki
+     * @param pMediaWikiNodeId
+     * @return Directory
+     */
+    protected File getLinkImportDirectory(long pMediaWikiNodeId) {
+        return new File(databaseDirectory, "wikidragon"+File.separator+"linkimport_"+pMediaWikiNodeId);
+    }
+
+    /**
+     * Set the false positive rate of PageTitleFilters which are built from now on
+     * @param pFalsePositiveRate
+     */
+    public void setPageTitleFilterFalsePositiveRate(double pFalsePositiveRate) {
+        mediaWikiResources.setPageTitleFilterFalsePositiveRate(pFalsePositiveRate);
+    }
+
+    /**
+     * Get a CategoryClosureIndex of a MediaWiki at a timestamp which covers pMaxDepth. A loaded index of a greater depth
+     * is reused, otherwise it is loaded from or built into files below the database directory. Indexes are rebuilt
+     * once WikiPageLinks have been added since they have been built.
+     * @param pNeoBatMediaWiki
+     * @param pTimestamp Timestamp of the PageTier network or WikiDragonConst.NULLDATETIME for the links of the SQL dumps
+     * @param pMaxDepth Maximum depth of the index, at least 1. Each depth is built and stored separately.
+     * @return CategoryClosureIndex
+     * @throws WikiDragonException
+     */
+    protected CategoryClosureIndex getCategoryClosureIndex(NeoBatMediaWiki pNeoBatMediaWiki, ZonedDateTime pTimestamp, int pMaxDepth) throws WikiDragonException {
+        if (pMaxDepth < 1) throw new WikiDragonException("Maximum depth must be at least 1: "+pMaxDepth);
+        synchronized (categoryClosureIndexMap) {
+            long lGeneration = pNeoBatMediaWiki.getWikiPageLinkGeneration();
+            List<CategoryClosureIndex> lList = categoryClosureIndexMap.get(pNeoBatMediaWiki.node);
+            if (lList == null) {
+                lList = new ArrayList<>();
+                categoryClosureIndexMap.put(pNeoBatMediaWiki.node, lList);
+            }
+            CategoryClosureIndex lResult = null;
+            for (Iterator<CategoryClosureIndex> i = lList.iterator(); i.hasNext();) {
+                CategoryClosureIndex lIndex = i.next();
+                if (lIndex.getSnapshot().getLinkGeneration() != lGeneration) {
+                    i.remove();
+                    lIndex.close();
+                }
+                else if (lIndex.getSnapshot().getTimestamp().toInstant().equals(pTimestamp.toInstant()) && (lIndex.getMaxDepth() >= pMaxDepth)) {
+                    if ((lResult == null) || (lIndex.getMaxDepth() < lResult.getMaxDepth())) lResult = lIndex;
+                }
+            }
+            if (lResult == null) {
+                lResult = CategoryClosureIndex.loadOrBuild(getCategorySnapshotFile(pNeoBatMediaWiki.node, pTimestamp), getCategoryClosureIndexFile(pNeoBatMediaWiki.node, pTimestamp, pMaxDepth), pNeoBatMediaWiki, pTimestamp, pMaxDepth);
+                lList.add(lResult);
+            }
+            return lResult;
+        }
+    }
+
+    /**
+     * Drop the CategoryClosureIndexes of a MediaWiki at a timestamp and their files, e.g. because links have been added
+     * @param pMediaWikiNodeId
+     * @param pTimestamp
+     */
+    protected void invalidateCategoryClosureIndex(long pMediaWikiNodeId, ZonedDateTime pTimestamp) {
+        synchronized (categoryClosureIndexMap) {
+            List<CategoryClosureIndex> lList = categoryClosureIndexMap.get(pMediaWikiNodeId);
+            if (lList != null) {
+                for (Iterator<CategoryClosureIndex> i = lList.iterator(); i.hasNext();) {
+                    CategoryClosureIndex lIndex = i.next();
+                    if (lIndex.getSnapshot().getTimestamp().toInstant().equals(pTimestamp.toInstant())) {
+                        i.remove();
+                        lIndex.close();
+                    }
+                }
+            }
+            // Index files of all depths share the prefix up to the depth
+            String lIndexPrefix = getCategoryClosureIndexFile(pMediaWikiNodeId, pTimestamp, 0).getName();
+            lIndexPrefix = lIndexPrefix.substring(0, lIndexPrefix.lastIndexOf('_')+1);
+            List<File> lFiles = new ArrayList<>();
+            lFiles.add(getCategorySnapshotFile(pMediaWikiNodeId, pTimestamp));
+            File[] lIndexFiles = new File(databaseDirectory, "wikidragon").listFiles();
+            if (lIndexFiles != null) {
+                for (File lFile:lIndexFiles) {
+                    if (lFile.getName().startsWith(lIndexPrefix)) lFiles.add(lFile);
+                }
+            }
+            for (File lFile:lFiles) {
+                if (lFile.exists() && !lFile.delete()) {
+                    logger.warn("Could not delete outdated "+lFile.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the loaded CategoryClosureIndexes of a MediaWiki. Their files are kept- they are rebuilt on load if they do
+     * not match the current WikiPageLink generation.
+     * @param pMediaWikiNodeId
+     */
+    protected void closeCategoryClosureIndexes(long pMediaWikiNodeId) {
+        synchronized (categoryClosureIndexMap) {
+            List<CategoryClosureIndex> lList = categoryClosureIndexMap.remove(pMediaWikiNodeId);
+            if (lList != null) {
+                for (CategoryClosureIndex lIndex:lList) {
+                    lIndex.close();
+                }
+            }
+        }
+    }
+
+    protected void closeCategoryClosureIndexes() {
+        synchronized (categoryClosureIndexMap) {
+            for (List<CategoryClosureIndex> lList:categoryClosureIndexMap.valueCollection()) {
+                for (CategoryClosureIndex lIndex:lList) {
+                    lIndex.close();
+                }
+            }
+            categoryClosureIndexMap.clear();
+        }
+    }
+
+    protected File getCategorySnapshotFile(long pMediaWikiNodeId, ZonedDateTime pTimestamp) {
+        return new File(databaseDirectory, "wikidragon"+File.separator+"categorysnapshot_"+pMediaWikiNodeId+"_"+StringUtil.zonedDateTime2Long(pTimestamp)+".dat");
+    }
+
+    protected File getCategoryClosureIndexFile(long pMediaWikiNodeId, ZonedDateTime pTimestamp, int pMaxDepth) {
+        return new File(databaseDirectory, "wikidragon"+File.separator+"categoryclosure_"+pMediaWikiNodeId+"_"+StringUtil.zonedDateTime2Long(pTimestamp)+"_"+pMaxDepth+".dat");
+    }
+
+    protected MediaWikiResources createMediaWikiResources() {
+        return new MediaWikiResources(new File(databaseDirectory, "wikidragon")) {
+            @Override
+            protected void addPageTitles(MediaWiki pMediaWiki, PageTitleDictionary.Builder pBuilder) {
+                for (Page lPage:pMediaWiki.getPages()) {
+                    pBuilder.add(lPage.getNamespaceID(), lPage.getTitle(), ((NeoBatPage)lPage).node);
+                }
+            }
+
+            @Override
+            protected Object getMediaWikiProperty(long pMediaWikiNodeId, String pKey, Object pDefaultValue) {
+                return ((NeoBatMediaWiki)wikiObjectFactory.getWikiObject(pMediaWikiNodeId)).getProperty(pKey, pDefaultValue);
+            }
+
+            @Override
+            protected void setMediaWikiProperty(long pMediaWikiNodeId, String pKey, Object pValue) {
+                ((NeoBatMediaWiki)wikiObjectFactory.getWikiObject(pMediaWikiNodeId)).setProperty(pKey, pValue);
+            }
+
+            @Override
+            protected void wikiPageLinkGenerationIncremented(long pMediaWikiNodeId) {
+                // Loaded closures are outdated
+                closeCategoryClosureIndexes(pMediaWikiNodeId);
+            }
+        };
+    }
+
     protected void initialize() throws WikiDragonException {
         logger.info("Initializing database in "+databaseDirectory.getAbsolutePath()+"...");
         if (!databaseDirectory.exists()) databaseDirectory.mkdirs();
@@ -249,6 +516,9 @@ public class NeoBatWikiDragonDatabase implements WikiDragonDatabase {
         mediaWikiNodeIndexMap = new TLongObjectHashMap<>();
         mediaWikiRelationshipIndexMap = new TLongObjectHashMap<>();
         luceneBatchInserterIndexProvider = new LuceneBatchInserterIndexProvider(database);
+        // Kept across resets, like its settings
+        if (mediaWikiResources == null) mediaWikiResources = createMediaWikiResources();
+        discardPendingJournals();
         //
         wikiObjectFactory = new NeoBatWikiObjectFactory(this);
         if (getMediaWikiCollection() == null) {
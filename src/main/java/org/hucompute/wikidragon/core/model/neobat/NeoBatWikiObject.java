@@ -152,7 +152,7 @@ public abstract class NeoBatWikiObject implements WikiObject {
                 Map<String, Object> lIndexMap = new HashMap<>();
                 for (Map.Entry<String, Object> lEntry : propertyMap.entrySet()) {
                     if (isIndexedGlobal(lEntry.getKey())) {
-                        lIndexMap.put(lEntry.getKey(), lEntry.getValue());
+                        lIndexMap.put(lEntry.getKey(), getIndexValue(lEntry.getKey(), lEntry.getValue()));
                     }
                 }
                 wikiDragonDatabase.getMediaWikiNodeIndex(GLOBALINDEXID).updateOrAdd(node, lIndexMap);
@@ -161,7 +161,7 @@ public abstract class NeoBatWikiObject implements WikiObject {
                 Map<String, Object> lIndexMap = new HashMap<>();
                 for (Map.Entry<String, Object> lEntry : propertyMap.entrySet()) {
                     if (isIndexedMediaWiki(lEntry.getKey())) {
-                        lIndexMap.put(lEntry.getKey(), lEntry.getValue());
+                        lIndexMap.put(lEntry.getKey(), getIndexValue(lEntry.getKey(), lEntry.getValue()));
                     }
                 }
                 wikiDragonDatabase.getMediaWikiNodeIndex(getMediaWikiId()).updateOrAdd(node, lIndexMap);
@@ -181,6 +181,17 @@ public abstract class NeoBatWikiObject implements WikiObject {
         if (autoSaveProperties) saveProperties();
     }
 
+    /**
+     * Value under which an indexed property is put into the index. Properties stored in a compact encoding are
+     * indexed in their plain form, so they can be queried with the values of the API.
+     * @param pProperty
+     * @param pValue Stored value
+     * @return Indexed value
+     */
+    protected Object getIndexValue(String pProperty, Object pValue) {
+        return pValue;
+    }
+
     protected abstract boolean isIndexedGlobal(String pProperty);
 
     protected abstract boolean isIndexedMediaWiki(String pProperty);
@@ -22,19 +22,27 @@ package org.hucompute.wikidragon.core.model.neobat;
 import org.hucompute.wikidragon.core.model.WikiTransaction;
 
 /**
+ * The BatchInserter has no transactions. success() flushes the indices so that the changes become visible to queries.
+ * Read sessions use a transaction which does not flush at all.
  * @author Rüdiger Gleim
  */
 public class NeoBatWikiTransaction implements WikiTransaction {
 
     protected NeoBatWikiDragonDatabase wikiDragonDatabase;
+    protected boolean flushOnSuccess;
 
     protected NeoBatWikiTransaction(NeoBatWikiDragonDatabase pNeoBatWikiDragonDatabase) {
+        this(pNeoBatWikiDragonDatabase, true);
+    }
+
+    protected NeoBatWikiTransaction(NeoBatWikiDragonDatabase pNeoBatWikiDragonDatabase, boolean pFlushOnSuccess) {
         wikiDragonDatabase = pNeoBatWikiDragonDatabase;
+        flushOnSuccess = pFlushOnSuccess;
     }
 
     @Override
     public void success() {
-        wikiDragonDatabase.flush();
+        if (flushOnSuccess) wikiDragonDatabase.flush();
     }
 
     @Override
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.parsing;
+
+import gnu.trove.set.hash.TLongHashSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.*;
+import org.hucompute.wikidragon.core.util.HTMLWikiLinkExtraction;
+import org.hucompute.wikidragon.core.util.WikiTextLinkExtraction;
+
+import java.io.*;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Extracts the link network of the PageTiers at one timestamp. Pages are streamed from the store into a bounded queue,
+ * worker threads read the tier HTML and extract the links concurrently and a single writer stores them in batches.
+ * Ids of pages whose links have been stored are appended to a journal file, so an interrupted run skips them when
+ * it is started again. Storing links is idempotent, so pages which are processed twice do no harm. Stores which make
+ * writes durable only on shutdown set a pending journal, which they merge into the journal after shutdown.
+ * Alternatively the links can be scanned from the raw text of the revisions at the timestamp, see setWikiTextLinkExtraction.
+ * @author Rüdiger Gleim
+ */
+public class PageTierNetworkExtractor {
+
+    private static Logger logger = LogManager.getLogger(PageTierNetworkExtractor.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_PROGRESS_INTERVAL_SECONDS = 60;
+
+    // Marks the end of the page and the result queue
+    protected static final Result POISON = new Result(null, null);
+
+    protected MediaWiki mediaWiki;
+    protected ZonedDateTime timestamp;
+    protected int threads;
+    protected File journalFile;
+    protected File pendingJournalFile;
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+    protected int progressIntervalSeconds = DEFAULT_PROGRESS_INTERVAL_SECONDS;
+    protected WikiTextLinkExtraction wikiTextLinkExtraction;
+
+    protected BlockingQueue<Result> pageQueue;
+    protected BlockingQueue<Result> resultQueue;
+    protected AtomicReference<Exception> failure = new AtomicReference<>();
+    protected AtomicLong queuedPages = new AtomicLong();
+    protected AtomicLong extractedPages = new AtomicLong();
+    protected AtomicLong storedPages = new AtomicLong();
+    protected AtomicLong storedLinks = new AtomicLong();
+
+    /**
+     * @param pMediaWiki
+     * @param pTimestamp
+     * @param pThreads Number of extraction workers
+     * @param pJournalFile File to record finished pages in or null if the run does not need to be resumable
+     */
+    public PageTierNetworkExtractor(MediaWiki pMediaWiki, ZonedDateTime pTimestamp, int pThreads, File pJournalFile) {
+        mediaWiki = pMediaWiki;
+        timestamp = pTimestamp;
+        threads = Math.max(1, pThreads);
+        journalFile = pJournalFile;
+    }
+
+    /**
+     * Append finished pages to pPendingJournalFile instead of the journal. The owner of the store merges it into the
+     * journal once the links are durable and discards it if they have been lost, so the journal never claims pages
+     * whose links are missing. Entries of both files are skipped on resume.
+     * @param pPendingJournalFile
+     */
+    public void setPendingJournalFile(File pPendingJournalFile) {
+        pendingJournalFile = pPendingJournalFile;
+    }
+
+    public void setBatchSize(int pBatchSize) {
+        batchSize = pBatchSize;
+    }
+
+    public void setProgressIntervalSeconds(int pProgressIntervalSeconds) {
+        progressIntervalSeconds = pProgressIntervalSeconds;
+    }
+
+    /**
+     * Scan the raw text of the revisions at the timestamp instead of the tier HTML
+     * @param pWikiTextLinkExtraction Configured scanner or null to use the tier HTML
+     */
+    public void setWikiTextLinkExtraction(WikiTextLinkExtraction pWikiTextLinkExtraction) {
+        wikiTextLinkExtraction = pWikiTextLinkExtraction;
+    }
+
+    public void extract() throws WikiDragonException {
+        long lStart = System.currentTimeMillis();
+        TLongHashSet lFinishedPageIds = readJournal();
+        if (lFinishedPageIds.size() > 0) logger.info("Resuming PageTier network extraction, skipping "+lFinishedPageIds.size()+" pages");
+        pageQueue = new ArrayBlockingQueue<>(threads*64);
+        resultQueue = new ArrayBlockingQueue<>(threads*64);
+        ExecutorService lWorkers = Executors.newFixedThreadPool(threads);
+        ExecutorService lWriter = Executors.newSingleThreadExecutor();
+        ScheduledExecutorService lProgress = Executors.newSingleThreadScheduledExecutor();
+        lProgress.scheduleAtFixedRate(() -> logProgress(lStart), progressIntervalSeconds, progressIntervalSeconds, TimeUnit.SECONDS);
+        try {
+            List<Future<?>> lWorkerFutures = new ArrayList<>();
+            for (int i=0; i<threads; i++) {
+                lWorkerFutures.add(lWorkers.submit(this::work));
+            }
+            Future<?> lWriterFuture = lWriter.submit(this::write);
+
+            // Stream pages to the workers
+            try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginReadSession()) {
+                WikiObjectIterator<Page> i = mediaWiki.getPageIterator();
+                try {
+                    while (i.hasNext() && (failure.get() == null)) {
+                        Page lPage = i.next();
+                        if (!lFinishedPageIds.contains(lPage.getId())) {
+                            pageQueue.put(new Result(lPage, null));
+                            queuedPages.incrementAndGet();
+                        }
+                    }
+                }
+                finally {
+                    i.close();
+                }
+                tx.success();
+            }
+            for (int i=0; i<threads; i++) {
+                pageQueue.put(POISON);
+            }
+            for (Future<?> lFuture:lWorkerFutures) {
+                lFuture.get();
+            }
+            resultQueue.put(POISON);
+            lWriterFuture.get();
+        }
+        catch (InterruptedException | ExecutionException e) {
+            failure.compareAndSet(null, e);
+        }
+        finally {
+            lProgress.shutdownNow();
+            lWorkers.shutdownNow();
+            lWriter.shutdownNow();
+        }
+        if (failure.get() != null) {
+            Exception e = failure.get();
+            throw e instanceof WikiDragonException ? (WikiDragonException)e : new WikiDragonException(e.getMessage(), e);
+        }
+        logProgress(lStart);
+        mediaWiki.getPageTitleCache().logStatistics();
+    }
+
+    /**
+     * Remove the journal after the extraction has been completed and recorded
+     */
+    public void deleteJournal() {
+        for (File lFile:new File[]{journalFile, pendingJournalFile}) {
+            if ((lFile != null) && lFile.exists() && !lFile.delete()) {
+                logger.warn("Could not delete journal "+lFile.getAbsolutePath());
+            }
+        }
+    }
+
+    protected void work() {
+        try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginReadSession()) {
+            while (true) {
+                Result lTask = pageQueue.take();
+                if (lTask == POISON) break;
+                Page lPage = lTask.page;
+                if (failure.get() != null) continue;
+                Map<MediaWikiConst.LinkType, Set<Page>> lMap = null;
+                String lText = wikiTextLinkExtraction == null ? getTierHtml(lPage) : getRawText(lPage);
+                if (lText != null) {
+                    lMap = new EnumMap<>(MediaWikiConst.LinkType.class);
+                    for (MediaWikiConst.LinkType lType : MediaWikiConst.LinkType.values()) {
+                        lMap.put(lType, new HashSet<>());
+                    }
+                    Set<WikiPageLink> lLinks = wikiTextLinkExtraction == null ? HTMLWikiLinkExtraction.extractWikiPageLinks(mediaWiki, lPage, lText, timestamp) : wikiTextLinkExtraction.extractWikiPageLinks(lPage, lText, timestamp);
+                    for (WikiPageLink lLink : lLinks) {
+                        lMap.get(lLink.getLinkType()).add(lLink.getTarget());
+                    }
+                }
+                extractedPages.incrementAndGet();
+                lTask.linkMap = lMap;
+                resultQueue.put(lTask);
+            }
+            tx.success();
+        }
+        catch (Throwable e) {
+            // Errors as well, since a dead worker would leave the producer blocked on a full queue
+            fail(e);
+            // Keep draining so the producer does not block
+            drainPages();
+        }
+    }
+
+    /**
+     * Record the first failure of a worker or the writer. Errors are wrapped, so extract() can rethrow them.
+     * @param e
+     */
+    protected void fail(Throwable e) {
+        failure.compareAndSet(null, e instanceof Exception ? (Exception)e : new WikiDragonException(e.getMessage(), e));
+    }
+
+    protected String getTierHtml(Page pPage) throws WikiDragonException {
+        PageTier lPageTier = pPage.getPageTierAt(timestamp);
+        return lPageTier == null ? null : lPageTier.getTierAttribute(PageTier.TierAttribute.HTML);
+    }
+
+    protected String getRawText(Page pPage) throws WikiDragonException {
+        Revision lRevision = pPage.getRevisionAt(timestamp);
+        return lRevision == null ? null : lRevision.getRawText();
+    }
+
+    protected void drainPages() {
+        try {
+            while (pageQueue.take() != POISON);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void write() {
+        File lJournalFile = pendingJournalFile != null ? pendingJournalFile : journalFile;
+        if ((lJournalFile != null) && !lJournalFile.getParentFile().exists()) lJournalFile.getParentFile().mkdirs();
+        try (DataOutputStream lJournal = lJournalFile == null ? null : new DataOutputStream(new BufferedOutputStream(new FileOutputStream(lJournalFile, true)))) {
+            List<Result> lBatch = new ArrayList<>(batchSize);
+            boolean lDone = false;
+            while (!lDone) {
+                Result lResult = resultQueue.take();
+                if (lResult == POISON) {
+                    lDone = true;
+                }
+                else {
+                    lBatch.add(lResult);
+                    resultQueue.drainTo(lBatch, batchSize-lBatch.size());
+                    if (lBatch.get(lBatch.size()-1) == POISON) {
+                        lBatch.remove(lBatch.size()-1);
+                        lDone = true;
+                    }
+                }
+                if (lBatch.size() > 0) {
+                    writeBatch(lBatch, lJournal);
+                    lBatch.clear();
+                }
+            }
+        }
+        catch (Throwable e) {
+            fail(e);
+            // Keep draining so the workers do not block
+            try {
+                while (resultQueue.take() != POISON);
+            }
+            catch (InterruptedException e2) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected void writeBatch(List<Result> pBatch, DataOutputStream pJournal) throws WikiDragonException, IOException {
+        try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginTx()) {
+            for (Result lResult:pBatch) {
+                if (lResult.linkMap != null) {
+                    lResult.page.addWikiPageLinksOut(timestamp, lResult.linkMap);
+                    for (Set<Page> lTargets:lResult.linkMap.values()) {
+                        storedLinks.addAndGet(lTargets.size());
+                    }
+                }
+            }
+            tx.success();
+        }
+        if (pJournal != null) {
+            for (Result lResult:pBatch) {
+                pJournal.writeLong(lResult.page.getId());
+            }
+            pJournal.flush();
+        }
+        storedPages.addAndGet(pBatch.size());
+    }
+
+    protected TLongHashSet readJournal() throws WikiDragonException {
+        TLongHashSet lResult = new TLongHashSet();
+        readJournal(journalFile, lResult);
+        readJournal(pendingJournalFile, lResult);
+        return lResult;
+    }
+
+    protected static void readJournal(File pFile, TLongHashSet pResult) throws WikiDragonException {
+        if ((pFile != null) && pFile.exists()) {
+            try (DataInputStream lInput = new DataInputStream(new BufferedInputStream(new FileInputStream(pFile)))) {
+                // A trailing incomplete entry of a crashed run is ignored
+                long lEntries = pFile.length() / 8;
+                for (long i=0; i<lEntries; i++) {
+                    pResult.add(lInput.readLong());
+                }
+            }
+            catch (IOException e) {
+                throw new WikiDragonException(e.getMessage(), e);
+            }
+        }
+    }
+
+    protected void logProgress(long pStart) {
+        long lSeconds = Math.max(1, (System.currentTimeMillis()-pStart)/1000);
+        logger.info("Extracting PageTier Network: "+queuedPages.get()+" queued, "+extractedPages.get()+" extracted, "+storedPages.get()+" stored ("+(storedPages.get()/lSeconds)+" pages/s), "+storedLinks.get()+" links");
+    }
+
+    protected static class Result {
+
+        protected Page page;
+        protected Map<MediaWikiConst.LinkType, Set<Page>> linkMap;
+
+        protected Result(Page pPage, Map<MediaWikiConst.LinkType, Set<Page>> pLinkMap) {
+            page = pPage;
+            linkMap = pLinkMap;
+        }
+
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+
+package org.hucompute.wikidragon.core.parsing;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.*;
+import org.hucompute.wikidragon.core.util.TemplateTextCache;
+
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pre-pass of a mass parse which resolves the templates and modules used by a set of pages at a timestamp in bulk.
+ * Transclusions are found by scanning the raw text for {{...}} and {{#invoke:...}}, including the transclusions of
+ * the templates found, up to a number of rounds. The most popular templates are then resolved and decoded in parallel
+ * and pinned in the TemplateTextCache, so the parsers get them without a title lookup, getRevisionAt and decoding.
+ * The scan is heuristic: parser functions and magic words are skipped where recognizable, names built from
+ * parameters cannot be found and unknown names simply do not resolve.
+ * @author Rüdiger Gleim
+ */
+public class TemplatePreResolver {
+
+    private static Logger logger = LogManager.getLogger(TemplatePreResolver.class);
+
+    public static final int DEFAULT_MIN_USES = 2;
+    public static final int DEFAULT_ROUNDS = 3;
+
+    protected static final int TEMPLATE_NAMESPACE = 10;
+    protected static final int MODULE_NAMESPACE = 828;
+
+    protected MediaWiki mediaWiki;
+    protected ZonedDateTime timestamp;
+    protected int threads;
+    protected int minUses = DEFAULT_MIN_USES;
+    protected int rounds = DEFAULT_ROUNDS;
+    protected Map<String, Namespace> namespaceMap;
+    protected Namespace templateNamespace;
+    protected Namespace moduleNamespace;
+    // Number of uses by template, summed up over the pages and templates using it
+    protected Map<Key, long[]> useCounts = new HashMap<>();
+    protected Set<Key> resolved = new HashSet<>();
+
+    public TemplatePreResolver(MediaWiki pMediaWiki, ZonedDateTime pTimestamp, int pThreads) throws WikiDragonException {
+        mediaWiki = pMediaWiki;
+        timestamp = pTimestamp;
+        threads = Math.max(1, pThreads);
+        namespaceMap = new HashMap<>();
+        try (WikiTransaction lSession = mediaWiki.getWikiDragonDatabase().beginReadSession()) {
+            for (Map.Entry<String, Namespace> lEntry:mediaWiki.getNamespaceMap().entrySet()) {
+                namespaceMap.put(lEntry.getKey().replace('_', ' ').toLowerCase(), lEntry.getValue());
+            }
+            templateNamespace = mediaWiki.getNamespace(TEMPLATE_NAMESPACE);
+            moduleNamespace = mediaWiki.getNamespace(MODULE_NAMESPACE);
+            lSession.success();
+        }
+    }
+
+    /**
+     * @param pMinUses Templates used less often in the scanned pages are not pinned
+     */
+    public void setMinUses(int pMinUses) {
+        minUses = pMinUses;
+    }
+
+    /**
+     * @param pRounds Depth up to which templates used by templates are followed, 1 for the pages only
+     */
+    public void setRounds(int pRounds) {
+        rounds = pRounds;
+    }
+
+    /**
+     * Scan the revisions of the pages valid at the timestamp in parallel
+     * @param pPages
+     * @throws WikiDragonException
+     */
+    public void scanPages(List<Page> pPages) throws WikiDragonException {
+        runParallel(pPages.size(), (pFrom, pTo) -> {
+            Map<Key, long[]> lCounts = new HashMap<>();
+            for (int i=pFrom; i<pTo; i++) {
+                Revision lRevision = pPages.get(i).getRevisionAt(timestamp);
+                if (lRevision != null) scan(lRevision.getRawText(), 1, lCounts);
+            }
+            return lCounts;
+        });
+    }
+
+    /**
+     * Count the transclusions in a text
+     * @param pText
+     * @param pWeight Number of uses each transclusion counts for
+     * @param pCounts
+     */
+    protected void scan(String pText, long pWeight, Map<Key, long[]> pCounts) {
+        if (pText == null) return;
+        int lLength = pText.length();
+        int i = 0;
+        while ((i = pText.indexOf("{{", i)) >= 0) {
+            int lStart = i+2;
+            if ((lStart < lLength) && (pText.charAt(lStart) == '{')) {
+                // Template parameter
+                while ((lStart < lLength) && (pText.charAt(lStart) == '{')) lStart++;
+                i = lStart;
+                continue;
+            }
+            int lEnd = lStart;
+            while (lEnd < lLength) {
+                char c = pText.charAt(lEnd);
+                if ((c == '|') || (c == '}') || (c == '{') || (c == '\n') || (c == '<')) break;
+                lEnd++;
+            }
+            Key lKey = getKey(pText.substring(lStart, lEnd));
+            if (lKey != null) {
+                long[] lCount = pCounts.get(lKey);
+                if (lCount == null) {
+                    pCounts.put(lKey, new long[]{pWeight});
+                }
+                else {
+                    lCount[0] += pWeight;
+                }
+            }
+            i = lEnd;
+        }
+    }
+
+    /**
+     * @param pName Name of a transclusion
+     * @return Key of the transcluded page or null if it is a parser function or magic word
+     */
+    protected Key getKey(String pName) {
+        String lName = pName.trim();
+        for (String lPrefix:new String[]{"subst:", "safesubst:", "msgnw:"}) {
+            if (lName.regionMatches(true, 0, lPrefix, 0, lPrefix.length())) lName = lName.substring(lPrefix.length()).trim();
+        }
+        if (lName.isEmpty()) return null;
+        Namespace lNamespace = templateNamespace;
+        if (lName.regionMatches(true, 0, "#invoke:", 0, 8)) {
+            // The module is the first argument of #invoke, the scan stops at the pipe before the function
+            lName = lName.substring(8).trim();
+            lNamespace = moduleNamespace;
+        }
+        else if (lName.charAt(0) == '#') {
+            return null;
+        }
+        else if (lName.charAt(0) == ':') {
+            lName = lName.substring(1).trim();
+            lNamespace = namespaceMap.get("");
+        }
+        else {
+            int lColon = lName.indexOf(':');
+            if (lColon > 0) {
+                lNamespace = namespaceMap.get(lName.substring(0, lColon).replace('_', ' ').trim().toLowerCase());
+                if (lNamespace == null) return null; // Parser function or magic word like DISPLAYTITLE:
+                lName = lName.substring(lColon+1).trim();
+            }
+        }
+        if ((lNamespace == null) || lName.isEmpty()) return null;
+        lName = lName.replace('_', ' ');
+        if (lNamespace.getCase() == MediaWikiConst.Case.FIRST_LETTER) {
+            lName = Character.toUpperCase(lName.charAt(0))+lName.substring(1);
+        }
+        return new Key(lNamespace.getId(), lName);
+    }
+
+    /**
+     * Resolve the templates used at least minUses times in the order of their popularity and pin their texts until the
+     * weight is reached. Templates used by the pinned templates are followed for the configured number of rounds.
+     * @param pTemplateTextCache
+     * @param pMaxWeight Maximum weight of the pinned texts in bytes
+     * @return Number of pinned templates
+     * @throws WikiDragonException
+     */
+    public int resolve(TemplateTextCache pTemplateTextCache, long pMaxWeight) throws WikiDragonException {
+        long lTimestampMillis = timestamp.toInstant().toEpochMilli();
+        long lWeight = 0;
+        int lResult = 0;
+        for (int r=0; (r<rounds) && (lWeight < pMaxWeight); r++) {
+            List<Key> lKeys = new ArrayList<>();
+            for (Map.Entry<Key, long[]> lEntry:useCounts.entrySet()) {
+                if ((lEntry.getValue()[0] >= minUses) && !resolved.contains(lEntry.getKey())) lKeys.add(lEntry.getKey());
+            }
+            if (lKeys.isEmpty()) break;
+            lKeys.sort((a, b) -> Long.compare(useCounts.get(b)[0], useCounts.get(a)[0]));
+            resolved.addAll(lKeys);
+            String[] lTexts = new String[lKeys.size()];
+            runParallel(lKeys.size(), (pFrom, pTo) -> {
+                for (int i=pFrom; i<pTo; i++) {
+                    lTexts[i] = resolve(lKeys.get(i));
+                }
+                return null;
+            });
+            // Transclusions of this round's templates are counted for the next one
+            Map<Key, long[]> lCounts = new HashMap<>();
+            for (int i=0; (i<lKeys.size()) && (lWeight < pMaxWeight); i++) {
+                if (lTexts[i] == null) continue;
+                Key lKey = lKeys.get(i);
+                pTemplateTextCache.pin(lKey.namespaceID, lKey.title, lTimestampMillis, lTexts[i]);
+                lWeight += 2L*lTexts[i].length();
+                lResult++;
+                scan(lTexts[i], useCounts.get(lKey)[0], lCounts);
+            }
+            merge(lCounts);
+            logger.info("Template pre-resolution round "+(r+1)+": "+lKeys.size()+" templates resolved, "+lResult+" pinned, "+(lWeight >> 20)+" MB");
+        }
+        return lResult;
+    }
+
+    protected String resolve(Key pKey) throws WikiDragonException {
+        Page lPage = mediaWiki.getPageTitleCache().getPage(pKey.namespaceID, pKey.title);
+        if (lPage == null) return null;
+        Revision lRevision = lPage.getRevisionAt(timestamp);
+        if ((lRevision == null) && XOWAParser.useOldestRevisionWhenNoPreviousVersionExists) {
+            lRevision = lPage.getFirstRevision();
+        }
+        return lRevision == null ? null : lRevision.getRawText();
+    }
+
+    protected interface RangeTask {
+
+        public Map<Key, long[]> run(int pFrom, int pTo) throws WikiDragonException;
+
+    }
+
+    /**
+     * Split a range into chunks which are processed by the workers, each within its own read session. Counts
+     * returned by the chunks are merged.
+     */
+    protected void runParallel(int pSize, RangeTask pTask) throws WikiDragonException {
+        if (pSize == 0) return;
+        int lChunkSize = Math.max(1, (pSize+threads*4-1)/(threads*4));
+        ExecutorService lWorkers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Map<Key, long[]>>> lFutures = new ArrayList<>();
+            for (int lFrom=0; lFrom<pSize; lFrom+=lChunkSize) {
+                int lChunkFrom = lFrom;
+                int lChunkTo = Math.min(pSize, lFrom+lChunkSize);
+                lFutures.add(lWorkers.submit(() -> {
+                    try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginReadSession()) {
+                        Map<Key, long[]> lCounts = pTask.run(lChunkFrom, lChunkTo);
+                        tx.success();
+                        return lCounts;
+                    }
+                }));
+            }
+            for (Future<Map<Key, long[]>> lFuture:lFutures) {
+                Map<Key, long[]> lCounts = lFuture.get();
+                if (lCounts != null) merge(lCounts);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WikiDragonException(e.getMessage(), e);
+        }
+        catch (ExecutionException e) {
+            throw e.getCause() instanceof WikiDragonException ? (WikiDragonException)e.getCause() : new WikiDragonException(e.getMessage(), e);
+        }
+        finally {
+            lWorkers.shutdownNow();
+        }
+    }
+
+    protected void merge(Map<Key, long[]> pCounts) {
+        for (Map.Entry<Key, long[]> lEntry:pCounts.entrySet()) {
+            long[] lCount = useCounts.get(lEntry.getKey());
+            if (lCount == null) {
+                useCounts.put(lEntry.getKey(), lEntry.getValue());
+            }
+            else {
+                lCount[0] += lEntry.getValue()[0];
+            }
+        }
+    }
+
+    protected static final class Key {
+
+        protected final int namespaceID;
+        protected final String title;
+
+        protected Key(int pNamespaceID, String pTitle) {
+            namespaceID = pNamespaceID;
+            title = pTitle;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31*title.hashCode()+namespaceID;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key lOther = (Key)obj;
+            return (lOther.namespaceID == namespaceID) && lOther.title.equals(title);
+        }
+
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+
+package org.hucompute.wikidragon.core.parsing;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides when a XOWAParser releases the memory of its XOWA worker. Releasing is expensive, so it is done after a
+ * number of parsed pages or earlier when the heap usage exceeds a threshold. A value of 0 disables either criterion.
+ * Heap usage is measured as the occupancy of the tenured pool after its last collection: the raw used heap includes
+ * garbage which has not been collected yet and exceeds the threshold long before live data does. The occupancy only
+ * changes with the next collection of the pool, so a parser releases again for heap usage only after that collection.
+ * @author Rüdiger Gleim
+ */
+public class XOWAMemoryReleasePolicy {
+
+    public static final int DEFAULT_PAGE_INTERVAL = 50;
+    public static final double DEFAULT_HEAP_USAGE_THRESHOLD = 0.8;
+
+    protected int pageInterval;
+    protected double heapUsageThreshold;
+    // Pool of long living objects or null if the JVM does not report one
+    protected MemoryPoolMXBean tenuredPool;
+    // Collectors which update the measured heap usage
+    protected List<GarbageCollectorMXBean> collectors = new ArrayList<>();
+
+    public XOWAMemoryReleasePolicy() {
+        this(DEFAULT_PAGE_INTERVAL, DEFAULT_HEAP_USAGE_THRESHOLD);
+    }
+
+    /**
+     * @param pPageInterval Number of pages after which memory is released or 0
+     * @param pHeapUsageThreshold Fraction of the maximum heap in use above which memory is released or 0
+     */
+    public XOWAMemoryReleasePolicy(int pPageInterval, double pHeapUsageThreshold) {
+        pageInterval = pPageInterval;
+        heapUsageThreshold = pHeapUsageThreshold;
+        for (MemoryPoolMXBean lPool:ManagementFactory.getMemoryPoolMXBeans()) {
+            // Only the tenured pool supports usage thresholds among the heap pools of the standard collectors
+            if ((lPool.getType() == MemoryType.HEAP) && lPool.isUsageThresholdSupported() && lPool.isCollectionUsageThresholdSupported()) {
+                tenuredPool = lPool;
+                break;
+            }
+        }
+        for (GarbageCollectorMXBean lCollector:ManagementFactory.getGarbageCollectorMXBeans()) {
+            if ((tenuredPool == null) || Arrays.asList(lCollector.getMemoryPoolNames()).contains(tenuredPool.getName())) {
+                collectors.add(lCollector);
+            }
+        }
+    }
+
+    public int getPageInterval() {
+        return pageInterval;
+    }
+
+    public double getHeapUsageThreshold() {
+        return heapUsageThreshold;
+    }
+
+    /**
+     * @param pPagesSinceRelease Number of pages parsed since the last release
+     * @param pCollectionCountAtRelease Result of getCollectionCount at the last release or -1
+     * @return true if the worker should release its memory now
+     */
+    public boolean isReleaseDue(int pPagesSinceRelease, long pCollectionCountAtRelease) {
+        if ((pageInterval > 0) && (pPagesSinceRelease >= pageInterval)) return true;
+        if (heapUsageThreshold > 0) {
+            // Without a collection since the last release the usage still reflects the memory released then
+            return (getCollectionCount() != pCollectionCountAtRelease) && (getHeapUsage() > heapUsageThreshold);
+        }
+        return false;
+    }
+
+    /**
+     * @return Number of collections which may have changed the measured heap usage so far
+     */
+    public long getCollectionCount() {
+        long lResult = 0;
+        for (GarbageCollectorMXBean lCollector:collectors) {
+            lResult += Math.max(0, lCollector.getCollectionCount());
+        }
+        return lResult;
+    }
+
+    /**
+     * @return Fraction of the tenured pool occupied after its last collection, or of the maximum heap currently in use
+     * if the JVM does not report a tenured pool. Before the first collection of the tenured pool its occupancy is 0.
+     */
+    public double getHeapUsage() {
+        MemoryUsage lUsage = tenuredPool != null ? tenuredPool.getCollectionUsage() : null;
+        if ((lUsage != null) && (lUsage.getMax() > 0)) {
+            return lUsage.getUsed() / (double)lUsage.getMax();
+        }
+        Runtime lRuntime = Runtime.getRuntime();
+        return (lRuntime.totalMemory() - lRuntime.freeMemory()) / (double)lRuntime.maxMemory();
+    }
+
+}
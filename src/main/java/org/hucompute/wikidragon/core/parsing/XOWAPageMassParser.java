@@ -17,40 +17,72 @@
  * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
  */
 
+
 package org.hucompute.wikidragon.core.parsing;
 
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
-import org.hucompute.wikidragon.core.model.MediaWiki;
-import org.hucompute.wikidragon.core.model.Page;
-import org.hucompute.wikidragon.core.model.Revision;
+import org.hucompute.wikidragon.core.model.*;
 import org.hucompute.wikidragon.core.parsing.filter.XOWAPageMassParserAllFilter;
 import org.hucompute.wikidragon.core.parsing.filter.XOWAPageMassParserFilter;
+import org.hucompute.wikidragon.core.util.IOUtil;
+import org.hucompute.wikidragon.core.util.TemplateTextCache;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * Parses the revisions of pages to HTML and stores it diff compressed. Pages are streamed one after another: the
+ * revisions of a page are parsed in parallel by a fixed pool of workers, while a
+ * compression stage per page waits for the results in revision order and stores every revision as diff against its
+ * predecessor or as key frame. The number of revisions in flight is bounded, so memory does not grow with the number
+ * of pages or revisions. Revisions which cannot be parsed are retried with an exponential backoff and skipped after
+ * the last attempt, the next revision is stored as key frame then. The workers borrow their XOWAParser contexts from
+ * the XOWAParserPool of the MediaWiki, so contexts and templates are shared with other parsing in the same process.
  * @author Rüdiger Gleim
  */
 public class XOWAPageMassParser {
 
     private static Logger logger = LogManager.getLogger(XOWAPageMassParser.class);
 
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 1000;
+    public static final long DEFAULT_MAX_RETRY_DELAY_MILLIS = 30000;
+    public static final int DEFAULT_PROGRESS_INTERVAL_SECONDS = 60;
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
     protected int keyFrameRate = 50;
 
-    protected Set<XOWAPageMassParserRunnable> available;
-    protected Set<XOWAPageMassParserRunnable> used;
     protected int maxThreads = 0;
-    protected Map<Revision, String> revisionHtmlMap;
-    protected long uncompressedBytes = 0;
-    protected long compressedBytes = 0;
-    protected WikiDragonException exception;
-    protected long errors;
     protected XOWAPageMassParserFilter xowaPageMassParserFilter;
     protected MediaWiki mediaWiki;
     protected Collection<Page> pages;
+    protected TemplateTextCache templateTextCache;
+    protected XOWAMemoryReleasePolicy memoryReleasePolicy = new XOWAMemoryReleasePolicy();
+    protected XOWAParserPool xowaParserPool;
+    protected int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    protected long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+    protected long maxRetryDelayMillis = DEFAULT_MAX_RETRY_DELAY_MILLIS;
+    protected int progressIntervalSeconds = DEFAULT_PROGRESS_INTERVAL_SECONDS;
+
+    // Permits for revisions which have been submitted but not compressed yet
+    protected Semaphore window;
+    protected AtomicReference<Exception> failure = new AtomicReference<>();
+    protected AtomicLong queuedPages = new AtomicLong();
+    protected AtomicLong parsedRevisions = new AtomicLong();
+    protected AtomicLong storedRevisions = new AtomicLong();
+    protected AtomicLong uncompressedBytes = new AtomicLong();
+    protected AtomicLong compressedBytes = new AtomicLong();
+    protected AtomicLong errors = new AtomicLong();
 
     public XOWAPageMassParser(MediaWiki pMediaWiki, Collection<Page> pPages) {
         this(pMediaWiki, pPages, Math.max(java.lang.Runtime.getRuntime().availableProcessors() / 2, 1), new XOWAPageMassParserAllFilter());
@@ -59,111 +91,243 @@ public class XOWAPageMassParser {
     public XOWAPageMassParser(MediaWiki pMediaWiki, Collection<Page> pPages, int pMaxThreads, XOWAPageMassParserFilter pXOWAPageMassParserFilter) {
         mediaWiki = pMediaWiki;
         xowaPageMassParserFilter = pXOWAPageMassParserFilter;
-        maxThreads = pMaxThreads;
+        maxThreads = Math.max(1, pMaxThreads);
         pages = pPages;
     }
 
     public void parse() throws WikiDragonException {
-        logger.info("Initializing Parsing. Pages total: "+pages.size());
-        available = new HashSet<>();
-        used = new HashSet<>();
-        revisionHtmlMap = new HashMap<>();
-        errors = 0;
-        for (int i = 0; i < maxThreads; i++) {
-            available.add(new XOWAPageMassParserRunnable(this, mediaWiki));
-        }
-        int lPageCounter = 0;
-        long lRevisionCounter = 0;
-        long lMaxRevisions = 0;
-        Map<Page, List<Revision>> lRevisionMap = new HashMap<>();
-        logger.info("Fetching Revisions: "+pages.size()+" pages total");
-        for (Page lPage:pages) {
-            lPageCounter++;
-            List<Revision> lRevisionList = lPage.getRevisionsList();
-            {
-                Iterator<Revision> i = lRevisionList.iterator();
-                while (i.hasNext()) {
-                    Revision lRevision = i.next();
-                    if (!xowaPageMassParserFilter.acceptParsing(lPage, lRevisionList, lRevision)
-                            || (lRevision.getCompressedRawHtml() != null)) {
-                        i.remove();
-                    }
-                }
-            }
-            lRevisionMap.put(lPage, lRevisionList);
-            lMaxRevisions += lRevisionList.size();
-            logger.info("Counting Revisions: "+lPageCounter+" pages, "+lMaxRevisions+" revisions");
-        }
-        logger.info("Fetching Revisions: Done");
-        lPageCounter = 0;
         long lStart = System.currentTimeMillis();
-        for (Map.Entry<Page, List<Revision>> lEntry:lRevisionMap.entrySet()) {
-            lPageCounter++;
-            Revision lPrevRevision = null;
-            for (int i=0; i<lEntry.getValue().size(); i++) {
-                lRevisionCounter++;
-                Revision lRevision = lEntry.getValue().get(i);
-                synchronized (used) {
-                    while (used.size() >= maxThreads) {
+        logger.info("Parsing and Compressing: "+pages.size()+" pages total");
+        xowaParserPool = mediaWiki.getXOWAParserPool();
+        templateTextCache = xowaParserPool.getTemplateTextCache();
+        int lWindowSize = maxThreads*16;
+        window = new Semaphore(lWindowSize);
+        // Each page in flight occupies a compressor until all its revisions are stored
+        Semaphore lPagePermits = new Semaphore(maxThreads);
+        ExecutorService lParsers = Executors.newFixedThreadPool(maxThreads);
+        ExecutorService lCompressors = Executors.newFixedThreadPool(maxThreads);
+        ScheduledExecutorService lProgress = Executors.newSingleThreadScheduledExecutor();
+        lProgress.scheduleAtFixedRate(() -> logProgress(lStart), progressIntervalSeconds, progressIntervalSeconds, TimeUnit.SECONDS);
+        try {
+            try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginReadSession()) {
+                for (Page lPage:pages) {
+                    if (failure.get() != null) break;
+                    List<Revision> lRevisions = getRevisionsToParse(lPage);
+                    queuedPages.incrementAndGet();
+                    if (lRevisions.isEmpty()) continue;
+                    lPagePermits.acquire();
+                    List<CompletableFuture<String>> lResults = new ArrayList<>(lRevisions.size());
+                    for (int i=0; i<lRevisions.size(); i++) {
+                        lResults.add(new CompletableFuture<>());
+                    }
+                    lCompressors.submit(() -> {
                         try {
-                            used.wait();
-                        } catch (InterruptedException e) {
-                            logger.error(e);
+                            compressPage(lRevisions, lResults);
                         }
+                        catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                        }
+                        finally {
+                            lPagePermits.release();
+                        }
+                    });
+                    for (int i=0; i<lRevisions.size(); i++) {
+                        window.acquire();
+                        Revision lRevision = lRevisions.get(i);
+                        CompletableFuture<String> lResult = lResults.get(i);
+                        lParsers.submit(() -> {
+                            try {
+                                lResult.complete(failure.get() == null ? parseRevision(lPage, lRevision) : null);
+                            }
+                            catch (InterruptedException e) {
+                                lResult.completeExceptionally(e);
+                            }
+                            catch (Throwable e) {
+                                // Errors such as a StackOverflowError in XOWA must not leave the compressor waiting forever
+                                logger.warn("Failed to parse revision "+lRevision.getId()+" of page "+lPage.getId()+": "+e);
+                                errors.incrementAndGet();
+                                lResult.complete(null);
+                            }
+                        });
                     }
-                    XOWAPageMassParserRunnable lXOWAPageMassParserRunnable = available.iterator().next();
-                    available.remove(lXOWAPageMassParserRunnable);
-                    used.add(lXOWAPageMassParserRunnable);
-                    lXOWAPageMassParserRunnable.setData(lEntry.getKey(), lPrevRevision, lRevision, i == lEntry.getValue().size()-1, i%keyFrameRate == 0);
-                    new Thread(lXOWAPageMassParserRunnable).start();
                 }
-                lPrevRevision = lRevision;
-                double lEstimated = (((System.currentTimeMillis()-lStart)/(double)lRevisionCounter)*(lMaxRevisions-lRevisionCounter))/(1000*60*60d);
-                logger.info("Parsing and Compressing "+lPageCounter+"/"+pages.size()+", "+lRevisionCounter+" revs, "+((compressedBytes*100d)/uncompressedBytes)+"% compression, "+used.size()+"/"+maxThreads+" threads, "+errors+" errors, "+lEstimated+" hours");
+                tx.success();
             }
+            // Wait for the pages in flight
+            lPagePermits.acquire(maxThreads);
         }
-        // Wait for remaining Threads to complete
-        logger.info("Parsing: Waiting for pending threads to complete");
-        synchronized (used) {
-            while (used.size() > 0) {
-                try {
-                    used.wait();
-                } catch (InterruptedException e) {
-                    logger.error(e);
-                }
-            }
+        catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+        }
+        finally {
+            lProgress.shutdownNow();
+            lParsers.shutdownNow();
+            lCompressors.shutdownNow();
         }
+        if (failure.get() != null) {
+            Exception e = failure.get();
+            throw e instanceof WikiDragonException ? (WikiDragonException)e : new WikiDragonException(e.getMessage(), e);
+        }
+        logProgress(lStart);
         logger.info("Parsing: Done");
+        templateTextCache.logStatistics();
     }
 
-    public Map<Revision, String> getRevisionHtmlMap() {
-        return revisionHtmlMap;
+    protected List<Revision> getRevisionsToParse(Page pPage) throws WikiDragonException {
+        List<Revision> lResult = pPage.getRevisionsList();
+        Iterator<Revision> i = lResult.iterator();
+        while (i.hasNext()) {
+            Revision lRevision = i.next();
+            if (!xowaPageMassParserFilter.acceptParsing(pPage, lResult, lRevision)
+                    || (lRevision.getCompressedRawHtml() != null)) {
+                i.remove();
+            }
+        }
+        return lResult;
     }
 
-    public void finishXOWATask(XOWAPageMassParserRunnable pXOWAPageMassParserRunnable) {
-        try {
-            if (pXOWAPageMassParserRunnable.getException() == null) {
-                if (pXOWAPageMassParserRunnable.getCompressedResult() != null) {
-                    pXOWAPageMassParserRunnable.getRevision().setCompressedRawHtml(pXOWAPageMassParserRunnable.getCompressedResult());
-                    pXOWAPageMassParserRunnable.getRevision().setHtmlCompression(pXOWAPageMassParserRunnable.getCompression());
-                    synchronized (used) {
-                        compressedBytes += pXOWAPageMassParserRunnable.getCompressedResult().length;
-                        uncompressedBytes += pXOWAPageMassParserRunnable.getResult().getBytes(Charset.forName("UTF-8")).length;
-                    }
+    /**
+     * Parse a revision, retrying with a fresh context and growing delays if XOWA fails
+     * @param pPage
+     * @param pRevision
+     * @return HTML or null if the revision could not be parsed
+     * @throws InterruptedException
+     */
+    protected String parseRevision(Page pPage, Revision pRevision) throws InterruptedException {
+        long lDelay = retryDelayMillis;
+        for (int attempt=1; ; attempt++) {
+            XOWAParser lParser = null;
+            try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginReadSession()) {
+                lParser = xowaParserPool.borrow();
+                // Applies to this run only- the pool sets its own policy again on the next borrow
+                lParser.setMemoryReleasePolicy(memoryReleasePolicy);
+                String lResult = lParser.parse(pPage.getTitle(), pRevision.getRawText(), pRevision.getTimestamp());
+                xowaParserPool.release(lParser);
+                lParser = null;
+                tx.success();
+                parsedRevisions.incrementAndGet();
+                return lResult;
+            }
+            catch (WikiDragonException | RuntimeException e) {
+                if (lParser != null) xowaParserPool.discard(lParser);
+                if (attempt >= maxAttempts) {
+                    logger.warn("Giving up on revision "+pRevision.getId()+" of page "+pPage.getId()+" after "+attempt+" attempts: "+e.getMessage());
+                    errors.incrementAndGet();
+                    return null;
                 }
+                logger.debug("Retrying revision "+pRevision.getId()+" in "+lDelay+"ms: "+e.getMessage());
+                Thread.sleep(lDelay);
+                lDelay = Math.min(lDelay*2, maxRetryDelayMillis);
             }
-            else {
-                logger.error(pXOWAPageMassParserRunnable.getException().getMessage(), pXOWAPageMassParserRunnable.getException());
-                errors++;
+            catch (Error e) {
+                // The parser may be in an inconsistent state
+                if (lParser != null) xowaParserPool.discard(lParser);
+                throw e;
             }
         }
-        finally {
-            synchronized (used) {
-                used.remove(pXOWAPageMassParserRunnable);
-                available.add(pXOWAPageMassParserRunnable);
-                used.notifyAll();
+    }
+
+    /**
+     * Store the results of the revisions of a page in revision order as they become available
+     * @param pRevisions
+     * @param pResults
+     * @throws Exception
+     */
+    protected void compressPage(List<Revision> pRevisions, List<CompletableFuture<String>> pResults) throws Exception {
+        int lConsumed = 0;
+        try {
+            String lPrevHtml = null;
+            for (int i=0; i<pRevisions.size(); i++) {
+                String lHtml;
+                try {
+                    lHtml = pResults.get(i).get();
+                }
+                finally {
+                    lConsumed++;
+                    window.release();
+                }
+                if (lHtml == null) {
+                    // The next revision must not be stored as diff against a revision without HTML
+                    lPrevHtml = null;
+                    continue;
+                }
+                byte[] lCompressed;
+                WikiDragonConst.Compression lCompression;
+                if ((lPrevHtml == null) || (i % keyFrameRate == 0)) {
+                    lCompressed = IOUtil.compress(lHtml, WikiDragonConst.Compression.BZIP2);
+                    lCompression = WikiDragonConst.Compression.BZIP2;
+                }
+                else {
+                    lCompressed = diff(lPrevHtml, lHtml);
+                    lCompression = WikiDragonConst.Compression.DIFFBZIP2;
+                }
+                Revision lRevision = pRevisions.get(i);
+                try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginTx()) {
+                    lRevision.setCompressedRawHtml(lCompressed);
+                    lRevision.setHtmlCompression(lCompression);
+                    tx.success();
+                }
+                compressedBytes.addAndGet(lCompressed.length);
+                uncompressedBytes.addAndGet(lHtml.getBytes(UTF8).length);
+                storedRevisions.incrementAndGet();
+                lPrevHtml = lHtml;
             }
         }
+        finally {
+            // Give back the permits of the revisions which will not be consumed anymore
+            if (lConsumed < pRevisions.size()) window.release(pRevisions.size()-lConsumed);
+        }
+    }
+
+    protected byte[] diff(String pPrevHtml, String pHtml) throws IOException {
+        DiffMatchPatch lDiff = new DiffMatchPatch();
+        LinkedList<DiffMatchPatch.Diff> lDiffs = lDiff.diffMain(pPrevHtml, pHtml);
+        lDiff.diffCleanupEfficiency(lDiffs);
+        LinkedList<DiffMatchPatch.Patch> lPatches = lDiff.patchMake(pPrevHtml, lDiffs);
+        ByteArrayOutputStream lByteArrayOutputStream = new ByteArrayOutputStream();
+        try (BZip2CompressorOutputStream lBZip2CompressorOutputStream = new BZip2CompressorOutputStream(lByteArrayOutputStream)) {
+            lBZip2CompressorOutputStream.write(lDiff.patchToText(lPatches).getBytes(UTF8));
+        }
+        return lByteArrayOutputStream.toByteArray();
+    }
+
+    protected void logProgress(long pStart) {
+        long lSeconds = Math.max(1, (System.currentTimeMillis()-pStart)/1000);
+        logger.info("Parsing and Compressing: "+queuedPages.get()+"/"+pages.size()+" pages, "+parsedRevisions.get()+" parsed, "+storedRevisions.get()+" stored ("+(storedRevisions.get()/lSeconds)+" revs/s), "+((compressedBytes.get()*100d)/Math.max(1, uncompressedBytes.get()))+"% compression, "+errors.get()+" errors");
+    }
+
+    public TemplateTextCache getTemplateTextCache() {
+        return templateTextCache;
+    }
+
+    /**
+     * @param pMemoryReleasePolicy Decides when the XOWA workers of the parsing threads release their memory
+     */
+    public void setMemoryReleasePolicy(XOWAMemoryReleasePolicy pMemoryReleasePolicy) {
+        memoryReleasePolicy = pMemoryReleasePolicy;
+    }
+
+    public XOWAMemoryReleasePolicy getMemoryReleasePolicy() {
+        return memoryReleasePolicy;
+    }
+
+    /**
+     * @param pMaxAttempts Number of attempts to parse a revision before it is skipped
+     * @param pRetryDelayMillis Delay before the first retry, doubled for every further retry
+     * @param pMaxRetryDelayMillis Upper bound of the delay
+     */
+    public void setRetryPolicy(int pMaxAttempts, long pRetryDelayMillis, long pMaxRetryDelayMillis) {
+        maxAttempts = Math.max(1, pMaxAttempts);
+        retryDelayMillis = pRetryDelayMillis;
+        maxRetryDelayMillis = pMaxRetryDelayMillis;
+    }
+
+    public void setKeyFrameRate(int pKeyFrameRate) {
+        keyFrameRate = Math.max(1, pKeyFrameRate);
+    }
+
+    public void setProgressIntervalSeconds(int pProgressIntervalSeconds) {
+        progressIntervalSeconds = pProgressIntervalSeconds;
     }
 
 }
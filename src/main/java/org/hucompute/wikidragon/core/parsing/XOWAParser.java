@@ -27,6 +27,7 @@ import org.apache.logging.log4j.Logger;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.*;
 import org.hucompute.wikidragon.core.util.StringUtil;
+import org.hucompute.wikidragon.core.util.TemplateTextCache;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.filter.ElementFilter;
@@ -35,13 +36,14 @@ import org.jdom2.input.SAXBuilder;
 import java.io.File;
 import java.net.URLEncoder;
 import java.time.ZonedDateTime;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
- * Bridges WikiDragon with XOWA
+ * Bridges WikiDragon with XOWA. Each XOWAParser is an independent parsing context with a XOWA manager, worker and
+ * template state of its own, so it must only be used by one thread at a time. Threads which parse concurrently should
+ * use a context each, e.g. borrowed from a XOWAParserPool.
  * @author Rüdiger Gleim
  */
 public class XOWAParser implements Xop_mediawiki_loader {
@@ -51,39 +53,47 @@ public class XOWAParser implements Xop_mediawiki_loader {
     protected Pattern galleryPattern = Pattern.compile("<gallery([ ].*?)?>(.*?)</gallery>", Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
     protected Pattern attributesPattern = Pattern.compile("(\\w+)[ ]*=[ ]*\"(.*?)\"");
 
-    protected static final int FREE_WORKER_MEMORY_INTERVAL = 1; // 50
-
-    protected static Xop_mediawiki_mgr xowaMediaWikiManager;
+    // Guards the creation of XOWA managers, which initialize shared state of XOWA
+    protected static final Object XOWA_LOCK = new Object();
 
+    protected Xop_mediawiki_mgr xowaMediaWikiManager;
+    protected XOWAMemoryReleasePolicy memoryReleasePolicy = new XOWAMemoryReleasePolicy();
     protected WikiDragonDatabase wikiDragonDatabase;
     protected MediaWiki mediaWiki;
     protected Xop_mediawiki_wkr worker;
     protected ZonedDateTime currentTimestamp;
     protected Map<String, Namespace> namespaceMap;
-    protected Map<String, String> cacheMap;
+    protected TemplateTextCache templateTextCache;
     protected int counter;
+    // Collection count of the memory release policy at the last release
+    protected long releaseCollectionCount = -1;
     protected String siteName;
     protected String fileNamespaceName;
     protected Set<String> fileNamespaceNames;
 
     protected static boolean useOldestRevisionWhenNoPreviousVersionExists = true;
 
-    static  {
+    protected static String getXOWARootDirectory() {
         if (System.getProperty("os.name").toLowerCase().contains("windows")) {
-            xowaMediaWikiManager = new Xop_mediawiki_mgr(new File("xowa_win").getAbsolutePath()+File.separatorChar, true);
+            return new File("xowa_win").getAbsolutePath()+File.separatorChar;
         }
         else {
-            xowaMediaWikiManager = new Xop_mediawiki_mgr(new File("xowa_linux").getAbsolutePath()+File.separatorChar, true);
+            return new File("xowa_linux").getAbsolutePath()+File.separatorChar;
         }
     }
 
     public XOWAParser(MediaWiki pMediaWiki) throws WikiDragonException {
-        this(pMediaWiki, new HashMap<>());
+        this(pMediaWiki, null);
     }
 
-    public XOWAParser(MediaWiki pMediaWiki, Map<String, String> pCacheMap) throws WikiDragonException {
+    /**
+     * @param pMediaWiki
+     * @param pTemplateTextCache Cache shared with other parsers of the same MediaWiki or null for a cache of its own
+     * @throws WikiDragonException
+     */
+    public XOWAParser(MediaWiki pMediaWiki, TemplateTextCache pTemplateTextCache) throws WikiDragonException {
         counter = 0;
-        cacheMap = pCacheMap == null ? new HashMap<>() : pCacheMap;
+        templateTextCache = pTemplateTextCache == null ? new TemplateTextCache() : pTemplateTextCache;
         mediaWiki = pMediaWiki;
         namespaceMap = mediaWiki.getNamespaceMap();
         fileNamespaceName = mediaWiki.getNamespace(6).getName();
@@ -93,11 +103,23 @@ public class XOWAParser implements Xop_mediawiki_loader {
         lBase = lBase.substring(lBase.indexOf("//")+2);
         siteName = lBase.substring(0, lBase.indexOf("/"));
         //siteName = "de.wikipedia.org"; // TODO: Remove me
-        synchronized (xowaMediaWikiManager) {
+        synchronized (XOWA_LOCK) {
+            xowaMediaWikiManager = new Xop_mediawiki_mgr(getXOWARootDirectory(), true);
             worker = xowaMediaWikiManager.Make(siteName, this);
         }
     }
 
+    /**
+     * @param pMemoryReleasePolicy Decides when the XOWA worker releases its memory
+     */
+    public void setMemoryReleasePolicy(XOWAMemoryReleasePolicy pMemoryReleasePolicy) {
+        memoryReleasePolicy = pMemoryReleasePolicy;
+    }
+
+    public XOWAMemoryReleasePolicy getMemoryReleasePolicy() {
+        return memoryReleasePolicy;
+    }
+
     public synchronized String parse(Page pPage, ZonedDateTime pZonedDateTime) throws WikiDragonException {
         Revision lRevision = pPage.getRevisionAt(pZonedDateTime);
         return lRevision == null ? null : parse(pPage.getTitle(), lRevision.getRawText(), pZonedDateTime);
@@ -112,8 +134,9 @@ public class XOWAParser implements Xop_mediawiki_loader {
         try {
             String lResult = worker.Parse(pPageTitle, pText);
             lResult = "<h1>"+StringUtil.encodeXml(pPageTitle)+"</h1>\n"+lResult;
-            if (++counter >= FREE_WORKER_MEMORY_INTERVAL) {
+            if (memoryReleasePolicy.isReleaseDue(++counter, releaseCollectionCount)) {
                 counter = 0;
+                releaseCollectionCount = memoryReleasePolicy.getCollectionCount();
                 worker.Free_memory();
             }
             return lResult;
@@ -139,9 +162,11 @@ public class XOWAParser implements Xop_mediawiki_loader {
     }
 
     public void clearCache() {
-        synchronized (cacheMap) {
-            cacheMap.clear();
-        }
+        templateTextCache.clear();
+    }
+
+    public TemplateTextCache getTemplateTextCache() {
+        return templateTextCache;
     }
 
     @Deprecated
@@ -181,25 +206,22 @@ public class XOWAParser implements Xop_mediawiki_loader {
             }
         }
         lTitle = lTitle.replace("_", " ");
-        String lKey = StringUtil.zonedDateTime2String(currentTimestamp)+"\t"+lNamespace.getId()+"\t"+lTitle;
-        String lResult = null;
-        synchronized (cacheMap) {
-            lResult = cacheMap.get(lKey);
-        }
-        if (lResult == null) {
-            Page lPage = lNamespace.getPage(lTitle);
-            if (lPage != null) {
-                Revision lRevision = lPage.getRevisionAt(currentTimestamp);
-                if ((lRevision == null) && useOldestRevisionWhenNoPreviousVersionExists) {
-                    lRevision = lPage.getFirstRevision();
-                }
-                if (lRevision != null) {
+        String lResult = templateTextCache.getPinned(lNamespace.getId(), lTitle, currentTimestamp.toInstant().toEpochMilli());
+        if (lResult != null) return lResult;
+        Page lPage = mediaWiki.getPageTitleCache().getPage(lNamespace.getId(), lTitle);
+        if (lPage != null) {
+            Revision lRevision = lPage.getRevisionAt(currentTimestamp);
+            if ((lRevision == null) && useOldestRevisionWhenNoPreviousVersionExists) {
+                lRevision = lPage.getFirstRevision();
+            }
+            if (lRevision != null) {
+                // Keyed by revision, so all timestamps resolving to the same revision share the text
+                lResult = templateTextCache.get(lRevision.getId());
+                if (lResult == null) {
                     try {
                         lResult = lRevision.getRawText();
                         if (lResult != null) {
-                            synchronized (cacheMap) {
-                                cacheMap.put(lKey, lResult);
-                            }
+                            templateTextCache.put(lRevision.getId(), lResult);
                         }
                     } catch (WikiDragonException e) {
                         logger.error(e.getMessage(), e);
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+
+package org.hucompute.wikidragon.core.parsing;
+
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.MediaWiki;
+import org.hucompute.wikidragon.core.model.Page;
+import org.hucompute.wikidragon.core.model.Revision;
+import org.hucompute.wikidragon.core.util.TemplateTextCache;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Pool of independent XOWAParser contexts of one MediaWiki. Threads borrow a context, parse with it exclusively and
+ * release it again, so parsing scales with the number of contexts instead of queueing on a single parser. Contexts
+ * are created on demand up to the maximum and share one TemplateTextCache.
+ * @author Rüdiger Gleim
+ */
+public class XOWAParserPool {
+
+    protected MediaWiki mediaWiki;
+    protected TemplateTextCache templateTextCache;
+    protected XOWAMemoryReleasePolicy memoryReleasePolicy = new XOWAMemoryReleasePolicy();
+    protected Semaphore permits;
+    protected Deque<XOWAParser> idle = new ArrayDeque<>();
+    protected int maxContexts;
+
+    public XOWAParserPool(MediaWiki pMediaWiki) {
+        this(pMediaWiki, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * @param pMediaWiki
+     * @param pMaxContexts Maximum number of contexts in use at the same time
+     * @param pTemplateTextCache Cache shared by the contexts or null for a new one
+     */
+    public XOWAParserPool(MediaWiki pMediaWiki, int pMaxContexts, TemplateTextCache pTemplateTextCache) {
+        mediaWiki = pMediaWiki;
+        maxContexts = Math.max(1, pMaxContexts);
+        templateTextCache = pTemplateTextCache == null ? new TemplateTextCache() : pTemplateTextCache;
+        permits = new Semaphore(maxContexts, true);
+    }
+
+    /**
+     * @param pMemoryReleasePolicy Policy applied to contexts when they are borrowed
+     */
+    public void setMemoryReleasePolicy(XOWAMemoryReleasePolicy pMemoryReleasePolicy) {
+        memoryReleasePolicy = pMemoryReleasePolicy;
+    }
+
+    public int getMaxContexts() {
+        return maxContexts;
+    }
+
+    public TemplateTextCache getTemplateTextCache() {
+        return templateTextCache;
+    }
+
+    /**
+     * Borrow a context, waiting while all contexts are in use. It has to be passed to release or discard afterwards.
+     * @return XOWAParser for the exclusive use of the calling thread
+     * @throws WikiDragonException
+     */
+    public XOWAParser borrow() throws WikiDragonException {
+        try {
+            permits.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WikiDragonException(e.getMessage(), e);
+        }
+        XOWAParser lResult;
+        synchronized (idle) {
+            lResult = idle.pollFirst();
+        }
+        try {
+            if (lResult == null) {
+                lResult = new XOWAParser(mediaWiki, templateTextCache);
+            }
+            lResult.setMemoryReleasePolicy(memoryReleasePolicy);
+            return lResult;
+        }
+        catch (WikiDragonException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Return a borrowed context to the pool
+     * @param pParser
+     */
+    public void release(XOWAParser pParser) {
+        synchronized (idle) {
+            idle.addFirst(pParser);
+        }
+        permits.release();
+    }
+
+    /**
+     * Drop a borrowed context which is in an unknown state, e.g. after XOWA failed. A new one is created on demand.
+     * @param pParser
+     */
+    public void discard(XOWAParser pParser) {
+        permits.release();
+    }
+
+    public String parse(Page pPage, Revision pRevision) throws WikiDragonException {
+        XOWAParser lParser = borrow();
+        String lResult;
+        try {
+            lResult = lParser.parse(pPage, pRevision);
+        }
+        catch (Throwable e) {
+            // XOWA may have left the context in an inconsistent state
+            discard(lParser);
+            throw e;
+        }
+        release(lParser);
+        return lResult;
+    }
+
+    public String parse(Page pPage, ZonedDateTime pZonedDateTime) throws WikiDragonException {
+        XOWAParser lParser = borrow();
+        String lResult;
+        try {
+            lResult = lParser.parse(pPage, pZonedDateTime);
+        }
+        catch (Throwable e) {
+            // XOWA may have left the context in an inconsistent state
+            discard(lParser);
+            throw e;
+        }
+        release(lParser);
+        return lResult;
+    }
+
+}
@@ -17,6 +17,7 @@
  * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
  */
 
+
 package org.hucompute.wikidragon.core.parsing;
 
 import org.apache.logging.log4j.LogManager;
@@ -24,121 +25,189 @@ import org.apache.logging.log4j.Logger;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.*;
 import org.hucompute.wikidragon.core.parsing.filter.XOWATierMassParserFilter;
+import org.hucompute.wikidragon.core.util.TemplateTextCache;
 
 import java.time.ZonedDateTime;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * Renders the revisions valid at a timestamp and stores the HTML as PageTiers. Pages are streamed from the store into
+ * a bounded queue which is drained by a fixed pool of workers, each owning its XOWAParser. A single writer stores the
+ * results in batches in the order the pages have been read, so repeated runs produce the same store.
+ * The number of pages between reading and storing is bounded, so a slow page cannot let results pile up.
  * @author Rüdiger Gleim
  */
 public class XOWATierMassParser {
 
     private static Logger logger = LogManager.getLogger(XOWATierMassParser.class);
 
-    protected Set<XOWATierMassParserRunnable> available;
-    protected Set<XOWATierMassParserRunnable> used;
-    protected int maxThreads = 0;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_PROGRESS_INTERVAL_SECONDS = 60;
+    public static final int DEFAULT_TEMPLATE_PRE_RESOLUTION_PAGES = 10000;
+
+    // Marks the end of the task and the result queue
+    protected static final Task POISON = new Task(-1, null, null);
+
+    protected int maxThreads;
     protected ZonedDateTime timestamp;
     protected WikiDragonConst.Compression defaultCompression = WikiDragonConst.Compression.BZIP2;
     protected MediaWiki mediaWiki;
-    protected Map<String, String> titleTextCacheMap;
-    protected Map<PageTier, String> pendingResultWriteMap;
+    protected TemplateTextCache templateTextCache;
+    protected long templateTextCacheMaxWeight = TemplateTextCache.DEFAULT_MAX_WEIGHT;
+    protected int templatePreResolutionPages = DEFAULT_TEMPLATE_PRE_RESOLUTION_PAGES;
     protected XOWATierMassParserFilter xowaTierMassParserFilter;
+    protected XOWAMemoryReleasePolicy memoryReleasePolicy = new XOWAMemoryReleasePolicy();
+    protected int batchSize = DEFAULT_BATCH_SIZE;
+    protected int progressIntervalSeconds = DEFAULT_PROGRESS_INTERVAL_SECONDS;
 
+    protected BlockingQueue<Task> taskQueue;
+    protected BlockingQueue<Task> resultQueue;
+    // Permits for pages which have been queued but not stored yet
+    protected Semaphore window;
+    protected AtomicReference<Exception> failure = new AtomicReference<>();
+    protected AtomicLong readPages = new AtomicLong();
+    protected AtomicLong queuedPages = new AtomicLong();
+    protected AtomicLong parsedPages = new AtomicLong();
+    protected AtomicLong failedPages = new AtomicLong();
+    protected AtomicLong storedPages = new AtomicLong();
+
+    /**
+     * Parse with one worker per available processor
+     * @param pMediaWiki
+     * @param pTimestamp
+     * @param pXOWATierMassParserFilter
+     * @throws WikiDragonException
+     */
     public XOWATierMassParser(MediaWiki pMediaWiki, ZonedDateTime pTimestamp, XOWATierMassParserFilter pXOWATierMassParserFilter) throws WikiDragonException {
-        this(pMediaWiki, pTimestamp, pXOWATierMassParserFilter, Math.min(java.lang.Runtime.getRuntime().availableProcessors()/2, 1));
+        this(pMediaWiki, pTimestamp, pXOWATierMassParserFilter, Runtime.getRuntime().availableProcessors());
     }
 
     public XOWATierMassParser(MediaWiki pMediaWiki, ZonedDateTime pTimestamp, XOWATierMassParserFilter pXOWATierMassParserFilter, int pMaxThreads) throws WikiDragonException {
         mediaWiki = pMediaWiki;
         timestamp = pTimestamp;
-        maxThreads = pMaxThreads;
+        maxThreads = Math.max(1, pMaxThreads);
         xowaTierMassParserFilter = pXOWATierMassParserFilter;
     }
 
     public void parse() throws WikiDragonException {
-        titleTextCacheMap = new HashMap<>();
-        available = new HashSet<>();
-        used = new HashSet<>();
+        long lStart = System.currentTimeMillis();
+        templateTextCache = new TemplateTextCache(templateTextCacheMaxWeight);
+        if (templatePreResolutionPages > 0) preResolveTemplates();
+        taskQueue = new ArrayBlockingQueue<>(maxThreads*16);
+        resultQueue = new ArrayBlockingQueue<>(maxThreads*16);
+        window = new Semaphore(Math.max(maxThreads*64, batchSize*2));
+        List<XOWATierMassParserRunnable> lRunnables = new ArrayList<>();
         for (int i=0; i<maxThreads; i++) {
-            available.add(new XOWATierMassParserRunnable(this, mediaWiki));
+            lRunnables.add(new XOWATierMassParserRunnable(this, mediaWiki));
         }
-        pendingResultWriteMap = new HashMap<>();
-        int lCacheClearCounter = 0;
-        logger.info("Collecting pages to parse");
-        Set<Page> lPages = new HashSet<>();
-        try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginTx()) {
+        ExecutorService lWorkers = Executors.newFixedThreadPool(maxThreads);
+        ExecutorService lWriter = Executors.newSingleThreadExecutor();
+        ScheduledExecutorService lProgress = Executors.newSingleThreadScheduledExecutor();
+        lProgress.scheduleAtFixedRate(() -> logProgress(lStart), progressIntervalSeconds, progressIntervalSeconds, TimeUnit.SECONDS);
+        try {
+            List<Future<?>> lWorkerFutures = new ArrayList<>();
+            for (XOWATierMassParserRunnable lRunnable:lRunnables) {
+                lWorkerFutures.add(lWorkers.submit(lRunnable));
+            }
+            Future<?> lWriterFuture = lWriter.submit(this::write);
+            queuePages();
+            for (int i=0; i<maxThreads; i++) {
+                taskQueue.put(POISON);
+            }
+            for (Future<?> lFuture:lWorkerFutures) {
+                lFuture.get();
+            }
+            resultQueue.put(POISON);
+            lWriterFuture.get();
+        }
+        catch (InterruptedException | ExecutionException e) {
+            failure.compareAndSet(null, e);
+        }
+        finally {
+            lProgress.shutdownNow();
+            lWorkers.shutdownNow();
+            lWriter.shutdownNow();
+        }
+        if (failure.get() != null) {
+            Exception e = failure.get();
+            throw e instanceof WikiDragonException ? (WikiDragonException)e : new WikiDragonException(e.getMessage(), e);
+        }
+        logProgress(lStart);
+        mediaWiki.getPageTitleCache().logStatistics();
+        templateTextCache.logStatistics();
+    }
+
+    /**
+     * Stream the pages which need to be parsed to the workers in the order of the page iterator
+     * @throws InterruptedException
+     */
+    protected void queuePages() throws InterruptedException {
+        long lSequence = 0;
+        try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginReadSession()) {
             WikiObjectIterator<Page> i = mediaWiki.getPageIterator();
-            while (i.hasNext()) {
-                Page lPage = i.next();
-                if (xowaTierMassParserFilter.acceptParsing(lPage)) {
-                    lPages.add(lPage);
+            try {
+                while (i.hasNext() && (failure.get() == null)) {
+                    Page lPage = i.next();
+                    readPages.incrementAndGet();
+                    if (!xowaTierMassParserFilter.acceptParsing(lPage)) continue;
+                    Revision lRevision = lPage.getRevisionAt(timestamp);
+                    if (lRevision == null) continue;
+                    PageTier lPageTier = lPage.getPageTierAt(timestamp);
+                    if ((lPageTier != null) && lPageTier.hasTierAttribute(PageTier.TierAttribute.HTML)) continue;
+                    // Back-pressure: wait until the writer has caught up, but notice if it has failed
+                    while (!window.tryAcquire(1, TimeUnit.SECONDS)) {
+                        if (failure.get() != null) return;
+                    }
+                    taskQueue.put(new Task(lSequence++, lPage, lRevision));
+                    queuedPages.incrementAndGet();
                 }
             }
-            i.close();
+            finally {
+                i.close();
+            }
             tx.success();
         }
-        logger.info("Parsing revisions");
-        long lRevisionCounter = 0;
-        long lParsedPagesCounter = 0;
-        for (Page lPage:lPages) {
-            try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginTx()) {
-                Revision lRevision = lPage.getRevisionAt(timestamp);
-                if (lRevision != null) {
-                    PageTier lPageTier = lPage.getPageTierAt(timestamp);
-                    if (lPageTier == null) {
-                        lPageTier = lPage.createPageTier(timestamp);
+    }
+
+    /**
+     * Pin the popular templates of a sample of the pages in the TemplateTextCache. The pinned texts may take up half
+     * of the weight of the cache in addition to it. The sample is drawn uniformly from all accepted pages (reservoir
+     * sampling), since the page iterator follows the import order and its head is not representative.
+     * @throws WikiDragonException
+     */
+    protected void preResolveTemplates() throws WikiDragonException {
+        logger.info("Pre-resolving templates of up to "+templatePreResolutionPages+" pages");
+        List<Page> lPages = new ArrayList<>();
+        // Fixed seed, so repeated runs pin the same templates
+        Random lRandom = new Random(templatePreResolutionPages);
+        long lAccepted = 0;
+        try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginReadSession()) {
+            WikiObjectIterator<Page> i = mediaWiki.getPageIterator();
+            try {
+                while (i.hasNext()) {
+                    Page lPage = i.next();
+                    if (!xowaTierMassParserFilter.acceptParsing(lPage)) continue;
+                    lAccepted++;
+                    if (lPages.size() < templatePreResolutionPages) {
+                        lPages.add(lPage);
                     }
-                    if (!lPageTier.hasTierAttribute(PageTier.TierAttribute.HTML)) {
-                        synchronized (this) {
-                            while (available.size() == 0) {
-                                try {
-                                    this.wait();
-                                } catch (InterruptedException e) {
-                                    e.printStackTrace();
-                                }
-                            }
-                            // Clear Cache periodically to avoid flooding of cache
-                            if (lCacheClearCounter++ > 1000) {
-                                synchronized (titleTextCacheMap) {
-                                    titleTextCacheMap.clear();
-                                }
-                            }
-                            //
-                            XOWATierMassParserRunnable lXOWATierMassParserRunnable = available.iterator().next();
-                            available.remove(lXOWATierMassParserRunnable);
-                            lXOWATierMassParserRunnable.setParameters(lPage, lRevision, lPageTier, timestamp);
-                            used.add(lXOWATierMassParserRunnable);
-                            available.remove(lXOWATierMassParserRunnable);
-                            new Thread(lXOWATierMassParserRunnable).start();
-                        }
-                        lParsedPagesCounter++;
-                        writePendingResults();
+                    else {
+                        long lIndex = (long)(lRandom.nextDouble()*lAccepted);
+                        if (lIndex < templatePreResolutionPages) lPages.set((int)lIndex, lPage);
                     }
                 }
-                lRevisionCounter++;
-                if (lRevisionCounter % 100 == 0) {
-                    logger.info("Processing pages: " + lRevisionCounter + "/" + lPages.size() + ", parsed: " + lParsedPagesCounter);
-                }
-                tx.success();
             }
-        }
-        synchronized (this) {
-            while (used.size() > 0) {
-                try {
-                    this.wait();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            finally {
+                i.close();
             }
+            tx.success();
         }
-        try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginTx()) {
-            writePendingResults();
-        }
-        logger.info("Processing complete: " + lRevisionCounter + "/" + lPages.size()+", parsed: "+lParsedPagesCounter);
+        TemplatePreResolver lTemplatePreResolver = new TemplatePreResolver(mediaWiki, timestamp, maxThreads);
+        lTemplatePreResolver.scanPages(lPages);
+        lTemplatePreResolver.resolve(templateTextCache, templateTextCacheMaxWeight/2);
     }
 
     public WikiDragonConst.Compression getDefaultCompression() {
@@ -157,36 +226,158 @@ public class XOWATierMassParser {
         this.defaultCompression = defaultCompression;
     }
 
-    protected void writePendingResults() throws WikiDragonException {
-        Map<PageTier, String> lMap = null;
-        synchronized (pendingResultWriteMap) {
-            lMap = new HashMap<>(pendingResultWriteMap);
-            pendingResultWriteMap.clear();
+    public void setBatchSize(int pBatchSize) {
+        batchSize = pBatchSize;
+    }
+
+    public void setProgressIntervalSeconds(int pProgressIntervalSeconds) {
+        progressIntervalSeconds = pProgressIntervalSeconds;
+    }
+
+    /**
+     * The templates pinned by the pre-resolution pass may take up half of this weight in addition to it, so the
+     * template texts can occupy up to 1.5 times the configured weight on the heap.
+     * @param pTemplateTextCacheMaxWeight Approximate heap size in bytes of the evictable template texts shared by the workers
+     */
+    public void setTemplateTextCacheMaxWeight(long pTemplateTextCacheMaxWeight) {
+        templateTextCacheMaxWeight = pTemplateTextCacheMaxWeight;
+    }
+
+    /**
+     * @param pTemplatePreResolutionPages Number of pages scanned for templates which are resolved in bulk before parsing, 0 to skip the pre-pass
+     */
+    public void setTemplatePreResolutionPages(int pTemplatePreResolutionPages) {
+        templatePreResolutionPages = pTemplatePreResolutionPages;
+    }
+
+    public TemplateTextCache getTemplateTextCache() {
+        return templateTextCache;
+    }
+
+    /**
+     * @param pMemoryReleasePolicy Decides when the XOWA workers of the parsing threads release their memory
+     */
+    public void setMemoryReleasePolicy(XOWAMemoryReleasePolicy pMemoryReleasePolicy) {
+        memoryReleasePolicy = pMemoryReleasePolicy;
+    }
+
+    public XOWAMemoryReleasePolicy getMemoryReleasePolicy() {
+        return memoryReleasePolicy;
+    }
+
+    protected Task takeTask() throws InterruptedException {
+        return taskQueue.take();
+    }
+
+    protected boolean isFailed() {
+        return failure.get() != null;
+    }
+
+    protected void finishTask(Task pTask) throws InterruptedException {
+        if (pTask.result != null) {
+            parsedPages.incrementAndGet();
         }
-        for (Map.Entry<PageTier, String> lEntry:lMap.entrySet()) {
-            lEntry.getKey().setTierAttribute(PageTier.TierAttribute.HTML, lEntry.getValue(), defaultCompression);
+        else {
+            failedPages.incrementAndGet();
         }
+        resultQueue.put(pTask);
     }
 
-    public Map<String, String> getTitleTextCacheMap() {
-        return titleTextCacheMap;
+    protected void fail(Exception e) {
+        failure.compareAndSet(null, e);
+        // Keep draining so the producer does not block
+        try {
+            while (taskQueue.take() != POISON);
+        }
+        catch (InterruptedException e2) {
+            Thread.currentThread().interrupt();
+        }
     }
 
-    public void finishTask(XOWATierMassParserRunnable pXOWATierMassParserRunnable) {
+    /**
+     * Store results in the order of their sequence numbers. Results which overtake earlier ones are held back.
+     */
+    protected void write() {
+        Map<Long, Task> lPending = new HashMap<>();
+        long lNextSequence = 0;
+        List<Task> lBatch = new ArrayList<>(batchSize);
+        List<Task> lResults = new ArrayList<>();
         try {
-            if (pXOWATierMassParserRunnable.getResult() != null) {
-                synchronized (pendingResultWriteMap) {
-                    pendingResultWriteMap.put(pXOWATierMassParserRunnable.getPageTier(), pXOWATierMassParserRunnable.getResult());
+            boolean lDone = false;
+            while (!lDone) {
+                lResults.add(resultQueue.take());
+                resultQueue.drainTo(lResults);
+                for (Task lTask:lResults) {
+                    if (lTask == POISON) {
+                        lDone = true;
+                    }
+                    else {
+                        lPending.put(lTask.sequence, lTask);
+                    }
+                }
+                lResults.clear();
+                Task lTask;
+                while ((lTask = lPending.remove(lNextSequence)) != null) {
+                    lBatch.add(lTask);
+                    lNextSequence++;
+                    if (lBatch.size() >= batchSize) {
+                        writeBatch(lBatch);
+                    }
+                }
+                // Do not wait for a full batch if nothing else is ready, the producer may be waiting for permits
+                if ((lBatch.size() > 0) && (lDone || resultQueue.isEmpty())) {
+                    writeBatch(lBatch);
                 }
             }
         }
-        finally {
-            synchronized (this) {
-                used.remove(pXOWATierMassParserRunnable);
-                available.add(pXOWATierMassParserRunnable);
-                this.notifyAll();
+        catch (Exception e) {
+            failure.compareAndSet(null, e);
+            // Keep draining so the workers do not block
+            try {
+                while (resultQueue.take() != POISON);
+            }
+            catch (InterruptedException e2) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected void writeBatch(List<Task> pBatch) throws WikiDragonException {
+        try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginTx()) {
+            for (Task lTask:pBatch) {
+                PageTier lPageTier = lTask.page.getPageTierAt(timestamp);
+                if (lPageTier == null) {
+                    lPageTier = lTask.page.createPageTier(timestamp);
+                }
+                if (lTask.result != null) {
+                    lPageTier.setTierAttribute(PageTier.TierAttribute.HTML, lTask.result, defaultCompression);
+                }
             }
+            tx.success();
         }
+        storedPages.addAndGet(pBatch.size());
+        window.release(pBatch.size());
+        pBatch.clear();
+    }
+
+    protected void logProgress(long pStart) {
+        long lSeconds = Math.max(1, (System.currentTimeMillis()-pStart)/1000);
+        logger.info("Processing pages: "+readPages.get()+" read, "+queuedPages.get()+" queued, "+parsedPages.get()+" parsed, "+failedPages.get()+" failed, "+storedPages.get()+" stored ("+(storedPages.get()/lSeconds)+" pages/s)");
+    }
+
+    protected static class Task {
+
+        protected long sequence;
+        protected Page page;
+        protected Revision revision;
+        protected String result;
+
+        protected Task(long pSequence, Page pPage, Revision pRevision) {
+            sequence = pSequence;
+            page = pPage;
+            revision = pRevision;
+        }
+
     }
 
 }
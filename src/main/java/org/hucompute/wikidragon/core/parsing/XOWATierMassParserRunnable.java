@@ -17,98 +17,68 @@
  * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
  */
 
+
 package org.hucompute.wikidragon.core.parsing;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.MediaWiki;
-import org.hucompute.wikidragon.core.model.Page;
-import org.hucompute.wikidragon.core.model.PageTier;
-import org.hucompute.wikidragon.core.model.Revision;
-
-import java.time.ZonedDateTime;
+import org.hucompute.wikidragon.core.model.WikiTransaction;
 
 /**
+ * Worker of the XOWATierMassParser. Takes pages from the task queue until it is poisoned and parses them with its
+ * own XOWAParser. Pages which cannot be parsed are passed on without result.
  * @author Rüdiger Gleim
  */
 public class XOWATierMassParserRunnable implements Runnable {
 
+    private static Logger logger = LogManager.getLogger(XOWATierMassParserRunnable.class);
+
     protected XOWATierMassParser xowaTierMassParser;
     protected MediaWiki mediaWiki;
     protected XOWAParser xowaParser;
-    protected Page page;
-    protected Revision revision;
-    protected String pageTitle;
-    protected PageTier pageTier;
-    protected String text;
-    protected ZonedDateTime timestamp;
-    protected String result;
-    protected WikiDragonException exception;
 
     public XOWATierMassParserRunnable(XOWATierMassParser pXOWATierMassParser, MediaWiki pMediaWiki) throws WikiDragonException {
         xowaTierMassParser = pXOWATierMassParser;
         mediaWiki = pMediaWiki;
-        xowaParser = new XOWAParser(mediaWiki, xowaTierMassParser.getTitleTextCacheMap());
+        xowaParser = createXOWAParser();
     }
 
-    public void setParameters(Page pPage, Revision pRevision, PageTier pPageTier, ZonedDateTime pTimestamp) {
-        page = pPage;
-        revision = pRevision;
-        pageTier = pPageTier;
-        timestamp = pTimestamp;
+    protected XOWAParser createXOWAParser() throws WikiDragonException {
+        XOWAParser lResult = new XOWAParser(mediaWiki, xowaTierMassParser.getTemplateTextCache());
+        lResult.setMemoryReleasePolicy(xowaTierMassParser.getMemoryReleasePolicy());
+        return lResult;
     }
 
     public MediaWiki getMediaWiki() {
         return mediaWiki;
     }
 
-    public Revision getRevision() {
-        return revision;
-    }
-
-    public String getPageTitle() {
-        return pageTitle;
-    }
-
-    public String getText() {
-        return text;
-    }
-
-    public ZonedDateTime getTimestamp() {
-        return timestamp;
-    }
-
-    public String getResult() {
-        return result;
-    }
-
-    public WikiDragonException getException() {
-        return exception;
-    }
-
-    public PageTier getPageTier() {
-        return pageTier;
-    }
-
-    public Page getPage() {
-        return page;
-    }
-
     public void run() {
-        exception = null;
-        try {
-            text = revision.getRawText();
-            pageTitle = page.getTitle();
-            result = xowaParser.parse(pageTitle, text, timestamp);
-        }
-        catch (Exception e) {
-            if (e instanceof WikiDragonException) {
-                exception = (WikiDragonException)e;
-            }
-            else {
-                exception = new WikiDragonException(e);
+        try (WikiTransaction tx = mediaWiki.getWikiDragonDatabase().beginReadSession()) {
+            while (true) {
+                XOWATierMassParser.Task lTask = xowaTierMassParser.takeTask();
+                if (lTask == XOWATierMassParser.POISON) break;
+                if (xowaTierMassParser.isFailed()) continue;
+                try {
+                    lTask.result = xowaParser.parse(lTask.page.getTitle(), lTask.revision.getRawText(), xowaTierMassParser.timestamp);
+                }
+                catch (Throwable e) {
+                    logger.warn("Could not parse page "+lTask.page.getId()+": "+e);
+                    // Errors such as a StackOverflowError may leave XOWA in an inconsistent state
+                    if (e instanceof Error) xowaParser = createXOWAParser();
+                }
+                finally {
+                    // The writer waits for every sequence number
+                    xowaTierMassParser.finishTask(lTask);
+                }
             }
+            tx.success();
+        }
+        catch (Throwable e) {
+            xowaTierMassParser.fail(e instanceof Exception ? (Exception)e : new WikiDragonException(e.getMessage(), e));
         }
-        xowaTierMassParser.finishTask(this);
     }
 
 }
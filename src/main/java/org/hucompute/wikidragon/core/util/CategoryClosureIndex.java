@@ -0,0 +1,350 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+
+package org.hucompute.wikidragon.core.util;
+
+import gnu.trove.list.array.TIntArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.MediaWiki;
+import org.hucompute.wikidragon.core.model.MediaWikiConst;
+
+import java.io.*;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transitive closure of the categorization graph of a LinkGraphSnapshot. For every category the pages below it are
+ * stored as an int array of snapshot indexes, grouped by their depth (1 = directly categorized) and sorted within
+ * each depth, so the pages within depth d are a prefix of the array. Each page is recorded at its minimal depth,
+ * which also breaks cycles in the category graph.
+ * @author Rüdiger Gleim
+ */
+public class CategoryClosureIndex implements AutoCloseable {
+
+    private static Logger logger = LogManager.getLogger(CategoryClosureIndex.class);
+
+    protected static final int MAGIC = 0x57444343; // WDCC
+    protected static final int VERSION = 2;
+    protected static final int CATEGORY_NAMESPACE = 14;
+
+    public static final int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+
+    protected LinkGraphSnapshot snapshot;
+    protected int maxDepth;
+    // Sorted snapshot indexes of the categories which have members
+    protected int[] categories;
+    protected int[][] members;
+    // levelEnds[c][d-1] is the end position of the members of depth d
+    protected int[][] levelEnds;
+
+    protected CategoryClosureIndex(LinkGraphSnapshot pSnapshot, int pMaxDepth) {
+        snapshot = pSnapshot;
+        maxDepth = pMaxDepth;
+    }
+
+    /**
+     * Build the closure index using all available processors
+     * @see #build(LinkGraphSnapshot, int, int)
+     */
+    public static CategoryClosureIndex build(LinkGraphSnapshot pSnapshot, int pMaxDepth) throws WikiDragonException {
+        return build(pSnapshot, pMaxDepth, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Build the closure index by a breadth first search from every category. Categories are processed in parallel.
+     * @param pSnapshot Snapshot containing CATEGORIZATION links. The index takes ownership of it.
+     * @param pMaxDepth Maximum depth to record. Note that the unlimited closure of the top level categories of a large
+     *                  wiki covers most of its pages.
+     * @param pThreads Number of worker threads
+     * @return CategoryClosureIndex
+     * @throws WikiDragonException
+     */
+    public static CategoryClosureIndex build(LinkGraphSnapshot pSnapshot, int pMaxDepth, int pThreads) throws WikiDragonException {
+        if (!pSnapshot.getLinkTypes().contains(MediaWikiConst.LinkType.CATEGORIZATION)) throw new WikiDragonException("Snapshot does not contain CATEGORIZATION links");
+        long lStart = System.currentTimeMillis();
+        CategoryClosureIndex lResult = new CategoryClosureIndex(pSnapshot, pMaxDepth);
+        TIntArrayList lCategories = new TIntArrayList();
+        for (int i=0; i<pSnapshot.getNodeCount(); i++) {
+            if ((pSnapshot.getNamespaceId(i) == CATEGORY_NAMESPACE) && (pSnapshot.getInDegree(i) > 0)) lCategories.add(i);
+        }
+        lResult.categories = lCategories.toArray();
+        lResult.members = new int[lResult.categories.length][];
+        lResult.levelEnds = new int[lResult.categories.length][];
+        logger.info("Building CategoryClosureIndex of "+lResult.categories.length+" categories...");
+        ExecutorService lExecutor = Executors.newFixedThreadPool(Math.max(1, pThreads));
+        AtomicInteger lNext = new AtomicInteger();
+        try {
+            List<Future<?>> lFutures = new ArrayList<>();
+            for (int t=0; t<Math.max(1, pThreads); t++) {
+                lFutures.add(lExecutor.submit(() -> {
+                    int[] lVisited = new int[pSnapshot.getNodeCount()];
+                    Arrays.fill(lVisited, -1);
+                    int c;
+                    while ((c = lNext.getAndIncrement()) < lResult.categories.length) {
+                        lResult.computeClosure(c, lVisited);
+                    }
+                }));
+            }
+            for (Future<?> lFuture:lFutures) {
+                lFuture.get();
+            }
+        }
+        catch (Exception e) {
+            throw new WikiDragonException(e.getMessage(), e);
+        }
+        finally {
+            lExecutor.shutdownNow();
+        }
+        logger.info("Building CategoryClosureIndex of "+lResult.categories.length+" categories... done in "+(System.currentTimeMillis()-lStart)+"ms");
+        return lResult;
+    }
+
+    /**
+     * Load the closure index from a file or build and write it if it does not exist or does not match the snapshot
+     * @param pSnapshotFile File of the categorization snapshot
+     * @param pIndexFile File of the closure index
+     * @param pMediaWiki
+     * @param pTimestamp
+     * @param pMaxDepth
+     * @return CategoryClosureIndex
+     * @throws WikiDragonException
+     */
+    public static CategoryClosureIndex loadOrBuild(File pSnapshotFile, File pIndexFile, MediaWiki pMediaWiki, ZonedDateTime pTimestamp, int pMaxDepth) throws WikiDragonException {
+        LinkGraphSnapshot lSnapshot = LinkGraphSnapshot.loadOrBuild(pSnapshotFile, pMediaWiki, pTimestamp, MediaWikiConst.LinkType.CATEGORIZATION);
+        // The returned index owns the snapshot, on any other way out it has to be closed here
+        boolean lOwned = false;
+        try {
+            if (pIndexFile.exists()) {
+                CategoryClosureIndex lResult = null;
+                try {
+                    lResult = load(pIndexFile, lSnapshot);
+                }
+                catch (IOException e) {
+                    logger.info("CategoryClosureIndex "+pIndexFile.getAbsolutePath()+" cannot be loaded: "+e.getMessage());
+                }
+                if (lResult != null && lResult.maxDepth == pMaxDepth) {
+                    lOwned = true;
+                    return lResult;
+                }
+                logger.info("CategoryClosureIndex "+pIndexFile.getAbsolutePath()+" does not match- rebuilding");
+            }
+            CategoryClosureIndex lResult = build(lSnapshot, pMaxDepth);
+            lResult.write(pIndexFile);
+            lOwned = true;
+            return lResult;
+        }
+        catch (IOException e) {
+            throw new WikiDragonException(e.getMessage(), e);
+        }
+        finally {
+            if (!lOwned) lSnapshot.close();
+        }
+    }
+
+    /**
+     * Read a closure index which has been written by {@link #write(File)}
+     * @param pFile
+     * @param pSnapshot The snapshot the index has been built from
+     * @return CategoryClosureIndex or null if the file has been built from another snapshot
+     * @throws IOException
+     */
+    public static CategoryClosureIndex load(File pFile, LinkGraphSnapshot pSnapshot) throws IOException {
+        try (DataInputStream lInput = new DataInputStream(new BufferedInputStream(new FileInputStream(pFile), 1 << 20))) {
+            if (lInput.readInt() != MAGIC) throw new IOException("Not a CategoryClosureIndex: "+pFile.getAbsolutePath());
+            int lVersion = lInput.readInt();
+            if (lVersion != VERSION) throw new IOException("Unsupported CategoryClosureIndex version "+lVersion+": "+pFile.getAbsolutePath());
+            if (lInput.readLong() != pSnapshot.getMediaWikiNodeId()) return null;
+            if (lInput.readLong() != pSnapshot.getLinkGeneration()) return null;
+            if (lInput.readInt() != pSnapshot.getNodeCount()) return null;
+            CategoryClosureIndex lResult = new CategoryClosureIndex(pSnapshot, lInput.readInt());
+            int lCategoryCount = lInput.readInt();
+            lResult.categories = new int[lCategoryCount];
+            lResult.members = new int[lCategoryCount][];
+            lResult.levelEnds = new int[lCategoryCount][];
+            for (int c=0; c<lCategoryCount; c++) {
+                lResult.categories[c] = lInput.readInt();
+                lResult.levelEnds[c] = readInts(lInput);
+                lResult.members[c] = readInts(lInput);
+            }
+            return lResult;
+        }
+    }
+
+    public void write(File pFile) throws IOException {
+        if ((pFile.getParentFile() != null) && !pFile.getParentFile().exists()) pFile.getParentFile().mkdirs();
+        try (DataOutputStream lOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pFile), 1 << 20))) {
+            lOutput.writeInt(MAGIC);
+            lOutput.writeInt(VERSION);
+            lOutput.writeLong(snapshot.getMediaWikiNodeId());
+            lOutput.writeLong(snapshot.getLinkGeneration());
+            lOutput.writeInt(snapshot.getNodeCount());
+            lOutput.writeInt(maxDepth);
+            lOutput.writeInt(categories.length);
+            for (int c=0; c<categories.length; c++) {
+                lOutput.writeInt(categories[c]);
+                writeInts(lOutput, levelEnds[c]);
+                writeInts(lOutput, members[c]);
+            }
+        }
+    }
+
+    protected static int[] readInts(DataInputStream pInput) throws IOException {
+        int[] lResult = new int[pInput.readInt()];
+        for (int i=0; i<lResult.length; i++) {
+            lResult[i] = pInput.readInt();
+        }
+        return lResult;
+    }
+
+    protected static void writeInts(DataOutputStream pOutput, int[] pValues) throws IOException {
+        pOutput.writeInt(pValues.length);
+        for (int lValue:pValues) {
+            pOutput.writeInt(lValue);
+        }
+    }
+
+    /**
+     * Breadth first search along incoming CATEGORIZATION links. pVisited is a per-thread scratch array which holds
+     * the position of the category that visited a node last, so it never has to be cleared.
+     */
+    protected void computeClosure(int pPosition, int[] pVisited) {
+        int lCategory = categories[pPosition];
+        TIntArrayList lMembers = new TIntArrayList();
+        TIntArrayList lLevelEnds = new TIntArrayList();
+        TIntArrayList lFrontier = new TIntArrayList();
+        TIntArrayList lNextFrontier = new TIntArrayList();
+        pVisited[lCategory] = pPosition;
+        lFrontier.add(lCategory);
+        for (int lDepth=1; (lDepth <= maxDepth) && !lFrontier.isEmpty(); lDepth++) {
+            int lLevelStart = lMembers.size();
+            for (int f=0; f<lFrontier.size(); f++) {
+                int u = lFrontier.getQuick(f);
+                int lEnd = snapshot.getInEdgeStart(u+1);
+                for (int e=snapshot.getInEdgeStart(u); e<lEnd; e++) {
+                    if (snapshot.getInLinkType(e) != MediaWikiConst.LinkType.CATEGORIZATION) continue;
+                    int v = snapshot.getInSource(e);
+                    if (pVisited[v] != pPosition) {
+                        pVisited[v] = pPosition;
+                        lMembers.add(v);
+                        if (snapshot.getNamespaceId(v) == CATEGORY_NAMESPACE) lNextFrontier.add(v);
+                    }
+                }
+            }
+            if (lMembers.size() == lLevelStart) break;
+            lMembers.sort(lLevelStart, lMembers.size());
+            lLevelEnds.add(lMembers.size());
+            TIntArrayList lSwap = lFrontier;
+            lFrontier = lNextFrontier;
+            lNextFrontier = lSwap;
+            lNextFrontier.resetQuick();
+        }
+        members[pPosition] = lMembers.toArray();
+        levelEnds[pPosition] = lLevelEnds.toArray();
+    }
+
+    public LinkGraphSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    protected int getPosition(int pCategoryIndex) {
+        return Arrays.binarySearch(categories, pCategoryIndex);
+    }
+
+    /**
+     * Get the snapshot indexes of all pages below a category within a depth, ordered by depth
+     * @param pCategoryIndex Snapshot index of the category
+     * @param pMaxDepth 1 for directly categorized pages
+     * @return Indexes, empty if the category is unknown or has no members
+     */
+    public int[] getMembers(int pCategoryIndex, int pMaxDepth) {
+        int lPosition = getPosition(pCategoryIndex);
+        if (lPosition < 0) return new int[0];
+        return Arrays.copyOf(members[lPosition], getMemberEnd(lPosition, pMaxDepth));
+    }
+
+    public int getMemberCount(int pCategoryIndex, int pMaxDepth) {
+        int lPosition = getPosition(pCategoryIndex);
+        return lPosition < 0 ? 0 : getMemberEnd(lPosition, pMaxDepth);
+    }
+
+    protected int getMemberEnd(int pPosition, int pMaxDepth) {
+        int[] lLevelEnds = levelEnds[pPosition];
+        if ((pMaxDepth <= 0) || (lLevelEnds.length == 0)) return 0;
+        return lLevelEnds[Math.min(pMaxDepth, lLevelEnds.length)-1];
+    }
+
+    /**
+     * Get the page ids of all pages below a category within a depth
+     * @param pCategoryPageId Page id of the category
+     * @param pMaxDepth 1 for directly categorized pages
+     * @return Page ids, empty if the category is unknown or has no members
+     */
+    public long[] getMemberPageIds(long pCategoryPageId, int pMaxDepth) {
+        int lIndex = snapshot.getIndex(pCategoryPageId);
+        if (lIndex < 0) return new long[0];
+        int lPosition = getPosition(lIndex);
+        if (lPosition < 0) return new long[0];
+        int lEnd = getMemberEnd(lPosition, pMaxDepth);
+        long[] lResult = new long[lEnd];
+        for (int i=0; i<lEnd; i++) {
+            lResult[i] = snapshot.getPageId(members[lPosition][i]);
+        }
+        return lResult;
+    }
+
+    /**
+     * Get the minimal depth at which a page is below a category
+     * @param pCategoryIndex
+     * @param pMemberIndex
+     * @return Depth or -1 if the page is not below the category within the maximum depth of the index
+     */
+    public int getDepth(int pCategoryIndex, int pMemberIndex) {
+        int lPosition = getPosition(pCategoryIndex);
+        if (lPosition < 0) return -1;
+        int lStart = 0;
+        for (int d=0; d<levelEnds[lPosition].length; d++) {
+            if (Arrays.binarySearch(members[lPosition], lStart, levelEnds[lPosition][d], pMemberIndex) >= 0) return d+1;
+            lStart = levelEnds[lPosition][d];
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        if (snapshot != null) snapshot.close();
+        snapshot = null;
+        categories = null;
+        members = null;
+        levelEnds = null;
+    }
+
+}
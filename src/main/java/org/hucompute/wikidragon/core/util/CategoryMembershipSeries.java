@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+
+package org.hucompute.wikidragon.core.util;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Membership of a category over time, computed in one sweep instead of one traversal per timestamp.
+ * Categorization links are stored with the sorted timestamps of the network snapshots they are valid in. A member
+ * which is contained in the consecutive snapshots a..b is valid from snapshot a until snapshot b+1 (or open ended),
+ * which yields one start and one end event per such run. Events are bucketed by snapshot, so the sweep over the
+ * snapshots and the requested timestamps is linear. A requested timestamp sees the state of the latest snapshot at
+ * or before it and no members before the first snapshot.
+ * @author Rüdiger Gleim
+ */
+public class CategoryMembershipSeries {
+
+    public interface Visitor {
+
+        /**
+         * @param pTimestamp Requested timestamp
+         * @param pMemberCount Number of members at the timestamp
+         * @param pMemberNodeIds Node ids of the members or null if members have not been requested. The set is
+         *                       modified by the sweep after this call returns, so copy it if it has to be kept.
+         * @return false to stop the sweep
+         */
+        public boolean visit(ZonedDateTime pTimestamp, int pMemberCount, TLongSet pMemberNodeIds);
+
+    }
+
+    protected long[] snapshots;
+    protected int[] deltas;
+    protected TLongArrayList[] starts;
+    protected TLongArrayList[] ends;
+
+    /**
+     * @param pSnapshots Epoch millis of the snapshots in which categorization links have been stored
+     * @param pMembers true to track the member sets, false for counts only
+     */
+    public CategoryMembershipSeries(long[] pSnapshots, boolean pMembers) {
+        snapshots = pSnapshots.clone();
+        Arrays.sort(snapshots);
+        deltas = new int[snapshots.length+1];
+        if (pMembers) {
+            starts = new TLongArrayList[snapshots.length];
+            ends = new TLongArrayList[snapshots.length];
+        }
+    }
+
+    /**
+     * Add the validity of one member
+     * @param pMemberNodeId
+     * @param pTimestamps Sorted epoch millis of the snapshots the categorization link is valid in. Timestamps which
+     *                    are not snapshots, e.g. WikiDragonConst.NULLDATETIME of the SQL dumps, are ignored.
+     */
+    public void addMember(long pMemberNodeId, long[] pTimestamps) {
+        int lRunStart = -1;
+        int lRunEnd = -1;
+        for (long lTimestamp:pTimestamps) {
+            int lIndex = Arrays.binarySearch(snapshots, lTimestamp);
+            if (lIndex < 0) continue;
+            if ((lRunStart >= 0) && (lIndex == lRunEnd+1)) {
+                lRunEnd = lIndex;
+            }
+            else {
+                if (lRunStart >= 0) addRun(pMemberNodeId, lRunStart, lRunEnd);
+                lRunStart = lIndex;
+                lRunEnd = lIndex;
+            }
+        }
+        if (lRunStart >= 0) addRun(pMemberNodeId, lRunStart, lRunEnd);
+    }
+
+    protected void addRun(long pMemberNodeId, int pFirstSnapshot, int pLastSnapshot) {
+        deltas[pFirstSnapshot]++;
+        deltas[pLastSnapshot+1]--;
+        if (starts != null) {
+            add(starts, pFirstSnapshot, pMemberNodeId);
+            if (pLastSnapshot+1 < snapshots.length) add(ends, pLastSnapshot+1, pMemberNodeId);
+        }
+    }
+
+    protected static void add(TLongArrayList[] pBuckets, int pIndex, long pValue) {
+        if (pBuckets[pIndex] == null) pBuckets[pIndex] = new TLongArrayList(4);
+        pBuckets[pIndex].add(pValue);
+    }
+
+    /**
+     * Stream the membership at each timestamp in ascending order
+     * @param pTimestamps Requested timestamps in any order
+     * @param pVisitor
+     */
+    public void sweep(List<ZonedDateTime> pTimestamps, Visitor pVisitor) {
+        List<ZonedDateTime> lTimestamps = new ArrayList<>(pTimestamps);
+        lTimestamps.sort(null);
+        TLongHashSet lMembers = starts == null ? null : new TLongHashSet();
+        int lCount = 0;
+        int lSnapshot = 0;
+        for (ZonedDateTime lTimestamp:lTimestamps) {
+            long lMillis = StringUtil.zonedDateTime2Long(lTimestamp);
+            while ((lSnapshot < snapshots.length) && (snapshots[lSnapshot] <= lMillis)) {
+                lCount += deltas[lSnapshot];
+                if (lMembers != null) {
+                    if (ends[lSnapshot] != null) lMembers.removeAll(ends[lSnapshot]);
+                    if (starts[lSnapshot] != null) lMembers.addAll(starts[lSnapshot]);
+                }
+                lSnapshot++;
+            }
+            if (!pVisitor.visit(lTimestamp, lCount, lMembers)) return;
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.util;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-MediaWiki dictionary for revision comments which occur repeatedly, such as auto-summaries.
+ * A comment is interned once it has been seen pMinOccurrences times. Candidates are only counted up to a bounded number
+ * of distinct comments to keep memory usage low during imports. Ids are stable- entries are only appended.
+ * The entries are persisted in chunks of {@link #CHUNK_SIZE}, so only the last chunk and the new ones have to be
+ * written when the dictionary has grown.
+ * @author Rüdiger Gleim
+ */
+public class CommentDictionary {
+
+    public static final int CHUNK_SIZE = 1024;
+
+    public interface ChunkWriter {
+
+        public void write(int pChunk, String[] pEntries);
+
+    }
+
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 16;
+    public static final int DEFAULT_MAX_CANDIDATES = 1 << 20;
+    public static final int DEFAULT_MAX_COMMENT_LENGTH = 255;
+    public static final int DEFAULT_MIN_OCCURRENCES = 2;
+
+    protected List<String> entries;
+    protected TObjectIntHashMap<String> idMap;
+    protected TObjectIntHashMap<String> candidateMap;
+    protected int persistedSize;
+    protected int maxEntries = DEFAULT_MAX_ENTRIES;
+    protected int maxCandidates = DEFAULT_MAX_CANDIDATES;
+    protected int maxCommentLength = DEFAULT_MAX_COMMENT_LENGTH;
+    protected int minOccurrences = DEFAULT_MIN_OCCURRENCES;
+
+    public CommentDictionary() {
+        entries = new ArrayList<>();
+        idMap = new TObjectIntHashMap<>(16, 0.5f, -1);
+        candidateMap = new TObjectIntHashMap<>();
+    }
+
+    /**
+     * @param pEntries Entries of a stored dictionary or null
+     */
+    public CommentDictionary(String[] pEntries) {
+        this();
+        load(pEntries, true);
+    }
+
+    /**
+     * Append stored entries, e.g. chunk by chunk
+     * @param pEntries Entries or null
+     * @param pPersisted false if the entries have to be written again by the next call of persist
+     */
+    public synchronized void load(String[] pEntries, boolean pPersisted) {
+        if (pEntries != null) {
+            for (String lEntry:pEntries) {
+                idMap.put(lEntry, entries.size());
+                entries.add(lEntry);
+            }
+        }
+        if (pPersisted) persistedSize = entries.size();
+    }
+
+    /**
+     * Get the id of a comment, interning it if it has been seen often enough
+     * @param pComment
+     * @return id or -1 if the comment should be stored as plain string
+     */
+    public synchronized int intern(String pComment) {
+        int lResult = idMap.get(pComment);
+        if ((lResult == -1) && (pComment.length() <= maxCommentLength) && (entries.size() < maxEntries)) {
+            int lCount = candidateMap.get(pComment)+1;
+            if (lCount >= minOccurrences) {
+                candidateMap.remove(pComment);
+                lResult = entries.size();
+                idMap.put(pComment, lResult);
+                entries.add(pComment);
+            }
+            else if (candidateMap.size() < maxCandidates) {
+                candidateMap.put(pComment, lCount);
+            }
+        }
+        return lResult;
+    }
+
+    public synchronized String get(int pId) {
+        return (pId >= 0) && (pId < entries.size()) ? entries.get(pId) : null;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return true if entries have been added since the last call of markPersisted
+     */
+    public synchronized boolean isModified() {
+        return entries.size() != persistedSize;
+    }
+
+    public synchronized String[] toArray() {
+        return entries.toArray(new String[entries.size()]);
+    }
+
+    public synchronized void markPersisted() {
+        persistedSize = entries.size();
+    }
+
+    /**
+     * Write the chunks which contain entries added since the last call and mark them persisted. Only for stores which
+     * make the written chunks durable immediately.
+     * @param pChunkWriter
+     */
+    public synchronized void persist(ChunkWriter pChunkWriter) {
+        markPersisted(write(pChunkWriter));
+    }
+
+    /**
+     * Write the chunks which contain entries that have not been marked persisted. A chunk which has been persisted
+     * partially is passed again with all of its entries. The entries are not marked persisted, so they are written
+     * again by the next call until {@link #markPersisted(int)} confirms that the write has been committed.
+     * @param pChunkWriter
+     * @return Number of entries covered by the written chunks
+     */
+    public synchronized int write(ChunkWriter pChunkWriter) {
+        if (persistedSize == entries.size()) return persistedSize;
+        for (int lChunk = persistedSize/CHUNK_SIZE; lChunk*CHUNK_SIZE < entries.size(); lChunk++) {
+            int lFrom = lChunk*CHUNK_SIZE;
+            int lTo = Math.min(lFrom+CHUNK_SIZE, entries.size());
+            pChunkWriter.write(lChunk, entries.subList(lFrom, lTo).toArray(new String[lTo-lFrom]));
+        }
+        return entries.size();
+    }
+
+    /**
+     * @param pSize Number of entries returned by a call of write whose chunks have been committed
+     */
+    public synchronized void markPersisted(int pSize) {
+        persistedSize = Math.max(persistedSize, pSize);
+    }
+
+    public void setMinOccurrences(int pMinOccurrences) {
+        minOccurrences = pMinOccurrences;
+    }
+
+}
@@ -24,23 +24,35 @@ import org.apache.logging.log4j.Logger;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.*;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
 import java.time.ZonedDateTime;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
+ * Extracts WikiPageLinks from rendered HTML. The HTML is tokenized in a single pass: comments, scripts and styles are
+ * skipped, anchors pointing to /wiki/ are percent-decoded into a reused buffer and reported together with whether they
+ * appear in the category links section.
  * @author Rüdiger Gleim
  */
 public class HTMLWikiLinkExtraction {
 
     private static Logger logger = LogManager.getLogger(HTMLWikiLinkExtraction.class);
 
+    public interface LinkVisitor {
+
+        /**
+         * @param pAnchorIndex Index of the anchor among all anchors with a href
+         * @param pTitle Decoded title of the link target. Only valid during the call.
+         * @param pCategoryLinks true if the anchor appears in the category links section
+         */
+        public void visit(int pAnchorIndex, CharSequence pTitle, boolean pCategoryLinks);
+
+    }
+
+    protected static final String WIKI_PATH = "/wiki/";
+    protected static final String REDIRECT = "REDIRECT";
+
     /**
      * Fetch all WikiLinks which actually exist at that specific point in time.
      * The HTML Code has to be valid for the source page at the requested point in time.
@@ -48,105 +60,253 @@ public class HTMLWikiLinkExtraction {
      * @param pSourcePage
      * @param pHtml
      * @param pTimestamp
-     * @param pCacheMap
      * @return
      * @throws WikiDragonException
      */
-    public static Set<WikiPageLink> extractWikiPageLinks(MediaWiki pMediaWiki, Page pSourcePage, String pHtml, ZonedDateTime pTimestamp, Map<Integer, Map<String, Page>> pCacheMap) throws WikiDragonException {
-        Map<String, Namespace> lNSMap = pMediaWiki.getNamespaceMap();
-        Set<WikiPageLink> lResult = new HashSet<>();
-        String lHtml = pHtml.replaceAll("<!--.*?-->", ""); // Remove Comments
-        boolean lIsRedirect = false;
-        if (lHtml.toUpperCase().contains("REDIRECT")) {
-            if (lHtml.substring(lHtml.indexOf("</h1>")+5).replaceAll("<.*?>", "").trim().toUpperCase().startsWith("REDIRECT")) {
-                lIsRedirect = true;
+    public static Set<WikiPageLink> extractWikiPageLinks(MediaWiki pMediaWiki, Page pSourcePage, String pHtml, ZonedDateTime pTimestamp) throws WikiDragonException {
+        try (WikiTransaction lSession = pMediaWiki.getWikiDragonDatabase().beginReadSession()) {
+            Map<String, Namespace> lNSMap = pMediaWiki.getNamespaceMap();
+            Set<WikiPageLink> lResult = new HashSet<>();
+            PageTitleCache lPageTitleCache = pMediaWiki.getPageTitleCache();
+            // Whether the first anchor is the target of a redirect is only known at the end
+            Page[] lFirstTarget = new Page[1];
+            MediaWikiConst.LinkType[] lFirstLinkType = new MediaWikiConst.LinkType[1];
+            boolean lIsRedirect = scan(pHtml, (pAnchorIndex, pTitle, pCategoryLinks) -> {
+                String lLink = pTitle.toString();
+                String lNamespaceString = "";
+                int lColonIndex = lLink.indexOf(":");
+                Namespace lTargetNS = lNSMap.get("");
+                if (lColonIndex >= 0) {
+                    lNamespaceString = lLink.substring(0, lColonIndex);
+                    lTargetNS = lNSMap.get(lNamespaceString);
+                    if (lTargetNS == null) {
+                        lTargetNS = lNSMap.get("");
+                    }
+                }
+                if (lTargetNS.getId() != 0) {
+                    lLink = lLink.substring(lColonIndex + 1);
+                }
+                int lTargetNSID = lTargetNS.getId();
+                // Only pages which already existed at that point in time
+                Page lTargetPage = lPageTitleCache.getPage(lTargetNSID, lLink, pTimestamp);
+                if (lTargetPage != null) {
+                    MediaWikiConst.LinkType lLinkType = (lTargetNSID == 14) && pCategoryLinks ? MediaWikiConst.LinkType.CATEGORIZATION : MediaWikiConst.LinkType.ARTICLE;
+                    if (pAnchorIndex == 0) {
+                        lFirstTarget[0] = lTargetPage;
+                        lFirstLinkType[0] = lLinkType;
+                    }
+                    else {
+                        lResult.add(new WikiPageLink(lLinkType, pSourcePage, lTargetPage, WikiPageLink.WikiPageLinkSource.HtmlParsedAdHoc, pTimestamp));
+                    }
+                }
+            });
+            if (lFirstTarget[0] != null) {
+                if (lIsRedirect) {
+                    // The SQL Dumps represent redirect links as redirect AND Article- so do we...
+                    lResult.add(new WikiPageLink(MediaWikiConst.LinkType.REDIRECT, pSourcePage, lFirstTarget[0], WikiPageLink.WikiPageLinkSource.HtmlParsedAdHoc, pTimestamp));
+                    lResult.add(new WikiPageLink(MediaWikiConst.LinkType.ARTICLE, pSourcePage, lFirstTarget[0], WikiPageLink.WikiPageLinkSource.HtmlParsedAdHoc, pTimestamp));
+                }
+                else {
+                    lResult.add(new WikiPageLink(lFirstLinkType[0], pSourcePage, lFirstTarget[0], WikiPageLink.WikiPageLinkSource.HtmlParsedAdHoc, pTimestamp));
+                }
             }
+            lSession.success();
+            return lResult;
         }
-        if (lHtml.contains("class=\"redirectText\"") || lHtml.contains("class=\"redirectMsg\"")) {
-            lIsRedirect = true;
-        }
-        int lCatLinksDivIndex = lHtml.indexOf("id=\"catlinks\"");
-        Pattern lPattern = Pattern.compile("<a[ ][^>]*?href=\"([^\">]+)");
-        Matcher lMatcher = lPattern.matcher(lHtml);
-        int lLinkCount = 0;
-        int lSourceNSID = pSourcePage.getNamespaceID();
-        if (!pCacheMap.containsKey(lSourceNSID)) {
-            pCacheMap.put(lSourceNSID, new HashMap<>());
-        }
-        // Put current source Page to Cache
-        pCacheMap.get(lSourceNSID).put(pSourcePage.getTitle(), pSourcePage);
-        while (lMatcher.find()) {
-            lLinkCount++;
-            String lLink = lMatcher.group(1);
-            if (lLink.contains("#")) {
-                lLink = lLink.substring(0, lLink.indexOf("#"));
-            }
-            if (lLink.startsWith("/wiki/") && (lLink.length() > 6)) {
-                try {
-                    lLink = URLDecoder.decode(lLink.substring(6).replace("_", " "), "UTF-8");
-                }
-                catch (UnsupportedEncodingException e) {
-                    logger.warn(e.getMessage(), e);
-                }
-                catch (IllegalArgumentException e) {
-                    logger.warn(e.getMessage(), e);
-                }
-                if (lLink != null) {
-                    String lNamespaceString = "";
-                    int lColonIndex = lLink.indexOf(":");
-                    Namespace lTargetNS = lNSMap.get("");
-                    if (lColonIndex >= 0) {
-                        lNamespaceString = lLink.substring(0, lColonIndex);
-                        lTargetNS = lNSMap.get(lNamespaceString);
-                        if (lTargetNS == null) {
-                            lTargetNS = lNSMap.get("");
-                        }
+    }
+
+    /**
+     * Tokenize HTML in a single pass and report the links to wiki pages
+     * @param pHtml
+     * @param pVisitor
+     * @return true if the HTML represents a redirect
+     */
+    public static boolean scan(CharSequence pHtml, LinkVisitor pVisitor) {
+        int n = pHtml.length();
+        StringBuilder lTitle = new StringBuilder();
+        int lAnchorIndex = 0;
+        boolean lCategoryLinks = false;
+        boolean lRedirectClass = false;
+        // The redirect message is the first text behind the page heading, or the first text at all if there is none
+        boolean lHeadingClosed = false;
+        int lFirstText = -1;
+        int lFirstTextBehindHeading = -1;
+        int i = 0;
+        while (i < n) {
+            char c = pHtml.charAt(i);
+            if (c != '<') {
+                if ((lFirstTextBehindHeading < 0) && !Character.isWhitespace(c)) {
+                    if (lHeadingClosed) {
+                        lFirstTextBehindHeading = i;
                     }
-                    if (lTargetNS.getId() != 0) {
-                        if (lColonIndex == lLink.length() - 1) {
-                            lLink = "";
-                        } else {
-                            lLink = lLink.substring(lColonIndex + 1);
-                        }
+                    else if (lFirstText < 0) {
+                        lFirstText = i;
                     }
-                    Page lTargetPage = null;
-                    int lTargetNSID = lTargetNS != null ? lTargetNS.getId() : 0;
-                    if (!pCacheMap.containsKey(lTargetNSID)) pCacheMap.put(lTargetNSID, new HashMap<>());
-
-                    // Attempt to fetch target page by link
-                    lTargetPage = pCacheMap.get(lTargetNSID).get(lLink);
-                    if (lTargetPage == null) {
-                        // Not found - attempt to fetch from database
-                        lTargetPage = pMediaWiki.getPage(lTargetNSID, lLink);
-                        if (lTargetPage != null) {
-                            // Found it- check whether the timestamp is valid
-                            if (lTargetPage.getRevisionAt(pTimestamp) != null) {
-                                // Yes- the target page already existed at that point in time
-                                pCacheMap.get(lTargetNSID).put(lLink, lTargetPage);
-                            }
-                        }
+                }
+                i++;
+                continue;
+            }
+            if (startsWith(pHtml, i, "<!--")) {
+                int lEnd = indexOf(pHtml, "-->", i+4);
+                i = lEnd < 0 ? n : lEnd+3;
+                continue;
+            }
+            boolean lClosing = (i+1 < n) && (pHtml.charAt(i+1) == '/');
+            int lNameStart = lClosing ? i+2 : i+1;
+            int lNameEnd = lNameStart;
+            while ((lNameEnd < n) && Character.isLetterOrDigit(pHtml.charAt(lNameEnd))) lNameEnd++;
+            if (lNameEnd == lNameStart) {
+                // A lone < is text
+                if (lHeadingClosed) {
+                    if (lFirstTextBehindHeading < 0) lFirstTextBehindHeading = i;
+                }
+                else if (lFirstText < 0) {
+                    lFirstText = i;
+                }
+                i++;
+                continue;
+            }
+            if (lClosing) {
+                if (!lHeadingClosed && equalsIgnoreCase(pHtml, lNameStart, lNameEnd, "h1")) lHeadingClosed = true;
+                int lEnd = indexOf(pHtml, ">", lNameEnd);
+                i = lEnd < 0 ? n : lEnd+1;
+                continue;
+            }
+            boolean lAnchor = (lNameEnd-lNameStart == 1) && (pHtml.charAt(lNameStart) == 'a');
+            // Attributes
+            int j = lNameEnd;
+            while (j < n) {
+                char a = pHtml.charAt(j);
+                if (a == '>') break;
+                if (Character.isWhitespace(a) || (a == '/')) {
+                    j++;
+                    continue;
+                }
+                int lAttrStart = j;
+                while ((j < n) && (pHtml.charAt(j) != '=') && (pHtml.charAt(j) != '>') && !Character.isWhitespace(pHtml.charAt(j))) j++;
+                int lAttrEnd = j;
+                while ((j < n) && Character.isWhitespace(pHtml.charAt(j))) j++;
+                if ((j >= n) || (pHtml.charAt(j) != '=')) continue;
+                j++;
+                while ((j < n) && Character.isWhitespace(pHtml.charAt(j))) j++;
+                int lValueStart, lValueEnd;
+                if ((j < n) && ((pHtml.charAt(j) == '"') || (pHtml.charAt(j) == '\''))) {
+                    char lQuote = pHtml.charAt(j);
+                    lValueStart = j+1;
+                    lValueEnd = lValueStart;
+                    while ((lValueEnd < n) && (pHtml.charAt(lValueEnd) != lQuote) && (pHtml.charAt(lValueEnd) != '>')) lValueEnd++;
+                    j = (lValueEnd < n) && (pHtml.charAt(lValueEnd) == lQuote) ? lValueEnd+1 : lValueEnd;
+                }
+                else {
+                    lValueStart = j;
+                    while ((j < n) && (pHtml.charAt(j) != '>') && !Character.isWhitespace(pHtml.charAt(j))) j++;
+                    lValueEnd = j;
+                }
+                if (lAnchor && equalsIgnoreCase(pHtml, lAttrStart, lAttrEnd, "href") && (lValueEnd > lValueStart)) {
+                    if (decodeWikiTitle(pHtml, lValueStart, lValueEnd, lTitle)) {
+                        pVisitor.visit(lAnchorIndex, lTitle, lCategoryLinks);
                     }
+                    lAnchorIndex++;
+                }
+                else if (equalsIgnoreCase(pHtml, lAttrStart, lAttrEnd, "id") && equalsIgnoreCase(pHtml, lValueStart, lValueEnd, "catlinks")) {
+                    lCategoryLinks = true;
+                }
+                else if (equalsIgnoreCase(pHtml, lAttrStart, lAttrEnd, "class") && (equalsIgnoreCase(pHtml, lValueStart, lValueEnd, "redirectText") || equalsIgnoreCase(pHtml, lValueStart, lValueEnd, "redirectMsg"))) {
+                    lRedirectClass = true;
+                }
+            }
+            i = j < n ? j+1 : n;
+            // The content of scripts and styles is no markup
+            String lRawTextElement = equalsIgnoreCase(pHtml, lNameStart, lNameEnd, "script") ? "</script" : equalsIgnoreCase(pHtml, lNameStart, lNameEnd, "style") ? "</style" : null;
+            if (lRawTextElement != null) {
+                int lEnd = indexOfIgnoreCase(pHtml, lRawTextElement, i);
+                i = lEnd < 0 ? n : lEnd;
+            }
+        }
+        int lRedirectText = lHeadingClosed ? lFirstTextBehindHeading : lFirstText;
+        return lRedirectClass || ((lRedirectText >= 0) && regionMatchesIgnoreCase(pHtml, lRedirectText, REDIRECT));
+    }
 
-                    if (lTargetPage != null) {
-                        if (lIsRedirect && (lLinkCount == 1)) {
-                            // The SQL Dumps represent redirect links as redirect AND Article- so do we...
-                            lResult.add(new WikiPageLink(MediaWikiConst.LinkType.REDIRECT, pSourcePage, lTargetPage, WikiPageLink.WikiPageLinkSource.HtmlParsedAdHoc, pTimestamp));
-                            lResult.add(new WikiPageLink(MediaWikiConst.LinkType.ARTICLE, pSourcePage, lTargetPage, WikiPageLink.WikiPageLinkSource.HtmlParsedAdHoc, pTimestamp));
-                        } else if (lTargetNS.getId() == 14) {
-                            if ((lCatLinksDivIndex >= 0) && (lMatcher.start() > lCatLinksDivIndex)) {
-                                lResult.add(new WikiPageLink(MediaWikiConst.LinkType.CATEGORIZATION, pSourcePage, lTargetPage, WikiPageLink.WikiPageLinkSource.HtmlParsedAdHoc, pTimestamp));
-                            }
-                            else {
-                                lResult.add(new WikiPageLink(MediaWikiConst.LinkType.ARTICLE, pSourcePage, lTargetPage, WikiPageLink.WikiPageLinkSource.HtmlParsedAdHoc, pTimestamp));
-                            }
-                        } else {
-                            lResult.add(new WikiPageLink(MediaWikiConst.LinkType.ARTICLE, pSourcePage, lTargetPage, WikiPageLink.WikiPageLinkSource.HtmlParsedAdHoc, pTimestamp));
-                        }
+    /**
+     * Decode the title of a /wiki/ link into pTitle. Underscores and plus signs become blanks, the fragment is dropped.
+     * @return false if the href does not point to a wiki page
+     */
+    protected static boolean decodeWikiTitle(CharSequence pHtml, int pStart, int pEnd, StringBuilder pTitle) {
+        if (!startsWith(pHtml, pStart, WIKI_PATH)) return false;
+        pTitle.setLength(0);
+        int i = pStart+WIKI_PATH.length();
+        while ((i < pEnd) && (pHtml.charAt(i) != '#')) {
+            char c = pHtml.charAt(i);
+            if ((c == '%') && (hexValue(pHtml, i+1, pEnd) >= 0)) {
+                // Percent-encoded UTF-8 sequence
+                int lByte = hexValue(pHtml, i+1, pEnd);
+                i += 3;
+                int lLength = lByte < 0x80 ? 0 : lByte >= 0xF0 ? 3 : lByte >= 0xE0 ? 2 : lByte >= 0xC0 ? 1 : -1;
+                int lCodePoint = lLength == 0 ? lByte : lLength == 3 ? lByte & 0x07 : lLength == 2 ? lByte & 0x0F : lByte & 0x1F;
+                for (int k=0; (k < lLength) && (lCodePoint >= 0); k++) {
+                    int lNext = ((i < pEnd) && (pHtml.charAt(i) == '%')) ? hexValue(pHtml, i+1, pEnd) : -1;
+                    if ((lNext & 0xC0) != 0x80) {
+                        lCodePoint = -1;
                     }
+                    else {
+                        lCodePoint = (lCodePoint << 6) | (lNext & 0x3F);
+                        i += 3;
+                    }
+                }
+                if ((lLength < 0) || (lCodePoint < 0) || !Character.isValidCodePoint(lCodePoint)) {
+                    pTitle.append('\uFFFD');
                 }
+                else {
+                    pTitle.appendCodePoint(lCodePoint);
+                }
+            }
+            else {
+                pTitle.append(((c == '_') || (c == '+')) ? ' ' : c);
+                i++;
             }
         }
-        return lResult;
+        return pTitle.length() > 0;
+    }
+
+    protected static int hexValue(CharSequence pHtml, int pIndex, int pEnd) {
+        if (pIndex+1 >= pEnd) return -1;
+        int lHigh = Character.digit(pHtml.charAt(pIndex), 16);
+        int lLow = Character.digit(pHtml.charAt(pIndex+1), 16);
+        return (lHigh < 0) || (lLow < 0) ? -1 : (lHigh << 4) | lLow;
+    }
+
+    protected static boolean startsWith(CharSequence pString, int pIndex, String pPrefix) {
+        if (pIndex+pPrefix.length() > pString.length()) return false;
+        for (int i=0; i<pPrefix.length(); i++) {
+            if (pString.charAt(pIndex+i) != pPrefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    protected static boolean regionMatchesIgnoreCase(CharSequence pString, int pIndex, String pPrefix) {
+        return (pIndex+pPrefix.length() <= pString.length()) && equalsIgnoreCase(pString, pIndex, pIndex+pPrefix.length(), pPrefix);
+    }
+
+    protected static boolean equalsIgnoreCase(CharSequence pString, int pStart, int pEnd, String pValue) {
+        if (pEnd-pStart != pValue.length()) return false;
+        for (int i=0; i<pValue.length(); i++) {
+            if (Character.toLowerCase(pString.charAt(pStart+i)) != Character.toLowerCase(pValue.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    protected static int indexOf(CharSequence pString, String pPattern, int pFrom) {
+        for (int i=pFrom; i<=pString.length()-pPattern.length(); i++) {
+            if (startsWith(pString, i, pPattern)) return i;
+        }
+        return -1;
+    }
+
+    protected static int indexOfIgnoreCase(CharSequence pString, String pPattern, int pFrom) {
+        for (int i=pFrom; i<=pString.length()-pPattern.length(); i++) {
+            if (regionMatchesIgnoreCase(pString, i, pPattern)) return i;
+        }
+        return -1;
     }
 
 }
@@ -33,7 +33,10 @@ import org.tukaani.xz.XZOutputStream;
 
 import java.io.*;
 import java.net.HttpURLConnection;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.net.URL;
+import java.nio.MappedByteBuffer;
 import java.nio.charset.Charset;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -275,4 +278,42 @@ public class IOUtil {
         pFile.delete();
     }
 
+    /**
+     * Release the mapping of a MappedByteBuffer right away instead of waiting for the garbage collector.
+     * The buffer must not be accessed afterwards. Does nothing (but log) if the JVM does not allow to unmap explicitly.
+     * @param pBuffer
+     */
+    public static void unmap(MappedByteBuffer pBuffer) {
+        if (pBuffer == null) return;
+        try {
+            // Java 9+
+            Class<?> lUnsafeClass = Class.forName("sun.misc.Unsafe");
+            Method lInvokeCleaner = lUnsafeClass.getMethod("invokeCleaner", java.nio.ByteBuffer.class);
+            Field lTheUnsafe = lUnsafeClass.getDeclaredField("theUnsafe");
+            lTheUnsafe.setAccessible(true);
+            lInvokeCleaner.invoke(lTheUnsafe.get(null), pBuffer);
+            return;
+        }
+        catch (NoSuchMethodException e) {
+            // Java 8, see below
+        }
+        catch (Exception e) {
+            logger.warn("Could not unmap buffer: "+e.getMessage());
+            return;
+        }
+        try {
+            Method lCleanerMethod = pBuffer.getClass().getMethod("cleaner");
+            lCleanerMethod.setAccessible(true);
+            Object lCleaner = lCleanerMethod.invoke(pBuffer);
+            if (lCleaner != null) {
+                Method lClean = lCleaner.getClass().getMethod("clean");
+                lClean.setAccessible(true);
+                lClean.invoke(lCleaner);
+            }
+        }
+        catch (Exception e) {
+            logger.warn("Could not unmap buffer: "+e.getMessage());
+        }
+    }
+
 }
@@ -0,0 +1,517 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+
+package org.hucompute.wikidragon.core.util;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch;
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Tracks the links of a sequence of revisions of a page. The link spans of the previous revision are kept, so only
+ * the lines touched by the diff to the next revision have to be scanned again. Edits which may change how the rest
+ * of the text is scanned (comment or element delimiters, braces if link templates are configured, the redirect line)
+ * cause a full scan. Link changes are reported per revision as added and removed LinkTargets.
+ * Not thread-safe- use one instance per thread.
+ * @author Rüdiger Gleim
+ */
+public class IncrementalWikiTextLinkExtraction {
+
+    private static Logger logger = LogManager.getLogger(IncrementalWikiTextLinkExtraction.class);
+
+    public interface RevisionVisitor {
+
+        /**
+         * @param pRevision
+         * @param pLinkChanges Links added and removed by this revision
+         * @return false to stop
+         * @throws WikiDragonException
+         */
+        public boolean visit(Revision pRevision, LinkChanges pLinkChanges) throws WikiDragonException;
+
+    }
+
+    protected WikiTextLinkExtraction wikiTextLinkExtraction;
+    protected DiffMatchPatch diffMatchPatch = new DiffMatchPatch();
+
+    protected String text;
+    protected List<Span> spans = new ArrayList<>();
+    protected TObjectIntHashMap<WikiTextLinkExtraction.LinkTarget> targetCounts = new TObjectIntHashMap<>();
+
+    protected long scannedCharacters;
+    protected long totalCharacters;
+    protected long fullScans;
+    protected long incrementalScans;
+
+    public IncrementalWikiTextLinkExtraction(WikiTextLinkExtraction pWikiTextLinkExtraction) {
+        wikiTextLinkExtraction = pWikiTextLinkExtraction;
+    }
+
+    /**
+     * Forget the previous revision, e.g. before starting with the next page
+     */
+    public void reset() {
+        text = null;
+        spans.clear();
+        targetCounts.clear();
+    }
+
+    /**
+     * @return LinkTargets of the current revision
+     */
+    public Set<WikiTextLinkExtraction.LinkTarget> getLinkTargets() {
+        return new HashSet<>(targetCounts.keySet());
+    }
+
+    /**
+     * Process the revisions of a page in chronological order. Revisions stored as diff are not reconstructed from
+     * their keyframe- their patches are applied to the previous text and reused to find the regions to scan.
+     * @param pPage
+     * @param pVisitor
+     * @throws WikiDragonException
+     */
+    public void extract(Page pPage, RevisionVisitor pVisitor) throws WikiDragonException {
+        reset();
+        try (WikiTransaction tx = pPage.getWikiDragonDatabase().beginReadSession()) {
+            for (Revision lRevision:pPage.getRevisionsList()) {
+                String lText = null;
+                List<DiffMatchPatch.Patch> lPatches = null;
+                boolean lFullScan = false;
+                if ((text != null) && (lRevision.getRawTextCompression() == WikiDragonConst.Compression.DIFFBZIP2)) {
+                    try {
+                        lPatches = diffMatchPatch.patchFromText(IOUtil.uncompress(lRevision.getCompressedRawText(), WikiDragonConst.Compression.BZIP2));
+                    }
+                    catch (IOException e) {
+                        throw new WikiDragonException(e.getMessage(), e);
+                    }
+                    lText = applyPatches(text, lPatches);
+                    if (lText == null) {
+                        // The text has drifted from the one the patches were made for- reconstruct it and start over
+                        logger.warn("Patches of revision "+lRevision.getId()+" do not apply, falling back to a full scan");
+                        lPatches = null;
+                        lFullScan = true;
+                    }
+                }
+                if (lText == null) lText = lRevision.getRawText();
+                if (lText == null) lText = "";
+                if (!pVisitor.visit(lRevision, next(lText, lPatches, lFullScan))) break;
+            }
+            tx.success();
+        }
+        logger.debug("Scanned "+scannedCharacters+" of "+totalCharacters+" characters, "+incrementalScans+" incremental and "+fullScans+" full scans");
+    }
+
+    /**
+     * Advance to the next revision, computing the diff to the previous one
+     * @param pText
+     * @return LinkChanges
+     */
+    public LinkChanges next(String pText) {
+        return next(pText, null);
+    }
+
+    /**
+     * Advance to the next revision
+     * @param pText
+     * @param pPatches Patches from the previous to this revision or null to compute the diff
+     * @return LinkChanges
+     */
+    public LinkChanges next(String pText, List<DiffMatchPatch.Patch> pPatches) {
+        return next(pText, pPatches, false);
+    }
+
+    /**
+     * Advance to the next revision
+     * @param pText
+     * @param pPatches Patches from the previous to this revision or null to compute the diff
+     * @param pFullScan Scan the whole text regardless of the diff
+     * @return LinkChanges
+     */
+    public LinkChanges next(String pText, List<DiffMatchPatch.Patch> pPatches, boolean pFullScan) {
+        totalCharacters += pText.length();
+        LinkChanges lResult = null;
+        if ((text != null) && !pFullScan) {
+            List<Edit> lEdits = pPatches == null ? null : getEditsFromPatches(pText, pPatches);
+            if (lEdits == null) lEdits = getEditsFromDiffs(pText, diffMatchPatch.diffMain(text, pText));
+            lResult = nextIncremental(pText, lEdits);
+        }
+        if (lResult == null) {
+            lResult = nextFull(pText);
+            fullScans++;
+        }
+        else {
+            incrementalScans++;
+        }
+        text = pText;
+        return lResult;
+    }
+
+    /**
+     * Apply patches to a text
+     * @param pText
+     * @param pPatches
+     * @return Patched text or null if any of the patches could not be applied
+     */
+    protected String applyPatches(String pText, List<DiffMatchPatch.Patch> pPatches) {
+        Object[] lResult = diffMatchPatch.patchApply(new LinkedList<>(pPatches), pText);
+        for (boolean lApplied:(boolean[])lResult[1]) {
+            if (!lApplied) return null;
+        }
+        return (String)lResult[0];
+    }
+
+    public long getScannedCharacters() {
+        return scannedCharacters;
+    }
+
+    public long getTotalCharacters() {
+        return totalCharacters;
+    }
+
+    protected LinkChanges nextFull(String pText) {
+        List<Span> lSpans = new ArrayList<>();
+        scan(pText, 0, pText.length(), lSpans);
+        scannedCharacters += pText.length();
+        TObjectIntHashMap<WikiTextLinkExtraction.LinkTarget> lCounts = new TObjectIntHashMap<>();
+        for (Span lSpan:lSpans) {
+            if (lSpan.targets != null) {
+                for (WikiTextLinkExtraction.LinkTarget lTarget:lSpan.targets) lCounts.adjustOrPutValue(lTarget, 1, 1);
+            }
+        }
+        LinkChanges lResult = new LinkChanges(true);
+        for (WikiTextLinkExtraction.LinkTarget lTarget:lCounts.keySet()) {
+            if (!targetCounts.containsKey(lTarget)) lResult.added.add(lTarget);
+        }
+        for (WikiTextLinkExtraction.LinkTarget lTarget:targetCounts.keySet()) {
+            if (!lCounts.containsKey(lTarget)) lResult.removed.add(lTarget);
+        }
+        spans = lSpans;
+        targetCounts = lCounts;
+        return lResult;
+    }
+
+    /**
+     * @return LinkChanges or null if a full scan is required
+     */
+    protected LinkChanges nextIncremental(String pText, List<Edit> pEdits) {
+        if (pEdits.isEmpty()) return new LinkChanges(false);
+        int lOldGuard = getRedirectGuard(text);
+        int lNewGuard = getRedirectGuard(pText);
+        for (Edit lEdit:pEdits) {
+            if (lEdit.structural || (lEdit.oldStart <= lOldGuard) || (lEdit.newStart <= lNewGuard)) return null;
+        }
+        // Spans of link templates may enclose others, so search on the running maximum of the span ends
+        int[] lMaxEnds = new int[spans.size()];
+        for (int i=0; i<lMaxEnds.length; i++) {
+            lMaxEnds[i] = i == 0 ? spans.get(i).end : Math.max(lMaxEnds[i-1], spans.get(i).end);
+        }
+        // Grow the edits to windows of complete lines enclosing all affected spans
+        List<int[]> lWindows = new ArrayList<>();
+        int k = 0;
+        while (k < pEdits.size()) {
+            Edit lFirst = pEdits.get(k);
+            int lLast = k;
+            int lFrom = lFirst.oldStart;
+            int lTo = lFirst.oldEnd;
+            boolean lChanged = true;
+            while (lChanged) {
+                lChanged = false;
+                int lLineFrom = text.lastIndexOf('\n', lFrom-1)+1;
+                int lLineTo = text.indexOf('\n', lTo);
+                if (lLineTo < 0) lLineTo = text.length();
+                if ((lLineFrom != lFrom) || (lLineTo != lTo)) {
+                    lFrom = lLineFrom;
+                    lTo = lLineTo;
+                    lChanged = true;
+                }
+                for (int i=firstSpanEndingAfter(lMaxEnds, lFrom); (i < spans.size()) && (spans.get(i).start <= lTo); i++) {
+                    Span lSpan = spans.get(i);
+                    if (lSpan.end <= lFrom) continue;
+                    if (lSpan.targets == null) return null; // Opaque region
+                    if ((lSpan.start < lFrom) || (lSpan.end > lTo)) {
+                        lFrom = Math.min(lFrom, lSpan.start);
+                        lTo = Math.max(lTo, lSpan.end);
+                        lChanged = true;
+                    }
+                }
+                while ((lLast+1 < pEdits.size()) && (pEdits.get(lLast+1).oldStart <= lTo)) {
+                    lLast++;
+                    lTo = Math.max(lTo, pEdits.get(lLast).oldEnd);
+                    lChanged = true;
+                }
+            }
+            Edit lLastEdit = pEdits.get(lLast);
+            lWindows.add(new int[]{lFrom, lTo, lFrom+lFirst.newStart-lFirst.oldStart, lTo+lLastEdit.newEnd-lLastEdit.oldEnd});
+            k = lLast+1;
+        }
+        // Scan the windows in the new text
+        List<List<Span>> lWindowSpans = new ArrayList<>();
+        for (int[] lWindow:lWindows) {
+            List<Span> lSpans = new ArrayList<>();
+            scan(pText, lWindow[2], lWindow[3], lSpans);
+            for (Span lSpan:lSpans) {
+                if ((lSpan.targets == null) || (lSpan.end > lWindow[3])) return null;
+            }
+            scannedCharacters += lWindow[3]-lWindow[2];
+            lWindowSpans.add(lSpans);
+        }
+        // Replace the spans of the windows and shift the others
+        TObjectIntHashMap<WikiTextLinkExtraction.LinkTarget> lDelta = new TObjectIntHashMap<>();
+        List<Span> lSpans = new ArrayList<>(spans.size());
+        int lShift = 0;
+        int i = 0;
+        for (int w=0; w<lWindows.size(); w++) {
+            int[] lWindow = lWindows.get(w);
+            for (; (i < spans.size()) && (spans.get(i).end <= lWindow[0]) && (spans.get(i).start < lWindow[0]); i++) {
+                lSpans.add(spans.get(i).shift(lShift));
+            }
+            for (; (i < spans.size()) && (spans.get(i).start <= lWindow[1]) && (spans.get(i).end <= lWindow[1]); i++) {
+                for (WikiTextLinkExtraction.LinkTarget lTarget:spans.get(i).targets) lDelta.adjustOrPutValue(lTarget, -1, -1);
+            }
+            for (Span lSpan:lWindowSpans.get(w)) {
+                for (WikiTextLinkExtraction.LinkTarget lTarget:lSpan.targets) lDelta.adjustOrPutValue(lTarget, 1, 1);
+                lSpans.add(lSpan);
+            }
+            lShift = lWindow[3]-lWindow[1];
+        }
+        for (; i < spans.size(); i++) {
+            lSpans.add(spans.get(i).shift(lShift));
+        }
+        LinkChanges lResult = new LinkChanges(false);
+        for (WikiTextLinkExtraction.LinkTarget lTarget:lDelta.keySet()) {
+            int lDeltaCount = lDelta.get(lTarget);
+            if (lDeltaCount == 0) continue;
+            int lOldCount = targetCounts.get(lTarget);
+            int lNewCount = lOldCount+lDeltaCount;
+            if (lNewCount == 0) {
+                targetCounts.remove(lTarget);
+                lResult.removed.add(lTarget);
+            }
+            else {
+                targetCounts.put(lTarget, lNewCount);
+                if (lOldCount == 0) lResult.added.add(lTarget);
+            }
+        }
+        spans = lSpans;
+        return lResult;
+    }
+
+    protected void scan(String pText, int pFrom, int pTo, List<Span> pSpans) {
+        wikiTextLinkExtraction.scan(pText, pFrom, pTo, new WikiTextLinkExtraction.SpanVisitor() {
+            @Override
+            public void visitLink(int pStart, int pEnd, String pTarget, boolean pRedirect, MediaWikiConst.LinkType pLinkType) {
+                List<WikiTextLinkExtraction.LinkTarget> lTargets = wikiTextLinkExtraction.getLinkTargets(pTarget, pRedirect, pLinkType);
+                Span lLast = pSpans.isEmpty() ? null : pSpans.get(pSpans.size()-1);
+                if ((lLast != null) && (lLast.start == pStart) && (lLast.targets != null)) {
+                    // Further target of the same link template
+                    lLast.targets.addAll(lTargets);
+                }
+                else {
+                    pSpans.add(new Span(pStart, pEnd, new ArrayList<>(lTargets)));
+                }
+            }
+
+            @Override
+            public void visitOpaque(int pStart, int pEnd) {
+                pSpans.add(new Span(pStart, pEnd, null));
+            }
+
+            @Override
+            public void visitLinkTemplate(int pStart, int pEnd) {
+                pSpans.add(new Span(pStart, pEnd, new ArrayList<>()));
+            }
+        });
+    }
+
+    /**
+     * @return Index of the first span for which it or a preceding span ends after pPosition
+     */
+    protected static int firstSpanEndingAfter(int[] pMaxEnds, int pPosition) {
+        int lLow = 0;
+        int lHigh = pMaxEnds.length;
+        while (lLow < lHigh) {
+            int lMid = (lLow+lHigh) >>> 1;
+            if (pMaxEnds[lMid] <= pPosition) {
+                lLow = lMid+1;
+            }
+            else {
+                lHigh = lMid;
+            }
+        }
+        return lLow;
+    }
+
+    /**
+     * @return End of the first non-blank line, which may hold a redirect
+     */
+    protected static int getRedirectGuard(String pText) {
+        int i = 0;
+        while ((i < pText.length()) && Character.isWhitespace(pText.charAt(i))) i++;
+        int lEnd = pText.indexOf('\n', i);
+        return lEnd < 0 ? pText.length() : lEnd;
+    }
+
+    /**
+     * Derive the edited regions from a diff
+     */
+    protected List<Edit> getEditsFromDiffs(String pText, List<DiffMatchPatch.Diff> pDiffs) {
+        List<Edit> lResult = new ArrayList<>();
+        int[] lPositions = new int[2];
+        if (!addEdits(pText, pDiffs, lPositions, lResult)) throw new IllegalStateException("Diff does not match text");
+        return lResult;
+    }
+
+    /**
+     * Derive the edited regions from patches
+     * @return Edits or null if the patches do not match exactly
+     */
+    protected List<Edit> getEditsFromPatches(String pText, List<DiffMatchPatch.Patch> pPatches) {
+        List<Edit> lResult = new ArrayList<>();
+        int lShift = 0;
+        for (DiffMatchPatch.Patch lPatch:pPatches) {
+            // Patch positions refer to the text with all previous patches applied
+            int[] lPositions = new int[]{lPatch.start2-lShift, lPatch.start2};
+            if ((lResult.size() > 0) && (lPositions[0] < lResult.get(lResult.size()-1).oldEnd)) return null;
+            if (!addEdits(pText, lPatch.diffs, lPositions, lResult)) return null;
+            lShift = lPositions[1]-lPositions[0];
+        }
+        return lResult;
+    }
+
+    protected boolean addEdits(String pText, List<DiffMatchPatch.Diff> pDiffs, int[] pPositions, List<Edit> pEdits) {
+        Edit lEdit = null;
+        for (DiffMatchPatch.Diff lDiff:pDiffs) {
+            int lLength = lDiff.text.length();
+            switch (lDiff.operation) {
+                case EQUAL: {
+                    if (!text.startsWith(lDiff.text, pPositions[0]) || !pText.startsWith(lDiff.text, pPositions[1])) return false;
+                    lEdit = null;
+                    pPositions[0] += lLength;
+                    pPositions[1] += lLength;
+                    break;
+                }
+                case DELETE: {
+                    if (!text.startsWith(lDiff.text, pPositions[0])) return false;
+                    if (lEdit == null) pEdits.add(lEdit = new Edit(pPositions[0], pPositions[1]));
+                    pPositions[0] += lLength;
+                    lEdit.oldEnd = pPositions[0];
+                    lEdit.structural |= isStructural(lDiff.text);
+                    break;
+                }
+                case INSERT: {
+                    if (!pText.startsWith(lDiff.text, pPositions[1])) return false;
+                    if (lEdit == null) pEdits.add(lEdit = new Edit(pPositions[0], pPositions[1]));
+                    pPositions[1] += lLength;
+                    lEdit.newEnd = pPositions[1];
+                    lEdit.structural |= isStructural(lDiff.text);
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the edited text may change how text outside the edited lines is scanned
+     */
+    protected boolean isStructural(String pText) {
+        boolean lBraces = !wikiTextLinkExtraction.linkTemplateMap.isEmpty();
+        for (int i=0; i<pText.length(); i++) {
+            char c = pText.charAt(i);
+            if ((c == '<') || (c == '>') || (lBraces && ((c == '{') || (c == '}')))) return true;
+        }
+        return false;
+    }
+
+    public static class LinkChanges {
+
+        protected Set<WikiTextLinkExtraction.LinkTarget> added = new HashSet<>();
+        protected Set<WikiTextLinkExtraction.LinkTarget> removed = new HashSet<>();
+        protected boolean fullScan;
+
+        protected LinkChanges(boolean pFullScan) {
+            fullScan = pFullScan;
+        }
+
+        public Set<WikiTextLinkExtraction.LinkTarget> getAdded() {
+            return added;
+        }
+
+        public Set<WikiTextLinkExtraction.LinkTarget> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return true if the whole text has been scanned
+         */
+        public boolean isFullScan() {
+            return fullScan;
+        }
+
+    }
+
+    protected static class Edit {
+
+        protected int oldStart;
+        protected int oldEnd;
+        protected int newStart;
+        protected int newEnd;
+        protected boolean structural;
+
+        protected Edit(int pOldStart, int pNewStart) {
+            oldStart = pOldStart;
+            oldEnd = pOldStart;
+            newStart = pNewStart;
+            newEnd = pNewStart;
+        }
+
+    }
+
+    /**
+     * Link, link template or- if targets is null- opaque region of the text
+     */
+    protected static class Span {
+
+        protected int start;
+        protected int end;
+        protected List<WikiTextLinkExtraction.LinkTarget> targets;
+
+        protected Span(int pStart, int pEnd, List<WikiTextLinkExtraction.LinkTarget> pTargets) {
+            start = pStart;
+            end = pEnd;
+            targets = pTargets;
+        }
+
+        protected Span shift(int pShift) {
+            if (pShift == 0) return this;
+            start += pShift;
+            end += pShift;
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+
+package org.hucompute.wikidragon.core.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Graph analytics computed directly on a LinkGraphSnapshot: PageRank, in- and out-degree, weakly connected
+ * components and reciprocity. Nodes are addressed by their snapshot index throughout, results are primitive arrays
+ * indexed the same way. Iterative algorithms are parallelized by splitting index ranges on a ForkJoinPool.
+ * Edges of different LinkTypes between the same pages are counted separately by degree and PageRank; reciprocity
+ * and components consider distinct page pairs.
+ * @author Rüdiger Gleim
+ */
+public class LinkGraphAnalytics {
+
+    private static Logger logger = LogManager.getLogger(LinkGraphAnalytics.class);
+
+    public static final String METRIC_PAGERANK = "PAGERANK";
+    public static final String METRIC_INDEGREE = "INDEGREE";
+    public static final String METRIC_OUTDEGREE = "OUTDEGREE";
+    public static final String METRIC_COMPONENT = "COMPONENT";
+    public static final String METRIC_RECIPROCALDEGREE = "RECIPROCALDEGREE";
+
+    public static final double DEFAULT_DAMPING = 0.85;
+    public static final int DEFAULT_MAX_ITERATIONS = 100;
+    public static final double DEFAULT_EPSILON = 1e-9;
+    protected static final int SEQUENTIAL_THRESHOLD = 1 << 14;
+
+    protected LinkGraphSnapshot snapshot;
+    protected ForkJoinPool pool;
+
+    protected double[] pageRank;
+    protected int[] components;
+    protected int componentCount;
+    protected int[] reciprocalDegrees;
+    protected long reciprocalPairs;
+    protected long distinctPairs;
+
+    public LinkGraphAnalytics(LinkGraphSnapshot pSnapshot) {
+        this(pSnapshot, ForkJoinPool.commonPool());
+    }
+
+    public LinkGraphAnalytics(LinkGraphSnapshot pSnapshot, ForkJoinPool pPool) {
+        snapshot = pSnapshot;
+        pool = pPool;
+    }
+
+    public LinkGraphSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Compute all metrics with default parameters
+     */
+    public void computeAll() {
+        getPageRank();
+        getComponents();
+        getReciprocalDegrees();
+    }
+
+    public double[] getPageRank() {
+        if (pageRank == null) {
+            pageRank = computePageRank(DEFAULT_DAMPING, DEFAULT_MAX_ITERATIONS, DEFAULT_EPSILON);
+        }
+        return pageRank;
+    }
+
+    public int[] getInDegrees() {
+        int[] lResult = new int[snapshot.getNodeCount()];
+        for (int i=0; i<lResult.length; i++) {
+            lResult[i] = snapshot.getInDegree(i);
+        }
+        return lResult;
+    }
+
+    public int[] getOutDegrees() {
+        int[] lResult = new int[snapshot.getNodeCount()];
+        for (int i=0; i<lResult.length; i++) {
+            lResult[i] = snapshot.getOutDegree(i);
+        }
+        return lResult;
+    }
+
+    /**
+     * @return Component of every node, identified by the smallest index within the component
+     */
+    public int[] getComponents() {
+        if (components == null) {
+            computeComponents();
+        }
+        return components;
+    }
+
+    public int getComponentCount() {
+        getComponents();
+        return componentCount;
+    }
+
+    /**
+     * @return Number of distinct neighbours of every node which link back to it
+     */
+    public int[] getReciprocalDegrees() {
+        if (reciprocalDegrees == null) {
+            computeReciprocity();
+        }
+        return reciprocalDegrees;
+    }
+
+    /**
+     * @return Share of distinct linked page pairs (excluding self links) whose link is reciprocated
+     */
+    public double getReciprocity() {
+        getReciprocalDegrees();
+        return distinctPairs == 0 ? 0 : reciprocalPairs / (double)distinctPairs;
+    }
+
+    /**
+     * Power iteration of PageRank pulling rank along incoming edges. The rank of dangling nodes is distributed evenly.
+     * @param pDamping
+     * @param pMaxIterations
+     * @param pEpsilon Stop once the L1 change of an iteration is below this value
+     * @return PageRank by snapshot index, summing up to 1
+     */
+    public double[] computePageRank(double pDamping, int pMaxIterations, double pEpsilon) {
+        int n = snapshot.getNodeCount();
+        if (n == 0) return new double[0];
+        double[] lRank = new double[n];
+        double[] lNext = new double[n];
+        // Rank divided by out-degree, so the inner loop only adds
+        double[] lContribution = new double[n];
+        Arrays.fill(lRank, 1d/n);
+        for (int lIteration=0; lIteration<pMaxIterations; lIteration++) {
+            final double[] lCurrent = lRank;
+            // One partial sum per block, added up in block order so the result does not depend on scheduling
+            double[] lPartials = new double[getBlockCount(n)];
+            forEachRange(n, (pFrom, pTo) -> {
+                double lSum = 0;
+                for (int i=pFrom; i<pTo; i++) {
+                    int lOutDegree = snapshot.getOutDegree(i);
+                    if (lOutDegree == 0) {
+                        lContribution[i] = 0;
+                        lSum += lCurrent[i];
+                    }
+                    else {
+                        lContribution[i] = lCurrent[i] / lOutDegree;
+                    }
+                }
+                lPartials[pFrom / SEQUENTIAL_THRESHOLD] = lSum;
+            });
+            double lDangling = sum(lPartials);
+            final double lBase = (1-pDamping)/n + pDamping*lDangling/n;
+            final double[] lTarget = lNext;
+            forEachRange(n, (pFrom, pTo) -> {
+                double lSum = 0;
+                for (int v=pFrom; v<pTo; v++) {
+                    double lIn = 0;
+                    int lEnd = snapshot.getInEdgeStart(v+1);
+                    for (int e=snapshot.getInEdgeStart(v); e<lEnd; e++) {
+                        lIn += lContribution[snapshot.getInSource(e)];
+                    }
+                    lTarget[v] = lBase + pDamping*lIn;
+                    lSum += Math.abs(lTarget[v]-lCurrent[v]);
+                }
+                lPartials[pFrom / SEQUENTIAL_THRESHOLD] = lSum;
+            });
+            double lDelta = sum(lPartials);
+            lNext = lRank;
+            lRank = lTarget;
+            logger.debug("PageRank iteration "+(lIteration+1)+": delta="+lDelta);
+            if (lDelta < pEpsilon) break;
+        }
+        return lRank;
+    }
+
+    /**
+     * Weakly connected components by union-find with path halving
+     */
+    protected void computeComponents() {
+        int n = snapshot.getNodeCount();
+        int[] lParent = new int[n];
+        for (int i=0; i<n; i++) lParent[i] = i;
+        for (int u=0; u<n; u++) {
+            int lEnd = snapshot.getOutEdgeStart(u+1);
+            for (int e=snapshot.getOutEdgeStart(u); e<lEnd; e++) {
+                int a = find(lParent, u);
+                int b = find(lParent, snapshot.getOutTarget(e));
+                // Smaller index becomes the root, so roots are the minimal index of their component
+                if (a < b) lParent[b] = a;
+                else if (b < a) lParent[a] = b;
+            }
+        }
+        int lCount = 0;
+        for (int i=0; i<n; i++) {
+            lParent[i] = find(lParent, i);
+            if (lParent[i] == i) lCount++;
+        }
+        components = lParent;
+        componentCount = lCount;
+    }
+
+    protected static int find(int[] pParent, int pNode) {
+        while (pParent[pNode] != pNode) {
+            pParent[pNode] = pParent[pParent[pNode]];
+            pNode = pParent[pNode];
+        }
+        return pNode;
+    }
+
+    protected void computeReciprocity() {
+        int n = snapshot.getNodeCount();
+        int m = snapshot.getEdgeCount();
+        // Sorted copy of the out-adjacency, so reverse edges can be found by binary search
+        int[] lSorted = new int[m];
+        forEachRange(n, (pFrom, pTo) -> {
+            for (int u=pFrom; u<pTo; u++) {
+                int lStart = snapshot.getOutEdgeStart(u);
+                int lEnd = snapshot.getOutEdgeStart(u+1);
+                for (int e=lStart; e<lEnd; e++) lSorted[e] = snapshot.getOutTarget(e);
+                Arrays.sort(lSorted, lStart, lEnd);
+            }
+        });
+        int[] lReciprocal = new int[n];
+        long[] lCounts = new long[2];
+        forEachRange(n, (pFrom, pTo) -> {
+            long lPairs = 0;
+            long lReciprocated = 0;
+            for (int u=pFrom; u<pTo; u++) {
+                int lStart = snapshot.getOutEdgeStart(u);
+                int lEnd = snapshot.getOutEdgeStart(u+1);
+                int lDegree = 0;
+                for (int e=lStart; e<lEnd; e++) {
+                    int v = lSorted[e];
+                    if ((v == u) || ((e > lStart) && (lSorted[e-1] == v))) continue;
+                    lPairs++;
+                    if (Arrays.binarySearch(lSorted, snapshot.getOutEdgeStart(v), snapshot.getOutEdgeStart(v+1), u) >= 0) {
+                        lDegree++;
+                        lReciprocated++;
+                    }
+                }
+                lReciprocal[u] = lDegree;
+            }
+            synchronized (lCounts) {
+                lCounts[0] += lPairs;
+                lCounts[1] += lReciprocated;
+            }
+        });
+        distinctPairs = lCounts[0];
+        reciprocalPairs = lCounts[1];
+        reciprocalDegrees = lReciprocal;
+    }
+
+    /**
+     * Write all metrics as CSV, one line per page
+     * @param pWriter
+     * @throws IOException
+     */
+    public void writeCSV(Writer pWriter) throws IOException {
+        computeAll();
+        pWriter.write("page_id,namespace_id,pagerank,in_degree,out_degree,component,reciprocal_degree\n");
+        StringBuilder lLine = new StringBuilder();
+        for (int i=0; i<snapshot.getNodeCount(); i++) {
+            lLine.setLength(0);
+            lLine.append(snapshot.getPageId(i)).append(',').append(snapshot.getNamespaceId(i)).append(',')
+                    .append(pageRank[i]).append(',').append(snapshot.getInDegree(i)).append(',').append(snapshot.getOutDegree(i)).append(',')
+                    .append(snapshot.getPageId(components[i])).append(',').append(reciprocalDegrees[i]).append('\n');
+            pWriter.write(lLine.toString());
+        }
+        pWriter.flush();
+    }
+
+    /**
+     * Store all metrics as graph metrics of the pages at the timestamp of the snapshot. Components are stored as the
+     * page id of the smallest page of the component.
+     * @param pMediaWiki MediaWiki the snapshot has been built from
+     * @throws WikiDragonException
+     */
+    public void writePageAttributes(MediaWiki pMediaWiki) throws WikiDragonException {
+        computeAll();
+        ZonedDateTime lTimestamp = snapshot.getTimestamp();
+        long lCounter = 0;
+        WikiTransaction tx = pMediaWiki.getWikiDragonDatabase().beginTx();
+        try {
+            WikiObjectIterator<Page> i = pMediaWiki.getPageIterator();
+            try {
+                while (i.hasNext()) {
+                    Page lPage = i.next();
+                    int lIndex = snapshot.getIndex(lPage.getId());
+                    if (lIndex < 0) continue;
+                    lPage.setGraphMetric(METRIC_PAGERANK, lTimestamp, pageRank[lIndex]);
+                    lPage.setGraphMetric(METRIC_INDEGREE, lTimestamp, snapshot.getInDegree(lIndex));
+                    lPage.setGraphMetric(METRIC_OUTDEGREE, lTimestamp, snapshot.getOutDegree(lIndex));
+                    lPage.setGraphMetric(METRIC_COMPONENT, lTimestamp, snapshot.getPageId(components[lIndex]));
+                    lPage.setGraphMetric(METRIC_RECIPROCALDEGREE, lTimestamp, reciprocalDegrees[lIndex]);
+                    if (++lCounter % 10000 == 0) {
+                        tx.success();
+                        tx.close();
+                        tx = pMediaWiki.getWikiDragonDatabase().beginTx();
+                        logger.info("Writing graph metrics: "+lCounter+" pages");
+                    }
+                }
+            }
+            finally {
+                i.close();
+            }
+            tx.success();
+        }
+        finally {
+            tx.close();
+        }
+    }
+
+    /**
+     * Process the index range [0, pSize) in parallel, in blocks of at most SEQUENTIAL_THRESHOLD indices which
+     * start at multiples of SEQUENTIAL_THRESHOLD
+     * @param pSize
+     * @param pConsumer
+     */
+    protected void forEachRange(int pSize, RangeConsumer pConsumer) {
+        pool.invoke(new RangeAction(pConsumer, 0, pSize));
+    }
+
+    protected static int getBlockCount(int pSize) {
+        return (pSize + SEQUENTIAL_THRESHOLD - 1) / SEQUENTIAL_THRESHOLD;
+    }
+
+    protected static double sum(double[] pValues) {
+        double lSum = 0;
+        for (double lValue:pValues) lSum += lValue;
+        return lSum;
+    }
+
+    /**
+     * Processes one block of an index range
+     */
+    protected interface RangeConsumer {
+
+        public void accept(int pFrom, int pTo);
+
+    }
+
+    /**
+     * Splits an index range at block boundaries until it is a single block and processes the blocks in parallel
+     */
+    protected static class RangeAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        protected final RangeConsumer consumer;
+        protected final int from;
+        protected final int to;
+
+        protected RangeAction(RangeConsumer pConsumer, int pFrom, int pTo) {
+            consumer = pConsumer;
+            from = pFrom;
+            to = pTo;
+        }
+
+        @Override
+        protected void compute() {
+            if (to-from <= SEQUENTIAL_THRESHOLD) {
+                consumer.accept(from, to);
+                return;
+            }
+            int lMid = from + (getBlockCount(to-from) >>> 1) * SEQUENTIAL_THRESHOLD;
+            invokeAll(new RangeAction(consumer, from, lMid), new RangeAction(consumer, lMid, to));
+        }
+
+    }
+
+}
@@ -0,0 +1,534 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.util;
+
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable snapshot of the page link graph of a MediaWiki at one timestamp in compressed sparse row form.
+ * Pages are addressed by int indexes which are assigned in ascending order of their page ids. Out- and in-adjacency
+ * are both available, each edge carries its LinkType. A snapshot can be written to a file and mapped back into memory,
+ * so repeated analyses of the same time slice only have to build it once.
+ * @author Rüdiger Gleim
+ */
+public class LinkGraphSnapshot implements AutoCloseable {
+
+    private static Logger logger = LogManager.getLogger(LinkGraphSnapshot.class);
+
+    protected static final int MAGIC = 0x5744474C; // WDGL
+    protected static final int VERSION = 2;
+    protected static final int HEADER_SIZE = 48;
+    protected static final int BLOCK_SIZE = 256;
+    // Number of ints per mapped chunk of the edge sections- a single mapping is limited to 2GB
+    protected static final int CHUNK_INTS = 1 << 28;
+
+    protected static final MediaWikiConst.LinkType[] LINKTYPES = MediaWikiConst.LinkType.values();
+
+    protected int nodeCount;
+    protected int edgeCount;
+    protected ZonedDateTime timestamp;
+    protected Set<MediaWikiConst.LinkType> linkTypes;
+    protected long mediaWikiNodeId;
+    protected long linkGeneration;
+    protected LongBuffer pageIds;
+    protected IntBuffer namespaceIds;
+    protected IntBuffer outOffsets;
+    protected IntBuffer inOffsets;
+    protected IntBuffer[] outTargets;
+    protected IntBuffer[] inSources;
+    protected ByteBuffer outTypes;
+    protected ByteBuffer inTypes;
+
+    protected LinkGraphSnapshot() {
+    }
+
+    /**
+     * Build a snapshot using all available processors
+     * @see #build(MediaWiki, ZonedDateTime, int, MediaWikiConst.LinkType...)
+     */
+    public static LinkGraphSnapshot build(MediaWiki pMediaWiki, ZonedDateTime pTimestamp, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        return build(pMediaWiki, pTimestamp, Runtime.getRuntime().availableProcessors(), pLinkTypes);
+    }
+
+    /**
+     * Build a snapshot by scanning the outgoing links of all pages in parallel
+     * @param pMediaWiki
+     * @param pTimestamp Timestamp of the PageTier network or WikiDragonConst.NULLDATETIME for the links of the SQL dumps
+     * @param pThreads Number of worker threads
+     * @param pLinkTypes LinkTypes to include. None means all of them.
+     * @return LinkGraphSnapshot
+     * @throws WikiDragonException
+     */
+    public static LinkGraphSnapshot build(MediaWiki pMediaWiki, ZonedDateTime pTimestamp, int pThreads, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        long lStart = System.currentTimeMillis();
+        logger.info("Building LinkGraphSnapshot of "+pMediaWiki.getDbName()+" at "+StringUtil.zonedDateTime2String(pTimestamp, ZoneId.of("UTC"))+"...");
+        LinkGraphSnapshot lResult = new LinkGraphSnapshot();
+        lResult.timestamp = pTimestamp;
+        lResult.mediaWikiNodeId = Long.parseLong(pMediaWiki.getUniqueId());
+        // Read before scanning, so links added concurrently yield a newer generation than the one stored
+        lResult.linkGeneration = pMediaWiki.getWikiPageLinkGeneration();
+        lResult.linkTypes = pLinkTypes.length == 0 ? EnumSet.allOf(MediaWikiConst.LinkType.class) : EnumSet.of(pLinkTypes[0], pLinkTypes);
+        MediaWikiConst.LinkType[] lLinkTypes = lResult.linkTypes.toArray(new MediaWikiConst.LinkType[lResult.linkTypes.size()]);
+
+        // Collect pages in ascending order of their ids
+        List<Page> lPageList = new ArrayList<>();
+        try (WikiTransaction tx = pMediaWiki.getWikiDragonDatabase().beginReadSession()) {
+            WikiObjectIterator<Page> i = pMediaWiki.getPageIterator();
+            while (i.hasNext()) {
+                lPageList.add(i.next());
+            }
+            i.close();
+            lPageList.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+            tx.success();
+        }
+        Page[] lPages = lPageList.toArray(new Page[lPageList.size()]);
+        lPageList = null;
+        int lNodeCount = lPages.length;
+        long[] lPageIds = new long[lNodeCount];
+        int[] lNamespaceIds = new int[lNodeCount];
+        for (int i=0; i<lNodeCount; i++) {
+            lPageIds[i] = lPages[i].getId();
+            lNamespaceIds[i] = lPages[i].getNamespaceID();
+        }
+        lResult.nodeCount = lNodeCount;
+        lResult.pageIds = LongBuffer.wrap(lPageIds);
+        lResult.namespaceIds = IntBuffer.wrap(lNamespaceIds);
+
+        // Scan links in parallel. Each worker claims blocks of pages and collects edges locally.
+        int lThreads = Math.max(1, pThreads);
+        AtomicInteger lNextBlock = new AtomicInteger();
+        AtomicInteger lProcessed = new AtomicInteger();
+        ExecutorService lExecutorService = Executors.newFixedThreadPool(lThreads);
+        List<Future<EdgeList>> lFutures = new ArrayList<>();
+        try {
+            for (int t=0; t<lThreads; t++) {
+                lFutures.add(lExecutorService.submit(() -> {
+                    EdgeList lEdgeList = new EdgeList();
+                    try (WikiTransaction tx = pMediaWiki.getWikiDragonDatabase().beginReadSession()) {
+                        int lBlock;
+                        while ((lBlock = lNextBlock.getAndIncrement())*(long)BLOCK_SIZE < lNodeCount) {
+                            int lEnd = Math.min(lNodeCount, (lBlock+1)*BLOCK_SIZE);
+                            for (int i=lBlock*BLOCK_SIZE; i<lEnd; i++) {
+                                for (WikiPageLink lLink:lPages[i].getWikiPageLinksOut(pTimestamp, lLinkTypes)) {
+                                    int lTarget = Arrays.binarySearch(lPageIds, lLink.getTarget().getId());
+                                    if (lTarget >= 0) {
+                                        lEdgeList.add(i, lTarget, lLink.getLinkType());
+                                    }
+                                }
+                            }
+                            int lCount = lProcessed.addAndGet(lEnd-lBlock*BLOCK_SIZE);
+                            if ((lCount / 100000) != ((lCount-(lEnd-lBlock*BLOCK_SIZE)) / 100000)) {
+                                logger.info("Building LinkGraphSnapshot: "+lCount+"/"+lNodeCount+" pages");
+                            }
+                        }
+                        tx.success();
+                    }
+                    return lEdgeList;
+                }));
+            }
+            List<EdgeList> lEdgeLists = new ArrayList<>();
+            long lEdgeCount = 0;
+            for (Future<EdgeList> lFuture:lFutures) {
+                EdgeList lEdgeList = lFuture.get();
+                lEdgeLists.add(lEdgeList);
+                lEdgeCount += lEdgeList.size();
+            }
+            if (lEdgeCount > Integer.MAX_VALUE) throw new WikiDragonException("LinkGraphSnapshot exceeds "+Integer.MAX_VALUE+" edges");
+            lResult.edgeCount = (int)lEdgeCount;
+            lResult.buildAdjacency(lEdgeLists);
+        }
+        catch (WikiDragonException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new WikiDragonException(e.getMessage(), e);
+        }
+        finally {
+            lExecutorService.shutdownNow();
+        }
+        logger.info("Building LinkGraphSnapshot of "+pMediaWiki.getDbName()+"... done: "+lResult.nodeCount+" nodes, "+lResult.edgeCount+" edges in "+(System.currentTimeMillis()-lStart)+"ms");
+        return lResult;
+    }
+
+    /**
+     * Build an in-memory snapshot from edge arrays. Pages get the ids 1..pNodeCount in namespace 0.
+     * @param pNodeCount
+     * @param pSources Source index of each edge
+     * @param pTargets Target index of each edge
+     * @param pLinkType LinkType of all edges
+     * @return LinkGraphSnapshot at WikiDragonConst.NULLDATETIME
+     */
+    static LinkGraphSnapshot fromEdges(int pNodeCount, int[] pSources, int[] pTargets, MediaWikiConst.LinkType pLinkType) {
+        LinkGraphSnapshot lResult = new LinkGraphSnapshot();
+        lResult.timestamp = WikiDragonConst.NULLDATETIME;
+        lResult.linkTypes = EnumSet.of(pLinkType);
+        long[] lPageIds = new long[pNodeCount];
+        for (int i=0; i<pNodeCount; i++) lPageIds[i] = i+1;
+        lResult.nodeCount = pNodeCount;
+        lResult.pageIds = LongBuffer.wrap(lPageIds);
+        lResult.namespaceIds = IntBuffer.wrap(new int[pNodeCount]);
+        EdgeList lEdgeList = new EdgeList();
+        for (int i=0; i<pSources.length; i++) {
+            lEdgeList.add(pSources[i], pTargets[i], pLinkType);
+        }
+        lResult.edgeCount = lEdgeList.size();
+        lResult.buildAdjacency(Collections.singletonList(lEdgeList));
+        return lResult;
+    }
+
+    /**
+     * Load the snapshot stored in pFile if it matches MediaWiki, WikiPageLink generation, timestamp and LinkTypes,
+     * otherwise build it and store it in pFile
+     * @param pFile
+     * @param pMediaWiki
+     * @param pTimestamp
+     * @param pLinkTypes
+     * @return LinkGraphSnapshot
+     * @throws WikiDragonException
+     */
+    public static LinkGraphSnapshot loadOrBuild(File pFile, MediaWiki pMediaWiki, ZonedDateTime pTimestamp, MediaWikiConst.LinkType... pLinkTypes) throws WikiDragonException {
+        try {
+            Set<MediaWikiConst.LinkType> lLinkTypes = pLinkTypes.length == 0 ? EnumSet.allOf(MediaWikiConst.LinkType.class) : EnumSet.of(pLinkTypes[0], pLinkTypes);
+            if (pFile.exists()) {
+                LinkGraphSnapshot lResult = null;
+                try {
+                    lResult = load(pFile);
+                }
+                catch (IOException e) {
+                    logger.info("LinkGraphSnapshot "+pFile.getAbsolutePath()+" cannot be loaded- rebuilding: "+e.getMessage());
+                }
+                if (lResult != null) {
+                    if ((lResult.mediaWikiNodeId == Long.parseLong(pMediaWiki.getUniqueId()))
+                            && (lResult.linkGeneration == pMediaWiki.getWikiPageLinkGeneration())
+                            && lResult.timestamp.toInstant().equals(pTimestamp.toInstant())
+                            && lResult.linkTypes.equals(lLinkTypes)) {
+                        return lResult;
+                    }
+                    lResult.close();
+                    logger.info("LinkGraphSnapshot "+pFile.getAbsolutePath()+" does not match the requested MediaWiki, link generation or time slice- rebuilding");
+                }
+            }
+            LinkGraphSnapshot lResult = build(pMediaWiki, pTimestamp, pLinkTypes);
+            lResult.write(pFile);
+            return lResult;
+        }
+        catch (IOException e) {
+            throw new WikiDragonException(e.getMessage(), e);
+        }
+    }
+
+    protected void buildAdjacency(List<EdgeList> pEdgeLists) {
+        int[] lOutOffsets = new int[nodeCount+1];
+        int[] lInOffsets = new int[nodeCount+1];
+        for (EdgeList lEdgeList:pEdgeLists) {
+            for (int i=0; i<lEdgeList.size(); i++) {
+                lOutOffsets[lEdgeList.sources.getQuick(i)+1]++;
+                lInOffsets[lEdgeList.targets.getQuick(i)+1]++;
+            }
+        }
+        for (int i=0; i<nodeCount; i++) {
+            lOutOffsets[i+1] += lOutOffsets[i];
+            lInOffsets[i+1] += lInOffsets[i];
+        }
+        int[] lOutTargets = new int[edgeCount];
+        int[] lInSources = new int[edgeCount];
+        byte[] lOutTypes = new byte[edgeCount];
+        byte[] lInTypes = new byte[edgeCount];
+        int[] lOutCursor = lOutOffsets.clone();
+        int[] lInCursor = lInOffsets.clone();
+        for (EdgeList lEdgeList:pEdgeLists) {
+            for (int i=0; i<lEdgeList.size(); i++) {
+                int lSource = lEdgeList.sources.getQuick(i);
+                int lTarget = lEdgeList.targets.getQuick(i);
+                byte lType = lEdgeList.types.getQuick(i);
+                int lOut = lOutCursor[lSource]++;
+                lOutTargets[lOut] = lTarget;
+                lOutTypes[lOut] = lType;
+                int lIn = lInCursor[lTarget]++;
+                lInSources[lIn] = lSource;
+                lInTypes[lIn] = lType;
+            }
+        }
+        outOffsets = IntBuffer.wrap(lOutOffsets);
+        inOffsets = IntBuffer.wrap(lInOffsets);
+        outTargets = new IntBuffer[]{IntBuffer.wrap(lOutTargets)};
+        inSources = new IntBuffer[]{IntBuffer.wrap(lInSources)};
+        outTypes = ByteBuffer.wrap(lOutTypes);
+        inTypes = ByteBuffer.wrap(lInTypes);
+    }
+
+    /**
+     * Map a snapshot which has been written by {@link #write(File)}
+     * @param pFile
+     * @return LinkGraphSnapshot
+     * @throws IOException
+     */
+    public static LinkGraphSnapshot load(File pFile) throws IOException {
+        LinkGraphSnapshot lResult = new LinkGraphSnapshot();
+        try (RandomAccessFile lFile = new RandomAccessFile(pFile, "r"); FileChannel lChannel = lFile.getChannel()) {
+            ByteBuffer lHeader = lChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if ((lHeader.getInt(0) != MAGIC)) throw new IOException("Not a LinkGraphSnapshot: "+pFile.getAbsolutePath());
+            if (lHeader.getInt(4) != VERSION) throw new IOException("Unsupported LinkGraphSnapshot version "+lHeader.getInt(4)+": "+pFile.getAbsolutePath());
+            lResult.nodeCount = lHeader.getInt(8);
+            lResult.edgeCount = lHeader.getInt(12);
+            lResult.timestamp = ZonedDateTime.ofInstant(Instant.ofEpochMilli(lHeader.getLong(16)), ZoneId.of("UTC"));
+            lResult.linkTypes = EnumSet.noneOf(MediaWikiConst.LinkType.class);
+            int lMask = lHeader.getInt(24);
+            for (MediaWikiConst.LinkType lLinkType:LINKTYPES) {
+                if ((lMask & (1 << lLinkType.ordinal())) != 0) lResult.linkTypes.add(lLinkType);
+            }
+            lResult.mediaWikiNodeId = lHeader.getLong(32);
+            lResult.linkGeneration = lHeader.getLong(40);
+            long n = lResult.nodeCount;
+            long m = lResult.edgeCount;
+            long lPos = HEADER_SIZE;
+            lResult.pageIds = lChannel.map(FileChannel.MapMode.READ_ONLY, lPos, n*8).asLongBuffer();
+            lPos += n*8;
+            lResult.namespaceIds = lChannel.map(FileChannel.MapMode.READ_ONLY, lPos, n*4).asIntBuffer();
+            lPos += n*4;
+            lResult.outOffsets = lChannel.map(FileChannel.MapMode.READ_ONLY, lPos, (n+1)*4).asIntBuffer();
+            lPos += (n+1)*4;
+            lResult.inOffsets = lChannel.map(FileChannel.MapMode.READ_ONLY, lPos, (n+1)*4).asIntBuffer();
+            lPos += (n+1)*4;
+            lResult.outTargets = mapInts(lChannel, lPos, m);
+            lPos += m*4;
+            lResult.inSources = mapInts(lChannel, lPos, m);
+            lPos += m*4;
+            lResult.outTypes = lChannel.map(FileChannel.MapMode.READ_ONLY, lPos, m);
+            lPos += m;
+            lResult.inTypes = lChannel.map(FileChannel.MapMode.READ_ONLY, lPos, m);
+        }
+        return lResult;
+    }
+
+    protected static IntBuffer[] mapInts(FileChannel pChannel, long pPos, long pCount) throws IOException {
+        IntBuffer[] lResult = new IntBuffer[(int)Math.max(1, (pCount+CHUNK_INTS-1)/CHUNK_INTS)];
+        for (int i=0; i<lResult.length; i++) {
+            long lCount = Math.min(CHUNK_INTS, pCount-(long)i*CHUNK_INTS);
+            lResult[i] = pChannel.map(FileChannel.MapMode.READ_ONLY, pPos+(long)i*CHUNK_INTS*4, lCount*4).asIntBuffer();
+        }
+        return lResult;
+    }
+
+    /**
+     * Write the snapshot to a file which can be mapped by {@link #load(File)}
+     * @param pFile
+     * @throws IOException
+     */
+    public void write(File pFile) throws IOException {
+        if ((pFile.getParentFile() != null) && !pFile.getParentFile().exists()) pFile.getParentFile().mkdirs();
+        try (DataOutputStream lOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pFile), 1 << 20))) {
+            int lMask = 0;
+            for (MediaWikiConst.LinkType lLinkType:linkTypes) {
+                lMask |= 1 << lLinkType.ordinal();
+            }
+            lOutput.writeInt(MAGIC);
+            lOutput.writeInt(VERSION);
+            lOutput.writeInt(nodeCount);
+            lOutput.writeInt(edgeCount);
+            lOutput.writeLong(StringUtil.zonedDateTime2Long(timestamp));
+            lOutput.writeInt(lMask);
+            lOutput.writeInt(0);
+            lOutput.writeLong(mediaWikiNodeId);
+            lOutput.writeLong(linkGeneration);
+            for (int i=0; i<nodeCount; i++) lOutput.writeLong(pageIds.get(i));
+            for (int i=0; i<nodeCount; i++) lOutput.writeInt(namespaceIds.get(i));
+            for (int i=0; i<=nodeCount; i++) lOutput.writeInt(outOffsets.get(i));
+            for (int i=0; i<=nodeCount; i++) lOutput.writeInt(inOffsets.get(i));
+            for (int i=0; i<edgeCount; i++) lOutput.writeInt(getOutTarget(i));
+            for (int i=0; i<edgeCount; i++) lOutput.writeInt(getInSource(i));
+            for (int i=0; i<edgeCount; i++) lOutput.writeByte(outTypes.get(i));
+            for (int i=0; i<edgeCount; i++) lOutput.writeByte(inTypes.get(i));
+        }
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public ZonedDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public Set<MediaWikiConst.LinkType> getLinkTypes() {
+        return linkTypes;
+    }
+
+    public long getMediaWikiNodeId() {
+        return mediaWikiNodeId;
+    }
+
+    /**
+     * @return WikiPageLink generation of the MediaWiki the snapshot has been built from
+     */
+    public long getLinkGeneration() {
+        return linkGeneration;
+    }
+
+    public long getPageId(int pIndex) {
+        return pageIds.get(pIndex);
+    }
+
+    public int getNamespaceId(int pIndex) {
+        return namespaceIds.get(pIndex);
+    }
+
+    /**
+     * Get the index of a page
+     * @param pPageId
+     * @return index or -1 if the page is not part of the snapshot
+     */
+    public int getIndex(long pPageId) {
+        int lLow = 0;
+        int lHigh = nodeCount-1;
+        while (lLow <= lHigh) {
+            int lMid = (lLow+lHigh) >>> 1;
+            long lValue = pageIds.get(lMid);
+            if (lValue < pPageId) {
+                lLow = lMid+1;
+            }
+            else if (lValue > pPageId) {
+                lHigh = lMid-1;
+            }
+            else {
+                return lMid;
+            }
+        }
+        return -1;
+    }
+
+    public int getOutDegree(int pIndex) {
+        return outOffsets.get(pIndex+1)-outOffsets.get(pIndex);
+    }
+
+    public int getInDegree(int pIndex) {
+        return inOffsets.get(pIndex+1)-inOffsets.get(pIndex);
+    }
+
+    /**
+     * @return Position of the first outgoing edge of pIndex. Edges of a node are stored contiguously up to getOutEdgeStart(pIndex+1).
+     */
+    public int getOutEdgeStart(int pIndex) {
+        return outOffsets.get(pIndex);
+    }
+
+    /**
+     * @return Position of the first incoming edge of pIndex. Edges of a node are stored contiguously up to getInEdgeStart(pIndex+1).
+     */
+    public int getInEdgeStart(int pIndex) {
+        return inOffsets.get(pIndex);
+    }
+
+    public int getOutTarget(int pEdge) {
+        return outTargets[pEdge / CHUNK_INTS].get(pEdge % CHUNK_INTS);
+    }
+
+    public int getInSource(int pEdge) {
+        return inSources[pEdge / CHUNK_INTS].get(pEdge % CHUNK_INTS);
+    }
+
+    public MediaWikiConst.LinkType getOutLinkType(int pEdge) {
+        return LINKTYPES[outTypes.get(pEdge)];
+    }
+
+    public MediaWikiConst.LinkType getInLinkType(int pEdge) {
+        return LINKTYPES[inTypes.get(pEdge)];
+    }
+
+    public int[] getOutNeighbours(int pIndex) {
+        int lStart = outOffsets.get(pIndex);
+        int[] lResult = new int[outOffsets.get(pIndex+1)-lStart];
+        for (int i=0; i<lResult.length; i++) {
+            lResult[i] = getOutTarget(lStart+i);
+        }
+        return lResult;
+    }
+
+    public int[] getInNeighbours(int pIndex) {
+        int lStart = inOffsets.get(pIndex);
+        int[] lResult = new int[inOffsets.get(pIndex+1)-lStart];
+        for (int i=0; i<lResult.length; i++) {
+            lResult[i] = getInSource(lStart+i);
+        }
+        return lResult;
+    }
+
+    /**
+     * Release the buffers. Mapped files are unmapped once the buffers have been garbage collected.
+     */
+    @Override
+    public void close() {
+        pageIds = null;
+        namespaceIds = null;
+        outOffsets = null;
+        inOffsets = null;
+        outTargets = null;
+        inSources = null;
+        outTypes = null;
+        inTypes = null;
+    }
+
+    protected static class EdgeList {
+
+        protected TIntArrayList sources = new TIntArrayList();
+        protected TIntArrayList targets = new TIntArrayList();
+        protected TByteArrayList types = new TByteArrayList();
+
+        protected void add(int pSource, int pTarget, MediaWikiConst.LinkType pLinkType) {
+            sources.add(pSource);
+            targets.add(pTarget);
+            types.add((byte)pLinkType.ordinal());
+        }
+
+        protected int size() {
+            return sources.size();
+        }
+
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.util;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * Helpers for the validity timestamps of WikiPageLink relationships. Timestamps are stored as sorted long[] of epoch
+ * milliseconds. Relationships written by older versions store ISO strings and are converted on the next update.
+ * @author Rüdiger Gleim
+ */
+public class LinkTimestampUtil {
+
+    /**
+     * Check if a link is valid at the given timestamp
+     * @param pValue Stored property value, either long[] or legacy String[]
+     * @param pTimestamp Epoch milliseconds. Long.MIN_VALUE, i.e. no snapshot, is never contained.
+     * @return true if pTimestamp is contained
+     */
+    public static boolean contains(Object pValue, long pTimestamp) {
+        if (pTimestamp == Long.MIN_VALUE) return false;
+        if (pValue instanceof long[]) {
+            return Arrays.binarySearch((long[])pValue, pTimestamp) >= 0;
+        }
+        else if (pValue instanceof String[]) {
+            // Legacy arrays hold UTC timestamps formatted by StringUtil.zonedDateTime2String
+            String lTimestamp = toLegacyString(pTimestamp);
+            for (String lString:(String[])pValue) {
+                if (lString.equals(lTimestamp)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Map a timestamp to the latest snapshot at or before it
+     * @param pSnapshots Sorted epoch milliseconds of the stored snapshots
+     * @param pTimestamp Epoch milliseconds
+     * @return Epoch milliseconds of the snapshot or Long.MIN_VALUE if there is none at or before pTimestamp
+     */
+    public static long floorSnapshot(long[] pSnapshots, long pTimestamp) {
+        int lIndex = Arrays.binarySearch(pSnapshots, pTimestamp);
+        if (lIndex >= 0) return pTimestamp;
+        lIndex = -lIndex-2;
+        return lIndex >= 0 ? pSnapshots[lIndex] : Long.MIN_VALUE;
+    }
+
+    /**
+     * @param pTimestamp Epoch milliseconds
+     * @return Timestamp in the form stored in legacy String[] arrays
+     */
+    public static String toLegacyString(long pTimestamp) {
+        return StringUtil.zonedDateTime2String(Instant.ofEpochMilli(pTimestamp).atZone(ZoneId.of("UTC")));
+    }
+
+    /**
+     * Convert a stored property value into a sorted long[]
+     * @param pValue Stored property value, either long[], legacy String[] or null
+     * @return sorted long[], never null
+     */
+    public static long[] toLongArray(Object pValue) {
+        if (pValue instanceof long[]) {
+            return (long[])pValue;
+        }
+        else if (pValue instanceof String[]) {
+            String[] lStrings = (String[])pValue;
+            long[] lResult = new long[lStrings.length];
+            for (int i=0; i<lStrings.length; i++) {
+                lResult[i] = StringUtil.zonedDateTime2Long(StringUtil.string2ZonedDateTime(lStrings[i]));
+            }
+            Arrays.sort(lResult);
+            return lResult;
+        }
+        else {
+            return new long[0];
+        }
+    }
+
+    /**
+     * Insert a timestamp into a sorted array
+     * @param pTimestamps
+     * @param pTimestamp
+     * @return pTimestamps itself if it already contains pTimestamp, a new sorted array otherwise
+     */
+    public static long[] insert(long[] pTimestamps, long pTimestamp) {
+        int lIndex = Arrays.binarySearch(pTimestamps, pTimestamp);
+        if (lIndex >= 0) return pTimestamps;
+        lIndex = -lIndex-1;
+        long[] lResult = new long[pTimestamps.length+1];
+        System.arraycopy(pTimestamps, 0, lResult, 0, lIndex);
+        lResult[lIndex] = pTimestamp;
+        System.arraycopy(pTimestamps, lIndex, lResult, lIndex+1, pTimestamps.length-lIndex);
+        return lResult;
+    }
+
+}
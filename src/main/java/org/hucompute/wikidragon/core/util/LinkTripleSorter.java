@@ -0,0 +1,348 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+
+package org.hucompute.wikidragon.core.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * External sort of (source, target, type) link triples in bounded memory. Triples are collected in a fixed buffer,
+ * which is sorted by source, target and type and spilled to a run file once it is full. Reading merges the runs and
+ * drops duplicates, so a link which occurs several times in the input is returned once.
+ * Node ids must be smaller than 2^56 since target and type share one long, which is compared unsigned.
+ * @author Rüdiger Gleim
+ */
+public class LinkTripleSorter implements AutoCloseable {
+
+    private static Logger logger = LogManager.getLogger(LinkTripleSorter.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 22;
+    protected static final int INSERTION_SORT_THRESHOLD = 16;
+    protected static final int RUN_BUFFER_BYTES = 1 << 16;
+
+    protected File directory;
+    protected long[] buffer;
+    protected int size;
+    protected List<File> runs = new ArrayList<>();
+    protected long count;
+    protected boolean finished;
+
+    /**
+     * @param pDirectory Directory for the run files. It is created if necessary.
+     */
+    public LinkTripleSorter(File pDirectory) {
+        this(pDirectory, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param pDirectory Directory for the run files. It is created if necessary.
+     * @param pBufferSize Number of triples kept in memory before a run is spilled
+     */
+    public LinkTripleSorter(File pDirectory, int pBufferSize) {
+        directory = pDirectory;
+        buffer = new long[Math.max(1, pBufferSize)*2];
+    }
+
+    public void add(long pSource, long pTarget, int pType) throws IOException {
+        if (finished) throw new IllegalStateException("Sorter has already been read");
+        if (size*2 == buffer.length) spill();
+        buffer[size*2] = pSource;
+        buffer[size*2+1] = (pTarget << 8) | (pType & 0xFF);
+        size++;
+        count++;
+    }
+
+    /**
+     * @return Number of triples added, including duplicates
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Finish adding and get a cursor over the sorted and deduplicated triples. Can be called only once.
+     * @return Cursor
+     * @throws IOException
+     */
+    public Cursor sort() throws IOException {
+        if (finished) throw new IllegalStateException("Sorter has already been read");
+        finished = true;
+        if (runs.isEmpty()) {
+            sortBuffer();
+            return new BufferCursor();
+        }
+        if (size > 0) spill();
+        buffer = null;
+        logger.info("Merging "+runs.size()+" runs of "+count+" link triples");
+        return new MergeCursor();
+    }
+
+    /**
+     * Delete all run files
+     */
+    @Override
+    public void close() {
+        buffer = null;
+        for (File lFile:runs) {
+            if (lFile.exists() && !lFile.delete()) {
+                logger.warn("Could not delete "+lFile.getAbsolutePath());
+            }
+        }
+        runs.clear();
+    }
+
+    protected void spill() throws IOException {
+        sortBuffer();
+        if (!directory.exists()) directory.mkdirs();
+        File lFile = File.createTempFile("links_", ".run", directory);
+        runs.add(lFile);
+        try (DataOutputStream lOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(lFile), RUN_BUFFER_BYTES))) {
+            long lPrevSource = -1;
+            long lPrevTargetType = -1;
+            for (int i=0; i<size; i++) {
+                long lSource = buffer[i*2];
+                long lTargetType = buffer[i*2+1];
+                if ((i == 0) || (lSource != lPrevSource) || (lTargetType != lPrevTargetType)) {
+                    lOutput.writeLong(lSource);
+                    lOutput.writeLong(lTargetType);
+                }
+                lPrevSource = lSource;
+                lPrevTargetType = lTargetType;
+            }
+        }
+        logger.debug("Spilled run "+runs.size()+" with "+size+" triples");
+        size = 0;
+    }
+
+    protected void sortBuffer() {
+        sort(0, size-1);
+    }
+
+    protected void sort(int pFrom, int pTo) {
+        // Quicksort on pairs, recursing into the smaller partition only
+        while (pTo-pFrom > INSERTION_SORT_THRESHOLD) {
+            int lMid = (pFrom+pTo) >>> 1;
+            if (compare(lMid, pFrom) < 0) swap(lMid, pFrom);
+            if (compare(pTo, pFrom) < 0) swap(pTo, pFrom);
+            if (compare(pTo, lMid) < 0) swap(pTo, lMid);
+            long lPivotSource = buffer[lMid*2];
+            long lPivotTargetType = buffer[lMid*2+1];
+            int i = pFrom;
+            int j = pTo;
+            while (i <= j) {
+                while (compare(i, lPivotSource, lPivotTargetType) < 0) i++;
+                while (compare(j, lPivotSource, lPivotTargetType) > 0) j--;
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (j-pFrom < pTo-i) {
+                sort(pFrom, j);
+                pFrom = i;
+            }
+            else {
+                sort(i, pTo);
+                pTo = j;
+            }
+        }
+        for (int i=pFrom+1; i<=pTo; i++) {
+            for (int j=i; (j > pFrom) && (compare(j, j-1) < 0); j--) {
+                swap(j, j-1);
+            }
+        }
+    }
+
+    protected int compare(int pA, int pB) {
+        return compare(pA, buffer[pB*2], buffer[pB*2+1]);
+    }
+
+    protected int compare(int pA, long pSource, long pTargetType) {
+        int lResult = Long.compare(buffer[pA*2], pSource);
+        return lResult != 0 ? lResult : Long.compareUnsigned(buffer[pA*2+1], pTargetType);
+    }
+
+    protected void swap(int pA, int pB) {
+        long lSource = buffer[pA*2];
+        long lTargetType = buffer[pA*2+1];
+        buffer[pA*2] = buffer[pB*2];
+        buffer[pA*2+1] = buffer[pB*2+1];
+        buffer[pB*2] = lSource;
+        buffer[pB*2+1] = lTargetType;
+    }
+
+    /**
+     * Iterates triples in ascending order of source, target and type
+     */
+    public abstract static class Cursor implements AutoCloseable {
+
+        protected long source;
+        protected long targetType;
+
+        /**
+         * Move to the next distinct triple
+         * @return false if there are no more triples
+         * @throws IOException
+         */
+        public abstract boolean next() throws IOException;
+
+        public long getSource() {
+            return source;
+        }
+
+        public long getTarget() {
+            return targetType >>> 8;
+        }
+
+        public int getType() {
+            return (int)(targetType & 0xFF);
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    protected class BufferCursor extends Cursor {
+
+        protected int position = 0;
+
+        @Override
+        public boolean next() {
+            while (position < size) {
+                long lSource = buffer[position*2];
+                long lTargetType = buffer[position*2+1];
+                position++;
+                if ((position == 1) || (lSource != source) || (lTargetType != targetType)) {
+                    source = lSource;
+                    targetType = lTargetType;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    protected class MergeCursor extends Cursor {
+
+        protected PriorityQueue<RunReader> queue = new PriorityQueue<>();
+        protected boolean first = true;
+
+        protected MergeCursor() throws IOException {
+            try {
+                for (File lFile:runs) {
+                    RunReader lReader = new RunReader(lFile);
+                    if (lReader.next()) {
+                        queue.add(lReader);
+                    }
+                    else {
+                        lReader.close();
+                    }
+                }
+            }
+            catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            while (!queue.isEmpty()) {
+                RunReader lReader = queue.poll();
+                long lSource = lReader.source;
+                long lTargetType = lReader.targetType;
+                if (lReader.next()) {
+                    queue.add(lReader);
+                }
+                else {
+                    lReader.close();
+                }
+                if (first || (lSource != source) || (lTargetType != targetType)) {
+                    first = false;
+                    source = lSource;
+                    targetType = lTargetType;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() {
+            for (RunReader lReader:queue) {
+                lReader.close();
+            }
+            queue.clear();
+        }
+
+    }
+
+    protected static class RunReader implements Comparable<RunReader> {
+
+        protected DataInputStream input;
+        protected long remaining;
+        protected long source;
+        protected long targetType;
+
+        protected RunReader(File pFile) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(pFile), RUN_BUFFER_BYTES));
+            remaining = pFile.length() / 16;
+        }
+
+        protected boolean next() throws IOException {
+            if (remaining == 0) return false;
+            remaining--;
+            source = input.readLong();
+            targetType = input.readLong();
+            return true;
+        }
+
+        protected void close() {
+            try {
+                input.close();
+            }
+            catch (IOException e) {
+                logger.warn(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public int compareTo(RunReader pOther) {
+            int lResult = Long.compare(source, pOther.source);
+            return lResult != 0 ? lResult : Long.compareUnsigned(targetType, pOther.targetType);
+        }
+
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.util;
+
+import org.hucompute.wikidragon.core.model.MediaWikiConst;
+import org.hucompute.wikidragon.core.model.WikiDragonConst;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Mapping between the LinkTypes of the API and the RelTypes of the WikiPageLink relationships in the stores.
+ * @author Rüdiger Gleim
+ */
+public class LinkTypeUtil {
+
+    /**
+     * Map LinkTypes to the corresponding RelTypes. No LinkTypes means all of them.
+     * @param pLinkTypes
+     * @return RelTypes
+     */
+    public static Set<WikiDragonConst.RelTypes> getRelTypes(MediaWikiConst.LinkType... pLinkTypes) {
+        if (pLinkTypes.length == 0) pLinkTypes = MediaWikiConst.LinkType.values();
+        Set<WikiDragonConst.RelTypes> lResult = EnumSet.noneOf(WikiDragonConst.RelTypes.class);
+        for (MediaWikiConst.LinkType lLinkType:pLinkTypes) {
+            lResult.add(getRelType(lLinkType));
+        }
+        return lResult;
+    }
+
+    public static WikiDragonConst.RelTypes getRelType(MediaWikiConst.LinkType pLinkType) {
+        switch (pLinkType) {
+            case ARTICLE: return WikiDragonConst.RelTypes.WIKIPAGELINK_ARTICLE;
+            case CATEGORIZATION: return WikiDragonConst.RelTypes.WIKIPAGELINK_CATEGORIZATION;
+            case REDIRECT: return WikiDragonConst.RelTypes.WIKIPAGELINK_REDIRECT;
+            default: throw new IllegalArgumentException("Unsupported LinkType: "+pLinkType);
+        }
+    }
+
+    /**
+     * @param pRelationshipTypeName
+     * @return LinkType or null if the relationship is no WikiPageLink
+     */
+    public static MediaWikiConst.LinkType getLinkType(String pRelationshipTypeName) {
+        switch (WikiDragonConst.RelTypes.valueOf(pRelationshipTypeName)) {
+            case WIKIPAGELINK_ARTICLE: return MediaWikiConst.LinkType.ARTICLE;
+            case WIKIPAGELINK_CATEGORIZATION: return MediaWikiConst.LinkType.CATEGORIZATION;
+            case WIKIPAGELINK_REDIRECT: return MediaWikiConst.LinkType.REDIRECT;
+            default: return null;
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+
+package org.hucompute.wikidragon.core.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.*;
+
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe cache from (namespace, title) to page node id, shared by link extraction and parsing of a MediaWiki.
+ * Titles which do not resolve to a page are cached as well, so red links hit the store only once. Negative entries
+ * are invalidated as a whole when pages are created. The cache is split into segments, each of which is an LRU map
+ * guarded by its own lock. Besides the node id the timestamp of the first revision is kept, so checking whether a
+ * page existed at some point in time needs no further lookup. Only if a page seems not to have existed yet, its first
+ * revision is read again, as revisions may have been added in the meantime.
+ * @author Rüdiger Gleim
+ */
+public class PageTitleCache {
+
+    private static Logger logger = LogManager.getLogger(PageTitleCache.class);
+
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+    protected static final int SEGMENTS = 64;
+
+    protected MediaWiki mediaWiki;
+    protected Segment[] segments;
+    // Negative entries of earlier generations are outdated
+    protected AtomicLong generation = new AtomicLong();
+
+    protected AtomicLong hits = new AtomicLong();
+    protected AtomicLong negativeHits = new AtomicLong();
+    protected AtomicLong misses = new AtomicLong();
+
+    public PageTitleCache(MediaWiki pMediaWiki) {
+        this(pMediaWiki, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param pMediaWiki
+     * @param pCapacity Maximum number of entries, positive and negative
+     */
+    public PageTitleCache(MediaWiki pMediaWiki, int pCapacity) {
+        mediaWiki = pMediaWiki;
+        segments = new Segment[SEGMENTS];
+        for (int i=0; i<SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, pCapacity/SEGMENTS));
+        }
+    }
+
+    /**
+     * @param pNamespaceID
+     * @param pTitle
+     * @return Page or null if no page with that title exists
+     */
+    public Page getPage(int pNamespaceID, String pTitle) {
+        Entry lEntry = getEntry(pNamespaceID, pTitle);
+        return lEntry.nodeId == WikiDragonConst.NULLNODEID ? null : getPage(lEntry);
+    }
+
+    /**
+     * @param pNamespaceID
+     * @param pTitle
+     * @param pTimestamp
+     * @return Page or null if no page with that title existed at that point in time
+     */
+    public Page getPage(int pNamespaceID, String pTitle, ZonedDateTime pTimestamp) {
+        Entry lEntry = getEntry(pNamespaceID, pTitle);
+        if (lEntry.nodeId == WikiDragonConst.NULLNODEID) return null;
+        long lMillis = pTimestamp.toInstant().toEpochMilli();
+        if (lEntry.firstRevisionMillis > lMillis) {
+            // Revisions may have been added since the entry was cached- only an earlier first revision can change the answer
+            lEntry = refreshFirstRevision(pNamespaceID, pTitle, lEntry);
+            if ((lEntry == null) || (lEntry.firstRevisionMillis > lMillis)) return null;
+        }
+        return getPage(lEntry);
+    }
+
+    /**
+     * Re-read the first revision of a cached page and update its entry
+     * @return Updated entry or null if the page cannot be read
+     */
+    protected Entry refreshFirstRevision(int pNamespaceID, String pTitle, Entry pEntry) {
+        Page lPage = getPage(pEntry);
+        if (lPage == null) return null;
+        long lFirstRevisionMillis = getFirstRevisionMillis(lPage);
+        if (lFirstRevisionMillis == pEntry.firstRevisionMillis) return pEntry;
+        Entry lResult = new Entry(pEntry.nodeId, lFirstRevisionMillis, pEntry.generation);
+        Key lKey = new Key(pNamespaceID, pTitle);
+        Segment lSegment = segments[(lKey.hashCode() & 0x7FFFFFFF) % SEGMENTS];
+        synchronized (lSegment) {
+            lSegment.put(lKey, lResult);
+        }
+        return lResult;
+    }
+
+    protected static long getFirstRevisionMillis(Page pPage) {
+        Revision lFirstRevision = pPage.getFirstRevision();
+        return lFirstRevision == null ? Long.MAX_VALUE : lFirstRevision.getTimestamp().toInstant().toEpochMilli();
+    }
+
+    protected Page getPage(Entry pEntry) {
+        try {
+            return (Page)mediaWiki.getWikiDragonDatabase().getWikiObjectFactory().getWikiObject(Long.toString(pEntry.nodeId));
+        }
+        catch (WikiDragonException e) {
+            logger.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    protected Entry getEntry(int pNamespaceID, String pTitle) {
+        Key lKey = new Key(pNamespaceID, pTitle);
+        Segment lSegment = segments[(lKey.hashCode() & 0x7FFFFFFF) % SEGMENTS];
+        long lGeneration = generation.get();
+        Entry lEntry;
+        synchronized (lSegment) {
+            lEntry = lSegment.get(lKey);
+        }
+        if ((lEntry != null) && ((lEntry.nodeId != WikiDragonConst.NULLNODEID) || (lEntry.generation == lGeneration))) {
+            if (lEntry.nodeId == WikiDragonConst.NULLNODEID) {
+                negativeHits.incrementAndGet();
+            }
+            else {
+                hits.incrementAndGet();
+            }
+            return lEntry;
+        }
+        misses.incrementAndGet();
+        // Resolve outside the lock- concurrent misses on the same title do redundant but harmless work
+        Page lPage = mediaWiki.getPage(pNamespaceID, pTitle);
+        if (lPage == null) {
+            lEntry = new Entry(WikiDragonConst.NULLNODEID, Long.MAX_VALUE, lGeneration);
+        }
+        else {
+            lEntry = new Entry(Long.parseLong(lPage.getUniqueId()), getFirstRevisionMillis(lPage), lGeneration);
+        }
+        synchronized (lSegment) {
+            lSegment.put(lKey, lEntry);
+        }
+        return lEntry;
+    }
+
+    /**
+     * Forget a title, e.g. because the page has been renamed or deleted
+     * @param pNamespaceID
+     * @param pTitle
+     */
+    public void remove(int pNamespaceID, String pTitle) {
+        Key lKey = new Key(pNamespaceID, pTitle);
+        Segment lSegment = segments[(lKey.hashCode() & 0x7FFFFFFF) % SEGMENTS];
+        synchronized (lSegment) {
+            lSegment.remove(lKey);
+        }
+    }
+
+    /**
+     * Outdate all negative entries, e.g. because pages have been created
+     */
+    public void invalidateNegatives() {
+        generation.incrementAndGet();
+    }
+
+    public void clear() {
+        for (Segment lSegment:segments) {
+            synchronized (lSegment) {
+                lSegment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int lResult = 0;
+        for (Segment lSegment:segments) {
+            synchronized (lSegment) {
+                lResult += lSegment.size();
+            }
+        }
+        return lResult;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return Share of lookups served from the cache, positive or negative
+     */
+    public double getHitRate() {
+        long lHits = hits.get()+negativeHits.get();
+        long lTotal = lHits+misses.get();
+        return lTotal == 0 ? 0 : lHits / (double)lTotal;
+    }
+
+    public void logStatistics() {
+        logger.info("PageTitleCache: "+size()+" entries, "+hits.get()+" hits, "+negativeHits.get()+" negative hits, "+misses.get()+" misses, hit rate "+String.format("%.3f", getHitRate()));
+    }
+
+    protected static class Segment extends LinkedHashMap<Key, Entry> {
+
+        private static final long serialVersionUID = 1L;
+
+        protected int capacity;
+
+        protected Segment(int pCapacity) {
+            super(16, 0.75f, true);
+            capacity = pCapacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> pEldest) {
+            return size() > capacity;
+        }
+
+    }
+
+    protected static final class Key {
+
+        protected final int namespaceID;
+        protected final String title;
+
+        protected Key(int pNamespaceID, String pTitle) {
+            namespaceID = pNamespaceID;
+            title = pTitle;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31*title.hashCode()+namespaceID;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key lOther = (Key)obj;
+            return (lOther.namespaceID == namespaceID) && lOther.title.equals(title);
+        }
+
+    }
+
+    protected static final class Entry {
+
+        protected final long nodeId;
+        protected final long firstRevisionMillis;
+        protected final long generation;
+
+        protected Entry(long pNodeId, long pFirstRevisionMillis, long pGeneration) {
+            nodeId = pNodeId;
+            firstRevisionMillis = pFirstRevisionMillis;
+            generation = pGeneration;
+        }
+
+    }
+
+}
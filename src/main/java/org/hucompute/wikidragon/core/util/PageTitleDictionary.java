@@ -0,0 +1,533 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.util;
+
+import gnu.trove.list.array.TLongArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hucompute.wikidragon.core.model.WikiDragonConst;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Sorted, read-only dictionary from (namespace, normalized title) to page node id.
+ * Keys are stored front-coded in blocks of {@link #DEFAULT_BLOCK_SIZE} entries within a memory-mapped file,
+ * so lookups are a binary search over the block heads followed by a short linear scan of one block.
+ * The dictionary does not normalize titles- callers have to pass titles the way they are stored on the pages.
+ * Lookups may run concurrently. Once the dictionary has been closed they throw an IllegalStateException.
+ * @author Rüdiger Gleim
+ */
+public class PageTitleDictionary implements AutoCloseable {
+
+    private static Logger logger = LogManager.getLogger(PageTitleDictionary.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 16;
+
+    protected static final int MAGIC = 0x57445444; // WDTD
+    protected static final int VERSION = 1;
+    protected static final int HEADER_SIZE = 32;
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public interface EntryVisitor {
+
+        /**
+         * @return false to stop the scan
+         */
+        public boolean visit(int pNamespaceID, String pTitle, long pNodeID);
+
+    }
+
+    protected File file;
+    protected MappedByteBuffer buffer;
+    protected long entryCount;
+    protected int blockSize;
+    protected int blockCount;
+    protected int indexOffset;
+    protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    protected PageTitleDictionary(File pFile) throws IOException {
+        file = pFile;
+        try (RandomAccessFile lFile = new RandomAccessFile(pFile, "r"); FileChannel lChannel = lFile.getChannel()) {
+            if (lChannel.size() > Integer.MAX_VALUE) throw new IOException("PageTitleDictionary exceeds 2GB: "+pFile.getAbsolutePath());
+            buffer = lChannel.map(FileChannel.MapMode.READ_ONLY, 0, lChannel.size());
+        }
+        if ((buffer.capacity() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC)) throw new IOException("Not a PageTitleDictionary: "+pFile.getAbsolutePath());
+        if (buffer.getInt(4) != VERSION) throw new IOException("Unsupported PageTitleDictionary version "+buffer.getInt(4)+": "+pFile.getAbsolutePath());
+        entryCount = buffer.getLong(8);
+        blockSize = buffer.getInt(16);
+        blockCount = buffer.getInt(20);
+        indexOffset = (int)buffer.getLong(24);
+    }
+
+    public static PageTitleDictionary open(File pFile) throws IOException {
+        return new PageTitleDictionary(pFile);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long size() {
+        return entryCount;
+    }
+
+    /**
+     * Get node id of the page with the given namespace and title
+     * @param pNamespaceID
+     * @param pTitle
+     * @return node id or WikiDragonConst.NULLNODEID if the title is unknown
+     */
+    public long get(int pNamespaceID, String pTitle) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            if (blockCount == 0) return WikiDragonConst.NULLNODEID;
+            byte[] lKey = encodeKey(pNamespaceID, pTitle);
+            int lBlock = findBlock(lKey);
+            if (lBlock < 0) return WikiDragonConst.NULLNODEID;
+            Cursor lCursor = new Cursor(lBlock);
+            while (lCursor.next()) {
+                int lCompare = compare(lCursor.key, lCursor.keyLength, lKey, lKey.length);
+                if (lCompare == 0) return lCursor.nodeID;
+                if (lCompare > 0) break;
+            }
+            return WikiDragonConst.NULLNODEID;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(int pNamespaceID, String pTitle) {
+        return get(pNamespaceID, pTitle) != WikiDragonConst.NULLNODEID;
+    }
+
+    /**
+     * Visit all entries of a namespace whose title starts with the given prefix in sort order
+     * @param pNamespaceID
+     * @param pTitlePrefix
+     * @param pVisitor
+     */
+    public void scanPrefix(int pNamespaceID, String pTitlePrefix, EntryVisitor pVisitor) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            if (blockCount == 0) return;
+            byte[] lPrefix = encodeKey(pNamespaceID, pTitlePrefix == null ? "" : pTitlePrefix);
+            int lBlock = Math.max(findBlock(lPrefix), 0);
+            Cursor lCursor = new Cursor(lBlock);
+            while (lCursor.next()) {
+                if (startsWith(lCursor.key, lCursor.keyLength, lPrefix)) {
+                    if (!pVisitor.visit(pNamespaceID, new String(lCursor.key, 4, lCursor.keyLength-4, UTF8), lCursor.nodeID)) return;
+                }
+                else if (compare(lCursor.key, lCursor.keyLength, lPrefix, lPrefix.length) > 0) {
+                    return;
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visit all entries in sort order
+     * @param pVisitor
+     */
+    public void scan(EntryVisitor pVisitor) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            if (blockCount == 0) return;
+            Cursor lCursor = new Cursor(0);
+            while (lCursor.next()) {
+                int lNS = (((lCursor.key[0] & 0xFF) << 24) | ((lCursor.key[1] & 0xFF) << 16) | ((lCursor.key[2] & 0xFF) << 8) | (lCursor.key[3] & 0xFF)) ^ 0x80000000;
+                if (!pVisitor.visit(lNS, new String(lCursor.key, 4, lCursor.keyLength-4, UTF8), lCursor.nodeID)) return;
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public TLongArrayList getPrefixNodeIDs(int pNamespaceID, String pTitlePrefix) {
+        TLongArrayList lResult = new TLongArrayList();
+        scanPrefix(pNamespaceID, pTitlePrefix, (n, t, id) -> lResult.add(id));
+        return lResult;
+    }
+
+    public boolean isClosed() {
+        lock.readLock().lock();
+        try {
+            return buffer == null;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Unmap the file. Waits for running lookups and scans to finish. The file may be deleted afterwards.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            IOUtil.unmap(buffer);
+            buffer = null;
+            blockCount = 0;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    protected void checkOpen() {
+        if (buffer == null) throw new IllegalStateException("PageTitleDictionary has been closed: "+file.getAbsolutePath());
+    }
+
+    /**
+     * @return index of the last block whose first key is less or equal than pKey or -1
+     */
+    protected int findBlock(byte[] pKey) {
+        int lMin = 0;
+        int lMax = blockCount-1;
+        int lResult = -1;
+        byte[] lHead = new byte[256];
+        while (lMin <= lMax) {
+            int lMid = (lMin+lMax) >>> 1;
+            int lPos = (int)buffer.getLong(indexOffset+lMid*8);
+            int[] lPosRef = new int[]{lPos};
+            readVarInt(lPosRef); // shared prefix, always 0 for a block head
+            int lLength = readVarInt(lPosRef);
+            if (lHead.length < lLength) lHead = new byte[lLength];
+            for (int i=0; i<lLength; i++) {
+                lHead[i] = buffer.get(lPosRef[0]+i);
+            }
+            if (compare(lHead, lLength, pKey, pKey.length) <= 0) {
+                lResult = lMid;
+                lMin = lMid+1;
+            }
+            else {
+                lMax = lMid-1;
+            }
+        }
+        return lResult;
+    }
+
+    protected int readVarInt(int[] pPos) {
+        int lResult = 0;
+        int lShift = 0;
+        byte b;
+        do {
+            b = buffer.get(pPos[0]++);
+            lResult |= (b & 0x7F) << lShift;
+            lShift += 7;
+        } while ((b & 0x80) != 0);
+        return lResult;
+    }
+
+    protected long readVarLong(int[] pPos) {
+        long lResult = 0;
+        int lShift = 0;
+        byte b;
+        do {
+            b = buffer.get(pPos[0]++);
+            lResult |= (long)(b & 0x7F) << lShift;
+            lShift += 7;
+        } while ((b & 0x80) != 0);
+        return lResult;
+    }
+
+    /**
+     * Sequential reader starting at a block head. Not shared between threads.
+     */
+    protected class Cursor {
+
+        protected int[] pos;
+        protected long remaining;
+        protected byte[] key = new byte[256];
+        protected int keyLength;
+        protected long nodeID;
+
+        protected Cursor(int pBlock) {
+            pos = new int[]{(int)buffer.getLong(indexOffset+pBlock*8)};
+            remaining = entryCount-(long)pBlock*blockSize;
+        }
+
+        protected boolean next() {
+            if (remaining <= 0) return false;
+            remaining--;
+            int lShared = readVarInt(pos);
+            int lSuffix = readVarInt(pos);
+            keyLength = lShared+lSuffix;
+            if (key.length < keyLength) key = Arrays.copyOf(key, keyLength*2);
+            for (int i=0; i<lSuffix; i++) {
+                key[lShared+i] = buffer.get(pos[0]+i);
+            }
+            pos[0] += lSuffix;
+            nodeID = readVarLong(pos);
+            return true;
+        }
+    }
+
+    protected static byte[] encodeKey(int pNamespaceID, String pTitle) {
+        byte[] lTitle = pTitle.getBytes(UTF8);
+        byte[] lResult = new byte[lTitle.length+4];
+        int lNS = pNamespaceID ^ 0x80000000; // negative namespaces sort first
+        lResult[0] = (byte)(lNS >>> 24);
+        lResult[1] = (byte)(lNS >>> 16);
+        lResult[2] = (byte)(lNS >>> 8);
+        lResult[3] = (byte)lNS;
+        System.arraycopy(lTitle, 0, lResult, 4, lTitle.length);
+        return lResult;
+    }
+
+    protected static int compare(byte[] pA, int pALength, byte[] pB, int pBLength) {
+        int lLength = Math.min(pALength, pBLength);
+        for (int i=0; i<lLength; i++) {
+            int lCompare = (pA[i] & 0xFF) - (pB[i] & 0xFF);
+            if (lCompare != 0) return lCompare;
+        }
+        return pALength - pBLength;
+    }
+
+    protected static boolean startsWith(byte[] pKey, int pKeyLength, byte[] pPrefix) {
+        if (pKeyLength < pPrefix.length) return false;
+        for (int i=0; i<pPrefix.length; i++) {
+            if (pKey[i] != pPrefix[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Collects entries in a compact byte arena and writes them sorted and front-coded to a file.
+     * Duplicate keys are dropped (the first one wins).
+     */
+    public static class Builder {
+
+        protected byte[] arena = new byte[1 << 20];
+        protected int arenaSize = 0;
+        protected int[] offsets = new int[1 << 16];
+        protected long[] nodeIDs = new long[1 << 16];
+        protected int size = 0;
+        protected int blockSize;
+
+        public Builder() {
+            this(DEFAULT_BLOCK_SIZE);
+        }
+
+        public Builder(int pBlockSize) {
+            blockSize = pBlockSize;
+        }
+
+        public void add(int pNamespaceID, String pTitle, long pNodeID) {
+            byte[] lKey = encodeKey(pNamespaceID, pTitle);
+            if (arenaSize+lKey.length+5 > arena.length) {
+                long lNewLength = Math.max((long)arena.length*2, (long)arenaSize+lKey.length+5);
+                if (lNewLength > Integer.MAX_VALUE-8) throw new IllegalStateException("PageTitleDictionary arena exceeds 2GB");
+                arena = Arrays.copyOf(arena, (int)lNewLength);
+            }
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size*2);
+                nodeIDs = Arrays.copyOf(nodeIDs, size*2);
+            }
+            offsets[size] = arenaSize;
+            nodeIDs[size] = pNodeID;
+            size++;
+            arenaSize = writeVarInt(arena, arenaSize, lKey.length);
+            System.arraycopy(lKey, 0, arena, arenaSize, lKey.length);
+            arenaSize += lKey.length;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public PageTitleDictionary build(File pFile) throws IOException {
+            int[] lOrder = new int[size];
+            for (int i=0; i<size; i++) lOrder[i] = i;
+            sort(lOrder, 0, size-1);
+            File lTmpFile = new File(pFile.getAbsolutePath()+".tmp");
+            if (pFile.getParentFile() != null) pFile.getParentFile().mkdirs();
+            long lEntryCount = 0;
+            TLongArrayList lBlockOffsets = new TLongArrayList();
+            try (DataOutputStream lOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(lTmpFile), 1 << 16))) {
+                lOutput.writeInt(MAGIC);
+                lOutput.writeInt(VERSION);
+                lOutput.writeLong(0); // entry count, patched below
+                lOutput.writeInt(blockSize);
+                lOutput.writeInt(0); // block count, patched below
+                lOutput.writeLong(0); // index offset, patched below
+                long lOffset = HEADER_SIZE;
+                byte[] lScratch = new byte[16];
+                int lPrevEntry = -1;
+                for (int k=0; k<size; k++) {
+                    int lEntry = lOrder[k];
+                    if ((lPrevEntry >= 0) && (compareEntries(lPrevEntry, lEntry) == 0)) {
+                        logger.warn("Duplicate title in PageTitleDictionary, keeping node "+nodeIDs[lPrevEntry]+", dropping node "+nodeIDs[lEntry]);
+                        continue;
+                    }
+                    int lShared = 0;
+                    if (lEntryCount % blockSize == 0) {
+                        lBlockOffsets.add(lOffset);
+                    }
+                    else {
+                        lShared = sharedPrefix(lPrevEntry, lEntry);
+                    }
+                    int lKeyStart = keyStart(lEntry);
+                    int lKeyLength = keyLength(lEntry);
+                    int lScratchLength = writeVarInt(lScratch, 0, lShared);
+                    lScratchLength = writeVarInt(lScratch, lScratchLength, lKeyLength-lShared);
+                    lOutput.write(lScratch, 0, lScratchLength);
+                    lOutput.write(arena, lKeyStart+lShared, lKeyLength-lShared);
+                    lOffset += lScratchLength+lKeyLength-lShared;
+                    lScratchLength = writeVarLong(lScratch, 0, nodeIDs[lEntry]);
+                    lOutput.write(lScratch, 0, lScratchLength);
+                    lOffset += lScratchLength;
+                    lEntryCount++;
+                    lPrevEntry = lEntry;
+                }
+                for (int i=0; i<lBlockOffsets.size(); i++) {
+                    lOutput.writeLong(lBlockOffsets.get(i));
+                }
+                lOutput.flush();
+                if (lOffset > Integer.MAX_VALUE) throw new IOException("PageTitleDictionary exceeds 2GB");
+                try (RandomAccessFile lFile = new RandomAccessFile(lTmpFile, "rw")) {
+                    lFile.seek(8);
+                    lFile.writeLong(lEntryCount);
+                    lFile.seek(20);
+                    lFile.writeInt(lBlockOffsets.size());
+                    lFile.writeLong(lOffset);
+                }
+            }
+            if (pFile.exists() && !pFile.delete()) throw new IOException("Could not replace "+pFile.getAbsolutePath());
+            if (!lTmpFile.renameTo(pFile)) throw new IOException("Could not rename "+lTmpFile.getAbsolutePath());
+            logger.info("PageTitleDictionary written: "+lEntryCount+" entries, "+pFile.length()+" bytes");
+            return open(pFile);
+        }
+
+        protected int keyLength(int pEntry) {
+            int lResult = 0;
+            int lShift = 0;
+            int lPos = offsets[pEntry];
+            byte b;
+            do {
+                b = arena[lPos++];
+                lResult |= (b & 0x7F) << lShift;
+                lShift += 7;
+            } while ((b & 0x80) != 0);
+            return lResult;
+        }
+
+        protected int keyStart(int pEntry) {
+            int lPos = offsets[pEntry];
+            while ((arena[lPos] & 0x80) != 0) lPos++;
+            return lPos+1;
+        }
+
+        protected int compareEntries(int pA, int pB) {
+            int lAStart = keyStart(pA);
+            int lBStart = keyStart(pB);
+            int lALength = keyLength(pA);
+            int lBLength = keyLength(pB);
+            int lLength = Math.min(lALength, lBLength);
+            for (int i=0; i<lLength; i++) {
+                int lCompare = (arena[lAStart+i] & 0xFF) - (arena[lBStart+i] & 0xFF);
+                if (lCompare != 0) return lCompare;
+            }
+            return lALength - lBLength;
+        }
+
+        protected int sharedPrefix(int pA, int pB) {
+            int lAStart = keyStart(pA);
+            int lBStart = keyStart(pB);
+            int lLength = Math.min(keyLength(pA), keyLength(pB));
+            int i = 0;
+            while ((i < lLength) && (arena[lAStart+i] == arena[lBStart+i])) i++;
+            return i;
+        }
+
+        protected void sort(int[] pOrder, int pLow, int pHigh) {
+            while (pLow < pHigh) {
+                if (pHigh-pLow < 16) {
+                    for (int i=pLow+1; i<=pHigh; i++) {
+                        int lValue = pOrder[i];
+                        int j = i-1;
+                        while ((j >= pLow) && (compareEntries(pOrder[j], lValue) > 0)) {
+                            pOrder[j+1] = pOrder[j];
+                            j--;
+                        }
+                        pOrder[j+1] = lValue;
+                    }
+                    return;
+                }
+                int lPivot = pOrder[(pLow+pHigh) >>> 1];
+                int i = pLow;
+                int j = pHigh;
+                while (i <= j) {
+                    while (compareEntries(pOrder[i], lPivot) < 0) i++;
+                    while (compareEntries(pOrder[j], lPivot) > 0) j--;
+                    if (i <= j) {
+                        int lTmp = pOrder[i];
+                        pOrder[i] = pOrder[j];
+                        pOrder[j] = lTmp;
+                        i++;
+                        j--;
+                    }
+                }
+                // Recurse into the smaller half to bound the stack depth
+                if (j-pLow < pHigh-i) {
+                    sort(pOrder, pLow, j);
+                    pLow = i;
+                }
+                else {
+                    sort(pOrder, i, pHigh);
+                    pHigh = j;
+                }
+            }
+        }
+
+        protected static int writeVarInt(byte[] pTarget, int pPos, int pValue) {
+            while ((pValue & ~0x7F) != 0) {
+                pTarget[pPos++] = (byte)((pValue & 0x7F) | 0x80);
+                pValue >>>= 7;
+            }
+            pTarget[pPos++] = (byte)pValue;
+            return pPos;
+        }
+
+        protected static int writeVarLong(byte[] pTarget, int pPos, long pValue) {
+            while ((pValue & ~0x7FL) != 0) {
+                pTarget[pPos++] = (byte)((pValue & 0x7F) | 0x80);
+                pValue >>>= 7;
+            }
+            pTarget[pPos++] = (byte)pValue;
+            return pPos;
+        }
+    }
+
+}
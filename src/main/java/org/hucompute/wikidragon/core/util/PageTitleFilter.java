@@ -0,0 +1,238 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+
+package org.hucompute.wikidragon.core.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bloom filter over (namespace, normalized title) of the pages of a MediaWiki. Lookups of titles which do not exist-
+ * red links, links into namespaces which have not been imported- are rejected before the store is queried.
+ * The filter grows by adding stages of doubling capacity with halved false positive rates, so the overall
+ * false positive rate stays below the configured one regardless of how many pages are added.
+ * Adding is synchronized, lookups are not: a title which is being added concurrently may not be visible yet.
+ * @author Rüdiger Gleim
+ */
+public class PageTitleFilter {
+
+    private static Logger logger = LogManager.getLogger(PageTitleFilter.class);
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    public static final long DEFAULT_EXPECTED_TITLES = 1 << 20;
+
+    protected static final int MAGIC = 0x57445446; // WDTF
+    protected static final int VERSION = 1;
+    protected static final double LN2 = Math.log(2);
+
+    protected double falsePositiveRate;
+    protected volatile Stage[] stages;
+
+    /**
+     * @param pExpectedTitles Capacity of the first stage
+     * @param pFalsePositiveRate Upper bound of the false positive rate
+     */
+    public PageTitleFilter(long pExpectedTitles, double pFalsePositiveRate) {
+        falsePositiveRate = pFalsePositiveRate;
+        // The rates of the stages sum up to at most twice the rate of the first one
+        stages = new Stage[]{new Stage(Math.max(1024, pExpectedTitles), pFalsePositiveRate/2)};
+    }
+
+    protected PageTitleFilter(double pFalsePositiveRate, Stage[] pStages) {
+        falsePositiveRate = pFalsePositiveRate;
+        stages = pStages;
+    }
+
+    public synchronized void add(int pNamespaceID, String pTitle) {
+        long lHash = hash(pNamespaceID, pTitle);
+        Stage[] lStages = stages;
+        Stage lStage = lStages[lStages.length-1];
+        if (lStage.count >= lStage.capacity) {
+            Stage[] lNewStages = new Stage[lStages.length+1];
+            System.arraycopy(lStages, 0, lNewStages, 0, lStages.length);
+            lStage = new Stage(lStage.capacity*2, lStage.falsePositiveRate/2);
+            lNewStages[lStages.length] = lStage;
+            stages = lNewStages;
+        }
+        lStage.add(lHash);
+    }
+
+    /**
+     * @param pNamespaceID
+     * @param pTitle Normalized title
+     * @return false if there definitely is no page with that title
+     */
+    public boolean mightContain(int pNamespaceID, String pTitle) {
+        long lHash = hash(pNamespaceID, pTitle);
+        for (Stage lStage:stages) {
+            if (lStage.mightContain(lHash)) return true;
+        }
+        return false;
+    }
+
+    public long size() {
+        long lResult = 0;
+        for (Stage lStage:stages) {
+            lResult += lStage.count;
+        }
+        return lResult;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    public void write(File pFile) throws IOException {
+        File lTempFile = new File(pFile.getParentFile(), pFile.getName()+".tmp");
+        synchronized (this) {
+            try (DataOutputStream lOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(lTempFile)))) {
+                lOutput.writeInt(MAGIC);
+                lOutput.writeInt(VERSION);
+                lOutput.writeDouble(falsePositiveRate);
+                lOutput.writeInt(stages.length);
+                for (Stage lStage : stages) {
+                    lOutput.writeLong(lStage.capacity);
+                    lOutput.writeLong(lStage.count);
+                    lOutput.writeDouble(lStage.falsePositiveRate);
+                    lOutput.writeInt(lStage.hashes);
+                    lOutput.writeInt(lStage.bits.length);
+                    for (long lWord : lStage.bits) {
+                        lOutput.writeLong(lWord);
+                    }
+                }
+            }
+        }
+        if (pFile.exists() && !pFile.delete()) throw new IOException("Could not replace "+pFile.getAbsolutePath());
+        if (!lTempFile.renameTo(pFile)) throw new IOException("Could not rename "+lTempFile.getAbsolutePath());
+    }
+
+    public static PageTitleFilter load(File pFile) throws IOException {
+        try (DataInputStream lInput = new DataInputStream(new BufferedInputStream(new FileInputStream(pFile)))) {
+            if (lInput.readInt() != MAGIC) throw new IOException("Not a PageTitleFilter: "+pFile.getAbsolutePath());
+            int lVersion = lInput.readInt();
+            if (lVersion != VERSION) throw new IOException("Unsupported PageTitleFilter version "+lVersion+": "+pFile.getAbsolutePath());
+            double lFalsePositiveRate = lInput.readDouble();
+            Stage[] lStages = new Stage[lInput.readInt()];
+            for (int s=0; s<lStages.length; s++) {
+                long lCapacity = lInput.readLong();
+                long lCount = lInput.readLong();
+                double lStageRate = lInput.readDouble();
+                int lHashes = lInput.readInt();
+                long[] lBits = new long[lInput.readInt()];
+                for (int i=0; i<lBits.length; i++) {
+                    lBits[i] = lInput.readLong();
+                }
+                lStages[s] = new Stage(lCapacity, lCount, lStageRate, lHashes, lBits);
+            }
+            return new PageTitleFilter(lFalsePositiveRate, lStages);
+        }
+    }
+
+    /**
+     * Build a filter holding all titles of a dictionary
+     * @param pPageTitleDictionary
+     * @param pFalsePositiveRate
+     * @return PageTitleFilter
+     */
+    public static PageTitleFilter build(PageTitleDictionary pPageTitleDictionary, double pFalsePositiveRate) {
+        // Leave room for pages added later on
+        PageTitleFilter lResult = new PageTitleFilter(Math.max(DEFAULT_EXPECTED_TITLES, pPageTitleDictionary.size()*2), pFalsePositiveRate);
+        pPageTitleDictionary.scan((pNamespaceID, pTitle, pNodeID) -> {
+            lResult.add(pNamespaceID, pTitle);
+            return true;
+        });
+        logger.info("Built PageTitleFilter of "+lResult.size()+" titles");
+        return lResult;
+    }
+
+    protected static long hash(int pNamespaceID, String pTitle) {
+        // FNV-1a over the characters
+        long lHash = 0xcbf29ce484222325L ^ pNamespaceID;
+        for (int i=0; i<pTitle.length(); i++) {
+            lHash ^= pTitle.charAt(i);
+            lHash *= 0x100000001b3L;
+        }
+        return lHash;
+    }
+
+    protected static long mix(long pValue) {
+        pValue ^= pValue >>> 33;
+        pValue *= 0xff51afd7ed558ccdL;
+        pValue ^= pValue >>> 33;
+        pValue *= 0xc4ceb9fe1a85ec53L;
+        pValue ^= pValue >>> 33;
+        return pValue;
+    }
+
+    protected static class Stage {
+
+        protected long capacity;
+        protected long count;
+        protected double falsePositiveRate;
+        protected int hashes;
+        protected long[] bits;
+        protected long bitCount;
+
+        protected Stage(long pCapacity, double pFalsePositiveRate) {
+            capacity = pCapacity;
+            falsePositiveRate = pFalsePositiveRate;
+            long lBits = (long)Math.ceil(-pCapacity*Math.log(pFalsePositiveRate)/(LN2*LN2));
+            bits = new long[(int)Math.min(Integer.MAX_VALUE-8, (lBits+63)/64)];
+            bitCount = bits.length*64L;
+            hashes = Math.max(1, (int)Math.round(bitCount/(double)pCapacity*LN2));
+        }
+
+        protected Stage(long pCapacity, long pCount, double pFalsePositiveRate, int pHashes, long[] pBits) {
+            capacity = pCapacity;
+            count = pCount;
+            falsePositiveRate = pFalsePositiveRate;
+            hashes = pHashes;
+            bits = pBits;
+            bitCount = bits.length*64L;
+        }
+
+        protected void add(long pHash) {
+            // Double hashing: probe i is h1+i*h2
+            long lHash1 = mix(pHash);
+            long lHash2 = mix(pHash+0x9E3779B97F4A7C15L) | 1;
+            for (int i=0; i<hashes; i++) {
+                long lBit = ((lHash1+i*lHash2) >>> 1) % bitCount;
+                bits[(int)(lBit >>> 6)] |= 1L << lBit;
+            }
+            count++;
+        }
+
+        protected boolean mightContain(long pHash) {
+            long lHash1 = mix(pHash);
+            long lHash2 = mix(pHash+0x9E3779B97F4A7C15L) | 1;
+            for (int i=0; i<hashes; i++) {
+                long lBit = ((lHash1+i*lHash2) >>> 1) % bitCount;
+                if ((bits[(int)(lBit >>> 6)] & (1L << lBit)) == 0) return false;
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact encodings for frequently repeated property values. Decoding accepts the compact as well as the former
+ * string representation, so stores written by older versions remain readable.
+ * Enums are stored by ordinal- new constants must therefore only be appended.
+ * @author Rüdiger Gleim
+ */
+public class PropertyCodec {
+
+    private static Map<Class<?>, Object[]> enumConstantsMap = new ConcurrentHashMap<>();
+
+    public static byte encodeEnum(Enum<?> pValue) {
+        return (byte)pValue.ordinal();
+    }
+
+    /**
+     * Decode an enum stored as byte or, in older stores, as its name
+     * @param pClass
+     * @param pValue
+     * @return Enum constant or null if pValue is null
+     */
+    @SuppressWarnings("unchecked")
+    public static <E extends Enum<E>> E decodeEnum(Class<E> pClass, Object pValue) {
+        if (pValue == null) {
+            return null;
+        }
+        else if (pValue instanceof Byte) {
+            Object[] lConstants = enumConstantsMap.computeIfAbsent(pClass, c -> c.getEnumConstants());
+            return (E)lConstants[((Byte)pValue) & 0xFF];
+        }
+        else {
+            return Enum.valueOf(pClass, (String)pValue);
+        }
+    }
+
+    /**
+     * Encode an IP address as int (IPv4) or byte[] (IPv6). Addresses which would not decode to the identical
+     * string are kept as they are.
+     * @param pIP
+     * @return Integer, byte[] or the original String
+     */
+    public static Object encodeIP(String pIP) {
+        if ((pIP == null) || (pIP.length() == 0)) return pIP;
+        Object lResult = pIP;
+        if (isIPv4(pIP)) {
+            String[] lParts = pIP.split("\\.");
+            int lValue = 0;
+            for (String lPart:lParts) {
+                lValue = (lValue << 8) | Integer.parseInt(lPart);
+            }
+            lResult = lValue;
+        }
+        else if (isIPv6(pIP)) {
+            try {
+                lResult = InetAddress.getByName(pIP).getAddress();
+            }
+            catch (UnknownHostException e) {
+                return pIP;
+            }
+        }
+        return pIP.equals(decodeIP(lResult)) ? lResult : pIP;
+    }
+
+    public static String decodeIP(Object pValue) {
+        if (pValue == null) {
+            return null;
+        }
+        else if (pValue instanceof Integer) {
+            int lValue = (Integer)pValue;
+            return ((lValue >>> 24) & 0xFF)+"."+((lValue >>> 16) & 0xFF)+"."+((lValue >>> 8) & 0xFF)+"."+(lValue & 0xFF);
+        }
+        else if (pValue instanceof byte[]) {
+            // MediaWiki writes IPv6 addresses uppercase without zero compression
+            byte[] lBytes = (byte[])pValue;
+            StringBuilder lResult = new StringBuilder();
+            for (int i=0; i<lBytes.length; i+=2) {
+                if (i > 0) lResult.append(':');
+                lResult.append(Integer.toHexString(((lBytes[i] & 0xFF) << 8) | (lBytes[i+1] & 0xFF)).toUpperCase());
+            }
+            return lResult.toString();
+        }
+        else {
+            return (String)pValue;
+        }
+    }
+
+    protected static boolean isIPv4(String pIP) {
+        String[] lParts = pIP.split("\\.", -1);
+        if (lParts.length != 4) return false;
+        for (String lPart:lParts) {
+            if ((lPart.length() == 0) || (lPart.length() > 3)) return false;
+            for (int i=0; i<lPart.length(); i++) {
+                if (!Character.isDigit(lPart.charAt(i))) return false;
+            }
+            if (Integer.parseInt(lPart) > 255) return false;
+        }
+        return true;
+    }
+
+    protected static boolean isIPv6(String pIP) {
+        if (pIP.indexOf(':') < 0) return false;
+        for (int i=0; i<pIP.length(); i++) {
+            char c = pIP.charAt(i);
+            if (!((c == ':') || ((c >= '0') && (c <= '9')) || ((c >= 'a') && (c <= 'f')) || ((c >= 'A') && (c <= 'F')))) return false;
+        }
+        return true;
+    }
+
+}
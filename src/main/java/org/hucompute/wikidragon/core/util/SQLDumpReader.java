@@ -0,0 +1,422 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * Reader for MediaWiki SQL dumps such as pagelinks, categorylinks or redirect. The reader thread splits the
+ * INSERT INTO ... VALUES statements into chunks of whole lines, worker threads tokenize the chunks in parallel.
+ * Tuples are handed out as {@link TupleBatch}es in the order of the dump, so consecutive tuples of a page stay together.
+ * Fields are not copied- they are accessed as primitives or byte slices of the chunk.
+ * @author Rüdiger Gleim
+ */
+public class SQLDumpReader implements AutoCloseable {
+
+    private static Logger logger = LogManager.getLogger(SQLDumpReader.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 22; // 4 MB
+
+    protected static final Charset UTF8 = Charset.forName("UTF-8");
+    protected static final byte[] INSERT_PREFIX = "INSERT INTO ".getBytes(UTF8);
+    protected static final byte[] VALUES_KEYWORD = " VALUES ".getBytes(UTF8);
+
+    protected static final TupleBatch END = new TupleBatch(new byte[0]);
+
+    protected InputStream inputStream;
+    protected int chunkSize;
+    protected ExecutorService workers;
+    protected Thread readerThread;
+    protected BlockingQueue<Future<TupleBatch>> batchQueue;
+    protected volatile Exception failure;
+    protected boolean finished;
+
+    public SQLDumpReader(InputStream pInputStream) {
+        this(pInputStream, Math.max(1, Runtime.getRuntime().availableProcessors()-1), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param pInputStream Dump, already decompressed. It is closed by the reader.
+     * @param pThreads Number of tokenizer threads
+     * @param pChunkSize Minimum size of a chunk in bytes. Chunks always contain whole lines.
+     */
+    public SQLDumpReader(InputStream pInputStream, int pThreads, int pChunkSize) {
+        inputStream = pInputStream;
+        chunkSize = pChunkSize;
+        workers = Executors.newFixedThreadPool(Math.max(1, pThreads));
+        batchQueue = new ArrayBlockingQueue<>(Math.max(1, pThreads)*2);
+        readerThread = new Thread(this::readChunks, "SQLDumpReader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * Get the next batch of tuples in dump order
+     * @return TupleBatch or null if the dump has been read completely
+     * @throws WikiDragonException
+     */
+    public TupleBatch nextBatch() throws WikiDragonException {
+        if (finished) return null;
+        try {
+            TupleBatch lResult = batchQueue.take().get();
+            if (lResult == END) {
+                finished = true;
+                workers.shutdown();
+                if (failure != null) throw new WikiDragonException(failure.getMessage(), failure);
+                return null;
+            }
+            return lResult;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WikiDragonException(e.getMessage(), e);
+        }
+        catch (ExecutionException e) {
+            throw new WikiDragonException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    protected void readChunks() {
+        try {
+            byte[] lBuffer = new byte[1 << 16];
+            int lBufferSize = 0;
+            int lBufferPos = 0;
+            byte[] lChunk = new byte[chunkSize+(1 << 20)];
+            int lChunkSize = 0;
+            int lLineStart = 0;
+            boolean lSkipLine = false;
+            boolean lEOF = false;
+            while (!lEOF) {
+                if (lBufferPos == lBufferSize) {
+                    lBufferSize = inputStream.read(lBuffer);
+                    lBufferPos = 0;
+                    if (lBufferSize <= 0) {
+                        lEOF = true;
+                        lBufferSize = 0;
+                        continue;
+                    }
+                }
+                byte b = lBuffer[lBufferPos++];
+                if (lSkipLine) {
+                    if (b == '\n') lSkipLine = false;
+                    continue;
+                }
+                if (lChunkSize == lChunk.length) lChunk = Arrays.copyOf(lChunk, lChunk.length*2);
+                lChunk[lChunkSize++] = b;
+                int lLineLength = lChunkSize-lLineStart;
+                // Only keep INSERT statements
+                if ((lLineLength <= INSERT_PREFIX.length) && (b != INSERT_PREFIX[lLineLength-1])) {
+                    lChunkSize = lLineStart;
+                    lSkipLine = b != '\n';
+                    continue;
+                }
+                if (b == '\n') {
+                    lLineStart = lChunkSize;
+                    if (lChunkSize >= chunkSize) {
+                        submit(Arrays.copyOf(lChunk, lChunkSize));
+                        lChunkSize = 0;
+                        lLineStart = 0;
+                    }
+                }
+            }
+            if (lChunkSize > 0) submit(Arrays.copyOf(lChunk, lChunkSize));
+        }
+        catch (Exception e) {
+            failure = e;
+        }
+        finally {
+            try {
+                inputStream.close();
+            }
+            catch (IOException e) {
+                logger.warn(e.getMessage(), e);
+            }
+            try {
+                batchQueue.put(CompletableFuture.completedFuture(END));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    protected void submit(byte[] pChunk) throws InterruptedException {
+        batchQueue.put(workers.submit(() -> TupleBatch.parse(pChunk)));
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        readerThread.interrupt();
+        workers.shutdownNow();
+        batchQueue.clear();
+    }
+
+    /**
+     * Tuples of one chunk. Fields are addressed by tuple and field index.
+     */
+    public static class TupleBatch {
+
+        protected byte[] data;
+        protected int size;
+        protected int[] tupleOffsets = new int[1025];
+        protected int[] fieldStarts = new int[4096];
+        protected int[] fieldEnds = new int[4096];
+        protected boolean[] fieldEscaped = new boolean[4096];
+        protected boolean[] fieldNull = new boolean[4096];
+        protected int fieldCount;
+
+        protected TupleBatch(byte[] pData) {
+            data = pData;
+        }
+
+        protected static TupleBatch parse(byte[] pData) {
+            TupleBatch lResult = new TupleBatch(pData);
+            int lPos = 0;
+            while (lPos < pData.length) {
+                int lLineEnd = lPos;
+                while ((lLineEnd < pData.length) && (pData[lLineEnd] != '\n')) lLineEnd++;
+                int lValues = indexOf(pData, VALUES_KEYWORD, lPos, lLineEnd);
+                if (lValues >= 0) lResult.parseTuples(lValues+VALUES_KEYWORD.length, lLineEnd);
+                lPos = lLineEnd+1;
+            }
+            return lResult;
+        }
+
+        protected void parseTuples(int pStart, int pEnd) {
+            int lPos = pStart;
+            while (lPos < pEnd) {
+                // Seek start of tuple
+                while ((lPos < pEnd) && (data[lPos] != '(')) lPos++;
+                if (lPos >= pEnd) return;
+                lPos++;
+                int lFieldStart = lPos;
+                boolean lEscaped = false;
+                boolean lTupleDone = false;
+                while ((lPos < pEnd) && !lTupleDone) {
+                    byte b = data[lPos];
+                    if (b == '\'') {
+                        // Quoted string- skip to closing quote
+                        lPos++;
+                        while (lPos < pEnd) {
+                            if (data[lPos] == '\\') {
+                                lEscaped = true;
+                                lPos += 2;
+                            }
+                            else if (data[lPos] == '\'') {
+                                break;
+                            }
+                            else {
+                                lPos++;
+                            }
+                        }
+                        lPos++;
+                    }
+                    else if ((b == ',') || (b == ')')) {
+                        addField(lFieldStart, lPos, lEscaped);
+                        lEscaped = false;
+                        lFieldStart = ++lPos;
+                        if (b == ')') {
+                            lTupleDone = true;
+                            endTuple();
+                        }
+                    }
+                    else {
+                        lPos++;
+                    }
+                }
+            }
+        }
+
+        protected void addField(int pStart, int pEnd, boolean pEscaped) {
+            if (fieldCount == fieldStarts.length) {
+                fieldStarts = Arrays.copyOf(fieldStarts, fieldCount*2);
+                fieldEnds = Arrays.copyOf(fieldEnds, fieldCount*2);
+                fieldEscaped = Arrays.copyOf(fieldEscaped, fieldCount*2);
+                fieldNull = Arrays.copyOf(fieldNull, fieldCount*2);
+            }
+            // Unquoted NULL- a quoted 'NULL' is a string
+            fieldNull[fieldCount] = (pEnd-pStart == 4) && (data[pStart] == 'N') && (data[pStart+1] == 'U') && (data[pStart+2] == 'L') && (data[pStart+3] == 'L');
+            // Strip quotes
+            if ((pEnd-pStart >= 2) && (data[pStart] == '\'') && (data[pEnd-1] == '\'')) {
+                pStart++;
+                pEnd--;
+            }
+            fieldStarts[fieldCount] = pStart;
+            fieldEnds[fieldCount] = pEnd;
+            fieldEscaped[fieldCount] = pEscaped;
+            fieldCount++;
+        }
+
+        protected void endTuple() {
+            if (size+1 == tupleOffsets.length) tupleOffsets = Arrays.copyOf(tupleOffsets, tupleOffsets.length*2);
+            tupleOffsets[++size] = fieldCount;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getFieldCount(int pTuple) {
+            return tupleOffsets[pTuple+1]-tupleOffsets[pTuple];
+        }
+
+        /**
+         * @return The chunk the fields of this batch point into
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getStart(int pTuple, int pField) {
+            return fieldStarts[tupleOffsets[pTuple]+pField];
+        }
+
+        public int getEnd(int pTuple, int pField) {
+            return fieldEnds[tupleOffsets[pTuple]+pField];
+        }
+
+        public int getLength(int pTuple, int pField) {
+            int lField = tupleOffsets[pTuple]+pField;
+            return fieldEnds[lField]-fieldStarts[lField];
+        }
+
+        /**
+         * @return true if the field contains escape sequences, i.e. the raw bytes differ from the value
+         */
+        public boolean isEscaped(int pTuple, int pField) {
+            return fieldEscaped[tupleOffsets[pTuple]+pField];
+        }
+
+        /**
+         * @return true if the field is SQL NULL
+         */
+        public boolean isNull(int pTuple, int pField) {
+            return fieldNull[tupleOffsets[pTuple]+pField];
+        }
+
+        /**
+         * Get the value of a numeric field. Like ResultSet.getLong, SQL NULL yields 0- use isNull to tell both apart.
+         * @param pTuple
+         * @param pField
+         * @return long
+         */
+        public long getLong(int pTuple, int pField) {
+            return getLong(pTuple, pField, 0);
+        }
+
+        /**
+         * Get the value of a numeric field
+         * @param pTuple
+         * @param pField
+         * @param pNullValue Value to return if the field is SQL NULL
+         * @return long
+         */
+        public long getLong(int pTuple, int pField, long pNullValue) {
+            int lField = tupleOffsets[pTuple]+pField;
+            if (fieldNull[lField]) return pNullValue;
+            int lPos = fieldStarts[lField];
+            int lEnd = fieldEnds[lField];
+            boolean lNegative = (lPos < lEnd) && (data[lPos] == '-');
+            if (lNegative) lPos++;
+            if (lPos == lEnd) throw new NumberFormatException("Empty numeric field");
+            long lResult = 0;
+            for (; lPos<lEnd; lPos++) {
+                int lDigit = data[lPos]-'0';
+                if ((lDigit < 0) || (lDigit > 9)) throw new NumberFormatException("Not a number: "+getString(pTuple, pField));
+                lResult = lResult*10+lDigit;
+            }
+            return lNegative ? -lResult : lResult;
+        }
+
+        public int getInt(int pTuple, int pField) {
+            return (int)getLong(pTuple, pField);
+        }
+
+        public int getInt(int pTuple, int pField, int pNullValue) {
+            return (int)getLong(pTuple, pField, pNullValue);
+        }
+
+        /**
+         * Get the value of a field with escape sequences resolved
+         * @param pTuple
+         * @param pField
+         * @return byte[] or null if the field is SQL NULL
+         */
+        public byte[] getBytes(int pTuple, int pField) {
+            int lField = tupleOffsets[pTuple]+pField;
+            if (fieldNull[lField]) return null;
+            int lStart = fieldStarts[lField];
+            int lEnd = fieldEnds[lField];
+            if (!fieldEscaped[lField]) return Arrays.copyOfRange(data, lStart, lEnd);
+            byte[] lResult = new byte[lEnd-lStart];
+            int lSize = 0;
+            for (int i=lStart; i<lEnd; i++) {
+                byte b = data[i];
+                if ((b == '\\') && (i+1 < lEnd)) {
+                    b = data[++i];
+                    switch (b) {
+                        case 'n': b = '\n'; break;
+                        case 'r': b = '\r'; break;
+                        case 't': b = '\t'; break;
+                        case '0': b = 0; break;
+                        case 'Z': b = 26; break;
+                    }
+                }
+                lResult[lSize++] = b;
+            }
+            return Arrays.copyOf(lResult, lSize);
+        }
+
+        /**
+         * Get the value of a field with escape sequences resolved
+         * @param pTuple
+         * @param pField
+         * @return String or null if the field is SQL NULL
+         */
+        public String getString(int pTuple, int pField) {
+            int lField = tupleOffsets[pTuple]+pField;
+            if (fieldNull[lField]) return null;
+            if (!fieldEscaped[lField]) return new String(data, fieldStarts[lField], fieldEnds[lField]-fieldStarts[lField], UTF8);
+            return new String(getBytes(pTuple, pField), UTF8);
+        }
+
+        protected static int indexOf(byte[] pData, byte[] pPattern, int pStart, int pEnd) {
+            outer:
+            for (int i=pStart; i<=pEnd-pPattern.length; i++) {
+                for (int k=0; k<pPattern.length; k++) {
+                    if (pData[i+k] != pPattern[k]) continue outer;
+                }
+                return i;
+            }
+            return -1;
+        }
+
+    }
+
+}
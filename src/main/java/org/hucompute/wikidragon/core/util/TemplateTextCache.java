@@ -0,0 +1,261 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+
+package org.hucompute.wikidragon.core.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe cache of the raw text of template revisions, shared by the parsers of a mass parse.
+ * Entries are keyed by revision id, so all timestamps which resolve to the same revision of a template share one entry.
+ * The cache is bounded by the approximate heap size of the texts rather than their number, since templates range
+ * from a few bytes to hundreds of kilobytes. It is split into segments, each of which is an LRU map guarded by its own lock.
+ * Besides, texts can be pinned by title and timestamp, e.g. by a pre-pass resolving popular templates in bulk. Pinned
+ * texts are served without resolving the title and the revision first and are never evicted.
+ * @author Rüdiger Gleim
+ */
+public class TemplateTextCache {
+
+    private static Logger logger = LogManager.getLogger(TemplateTextCache.class);
+
+    public static final long DEFAULT_MAX_WEIGHT = 256L << 20;
+    protected static final int SEGMENTS = 16;
+    // Approximate heap size of an entry besides the characters of its text
+    protected static final int ENTRY_OVERHEAD = 96;
+
+    protected Segment[] segments;
+    protected Map<PinKey, String> pinned = new ConcurrentHashMap<>();
+    protected AtomicLong pinnedWeight = new AtomicLong();
+
+    protected AtomicLong hits = new AtomicLong();
+    protected AtomicLong misses = new AtomicLong();
+    protected AtomicLong evictions = new AtomicLong();
+    protected AtomicLong pinnedHits = new AtomicLong();
+
+    public TemplateTextCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    /**
+     * @param pMaxWeight Maximum approximate heap size of all entries in bytes
+     */
+    public TemplateTextCache(long pMaxWeight) {
+        segments = new Segment[SEGMENTS];
+        for (int i=0; i<SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, pMaxWeight/SEGMENTS));
+        }
+    }
+
+    /**
+     * @param pRevisionId
+     * @return Text or null if it is not cached
+     */
+    public String get(long pRevisionId) {
+        Segment lSegment = getSegment(pRevisionId);
+        String lResult;
+        synchronized (lSegment) {
+            lResult = lSegment.get(pRevisionId);
+        }
+        if (lResult == null) {
+            misses.incrementAndGet();
+        }
+        else {
+            hits.incrementAndGet();
+        }
+        return lResult;
+    }
+
+    /**
+     * Cache a text. Texts heavier than a segment are not cached at all.
+     * @param pRevisionId
+     * @param pText
+     */
+    public void put(long pRevisionId, String pText) {
+        long lWeight = getWeight(pText);
+        Segment lSegment = getSegment(pRevisionId);
+        if (lWeight > lSegment.maxWeight) return;
+        synchronized (lSegment) {
+            String lOld = lSegment.put(pRevisionId, pText);
+            if (lOld != null) lSegment.weight -= getWeight(lOld);
+            lSegment.weight += lWeight;
+            Iterator<Map.Entry<Long, String>> i = lSegment.entrySet().iterator();
+            while ((lSegment.weight > lSegment.maxWeight) && i.hasNext()) {
+                Map.Entry<Long, String> lEldest = i.next();
+                lSegment.weight -= getWeight(lEldest.getValue());
+                i.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Pin the text of a template as resolved at a timestamp
+     * @param pNamespaceID
+     * @param pTitle Title as requested by the parser
+     * @param pTimestampMillis Epoch millis of the parse timestamp
+     * @param pText
+     */
+    public void pin(int pNamespaceID, String pTitle, long pTimestampMillis, String pText) {
+        String lOld = pinned.put(new PinKey(pNamespaceID, pTitle, pTimestampMillis), pText);
+        pinnedWeight.addAndGet(getWeight(pText)-(lOld == null ? 0 : getWeight(lOld)));
+    }
+
+    /**
+     * @param pNamespaceID
+     * @param pTitle
+     * @param pTimestampMillis
+     * @return Pinned text or null
+     */
+    public String getPinned(int pNamespaceID, String pTitle, long pTimestampMillis) {
+        if (pinned.isEmpty()) return null;
+        String lResult = pinned.get(new PinKey(pNamespaceID, pTitle, pTimestampMillis));
+        if (lResult != null) pinnedHits.incrementAndGet();
+        return lResult;
+    }
+
+    public void unpinAll() {
+        pinned.clear();
+        pinnedWeight.set(0);
+    }
+
+    public int getPinnedSize() {
+        return pinned.size();
+    }
+
+    public long getPinnedWeight() {
+        return pinnedWeight.get();
+    }
+
+    public long getPinnedHits() {
+        return pinnedHits.get();
+    }
+
+    /**
+     * Clear the cache. Pinned texts are kept.
+     */
+    public void clear() {
+        for (Segment lSegment:segments) {
+            synchronized (lSegment) {
+                lSegment.clear();
+                lSegment.weight = 0;
+            }
+        }
+    }
+
+    public int size() {
+        int lResult = 0;
+        for (Segment lSegment:segments) {
+            synchronized (lSegment) {
+                lResult += lSegment.size();
+            }
+        }
+        return lResult;
+    }
+
+    /**
+     * @return Approximate heap size of all entries in bytes
+     */
+    public long getWeight() {
+        long lResult = 0;
+        for (Segment lSegment:segments) {
+            synchronized (lSegment) {
+                lResult += lSegment.weight;
+            }
+        }
+        return lResult;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        long lTotal = hits.get()+misses.get();
+        return lTotal == 0 ? 0 : hits.get() / (double)lTotal;
+    }
+
+    public void logStatistics() {
+        logger.info("TemplateTextCache: "+size()+" entries, "+(getWeight() >> 20)+" MB, "+hits.get()+" hits, "+misses.get()+" misses, "+evictions.get()+" evictions, hit rate "+String.format("%.3f", getHitRate())+", "+pinned.size()+" pinned ("+(pinnedWeight.get() >> 20)+" MB), "+pinnedHits.get()+" pinned hits");
+    }
+
+    protected Segment getSegment(long pRevisionId) {
+        return segments[(Long.hashCode(pRevisionId) & 0x7FFFFFFF) % SEGMENTS];
+    }
+
+    protected static long getWeight(String pText) {
+        return ENTRY_OVERHEAD+2L*pText.length();
+    }
+
+    protected static final class PinKey {
+
+        protected final int namespaceID;
+        protected final String title;
+        protected final long timestampMillis;
+
+        protected PinKey(int pNamespaceID, String pTitle, long pTimestampMillis) {
+            namespaceID = pNamespaceID;
+            title = pTitle;
+            timestampMillis = pTimestampMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31*(31*title.hashCode()+namespaceID)+Long.hashCode(timestampMillis);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PinKey)) return false;
+            PinKey lOther = (PinKey)obj;
+            return (lOther.namespaceID == namespaceID) && (lOther.timestampMillis == timestampMillis) && lOther.title.equals(title);
+        }
+
+    }
+
+    protected static class Segment extends LinkedHashMap<Long, String> {
+
+        private static final long serialVersionUID = 1L;
+
+        protected long maxWeight;
+        protected long weight;
+
+        protected Segment(long pMaxWeight) {
+            super(16, 0.75f, true);
+            maxWeight = pMaxWeight;
+        }
+
+    }
+
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+
+package org.hucompute.wikidragon.core.util;
+
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.*;
+
+import java.time.ZonedDateTime;
+import java.util.*;
+
+/**
+ * Extracts explicit links from wikitext in a single pass without rendering it. Comments and the content of nowiki,
+ * pre, math, source and syntaxhighlight elements are skipped. Piped links, links nested in captions, namespace prefixes,
+ * leading colons and category sort keys are handled. Templates are not expanded except for configured link templates,
+ * whose parameters are turned into links directly.
+ * Configure an instance before use- afterwards it can be shared between threads.
+ * @author Rüdiger Gleim
+ */
+public class WikiTextLinkExtraction {
+
+    public interface LinkVisitor {
+
+        /**
+         * @param pTarget Raw link target as written in the wikitext, possibly with leading colon, fragment and sort key removed
+         * @param pRedirect true for the target of a redirect
+         * @param pLinkType LinkType enforced by a link template or null to derive it from the namespace
+         */
+        public void visit(String pTarget, boolean pRedirect, MediaWikiConst.LinkType pLinkType);
+
+    }
+
+    /**
+     * Receives link targets together with their position in the wikitext
+     */
+    public interface SpanVisitor {
+
+        /**
+         * @param pStart Start of the link or link template
+         * @param pEnd End of the link target or link template
+         * @param pTarget Raw link target
+         * @param pRedirect true for the target of a redirect
+         * @param pLinkType LinkType enforced by a link template or null to derive it from the namespace
+         */
+        public void visitLink(int pStart, int pEnd, String pTarget, boolean pRedirect, MediaWikiConst.LinkType pLinkType);
+
+        /**
+         * A comment or opaque element which has been skipped
+         */
+        public default void visitOpaque(int pStart, int pEnd) {
+        }
+
+        /**
+         * A configured link template, reported whether it produced targets or not
+         */
+        public default void visitLinkTemplate(int pStart, int pEnd) {
+        }
+
+    }
+
+    protected static final String[] OPAQUE_TAGS = new String[]{"nowiki", "pre", "math", "source", "syntaxhighlight"};
+    protected static final int FILE_NAMESPACE = 6;
+    protected static final int MEDIA_NAMESPACE = -2;
+    protected static final int CATEGORY_NAMESPACE = 14;
+
+    protected MediaWiki mediaWiki;
+    protected List<String> redirectKeywords = new ArrayList<>(Collections.singletonList("#REDIRECT"));
+    protected Map<String, LinkTemplate> linkTemplateMap = new HashMap<>();
+    // Namespaces by lower case name, alias and canonical name
+    protected Map<String, Namespace> namespaceMap;
+
+    public WikiTextLinkExtraction(MediaWiki pMediaWiki) throws WikiDragonException {
+        mediaWiki = pMediaWiki;
+        namespaceMap = new HashMap<>();
+        try (WikiTransaction lSession = mediaWiki.getWikiDragonDatabase().beginReadSession()) {
+            for (Map.Entry<String, Namespace> lEntry:mediaWiki.getNamespaceMap().entrySet()) {
+                namespaceMap.put(lEntry.getKey().replace('_', ' ').toLowerCase(), lEntry.getValue());
+            }
+            lSession.success();
+        }
+    }
+
+    /**
+     * Add a localized redirect keyword such as #WEITERLEITUNG. #REDIRECT is always recognized.
+     * @param pKeyword
+     */
+    public void addRedirectKeyword(String pKeyword) {
+        redirectKeywords.add(pKeyword);
+    }
+
+    /**
+     * Expand a template into links, e.g. addLinkTemplate("Main", null, "") for {{Main|Page A|Page B}}
+     * @param pTemplateName Name of the template without namespace
+     * @param pLinkType LinkType of the produced links or null to derive it from the namespace of the target
+     * @param pTargetPrefix Prefix prepended to the parameter values, e.g. "Category:"
+     * @param pParameterIndexes 1-based positional parameters holding link targets. None means all positional parameters.
+     */
+    public void addLinkTemplate(String pTemplateName, MediaWikiConst.LinkType pLinkType, String pTargetPrefix, int... pParameterIndexes) {
+        linkTemplateMap.put(normalizeTemplateName(pTemplateName), new LinkTemplate(pLinkType, pTargetPrefix, pParameterIndexes));
+    }
+
+    /**
+     * Fetch all links of the wikitext whose target exists at that specific point in time
+     * @param pSourcePage
+     * @param pWikiText
+     * @param pTimestamp
+     * @return WikiPageLinks
+     * @throws WikiDragonException
+     */
+    public Set<WikiPageLink> extractWikiPageLinks(Page pSourcePage, String pWikiText, ZonedDateTime pTimestamp) throws WikiDragonException {
+        try (WikiTransaction lSession = mediaWiki.getWikiDragonDatabase().beginReadSession()) {
+            Set<WikiPageLink> lResult = new HashSet<>();
+            List<LinkTarget> lTargets = new ArrayList<>();
+            scan(pWikiText, (pTarget, pRedirect, pLinkType) -> lTargets.addAll(getLinkTargets(pTarget, pRedirect, pLinkType)));
+            for (LinkTarget lLinkTarget:lTargets) {
+                Page lTargetPage = resolve(lLinkTarget, pTimestamp);
+                if (lTargetPage != null) {
+                    lResult.add(new WikiPageLink(lLinkTarget.linkType, pSourcePage, lTargetPage, WikiPageLink.WikiPageLinkSource.WikiTextParsedAdHoc, pTimestamp));
+                }
+            }
+            lSession.success();
+            return lResult;
+        }
+    }
+
+    /**
+     * Normalize a raw link target as reported by scan
+     * @param pTarget
+     * @param pRedirect
+     * @param pLinkType LinkType enforced by a link template or null
+     * @return Zero, one or- for redirects- two LinkTargets
+     */
+    public List<LinkTarget> getLinkTargets(String pTarget, boolean pRedirect, MediaWikiConst.LinkType pLinkType) {
+        String lTarget = pTarget.trim();
+        boolean lLeadingColon = lTarget.startsWith(":");
+        if (lLeadingColon) lTarget = lTarget.substring(1).trim();
+        lTarget = normalizeTitle(lTarget);
+        if (lTarget.isEmpty()) return Collections.emptyList();
+        Namespace lNamespace = namespaceMap.get("");
+        int lColonIndex = lTarget.indexOf(':');
+        if (lColonIndex > 0) {
+            Namespace lPrefixNamespace = namespaceMap.get(lTarget.substring(0, lColonIndex).trim().toLowerCase());
+            if (lPrefixNamespace != null) {
+                lNamespace = lPrefixNamespace;
+                lTarget = lTarget.substring(lColonIndex+1).trim();
+            }
+        }
+        if (lTarget.isEmpty() || (lNamespace == null)) return Collections.emptyList();
+        if (lNamespace.getCase() == MediaWikiConst.Case.FIRST_LETTER) {
+            lTarget = lTarget.substring(0, lTarget.offsetByCodePoints(0, 1)).toUpperCase()+lTarget.substring(lTarget.offsetByCodePoints(0, 1));
+        }
+        int lNamespaceID = lNamespace.getId();
+        MediaWikiConst.LinkType lLinkType = pLinkType;
+        if (lLinkType == null) {
+            if (!lLeadingColon && ((lNamespaceID == FILE_NAMESPACE) || (lNamespaceID == MEDIA_NAMESPACE))) return Collections.emptyList(); // Embedded files are no page links
+            lLinkType = !lLeadingColon && (lNamespaceID == CATEGORY_NAMESPACE) ? MediaWikiConst.LinkType.CATEGORIZATION : MediaWikiConst.LinkType.ARTICLE;
+        }
+        if (pRedirect) {
+            // The SQL Dumps represent redirect links as redirect AND Article- so do we...
+            return Arrays.asList(new LinkTarget(MediaWikiConst.LinkType.REDIRECT, lNamespaceID, lTarget), new LinkTarget(lLinkType, lNamespaceID, lTarget));
+        }
+        return Collections.singletonList(new LinkTarget(lLinkType, lNamespaceID, lTarget));
+    }
+
+    /**
+     * Resolve a LinkTarget to the page existing at that point in time
+     * @param pLinkTarget
+     * @param pTimestamp
+     * @return Page or null
+     */
+    public Page resolve(LinkTarget pLinkTarget, ZonedDateTime pTimestamp) {
+        return mediaWiki.getPageTitleCache().getPage(pLinkTarget.namespaceId, pLinkTarget.title, pTimestamp);
+    }
+
+    /**
+     * Scan wikitext for link targets
+     * @param pWikiText
+     * @param pVisitor
+     */
+    public void scan(String pWikiText, LinkVisitor pVisitor) {
+        scan(pWikiText, 0, pWikiText.length(), (pStart, pEnd, pTarget, pRedirect, pLinkType) -> pVisitor.visit(pTarget, pRedirect, pLinkType));
+    }
+
+    /**
+     * Scan a region of wikitext for link targets. Redirects are only recognized if the region starts at the beginning.
+     * Links and elements starting within the region are reported completely, so they may end behind it.
+     * @param pWikiText
+     * @param pFrom Start of the region, should be at the beginning of a line
+     * @param pTo End of the region
+     * @param pVisitor
+     */
+    public void scan(String pWikiText, int pFrom, int pTo, SpanVisitor pVisitor) {
+        int n = pWikiText.length();
+        int i = pFrom == 0 ? scanRedirect(pWikiText, pVisitor) : pFrom;
+        while (i < pTo) {
+            char c = pWikiText.charAt(i);
+            if (c == '<') {
+                i = skipMarkup(pWikiText, i, pVisitor);
+            }
+            else if ((c == '[') && (i+1 < n) && (pWikiText.charAt(i+1) == '[')) {
+                i = scanLink(pWikiText, i+2, pVisitor, false);
+            }
+            else if ((c == '{') && (i+1 < n) && (pWikiText.charAt(i+1) == '{')) {
+                if ((i+2 < n) && (pWikiText.charAt(i+2) == '{')) {
+                    // Template parameter
+                    i += 3;
+                }
+                else {
+                    if (!linkTemplateMap.isEmpty()) scanTemplate(pWikiText, i+2, pVisitor);
+                    i += 2;
+                }
+            }
+            else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * @return Position to continue scanning at
+     */
+    protected int scanRedirect(String pWikiText, SpanVisitor pVisitor) {
+        int n = pWikiText.length();
+        int i = 0;
+        while ((i < n) && Character.isWhitespace(pWikiText.charAt(i))) i++;
+        for (String lKeyword:redirectKeywords) {
+            if (pWikiText.regionMatches(true, i, lKeyword, 0, lKeyword.length())) {
+                int j = i+lKeyword.length();
+                while ((j < n) && (Character.isWhitespace(pWikiText.charAt(j)) || (pWikiText.charAt(j) == ':'))) j++;
+                if (pWikiText.startsWith("[[", j)) {
+                    return scanLink(pWikiText, j+2, pVisitor, true);
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Read a link target starting behind [[. Scanning continues behind the target, so links nested in the caption are found as well.
+     * @return Position to continue scanning at
+     */
+    protected int scanLink(String pWikiText, int pStart, SpanVisitor pVisitor, boolean pRedirect) {
+        int n = pWikiText.length();
+        for (int j=pStart; j<n; j++) {
+            char c = pWikiText.charAt(j);
+            if ((c == '|') || ((c == ']') && (j+1 < n) && (pWikiText.charAt(j+1) == ']'))) {
+                String lTarget = pWikiText.substring(pStart, j);
+                int lHashIndex = lTarget.indexOf('#');
+                if (lHashIndex >= 0) lTarget = lTarget.substring(0, lHashIndex);
+                pVisitor.visitLink(pStart-2, j, lTarget, pRedirect, null);
+                return c == '|' ? j+1 : j+2;
+            }
+            if ((c == '[') || (c == ']') || (c == '{') || (c == '}') || (c == '<') || (c == '>') || (c == '\n')) {
+                // Not a valid link target- continue with the offending character
+                return j;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Skip comments and opaque elements
+     * @return Position to continue scanning at
+     */
+    protected int skipMarkup(String pWikiText, int pStart, SpanVisitor pVisitor) {
+        int n = pWikiText.length();
+        if (pWikiText.startsWith("<!--", pStart)) {
+            int lEnd = pWikiText.indexOf("-->", pStart+4);
+            lEnd = lEnd < 0 ? n : lEnd+3;
+            pVisitor.visitOpaque(pStart, lEnd);
+            return lEnd;
+        }
+        for (String lTag:OPAQUE_TAGS) {
+            int lNameEnd = pStart+1+lTag.length();
+            if (pWikiText.regionMatches(true, pStart+1, lTag, 0, lTag.length()) && (lNameEnd < n) && !Character.isLetterOrDigit(pWikiText.charAt(lNameEnd))) {
+                int lEnd = pWikiText.indexOf('>', lNameEnd);
+                if (lEnd < 0) {
+                    lEnd = n;
+                }
+                else if (pWikiText.charAt(lEnd-1) == '/') {
+                    // Self-closing
+                    lEnd++;
+                }
+                else {
+                    int lClose = indexOfIgnoreCase(pWikiText, "</"+lTag, lEnd+1);
+                    int lCloseEnd = lClose < 0 ? -1 : pWikiText.indexOf('>', lClose);
+                    lEnd = lCloseEnd < 0 ? n : lCloseEnd+1;
+                }
+                pVisitor.visitOpaque(pStart, lEnd);
+                return lEnd;
+            }
+        }
+        return pStart+1;
+    }
+
+    protected static int indexOfIgnoreCase(String pString, String pPattern, int pFrom) {
+        for (int i=pFrom; i<=pString.length()-pPattern.length(); i++) {
+            if (pString.regionMatches(true, i, pPattern, 0, pPattern.length())) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Emit the link parameters of a configured link template starting behind {{. Nested templates and links within
+     * the parameters are scanned by the main loop.
+     */
+    protected void scanTemplate(String pWikiText, int pStart, SpanVisitor pVisitor) {
+        int n = pWikiText.length();
+        List<String> lParts = new ArrayList<>();
+        int lDepth = 0;
+        int lPartStart = pStart;
+        int j = pStart;
+        while (j < n) {
+            char c = pWikiText.charAt(j);
+            if ((j+1 < n) && (((c == '{') && (pWikiText.charAt(j+1) == '{')) || ((c == '[') && (pWikiText.charAt(j+1) == '[')))) {
+                lDepth++;
+                j += 2;
+            }
+            else if ((j+1 < n) && (c == ']') && (pWikiText.charAt(j+1) == ']')) {
+                if (lDepth > 0) lDepth--;
+                j += 2;
+            }
+            else if ((j+1 < n) && (c == '}') && (pWikiText.charAt(j+1) == '}')) {
+                if (lDepth == 0) break;
+                lDepth--;
+                j += 2;
+            }
+            else if ((c == '|') && (lDepth == 0)) {
+                lParts.add(pWikiText.substring(lPartStart, j));
+                lPartStart = ++j;
+                // Stop at the first parameter if the template is not a link template
+                if ((lParts.size() == 1) && !linkTemplateMap.containsKey(normalizeTemplateName(lParts.get(0)))) return;
+            }
+            else {
+                j++;
+            }
+        }
+        if (j >= n) return;
+        lParts.add(pWikiText.substring(lPartStart, j));
+        LinkTemplate lTemplate = linkTemplateMap.get(normalizeTemplateName(lParts.get(0)));
+        if (lTemplate == null) return;
+        pVisitor.visitLinkTemplate(pStart-2, j+2);
+        int lPosition = 0;
+        for (int p=1; p<lParts.size(); p++) {
+            String lPart = lParts.get(p);
+            if (lPart.indexOf('=') >= 0) continue; // Named parameter
+            lPosition++;
+            if (lTemplate.isLinkParameter(lPosition)) {
+                String lValue = lPart.trim();
+                if (!lValue.isEmpty() && (lValue.indexOf('[') < 0) && (lValue.indexOf('{') < 0)) {
+                    pVisitor.visitLink(pStart-2, j+2, lTemplate.targetPrefix+lValue, false, lTemplate.linkType);
+                }
+            }
+        }
+    }
+
+    protected static String normalizeTemplateName(String pName) {
+        String lResult = normalizeTitle(pName);
+        if (lResult.regionMatches(true, 0, "Template:", 0, 9)) lResult = lResult.substring(9).trim();
+        if (lResult.isEmpty()) return lResult;
+        return lResult.substring(0, 1).toUpperCase()+lResult.substring(1);
+    }
+
+    /**
+     * Replace underscores and runs of whitespace by single blanks
+     */
+    protected static String normalizeTitle(String pTitle) {
+        StringBuilder lResult = new StringBuilder(pTitle.length());
+        boolean lBlank = false;
+        for (int i=0; i<pTitle.length(); i++) {
+            char c = pTitle.charAt(i);
+            if ((c == '_') || Character.isWhitespace(c)) {
+                lBlank = lResult.length() > 0;
+            }
+            else {
+                if (lBlank) lResult.append(' ');
+                lBlank = false;
+                lResult.append(c);
+            }
+        }
+        return lResult.toString();
+    }
+
+    /**
+     * Normalized target of a link, identified by LinkType, namespace and title
+     */
+    public static class LinkTarget {
+
+        protected MediaWikiConst.LinkType linkType;
+        protected int namespaceId;
+        protected String title;
+
+        public LinkTarget(MediaWikiConst.LinkType pLinkType, int pNamespaceId, String pTitle) {
+            linkType = pLinkType;
+            namespaceId = pNamespaceId;
+            title = pTitle;
+        }
+
+        public MediaWikiConst.LinkType getLinkType() {
+            return linkType;
+        }
+
+        public int getNamespaceId() {
+            return namespaceId;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31*linkType.hashCode()+namespaceId)*31+title.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof LinkTarget)) return false;
+            LinkTarget lOther = (LinkTarget)obj;
+            return (lOther.linkType == linkType) && (lOther.namespaceId == namespaceId) && lOther.title.equals(title);
+        }
+
+        @Override
+        public String toString() {
+            return linkType+":"+namespaceId+":"+title;
+        }
+
+    }
+
+    protected static class LinkTemplate {
+
+        protected MediaWikiConst.LinkType linkType;
+        protected String targetPrefix;
+        protected int[] parameterIndexes;
+
+        protected LinkTemplate(MediaWikiConst.LinkType pLinkType, String pTargetPrefix, int[] pParameterIndexes) {
+            linkType = pLinkType;
+            targetPrefix = pTargetPrefix == null ? "" : pTargetPrefix;
+            parameterIndexes = pParameterIndexes;
+        }
+
+        protected boolean isLinkParameter(int pPosition) {
+            if (parameterIndexes.length == 0) return true;
+            for (int lIndex:parameterIndexes) {
+                if (lIndex == pPosition) return true;
+            }
+            return false;
+        }
+
+    }
+
+}
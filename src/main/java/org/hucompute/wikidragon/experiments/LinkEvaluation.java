@@ -19,77 +19,67 @@
 
 package org.hucompute.wikidragon.experiments;
 
-import gnu.trove.map.hash.TObjectDoubleHashMap;
-import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.TIntHashSet;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.MediaWiki;
 import org.hucompute.wikidragon.core.model.MediaWikiConst;
-import org.hucompute.wikidragon.core.model.Page;
-import org.hucompute.wikidragon.core.model.WikiPageLink;
+import org.hucompute.wikidragon.core.util.LinkGraphSnapshot;
 
 import java.time.ZonedDateTime;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 public class LinkEvaluation {
 
     private static Logger logger = LogManager.getLogger(LinkEvaluation.class);
 
     public static Map<MediaWikiConst.LinkType, LinkEvaluationResult> evaluateLinks(MediaWiki pMediaWiki, ZonedDateTime pTestTimestamp, ZonedDateTime pGoldTimestamp) throws WikiDragonException {
-        long lPageCounter = 0;
-        TObjectDoubleHashMap<MediaWikiConst.LinkType> lMeanRecall = new TObjectDoubleHashMap<>();
-        TObjectDoubleHashMap<MediaWikiConst.LinkType> lMeanPrecision = new TObjectDoubleHashMap<>();
-        TObjectDoubleHashMap<MediaWikiConst.LinkType> lMeanFScore = new TObjectDoubleHashMap<>();
-        for (Page lPage:pMediaWiki.getPages()) {
-            lPageCounter++;
-            logger.info("Link Evaluation: "+lPageCounter+" pages processed");
-            Map<MediaWikiConst.LinkType, Set<Page>> lTestMap = new HashMap<>();
-            Map<MediaWikiConst.LinkType, Set<Page>> lGoldMap = new HashMap<>();
-            TObjectIntHashMap<MediaWikiConst.LinkType> lTruePositives = new TObjectIntHashMap<>();
-            TObjectDoubleHashMap<MediaWikiConst.LinkType> lRecall = new TObjectDoubleHashMap<>();
-            TObjectDoubleHashMap<MediaWikiConst.LinkType> lPrecision = new TObjectDoubleHashMap<>();
-            TObjectDoubleHashMap<MediaWikiConst.LinkType> lFScore = new TObjectDoubleHashMap<>();
-            for (MediaWikiConst.LinkType lType:MediaWikiConst.LinkType.values()) {
-                lTestMap.put(lType, new HashSet<>());
-                lGoldMap.put(lType, new HashSet<>());
-                lTruePositives.put(lType, 0);
-                lPrecision.put(lType, 0);
+        // Both snapshots index the same pages in the same order
+        try (LinkGraphSnapshot lTest = LinkGraphSnapshot.build(pMediaWiki, pTestTimestamp); LinkGraphSnapshot lGold = LinkGraphSnapshot.build(pMediaWiki, pGoldTimestamp)) {
+            MediaWikiConst.LinkType[] lTypes = MediaWikiConst.LinkType.values();
+            long lPageCounter = 0;
+            double[] lMeanRecall = new double[lTypes.length];
+            double[] lMeanPrecision = new double[lTypes.length];
+            double[] lMeanFScore = new double[lTypes.length];
+            TIntHashSet[] lTestSets = new TIntHashSet[lTypes.length];
+            for (int t=0; t<lTypes.length; t++) {
+                lTestSets[t] = new TIntHashSet();
             }
-            for (WikiPageLink lLink:lPage.getWikiPageLinksOut(pTestTimestamp)) {
-                lTestMap.get(lLink.getLinkType()).add(lLink.getTarget());
-            }
-            for (WikiPageLink lLink:lPage.getWikiPageLinksOut(pGoldTimestamp)) {
-                lGoldMap.get(lLink.getLinkType()).add(lLink.getTarget());
-            }
-            for (MediaWikiConst.LinkType lType:MediaWikiConst.LinkType.values()) {
-                for (Page lTestPage:lGoldMap.get(lType)) {
-                    if (lTestMap.get(lType).contains(lTestPage)) {
-                        lTruePositives.adjustOrPutValue(lType, 1, 1);
-                    }
-                    else {
-                        //logger.info(lType.name()+" - "+lPage.getQualifiedTitle()+" - "+lTestPage.getQualifiedTitle());
+            for (int i=0; i<lTest.getNodeCount(); i++) {
+                lPageCounter++;
+                if (lPageCounter % 100000 == 0) logger.info("Link Evaluation: "+lPageCounter+" pages processed");
+                int[] lGoldCount = new int[lTypes.length];
+                int[] lTruePositives = new int[lTypes.length];
+                for (TIntHashSet lSet:lTestSets) {
+                    lSet.clear();
+                }
+                for (int e=lTest.getOutEdgeStart(i); e<lTest.getOutEdgeStart(i+1); e++) {
+                    lTestSets[lTest.getOutLinkType(e).ordinal()].add(lTest.getOutTarget(e));
+                }
+                for (int e=lGold.getOutEdgeStart(i); e<lGold.getOutEdgeStart(i+1); e++) {
+                    int lType = lGold.getOutLinkType(e).ordinal();
+                    lGoldCount[lType]++;
+                    if (lTestSets[lType].contains(lGold.getOutTarget(e))) {
+                        lTruePositives[lType]++;
                     }
                 }
+                for (int t=0; t<lTypes.length; t++) {
+                    double lRecall = lGoldCount[t] > 0 ? lTruePositives[t]/(double)lGoldCount[t] : 1;
+                    double lPrecision = lTestSets[t].size() > 0 ? lTruePositives[t]/(double)lTestSets[t].size() : 1;
+                    double lFScore = (lRecall + lPrecision) > 0 ? (2 * lRecall * lPrecision)/(lRecall + lPrecision) : 0;
+                    lMeanRecall[t] += lRecall;
+                    lMeanPrecision[t] += lPrecision;
+                    lMeanFScore[t] += lFScore;
+                }
             }
-            for (MediaWikiConst.LinkType lType:MediaWikiConst.LinkType.values()) {
-                lRecall.put(lType, lGoldMap.get(lType).size() > 0 ? lTruePositives.get(lType)/(double)(lGoldMap.get(lType).size()) : 1);
-                lPrecision.put(lType, lTestMap.get(lType).size() > 0 ? lTruePositives.get(lType)/(double)(lTestMap.get(lType).size()) : 1);
-                lFScore.put(lType, (lRecall.get(lType) + lPrecision.get(lType)) > 0 ? (2 * lRecall.get(lType) * lPrecision.get(lType))/(lRecall.get(lType) + lPrecision.get(lType)) : 0);
-                //
-                lMeanRecall.adjustOrPutValue(lType, lRecall.get(lType), lRecall.get(lType));
-                lMeanPrecision.adjustOrPutValue(lType, lPrecision.get(lType), lPrecision.get(lType));
-                lMeanFScore.adjustOrPutValue(lType, lFScore.get(lType), lFScore.get(lType));
+            Map<MediaWikiConst.LinkType, LinkEvaluationResult> lResult = new HashMap<>();
+            for (int t=0; t<lTypes.length; t++) {
+                lResult.put(lTypes[t], new LinkEvaluationResult(lMeanRecall[t]/lPageCounter, lMeanPrecision[t]/lPageCounter, lMeanFScore[t]/lPageCounter, lPageCounter));
             }
+            return lResult;
         }
-        Map<MediaWikiConst.LinkType, LinkEvaluationResult> lResult = new HashMap<>();
-        for (MediaWikiConst.LinkType lType:MediaWikiConst.LinkType.values()) {
-            lResult.put(lType, new LinkEvaluationResult(lMeanRecall.get(lType)/lPageCounter, lMeanPrecision.get(lType)/lPageCounter, lMeanFScore.get(lType)/lPageCounter, lPageCounter));
-        }
-        return lResult;
     }
 
     public static class LinkEvaluationResult {
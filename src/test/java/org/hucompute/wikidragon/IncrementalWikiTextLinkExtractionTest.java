@@ -0,0 +1,209 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon;
+
+import org.bitbucket.cowwoc.diffmatchpatch.DiffMatchPatch;
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.*;
+import org.hucompute.wikidragon.core.model.neobat.NeoBatWikiDragonDatabase;
+import org.hucompute.wikidragon.core.revcompression.diff.DiffRevisionCompressor;
+import org.hucompute.wikidragon.core.util.IncrementalWikiTextLinkExtraction;
+import org.hucompute.wikidragon.core.util.WikiTextLinkExtraction;
+import org.hucompute.wikidragon.core.util.WikiTextLinkExtraction.LinkTarget;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+public class IncrementalWikiTextLinkExtractionTest {
+
+    private static final String[] LINK_TOKENS = new String[]{"[[", "[[", "]]", "]]", "|", "A", "B", "C", "Category:", "#", ":", " ", "\n", "\n"};
+    // Additionally tokens which force full scans
+    private static final String[] TOKENS = new String[]{"[[", "[[", "]]", "]]", "|", "A", "B", "C", "Category:", "#", ":", " ", "\n", "{{Main|", "}}", "<!--", "-->", "<nowiki>", "</nowiki>", "#REDIRECT "};
+
+    private static File testTmpDir;
+    private static WikiDragonDatabase database;
+    private static MediaWiki mediaWiki;
+    private static WikiTextLinkExtraction extraction;
+
+    @BeforeClass
+    public static void setUp() throws WikiDragonException {
+        testTmpDir = TestUtil.prepareTmpDir(IncrementalWikiTextLinkExtractionTest.class);
+        database = new NeoBatWikiDragonDatabase(new File(testTmpDir.getAbsolutePath()+File.separator+"db"), true);
+        // Key frames every second revision, so diff chains are interrupted within a page
+        DiffRevisionCompressor lCompressor = new DiffRevisionCompressor(1, 4);
+        lCompressor.setKeyFrameInterval(2);
+        lCompressor.setForceLatestRevisionUncompressed(false);
+        mediaWiki = TestUtil.importSample(database, lCompressor);
+        extraction = new WikiTextLinkExtraction(mediaWiki);
+        extraction.addLinkTemplate("Main", null, "");
+    }
+
+    @AfterClass
+    public static void tearDown() throws WikiDragonException {
+        try {
+            database.close();
+        }
+        finally {
+            TestUtil.deleteTmpDir(testTmpDir);
+        }
+    }
+
+    private static Set<LinkTarget> scan(String pWikiText) {
+        Set<LinkTarget> lResult = new HashSet<>();
+        extraction.scan(pWikiText, (pTarget, pRedirect, pLinkType) -> lResult.addAll(extraction.getLinkTargets(pTarget, pRedirect, pLinkType)));
+        return lResult;
+    }
+
+    private static <T> Set<T> minus(Set<T> pSet, Set<T> pRemove) {
+        Set<T> lResult = new HashSet<>(pSet);
+        lResult.removeAll(pRemove);
+        return lResult;
+    }
+
+    /**
+     * Feed the texts as consecutive revisions and compare every step with a full rescan
+     * @param pUsePatches Pass patches instead of letting the extraction compute the diff
+     * @return Number of incremental scans
+     */
+    private static int assertEquivalent(List<String> pTexts, boolean pUsePatches) {
+        DiffMatchPatch lDiff = new DiffMatchPatch();
+        IncrementalWikiTextLinkExtraction lIncremental = new IncrementalWikiTextLinkExtraction(extraction);
+        Set<LinkTarget> lPrevious = Collections.emptySet();
+        String lPreviousText = null;
+        int lIncrementalScans = 0;
+        for (String lText:pTexts) {
+            IncrementalWikiTextLinkExtraction.LinkChanges lChanges;
+            if (pUsePatches && (lPreviousText != null)) {
+                lChanges = lIncremental.next(lText, lDiff.patchMake(lPreviousText, lText));
+            }
+            else {
+                lChanges = lIncremental.next(lText);
+            }
+            Set<LinkTarget> lExpected = scan(lText);
+            String lMessage = "\n"+lPreviousText+"\n=>\n"+lText;
+            Assert.assertEquals(lMessage, lExpected, lIncremental.getLinkTargets());
+            Assert.assertEquals(lMessage, minus(lExpected, lPrevious), lChanges.getAdded());
+            Assert.assertEquals(lMessage, minus(lPrevious, lExpected), lChanges.getRemoved());
+            if (!lChanges.isFullScan()) lIncrementalScans++;
+            lPrevious = lExpected;
+            lPreviousText = lText;
+        }
+        return lIncrementalScans;
+    }
+
+    private static void assertEquivalent(String... pTexts) {
+        List<String> lTexts = Arrays.asList(pTexts);
+        assertEquivalent(lTexts, false);
+        assertEquivalent(lTexts, true);
+    }
+
+    @Test
+    public void insertDeleteTest() {
+        assertEquivalent("Intro [[A]] text", "Intro [[A]] more [[B]] text", "[[C]]Intro [[A]] more [[B]] text", "[[C]]Intro [[A]] text", "Intro text");
+        // Duplicate targets are only removed with their last occurrence
+        assertEquivalent("[[A]] and [[A]]\n[[B]]", "[[A]] and\n[[B]]", "and\n[[B]]");
+        Assert.assertEquals(3, assertEquivalent(Arrays.asList("x\n[[A]]\ny", "x\n[[A]]\ny [[B]]", "x\ny [[B]]", "x\nz\ny [[B]]"), true));
+    }
+
+    @Test
+    public void linkBoundaryTest() {
+        assertEquivalent("[[A]] [[B]]", "[[A]][[B]]", "[[A [[B]]", "[[A B]]", "[[AB]]", "[[A]]B]]", "[[A|B]]", "[[A|B]", "[[A|[[B]]]]", "[[Category:A|B]]", "[[:Category:A|B]]", "[[A#B]]");
+        assertEquivalent("x [[A\n]] y [[B]]", "x [[A]] y [[B]]", "x [[A]]\n]] y [[B]]");
+    }
+
+    @Test
+    public void multiEditTest() {
+        StringBuilder lBuilder = new StringBuilder();
+        for (int i=0; i<50; i++) lBuilder.append("Line ").append(i).append(" links to [[Page ").append(i).append("]] and [[Page ").append(i%7).append("]]\n");
+        String lText = lBuilder.toString();
+        String lEdited = lText.replace("[[Page 3]] and", "[[Page 3|three]] and [[Extra]]").replace("links to [[Page 40]]", "links to Page 40").replace("[[Page 6]]\nLine 7", "[[Page 6]]\n\nLine 7 [[Page 49]]");
+        String lReverted = lEdited.replace("[[Extra]]", "").replace("Line 0 links", "[[Category:Numbers]] Line 0 links");
+        assertEquivalent(lText, lEdited, lReverted, lText);
+    }
+
+    @Test
+    public void structuralEditTest() {
+        assertEquivalent("[[A]]\n[[B]]\n[[C]]", "[[A]]\n<!--[[B]]\n[[C]]", "[[A]]\n<!--[[B]]-->\n[[C]]", "<nowiki>[[A]]\n[[B]]</nowiki>\n[[C]]", "#REDIRECT [[A]]\n[[B]]\n[[C]]", "[[A]]\n{{Main|B|\n[[C]]}}", "[[A]]\n{{Main|B|C}}");
+    }
+
+    @Test
+    public void randomEditTest() {
+        Random lRandom = new Random(42);
+        int lIncrementalScans = 0;
+        for (int lRun=0; lRun<20; lRun++) {
+            String[] lTokens = lRun % 2 == 0 ? LINK_TOKENS : TOKENS;
+            List<String> lTexts = new ArrayList<>();
+            StringBuilder lBuilder = new StringBuilder();
+            for (int i=0; i<200; i++) lBuilder.append(lTokens[lRandom.nextInt(lTokens.length)]);
+            lTexts.add(lBuilder.toString());
+            for (int lRevision=0; lRevision<30; lRevision++) {
+                int lEdits = 1+lRandom.nextInt(3);
+                for (int e=0; e<lEdits; e++) {
+                    int lPosition = lRandom.nextInt(lBuilder.length()+1);
+                    switch (lRandom.nextInt(3)) {
+                        case 0: {
+                            lBuilder.insert(lPosition, lTokens[lRandom.nextInt(lTokens.length)]);
+                            break;
+                        }
+                        case 1: {
+                            lBuilder.delete(lPosition, Math.min(lBuilder.length(), lPosition+1+lRandom.nextInt(8)));
+                            break;
+                        }
+                        default: {
+                            lBuilder.replace(lPosition, Math.min(lBuilder.length(), lPosition+1+lRandom.nextInt(4)), lTokens[lRandom.nextInt(lTokens.length)]);
+                        }
+                    }
+                }
+                lTexts.add(lBuilder.toString());
+            }
+            lIncrementalScans += assertEquivalent(lTexts, false);
+            lIncrementalScans += assertEquivalent(lTexts, true);
+        }
+        // Runs without structural tokens mostly take the incremental path
+        Assert.assertTrue(lIncrementalScans > 20*30/2);
+    }
+
+    @Test
+    public void diffChainTest() throws WikiDragonException {
+        Set<WikiDragonConst.Compression> lCompressions = EnumSet.noneOf(WikiDragonConst.Compression.class);
+        IncrementalWikiTextLinkExtraction lIncremental = new IncrementalWikiTextLinkExtraction(extraction);
+        try (WikiTransaction tx = database.beginReadSession()) {
+            for (Page lPage:mediaWiki.getPages()) {
+                List<Revision> lVisited = new ArrayList<>();
+                lIncremental.extract(lPage, (pRevision, pLinkChanges) -> {
+                    Assert.assertEquals(scan(pRevision.getRawText()), lIncremental.getLinkTargets());
+                    if (!lVisited.isEmpty()) lCompressions.add(pRevision.getRawTextCompression());
+                    lVisited.add(pRevision);
+                    return true;
+                });
+                Assert.assertEquals(lPage.getRevisionsList(), lVisited);
+            }
+            tx.success();
+        }
+        // The chains have to contain both diffs and key frames beyond the first revision
+        Assert.assertTrue(lCompressions.contains(WikiDragonConst.Compression.DIFFBZIP2));
+        Assert.assertTrue(lCompressions.contains(WikiDragonConst.Compression.BZIP2));
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon;
+
+import org.hucompute.wikidragon.core.util.LinkTripleSorter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class LinkTripleSorterTest {
+
+    private static final Comparator<long[]> TRIPLE_ORDER = (a, b) -> {
+        for (int i=0; i<3; i++) {
+            int lResult = Long.compare(a[i], b[i]);
+            if (lResult != 0) return lResult;
+        }
+        return 0;
+    };
+
+    private void check(LinkTripleSorter pSorter, List<long[]> pTriples) throws IOException {
+        TreeSet<long[]> lExpected = new TreeSet<>(TRIPLE_ORDER);
+        for (long[] lTriple:pTriples) {
+            pSorter.add(lTriple[0], lTriple[1], (int)lTriple[2]);
+            lExpected.add(lTriple);
+        }
+        Assert.assertEquals(pTriples.size(), pSorter.getCount());
+        try (LinkTripleSorter.Cursor lCursor = pSorter.sort()) {
+            for (long[] lTriple:lExpected) {
+                Assert.assertTrue(lCursor.next());
+                Assert.assertArrayEquals(lTriple, new long[]{lCursor.getSource(), lCursor.getTarget(), lCursor.getType()});
+            }
+            Assert.assertFalse(lCursor.next());
+        }
+    }
+
+    private List<long[]> randomTriples(Random pRandom, int pCount, int pMaxId) {
+        List<long[]> lResult = new ArrayList<>();
+        for (int i=0; i<pCount; i++) {
+            lResult.add(new long[]{pRandom.nextInt(pMaxId), pRandom.nextInt(pMaxId), pRandom.nextInt(4)});
+        }
+        return lResult;
+    }
+
+    @Test
+    public void inMemoryTest() throws IOException {
+        File lDir = TestUtil.prepareTmpDir(LinkTripleSorterTest.class);
+        try (LinkTripleSorter lSorter = new LinkTripleSorter(lDir, 100000)) {
+            check(lSorter, randomTriples(new Random(1), 20000, 300));
+            Assert.assertEquals(0, lSorter.getRunCount());
+        }
+    }
+
+    @Test
+    public void externalSortTest() throws IOException {
+        File lDir = TestUtil.prepareTmpDir(LinkTripleSorterTest.class);
+        // Small id range, so most duplicates end up in different runs and are dropped by the merge
+        try (LinkTripleSorter lSorter = new LinkTripleSorter(lDir, 97)) {
+            check(lSorter, randomTriples(new Random(2), 20000, 60));
+            Assert.assertTrue(lSorter.getRunCount() > 100);
+            Assert.assertEquals(lSorter.getRunCount(), lDir.listFiles().length);
+        }
+        Assert.assertEquals(0, lDir.listFiles().length);
+    }
+
+    @Test
+    public void duplicateTest() throws IOException {
+        File lDir = TestUtil.prepareTmpDir(LinkTripleSorterTest.class);
+        // Exactly one triple added again and again, within and across runs
+        for (int lBufferSize:new int[]{1, 3, 1000}) {
+            try (LinkTripleSorter lSorter = new LinkTripleSorter(lDir, lBufferSize)) {
+                List<long[]> lTriples = new ArrayList<>();
+                for (int i=0; i<50; i++) {
+                    lTriples.add(new long[]{7, 8, 1});
+                }
+                check(lSorter, lTriples);
+            }
+        }
+        // Same source and target with different types are different triples
+        try (LinkTripleSorter lSorter = new LinkTripleSorter(lDir, 2)) {
+            check(lSorter, Arrays.asList(new long[]{1, 2, 3}, new long[]{1, 2, 0}, new long[]{1, 2, 3}, new long[]{1, 2, 255}, new long[]{1, 2, 0}));
+        }
+    }
+
+    @Test
+    public void boundaryTest() throws IOException {
+        File lDir = TestUtil.prepareTmpDir(LinkTripleSorterTest.class);
+        long lMaxId = (1L << 56)-1;
+        try (LinkTripleSorter lSorter = new LinkTripleSorter(lDir, 2)) {
+            check(lSorter, Arrays.asList(new long[]{lMaxId, lMaxId, 255}, new long[]{0, lMaxId, 0}, new long[]{lMaxId, 0, 255}, new long[]{0, 0, 0}, new long[]{Long.MAX_VALUE, 1, 1}));
+        }
+        try (LinkTripleSorter lSorter = new LinkTripleSorter(lDir, 2)) {
+            check(lSorter, new ArrayList<>());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void sortOnceTest() throws IOException {
+        File lDir = TestUtil.prepareTmpDir(LinkTripleSorterTest.class);
+        try (LinkTripleSorter lSorter = new LinkTripleSorter(lDir, 10)) {
+            lSorter.add(1, 2, 0);
+            lSorter.sort().close();
+            lSorter.add(3, 4, 0);
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon;
+
+import gnu.trove.list.array.TLongArrayList;
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.MediaWiki;
+import org.hucompute.wikidragon.core.model.Page;
+import org.hucompute.wikidragon.core.model.WikiDragonConst;
+import org.hucompute.wikidragon.core.model.WikiDragonDatabase;
+import org.hucompute.wikidragon.core.model.neo.NeoWikiDragonDatabase;
+import org.hucompute.wikidragon.core.model.neobat.NeoBatWikiDragonDatabase;
+import org.hucompute.wikidragon.core.util.PageTitleDictionary;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class PageTitleDictionaryTest {
+
+    @Test
+    public void roundTripTest() throws IOException {
+        File lTestTmpDir = TestUtil.prepareTmpDir(PageTitleDictionaryTest.class);
+        try {
+            Map<String, Long> lExpected = new HashMap<>();
+            PageTitleDictionary.Builder lBuilder = new PageTitleDictionary.Builder(4);
+            Random lRandom = new Random(42);
+            int[] lNamespaces = new int[]{-2, -1, 0, 1, 10, 14, 828};
+            for (int i=0; i<5000; i++) {
+                int lNamespace = lNamespaces[lRandom.nextInt(lNamespaces.length)];
+                String lTitle = "Title "+Integer.toString(lRandom.nextInt(100000), 36)+(i % 7 == 0 ? " Äöü 日本語" : "");
+                String lKey = lNamespace+":"+lTitle;
+                if (lExpected.containsKey(lKey)) continue;
+                lExpected.put(lKey, (long)i*1000L+7);
+                lBuilder.add(lNamespace, lTitle, (long)i*1000L+7);
+            }
+            try (PageTitleDictionary lDictionary = lBuilder.build(new File(lTestTmpDir, "titles.dat"))) {
+                Assert.assertEquals(lExpected.size(), lDictionary.size());
+                for (Map.Entry<String, Long> lEntry:lExpected.entrySet()) {
+                    int lSeparator = lEntry.getKey().indexOf(':');
+                    int lNamespace = Integer.parseInt(lEntry.getKey().substring(0, lSeparator));
+                    String lTitle = lEntry.getKey().substring(lSeparator+1);
+                    Assert.assertEquals(lEntry.getKey(), lEntry.getValue().longValue(), lDictionary.get(lNamespace, lTitle));
+                }
+                Assert.assertEquals(WikiDragonConst.NULLNODEID, lDictionary.get(0, "Unknown"));
+                Assert.assertEquals(WikiDragonConst.NULLNODEID, lDictionary.get(2, "Title 1"));
+                // Full scan yields every entry once in ascending (namespace, title) order
+                List<String> lScanned = new ArrayList<>();
+                int[] lPrevNamespace = new int[]{Integer.MIN_VALUE};
+                lDictionary.scan((pNamespaceID, pTitle, pNodeID) -> {
+                    Assert.assertTrue(pNamespaceID >= lPrevNamespace[0]);
+                    lPrevNamespace[0] = pNamespaceID;
+                    Assert.assertEquals(lExpected.get(pNamespaceID+":"+pTitle).longValue(), pNodeID);
+                    lScanned.add(pNamespaceID+":"+pTitle);
+                    return true;
+                });
+                Assert.assertEquals(lExpected.size(), lScanned.size());
+                Assert.assertEquals(lExpected.size(), new HashSet<>(lScanned).size());
+            }
+        }
+        finally {
+            TestUtil.deleteTmpDir(lTestTmpDir);
+        }
+    }
+
+    @Test
+    public void prefixAndDuplicateTest() throws IOException {
+        File lTestTmpDir = TestUtil.prepareTmpDir(PageTitleDictionaryTest.class);
+        try {
+            PageTitleDictionary.Builder lBuilder = new PageTitleDictionary.Builder();
+            lBuilder.add(0, "Apple", 1);
+            lBuilder.add(0, "Apple pie", 2);
+            lBuilder.add(0, "Applesauce", 3);
+            lBuilder.add(0, "Apricot", 4);
+            lBuilder.add(1, "Apple", 5);
+            lBuilder.add(0, "Apple", 6); // duplicate, first one wins
+            try (PageTitleDictionary lDictionary = lBuilder.build(new File(lTestTmpDir, "titles.dat"))) {
+                Assert.assertEquals(5, lDictionary.size());
+                Assert.assertEquals(1, lDictionary.get(0, "Apple"));
+                Assert.assertEquals(5, lDictionary.get(1, "Apple"));
+                TLongArrayList lPrefixNodeIDs = lDictionary.getPrefixNodeIDs(0, "Apple");
+                Assert.assertEquals(new TLongArrayList(new long[]{1, 2, 3}), lPrefixNodeIDs);
+                Assert.assertEquals(4, lDictionary.getPrefixNodeIDs(0, "").size());
+                Assert.assertEquals(0, lDictionary.getPrefixNodeIDs(0, "Banana").size());
+            }
+            // Reopen the written file
+            try (PageTitleDictionary lDictionary = PageTitleDictionary.open(new File(lTestTmpDir, "titles.dat"))) {
+                Assert.assertEquals(4, lDictionary.get(0, "Apricot"));
+            }
+        }
+        finally {
+            TestUtil.deleteTmpDir(lTestTmpDir);
+        }
+    }
+
+    @Test
+    public void emptyAndClosedTest() throws IOException {
+        File lTestTmpDir = TestUtil.prepareTmpDir(PageTitleDictionaryTest.class);
+        try {
+            PageTitleDictionary lDictionary = new PageTitleDictionary.Builder().build(new File(lTestTmpDir, "titles.dat"));
+            Assert.assertEquals(0, lDictionary.size());
+            Assert.assertEquals(WikiDragonConst.NULLNODEID, lDictionary.get(0, "Apple"));
+            lDictionary.close();
+            Assert.assertTrue(lDictionary.isClosed());
+            try {
+                lDictionary.get(0, "Apple");
+                Assert.fail("Lookup on closed dictionary");
+            }
+            catch (IllegalStateException e) {
+                // expected
+            }
+            Assert.assertTrue(new File(lTestTmpDir, "titles.dat").delete());
+        }
+        finally {
+            TestUtil.deleteTmpDir(lTestTmpDir);
+        }
+    }
+
+    @Test
+    public void neoInvalidationTest() throws WikiDragonException {
+        File lTestTmpDir = TestUtil.prepareTmpDir(PageTitleDictionaryTest.class);
+        try (WikiDragonDatabase lDB = new NeoWikiDragonDatabase(new File(lTestTmpDir, "db"), true)) {
+            checkInvalidation(lDB, true);
+        }
+        finally {
+            TestUtil.deleteTmpDir(lTestTmpDir);
+        }
+    }
+
+    @Test
+    public void neoBatInvalidationTest() throws WikiDragonException {
+        File lTestTmpDir = TestUtil.prepareTmpDir(PageTitleDictionaryTest.class);
+        try (WikiDragonDatabase lDB = new NeoBatWikiDragonDatabase(new File(lTestTmpDir, "db"), true)) {
+            checkInvalidation(lDB, false);
+        }
+        finally {
+            TestUtil.deleteTmpDir(lTestTmpDir);
+        }
+    }
+
+    /**
+     * @param pIndexVisible false if index updates only become visible after a flush (NeoBat)
+     */
+    private void checkInvalidation(WikiDragonDatabase pDB, boolean pIndexVisible) throws WikiDragonException {
+        MediaWiki lMediaWiki = TestUtil.importSample(pDB);
+        PageTitleDictionary lDictionary = lMediaWiki.getPageTitleDictionary();
+        Assert.assertEquals(4, lDictionary.size());
+        Assert.assertTrue(lDictionary.getFile().exists());
+        Assert.assertNotNull(lMediaWiki.getPage("April"));
+        Page lPage = lMediaWiki.createPage(1000000, lMediaWiki.getNamespace(0), "New page");
+        Assert.assertTrue(lDictionary.isClosed());
+        Assert.assertFalse(lDictionary.getFile().exists());
+        Assert.assertNotNull(lMediaWiki.getPage("April"));
+        if (pIndexVisible) {
+            Assert.assertEquals(lPage, lMediaWiki.getPage("New page"));
+            Assert.assertEquals(5, lMediaWiki.getPageTitleDictionary().size());
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon;
+
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.MediaWiki;
+import org.hucompute.wikidragon.core.model.WikiTransaction;
+import org.hucompute.wikidragon.core.model.neobat.NeoBatWikiDragonDatabase;
+import org.hucompute.wikidragon.core.util.PageTitleFilter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class PageTitleFilterTest {
+
+    @Test
+    public void noFalseNegativesTest() throws IOException {
+        File lTestTmpDir = TestUtil.prepareTmpDir(PageTitleFilterTest.class);
+        try {
+            // Small first stage, so the filter has to grow several times
+            PageTitleFilter lFilter = new PageTitleFilter(1024, 0.01);
+            Set<String> lAdded = new HashSet<>();
+            Random lRandom = new Random(42);
+            int[] lNamespaces = new int[]{-2, -1, 0, 1, 10, 14, 828};
+            for (int i=0; i<20000; i++) {
+                int lNamespace = lNamespaces[lRandom.nextInt(lNamespaces.length)];
+                String lTitle = "Title "+Integer.toString(lRandom.nextInt(1000000), 36)+(i % 7 == 0 ? " Äöü 日本語" : "");
+                lFilter.add(lNamespace, lTitle);
+                lAdded.add(lNamespace+":"+lTitle);
+            }
+            checkContains(lFilter, lAdded);
+            // Same after a round trip through the file
+            File lFile = new File(lTestTmpDir, "titlefilter.dat");
+            lFilter.write(lFile);
+            PageTitleFilter lLoaded = PageTitleFilter.load(lFile);
+            Assert.assertEquals(lFilter.size(), lLoaded.size());
+            checkContains(lLoaded, lAdded);
+            // Titles which have not been added are mostly rejected
+            int lFalsePositives = 0;
+            for (int i=0; i<10000; i++) {
+                if (lLoaded.mightContain(2, "Unknown "+i)) lFalsePositives++;
+            }
+            Assert.assertTrue(lFalsePositives+" false positives", lFalsePositives < 200);
+        }
+        finally {
+            TestUtil.deleteTmpDir(lTestTmpDir);
+        }
+    }
+
+    @Test
+    public void neoBatCreatePageTest() throws WikiDragonException, IOException {
+        File lTestTmpDir = TestUtil.prepareTmpDir(PageTitleFilterTest.class);
+        try {
+            File lDBDir = new File(lTestTmpDir, "db");
+            try (NeoBatWikiDragonDatabase lDB = new NeoBatWikiDragonDatabase(lDBDir, true)) {
+                MediaWiki lMediaWiki = TestUtil.importSample(lDB);
+                PageTitleFilter lFilter = lMediaWiki.getPageTitleFilter();
+                Assert.assertTrue(lFilter.mightContain(0, "April"));
+                try (WikiTransaction tx = lDB.beginTx()) {
+                    lMediaWiki.createPage(1000000, lMediaWiki.getNamespace(0), "New page");
+                    tx.success();
+                }
+                // Pages created after the filter has been built must not be rejected
+                Assert.assertTrue(lFilter.mightContain(0, "New page"));
+                Assert.assertNotNull(lMediaWiki.getPage("New page"));
+            }
+            // The filter written on close still contains the new page
+            try (NeoBatWikiDragonDatabase lDB = new NeoBatWikiDragonDatabase(lDBDir, false)) {
+                MediaWiki lMediaWiki = lDB.getMediaWikiCollection().getMediaWiki("simplewiki");
+                Assert.assertTrue(lMediaWiki.getPageTitleFilter().mightContain(0, "New page"));
+                Assert.assertNotNull(lMediaWiki.getPage("New page"));
+            }
+        }
+        finally {
+            TestUtil.deleteTmpDir(lTestTmpDir);
+        }
+    }
+
+    private void checkContains(PageTitleFilter pFilter, Set<String> pTitles) {
+        for (String lKey:pTitles) {
+            int lSeparator = lKey.indexOf(':');
+            Assert.assertTrue(lKey, pFilter.mightContain(Integer.parseInt(lKey.substring(0, lSeparator)), lKey.substring(lSeparator+1)));
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon;
+
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.*;
+import org.hucompute.wikidragon.core.model.neo.NeoWikiDragonDatabase;
+import org.hucompute.wikidragon.core.util.CommentDictionary;
+import org.hucompute.wikidragon.core.util.PropertyCodec;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.*;
+
+public class PropertyCodecTest {
+
+    @Test
+    public void enumRoundTripTest() {
+        for (MediaWikiConst.Model lModel:MediaWikiConst.Model.values()) {
+            Assert.assertEquals(lModel, PropertyCodec.decodeEnum(MediaWikiConst.Model.class, PropertyCodec.encodeEnum(lModel)));
+            // Former string representation
+            Assert.assertEquals(lModel, PropertyCodec.decodeEnum(MediaWikiConst.Model.class, lModel.name()));
+        }
+        Assert.assertNull(PropertyCodec.decodeEnum(MediaWikiConst.Model.class, null));
+    }
+
+    @Test
+    public void ipRoundTripTest() {
+        for (String lIP:new String[]{"0.0.0.0", "127.0.0.1", "192.168.178.1", "255.255.255.255", "2001:DB8:0:0:0:0:0:1", "FE80:0:0:0:202:B3FF:FE1E:8329"}) {
+            Object lEncoded = PropertyCodec.encodeIP(lIP);
+            Assert.assertFalse(lIP, lEncoded instanceof String);
+            Assert.assertEquals(lIP, PropertyCodec.decodeIP(lEncoded));
+        }
+        // Values which would not decode to the identical string are kept as they are
+        for (String lIP:new String[]{"", "2001:db8:0:0:0:0:0:1", "2001:DB8::1", "010.1.1.1", "Example", "1.2.3"}) {
+            Object lEncoded = PropertyCodec.encodeIP(lIP);
+            Assert.assertEquals(lIP, lEncoded);
+            Assert.assertEquals(lIP, PropertyCodec.decodeIP(lEncoded));
+        }
+        Assert.assertNull(PropertyCodec.encodeIP(null));
+        Assert.assertNull(PropertyCodec.decodeIP(null));
+    }
+
+    @Test
+    public void commentDictionaryTest() {
+        CommentDictionary lDictionary = new CommentDictionary();
+        Assert.assertEquals(-1, lDictionary.intern("a"));
+        Assert.assertEquals(0, lDictionary.intern("a"));
+        Assert.assertEquals(0, lDictionary.intern("a"));
+        Assert.assertEquals("a", lDictionary.get(0));
+        Assert.assertNull(lDictionary.get(1));
+        char[] lLong = new char[CommentDictionary.DEFAULT_MAX_COMMENT_LENGTH+1];
+        Arrays.fill(lLong, 'x');
+        lDictionary.intern(new String(lLong));
+        Assert.assertEquals(-1, lDictionary.intern(new String(lLong)));
+    }
+
+    @Test
+    public void commentDictionaryChunkTest() {
+        CommentDictionary lDictionary = new CommentDictionary();
+        lDictionary.setMinOccurrences(1);
+        Map<Integer, String[]> lStore = new HashMap<>();
+        List<Integer> lWritten = new ArrayList<>();
+        CommentDictionary.ChunkWriter lWriter = (pChunk, pEntries) -> {
+            lStore.put(pChunk, pEntries);
+            lWritten.add(pChunk);
+        };
+        for (int i=0; i<CommentDictionary.CHUNK_SIZE+10; i++) {
+            Assert.assertEquals(i, lDictionary.intern("Comment "+i));
+        }
+        lDictionary.persist(lWriter);
+        Assert.assertEquals(Arrays.asList(0, 1), lWritten);
+        Assert.assertFalse(lDictionary.isModified());
+        // Nothing new- nothing written
+        lWritten.clear();
+        lDictionary.persist(lWriter);
+        Assert.assertTrue(lWritten.isEmpty());
+        // Only the partially filled last chunk and the new one are rewritten
+        for (int i=CommentDictionary.CHUNK_SIZE+10; i<2*CommentDictionary.CHUNK_SIZE+5; i++) {
+            lDictionary.intern("Comment "+i);
+        }
+        lDictionary.persist(lWriter);
+        Assert.assertEquals(Arrays.asList(1, 2), lWritten);
+        // Load chunk by chunk
+        CommentDictionary lLoaded = new CommentDictionary();
+        for (int i=0; lStore.containsKey(i); i++) {
+            lLoaded.load(lStore.get(i), true);
+        }
+        Assert.assertFalse(lLoaded.isModified());
+        Assert.assertEquals(lDictionary.size(), lLoaded.size());
+        for (int i=0; i<lDictionary.size(); i++) {
+            Assert.assertEquals(lDictionary.get(i), lLoaded.get(i));
+        }
+        lLoaded.setMinOccurrences(1);
+        Assert.assertEquals(5, lLoaded.intern("Comment 5"));
+    }
+
+    @Test
+    public void commentDictionaryUncommittedWriteTest() {
+        CommentDictionary lDictionary = new CommentDictionary();
+        lDictionary.setMinOccurrences(1);
+        List<Integer> lWritten = new ArrayList<>();
+        CommentDictionary.ChunkWriter lWriter = (pChunk, pEntries) -> lWritten.add(pChunk);
+        lDictionary.intern("Comment 0");
+        // Written, but the transaction has not been committed
+        Assert.assertEquals(1, lDictionary.write(lWriter));
+        Assert.assertTrue(lDictionary.isModified());
+        lDictionary.intern("Comment 1");
+        Assert.assertEquals(2, lDictionary.write(lWriter));
+        Assert.assertEquals(Arrays.asList(0, 0), lWritten);
+        // Confirming an earlier write leaves the later entries pending
+        lDictionary.markPersisted(1);
+        Assert.assertTrue(lDictionary.isModified());
+        lDictionary.markPersisted(2);
+        lDictionary.markPersisted(1);
+        Assert.assertFalse(lDictionary.isModified());
+        lWritten.clear();
+        Assert.assertEquals(2, lDictionary.write(lWriter));
+        Assert.assertTrue(lWritten.isEmpty());
+    }
+
+    @Test
+    public void neoCommentRollbackTest() throws WikiDragonException {
+        File lTestTmpDir = TestUtil.prepareTmpDir(PropertyCodecTest.class);
+        try {
+            File lDBPath = new File(lTestTmpDir, "db");
+            String lComment = "Comment interned in a rolled back transaction";
+            try (WikiDragonDatabase lDB = new NeoWikiDragonDatabase(lDBPath, true)) {
+                MediaWiki lMediaWiki = TestUtil.importSample(lDB);
+                Page lPage = lMediaWiki.getPage("April");
+                // The second occurrence interns the comment, its chunk is written into a transaction which is rolled back
+                try (WikiTransaction tx = lDB.beginTx()) {
+                    createRevision(lPage, 99999990, lComment);
+                    createRevision(lPage, 99999991, lComment);
+                    tx.success();
+                    tx.failure();
+                }
+                catch (TransactionFailureException e) {
+                    // expected- marked successful, but rolled back
+                }
+                // The comment keeps its id in memory, so this transaction has to write the entry again
+                try (WikiTransaction tx = lDB.beginTx()) {
+                    createRevision(lPage, 99999992, lComment);
+                    tx.success();
+                }
+            }
+            try (WikiDragonDatabase lDB = new NeoWikiDragonDatabase(lDBPath, false)) {
+                MediaWiki lMediaWiki = lDB.getMediaWikiCollection().getMediaWikis().iterator().next();
+                Assert.assertNull(lMediaWiki.getRevision(99999990));
+                Assert.assertEquals(lComment, lMediaWiki.getRevision(99999992).getComment());
+            }
+        }
+        finally {
+            TestUtil.deleteTmpDir(lTestTmpDir);
+        }
+    }
+
+    private void createRevision(Page pPage, long pRevisionID, String pComment) throws WikiDragonException {
+        pPage.createRevision(pRevisionID, 0, ZonedDateTime.parse("2005-01-01T00:00:00Z"), "127.0.0.1", pComment, false, MediaWikiConst.Model.WIKITEXT, MediaWikiConst.Format.TEXT_XWIKI, "", "[[April]]".getBytes(StandardCharsets.UTF_8), WikiDragonConst.Compression.NONE, 9);
+    }
+
+    @Test
+    public void neoCommentPersistenceTest() throws WikiDragonException {
+        File lTestTmpDir = TestUtil.prepareTmpDir(PropertyCodecTest.class);
+        try {
+            File lDBPath = new File(lTestTmpDir, "db");
+            Map<Long, String> lComments = new HashMap<>();
+            try (WikiDragonDatabase lDB = new NeoWikiDragonDatabase(lDBPath, true)) {
+                MediaWiki lMediaWiki = TestUtil.importSample(lDB);
+                for (Page lPage:lMediaWiki.getPages()) {
+                    for (Revision lRevision:lPage.getRevisions()) {
+                        lComments.put(lRevision.getId(), lRevision.getComment());
+                    }
+                }
+            }
+            Assert.assertFalse(lComments.isEmpty());
+            try (WikiDragonDatabase lDB = new NeoWikiDragonDatabase(lDBPath, false)) {
+                MediaWiki lMediaWiki = lDB.getMediaWikiCollection().getMediaWikis().iterator().next();
+                for (Page lPage:lMediaWiki.getPages()) {
+                    for (Revision lRevision:lPage.getRevisions()) {
+                        Assert.assertEquals(lComments.get(lRevision.getId()), lRevision.getComment());
+                    }
+                }
+            }
+        }
+        finally {
+            TestUtil.deleteTmpDir(lTestTmpDir);
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon;
+
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.util.SQLDumpReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SQLDumpReaderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private List<String[]> readAll(String pDump, int pChunkSize) throws WikiDragonException {
+        List<String[]> lResult = new ArrayList<>();
+        try (SQLDumpReader lReader = new SQLDumpReader(new ByteArrayInputStream(pDump.getBytes(UTF8)), 2, pChunkSize)) {
+            SQLDumpReader.TupleBatch lBatch;
+            while ((lBatch = lReader.nextBatch()) != null) {
+                for (int t=0; t<lBatch.size(); t++) {
+                    String[] lTuple = new String[lBatch.getFieldCount(t)];
+                    for (int f=0; f<lTuple.length; f++) {
+                        lTuple[f] = lBatch.getString(t, f);
+                    }
+                    lResult.add(lTuple);
+                }
+            }
+        }
+        return lResult;
+    }
+
+    @Test
+    public void escapeTest() throws WikiDragonException {
+        String lDump = "-- MySQL dump\n" +
+                "/*!40101 SET NAMES utf8mb4 */;\n" +
+                "CREATE TABLE `pagelinks` (\n  `pl_from` int(8) unsigned NOT NULL DEFAULT '0'\n);\n" +
+                "INSERT INTO `pagelinks` VALUES (1,0,'O\\'Reilly'),(2,0,'a\\\\b'),(3,0,'line\\nbreak\\ttab'),(4,0,'Comma, (paren)'),(5,0,'Zürich'),(6,0,'');\n" +
+                "INSERT INTO `pagelinks` VALUES (-7,14,'x\\0y\\Z\\\"q\\\"');\n";
+        List<String[]> lTuples = readAll(lDump, 1 << 16);
+        Assert.assertEquals(7, lTuples.size());
+        Assert.assertArrayEquals(new String[]{"1", "0", "O'Reilly"}, lTuples.get(0));
+        Assert.assertArrayEquals(new String[]{"2", "0", "a\\b"}, lTuples.get(1));
+        Assert.assertArrayEquals(new String[]{"3", "0", "line\nbreak\ttab"}, lTuples.get(2));
+        Assert.assertArrayEquals(new String[]{"4", "0", "Comma, (paren)"}, lTuples.get(3));
+        Assert.assertArrayEquals(new String[]{"5", "0", "Zürich"}, lTuples.get(4));
+        Assert.assertArrayEquals(new String[]{"6", "0", ""}, lTuples.get(5));
+        Assert.assertArrayEquals(new String[]{"-7", "14", "x\0y\u001A\"q\""}, lTuples.get(6));
+    }
+
+    @Test
+    public void nullTest() throws WikiDragonException {
+        String lDump = "INSERT INTO `redirect` VALUES (1,0,'Target',NULL,'NULL'),(2,NULL,'',NULL,NULL);\n";
+        try (SQLDumpReader lReader = new SQLDumpReader(new ByteArrayInputStream(lDump.getBytes(UTF8)), 1, 1 << 16)) {
+            SQLDumpReader.TupleBatch lBatch = lReader.nextBatch();
+            Assert.assertEquals(2, lBatch.size());
+            Assert.assertFalse(lBatch.isNull(0, 0));
+            Assert.assertEquals(1, lBatch.getLong(0, 0));
+            Assert.assertTrue(lBatch.isNull(0, 3));
+            Assert.assertNull(lBatch.getString(0, 3));
+            Assert.assertNull(lBatch.getBytes(0, 3));
+            // A quoted NULL is a string
+            Assert.assertFalse(lBatch.isNull(0, 4));
+            Assert.assertEquals("NULL", lBatch.getString(0, 4));
+            Assert.assertTrue(lBatch.isNull(1, 1));
+            Assert.assertEquals(0, lBatch.getLong(1, 1));
+            Assert.assertEquals(-1, lBatch.getLong(1, 1, -1));
+            Assert.assertEquals(-1, lBatch.getInt(1, 1, -1));
+            Assert.assertFalse(lBatch.isNull(1, 2));
+            Assert.assertEquals("", lBatch.getString(1, 2));
+            Assert.assertNull(lReader.nextBatch());
+        }
+    }
+
+    @Test
+    public void chunkTest() throws WikiDragonException {
+        // Chunks much smaller than the dump must neither lose nor reorder tuples
+        StringBuilder lDump = new StringBuilder();
+        int lCount = 0;
+        for (int i=0; i<200; i++) {
+            lDump.append("INSERT INTO `categorylinks` VALUES ");
+            for (int k=0; k<10; k++) {
+                if (k > 0) lDump.append(",");
+                lDump.append("(").append(lCount).append(",'Cat\\'").append(lCount).append("')");
+                lCount++;
+            }
+            lDump.append(";\n");
+        }
+        List<String[]> lTuples = readAll(lDump.toString(), 256);
+        Assert.assertEquals(lCount, lTuples.size());
+        for (int i=0; i<lCount; i++) {
+            Assert.assertArrayEquals(new String[]{Integer.toString(i), "Cat'"+i}, lTuples.get(i));
+        }
+    }
+
+}
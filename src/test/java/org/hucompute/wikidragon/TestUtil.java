@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon;
+
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.MediaWiki;
+import org.hucompute.wikidragon.core.model.WikiDragonDatabase;
+import org.hucompute.wikidragon.core.revcompression.NoneRevisionCompressor;
+import org.hucompute.wikidragon.core.revcompression.RevisionCompressor;
+import org.hucompute.wikidragon.core.util.IOUtil;
+
+import java.io.File;
+
+/**
+ * Shared setup of the tests
+ */
+public class TestUtil {
+
+    public static final String TMP_DIR = "test_tmp";
+    public static final String SAMPLE_DUMP = "/simplewiki-20180201-pages-meta-history-sample.xml";
+
+    /**
+     * Create an empty temporary directory for a test class. Every class gets its own directory below TMP_DIR, so
+     * cleaning up one test does not remove the files of another one.
+     * @param pTestClass
+     * @return Directory
+     */
+    public static File prepareTmpDir(Class<?> pTestClass) {
+        File lResult = new File(TMP_DIR, pTestClass.getSimpleName());
+        if (lResult.exists()) IOUtil.delete(lResult, true);
+        lResult.mkdirs();
+        return lResult;
+    }
+
+    /**
+     * Delete a directory created by {@link #prepareTmpDir(Class)} and TMP_DIR as well once it is empty
+     * @param pTmpDir
+     */
+    public static void deleteTmpDir(File pTmpDir) {
+        IOUtil.delete(pTmpDir, true);
+        // Fails while other test classes still have their directories
+        pTmpDir.getParentFile().delete();
+    }
+
+    /**
+     * Import the simplewiki sample dump without revision compression
+     * @param pDatabase
+     * @return MediaWiki
+     * @throws WikiDragonException
+     */
+    public static MediaWiki importSample(WikiDragonDatabase pDatabase) throws WikiDragonException {
+        return importSample(pDatabase, new NoneRevisionCompressor());
+    }
+
+    public static MediaWiki importSample(WikiDragonDatabase pDatabase, RevisionCompressor pRevisionCompressor) throws WikiDragonException {
+        return pDatabase.getMediaWikiCollection().importMediaWiki(TestUtil.class.getResourceAsStream(SAMPLE_DUMP), "UTF-8", pRevisionCompressor);
+    }
+
+}
@@ -19,20 +19,30 @@
 
 package org.hucompute.wikidragon;
 
+import gnu.trove.set.hash.TLongHashSet;
 import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
 import org.hucompute.wikidragon.core.model.MediaWiki;
+import org.hucompute.wikidragon.core.model.MediaWikiConst;
 import org.hucompute.wikidragon.core.model.Page;
 import org.hucompute.wikidragon.core.model.Revision;
+import org.hucompute.wikidragon.core.model.WikiDragonConst;
 import org.hucompute.wikidragon.core.model.WikiDragonDatabase;
+import org.hucompute.wikidragon.core.model.WikiPageLinkChanges;
+import org.hucompute.wikidragon.core.model.WikiTransaction;
 import org.hucompute.wikidragon.core.model.neo.NeoWikiDragonDatabase;
+import org.hucompute.wikidragon.core.model.neobat.NeoBatMediaWiki;
 import org.hucompute.wikidragon.core.model.neobat.NeoBatWikiDragonDatabase;
 import org.hucompute.wikidragon.core.revcompression.NoneRevisionCompressor;
 import org.hucompute.wikidragon.core.util.IOUtil;
+import org.hucompute.wikidragon.core.util.PageTitleCache;
+import org.hucompute.wikidragon.core.util.WikiTextLinkExtraction;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.*;
 
 public class WikiDragonTest {
 
@@ -89,6 +99,44 @@ public class WikiDragonTest {
         }
     }
 
+    @Test
+    public void readOnlyNeoTest() throws WikiDragonException {
+        String lSampleDumpFilename = "/simplewiki-20180201-pages-meta-history-sample.xml";
+        File lTestTmpDir = prepareTmpDir();
+        File lDBPath = new File(lTestTmpDir.getAbsolutePath()+File.separator+"db");
+        try {
+            try (WikiDragonDatabase lDB = new NeoWikiDragonDatabase(lDBPath, true)) {
+                lDB.getMediaWikiCollection().importMediaWiki(this.getClass().getResourceAsStream(lSampleDumpFilename), "UTF-8", new NoneRevisionCompressor());
+            }
+            // Open read-only twice to make sure the store is released on close
+            for (int i=0; i<2; i++) {
+                try (WikiDragonDatabase lDB = new NeoWikiDragonDatabase(lDBPath, WikiDragonConst.OpenMode.READONLY)) {
+                    MediaWiki lMediaWiki = lDB.getMediaWikiCollection().getMediaWikis().iterator().next();
+                    List<Revision> lRevisions = lMediaWiki.getPage("April").getRevisionsList();
+                    Assert.assertEquals(4, lRevisions.size());
+                    Assert.assertEquals(lRevisions.get(1), lMediaWiki.getPage("April").getRevisionAt(lRevisions.get(1).getTimestamp()));
+                    try {
+                        lMediaWiki.createPage(1000000, lMediaWiki.getNamespace(0), "New page");
+                        Assert.fail("Write on read-only database");
+                    }
+                    catch (WikiDragonException e) {
+                        // expected
+                    }
+                    try {
+                        lMediaWiki.getPage("April").setGraphMetric("TEST", WikiDragonConst.NULLDATETIME, 1);
+                        Assert.fail("Write on read-only database");
+                    }
+                    catch (WikiDragonException e) {
+                        // expected
+                    }
+                }
+            }
+        }
+        finally {
+            IOUtil.delete(lTestTmpDir, true);
+        }
+    }
+
     @Test
     public void plainNeoBatXMLDumpImportTest() throws WikiDragonException {
         String lSampleDumpFilename = "/simplewiki-20180201-pages-meta-history-sample.xml";
@@ -124,4 +172,146 @@ public class WikiDragonTest {
         }
     }
 
+    @Test
+    public void neoBatCategoryClosureTest() throws WikiDragonException {
+        String lSampleDumpFilename = "/simplewiki-20180201-pages-meta-history-sample.xml";
+        File lTestTmpDir = prepareTmpDir();
+        File lDBPath = new File(lTestTmpDir.getAbsolutePath()+File.separator+"db");
+        try (WikiDragonDatabase lDB = new NeoBatWikiDragonDatabase(lDBPath, true)) {
+            NeoBatMediaWiki lMediaWiki = (NeoBatMediaWiki)lDB.getMediaWikiCollection().importMediaWiki(this.getClass().getResourceAsStream(lSampleDumpFilename), "UTF-8", new NoneRevisionCompressor());
+            Page lApril = lMediaWiki.getPage("April");
+            Page lAugust = lMediaWiki.getPage("August");
+            Page lStub = lMediaWiki.getPage("Template:Stub");
+            Page lCategory = lMediaWiki.getPage("Category:Computer science");
+            lApril.addWikiPageLinksOut(WikiDragonConst.NULLDATETIME, Collections.singletonMap(MediaWikiConst.LinkType.CATEGORIZATION, Collections.singleton(lCategory)));
+            Assert.assertEquals(Collections.singleton(lApril), lMediaWiki.getCategorizedPages(WikiDragonConst.NULLDATETIME, 1, lCategory));
+            long lGeneration = lMediaWiki.getWikiPageLinkGeneration();
+            // Added links must be visible to the next query although no link type has been marked as available
+            lAugust.addWikiPageLinksOut(WikiDragonConst.NULLDATETIME, Collections.singletonMap(MediaWikiConst.LinkType.CATEGORIZATION, Collections.singleton(lCategory)));
+            Assert.assertTrue(lMediaWiki.getWikiPageLinkGeneration() > lGeneration);
+            Assert.assertEquals(new HashSet<>(Arrays.asList(lApril, lAugust)), lMediaWiki.getCategorizedPages(WikiDragonConst.NULLDATETIME, 1, lCategory));
+            lStub.addWikiPageLinksOut(WikiDragonConst.NULLDATETIME, Collections.singletonMap(MediaWikiConst.LinkType.CATEGORIZATION, Collections.singleton(lCategory)));
+            // An index of depth 2 is built separately and also serves depth 1
+            Assert.assertEquals(2, lMediaWiki.getCategoryClosureIndex(WikiDragonConst.NULLDATETIME, 2).getMaxDepth());
+            Assert.assertSame(lMediaWiki.getCategoryClosureIndex(WikiDragonConst.NULLDATETIME, 2), lMediaWiki.getCategoryClosureIndex(WikiDragonConst.NULLDATETIME, 1));
+            Assert.assertEquals(new HashSet<>(Arrays.asList(lApril, lAugust, lStub)), lMediaWiki.getCategorizedPages(WikiDragonConst.NULLDATETIME, 2, lCategory));
+            Assert.assertEquals(new HashSet<>(Arrays.asList(lApril, lAugust, lStub)), lMediaWiki.getCategorizedPages(WikiDragonConst.NULLDATETIME, 1, lCategory));
+        }
+        finally {
+            IOUtil.delete(lTestTmpDir, true);
+        }
+    }
+
+    @Test
+    public void neoBatPageTitleCacheTest() throws WikiDragonException {
+        String lSampleDumpFilename = "/simplewiki-20180201-pages-meta-history-sample.xml";
+        File lTestTmpDir = prepareTmpDir();
+        File lDBPath = new File(lTestTmpDir.getAbsolutePath()+File.separator+"db");
+        try (WikiDragonDatabase lDB = new NeoBatWikiDragonDatabase(lDBPath, true)) {
+            MediaWiki lMediaWiki = lDB.getMediaWikiCollection().importMediaWiki(this.getClass().getResourceAsStream(lSampleDumpFilename), "UTF-8", new NoneRevisionCompressor());
+            PageTitleCache lCache = lMediaWiki.getPageTitleCache();
+            ZonedDateTime lTimestamp = ZonedDateTime.parse("2010-01-01T00:00:00Z");
+            Assert.assertNull(lCache.getPage(0, "Brand new page"));
+            Page lPage;
+            try (WikiTransaction tx = lDB.beginTx()) {
+                lPage = lMediaWiki.createPage(99999999, lMediaWiki.getNamespace(0), "Brand new page");
+                tx.success();
+            }
+            // The red link is outdated by the creation of the page
+            Assert.assertEquals(lPage, lCache.getPage(0, "Brand new page"));
+            Assert.assertNull(lCache.getPage(0, "Brand new page", lTimestamp));
+            // The first revision is read again once the page seems not to have existed yet
+            try (WikiTransaction tx = lDB.beginTx()) {
+                lPage.createRevision(99999999, 0, ZonedDateTime.parse("2005-01-01T00:00:00Z"), "127.0.0.1", "", false, MediaWikiConst.Model.WIKITEXT, MediaWikiConst.Format.TEXT_XWIKI, "", "[[April]]".getBytes(StandardCharsets.UTF_8), WikiDragonConst.Compression.NONE, 9);
+                tx.success();
+            }
+            Assert.assertEquals(lPage, lCache.getPage(0, "Brand new page", lTimestamp));
+            Assert.assertNull(lCache.getPage(0, "Brand new page", ZonedDateTime.parse("2004-01-01T00:00:00Z")));
+            Assert.assertEquals(lMediaWiki.getPage("April"), lCache.getPage(0, "April", ZonedDateTime.parse("2003-03-28T00:00:00Z")));
+            Assert.assertNull(lCache.getPage(0, "April", ZonedDateTime.parse("2003-03-26T00:00:00Z")));
+        }
+        finally {
+            IOUtil.delete(lTestTmpDir, true);
+        }
+    }
+
+    @Test
+    public void neoWikiPageLinkChangesTest() throws WikiDragonException {
+        String lSampleDumpFilename = "/simplewiki-20180201-pages-meta-history-sample.xml";
+        File lTestTmpDir = prepareTmpDir();
+        File lDBPath = new File(lTestTmpDir.getAbsolutePath()+File.separator+"db");
+        try (WikiDragonDatabase lDB = new NeoWikiDragonDatabase(lDBPath, true)) {
+            MediaWiki lMediaWiki = lDB.getMediaWikiCollection().importMediaWiki(this.getClass().getResourceAsStream(lSampleDumpFilename), "UTF-8", new NoneRevisionCompressor());
+            ZonedDateTime lSnapshot1 = ZonedDateTime.parse("2003-06-01T00:00:00Z");
+            ZonedDateTime lSnapshot2 = ZonedDateTime.parse("2004-06-01T00:00:00Z");
+            Page lApril = lMediaWiki.getPage("April");
+            Page lAugust = lMediaWiki.getPage("August");
+            Page lStub = lMediaWiki.getPage("Template:Stub");
+            Map<MediaWikiConst.LinkType, Set<Page>> lLinks1 = new HashMap<>();
+            lLinks1.put(MediaWikiConst.LinkType.ARTICLE, new HashSet<>(Collections.singletonList(lAugust)));
+            lApril.addWikiPageLinksOut(lSnapshot1, lLinks1);
+            Map<MediaWikiConst.LinkType, Set<Page>> lLinks2 = new HashMap<>();
+            lLinks2.put(MediaWikiConst.LinkType.ARTICLE, new HashSet<>(Collections.singletonList(lStub)));
+            lApril.addWikiPageLinksOut(lSnapshot2, lLinks2);
+            long lAugustId = Long.parseLong(lAugust.getUniqueId());
+            long lStubId = Long.parseLong(lStub.getUniqueId());
+            // Dates between the snapshots see the latest snapshot at or before them
+            WikiPageLinkChanges lDateChanges = lApril.getWikiPageLinkChanges(ZonedDateTime.parse("2003-09-15T12:00:00Z"), ZonedDateTime.parse("2005-01-01T00:00:00Z"));
+            Assert.assertEquals(new TLongHashSet(new long[]{lStubId}), lDateChanges.getAdded().getTargetNodeIdSet());
+            Assert.assertEquals(new TLongHashSet(new long[]{lAugustId}), lDateChanges.getRemoved().getTargetNodeIdSet());
+            // Before the first snapshot there are no links
+            WikiPageLinkChanges lInitialChanges = lApril.getWikiPageLinkChanges(ZonedDateTime.parse("2002-01-01T00:00:00Z"), ZonedDateTime.parse("2003-07-01T00:00:00Z"));
+            Assert.assertTrue(lInitialChanges.getRemoved().isEmpty());
+            Assert.assertEquals(new TLongHashSet(new long[]{lAugustId}), lInitialChanges.getAdded().getTargetNodeIdSet());
+            // The MediaWiki resolves the dates the same way
+            List<Page> lVisited = new ArrayList<>();
+            lMediaWiki.getWikiPageLinkChanges(ZonedDateTime.parse("2003-09-15T12:00:00Z"), ZonedDateTime.parse("2005-01-01T00:00:00Z"), (pPage, pChanges) -> {
+                Assert.assertEquals(lDateChanges.getAdded().getTargetNodeIdSet(), pChanges.getAdded().getTargetNodeIdSet());
+                lVisited.add(pPage);
+                return true;
+            });
+            Assert.assertEquals(Collections.singletonList(lApril), lVisited);
+        }
+        finally {
+            IOUtil.delete(lTestTmpDir, true);
+        }
+    }
+
+    @Test
+    public void neoBatWikiPageLinkChangesTest() throws WikiDragonException {
+        String lSampleDumpFilename = "/simplewiki-20180201-pages-meta-history-sample.xml";
+        File lTestTmpDir = prepareTmpDir();
+        File lDBPath = new File(lTestTmpDir.getAbsolutePath()+File.separator+"db");
+        try (WikiDragonDatabase lDB = new NeoBatWikiDragonDatabase(lDBPath, true)) {
+            NeoBatMediaWiki lMediaWiki = (NeoBatMediaWiki)lDB.getMediaWikiCollection().importMediaWiki(this.getClass().getResourceAsStream(lSampleDumpFilename), "UTF-8", new NoneRevisionCompressor());
+            ZonedDateTime lSnapshot1 = ZonedDateTime.parse("2003-06-01T00:00:00Z");
+            ZonedDateTime lSnapshot2 = ZonedDateTime.parse("2004-06-01T00:00:00Z");
+            lMediaWiki.extractWikiTextNetwork(lSnapshot1, 1, new WikiTextLinkExtraction(lMediaWiki));
+            lMediaWiki.extractWikiTextNetwork(lSnapshot2, 1, new WikiTextLinkExtraction(lMediaWiki));
+            Page lApril = lMediaWiki.getPage("April");
+            Page lAugust = lMediaWiki.getPage("August");
+            WikiPageLinkChanges lSnapshotChanges = lApril.getWikiPageLinkChanges(lSnapshot1, lSnapshot2);
+            // Dates between the snapshots see the latest snapshot at or before them
+            WikiPageLinkChanges lDateChanges = lApril.getWikiPageLinkChanges(ZonedDateTime.parse("2003-09-15T12:00:00Z"), ZonedDateTime.parse("2005-01-01T00:00:00Z"));
+            Assert.assertEquals(lSnapshotChanges.getAdded().getTargetNodeIdSet(), lDateChanges.getAdded().getTargetNodeIdSet());
+            Assert.assertEquals(lSnapshotChanges.getRemoved().getTargetNodeIdSet(), lDateChanges.getRemoved().getTargetNodeIdSet());
+            // Before the first snapshot there are no links, so all links of the second snapshot have been added
+            WikiPageLinkChanges lInitialChanges = lApril.getWikiPageLinkChanges(ZonedDateTime.parse("2002-01-01T00:00:00Z"), ZonedDateTime.parse("2005-01-01T00:00:00Z"));
+            Assert.assertTrue(lInitialChanges.getRemoved().isEmpty());
+            Assert.assertTrue(lInitialChanges.getAdded().getTargetNodeIdSet().contains(Long.parseLong(lAugust.getUniqueId())));
+            Assert.assertEquals(lApril.getWikiPageLinkRecordsOut(lSnapshot2).getTargetNodeIdSet(), lInitialChanges.getAdded().getTargetNodeIdSet());
+            // The MediaWiki resolves the dates once for all pages
+            List<Page> lVisited = new ArrayList<>();
+            lMediaWiki.getWikiPageLinkChanges(ZonedDateTime.parse("2002-01-01T00:00:00Z"), ZonedDateTime.parse("2005-01-01T00:00:00Z"), (pPage, pChanges) -> {
+                if (pPage.equals(lApril)) Assert.assertEquals(lInitialChanges.getAdded().getTargetNodeIdSet(), pChanges.getAdded().getTargetNodeIdSet());
+                lVisited.add(pPage);
+                return true;
+            });
+            Assert.assertTrue(lVisited.contains(lApril));
+        }
+        finally {
+            IOUtil.delete(lTestTmpDir, true);
+        }
+    }
+
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon;
+
+import org.hucompute.wikidragon.core.exceptions.WikiDragonException;
+import org.hucompute.wikidragon.core.model.MediaWiki;
+import org.hucompute.wikidragon.core.model.MediaWikiConst;
+import org.hucompute.wikidragon.core.model.WikiDragonDatabase;
+import org.hucompute.wikidragon.core.model.neobat.NeoBatWikiDragonDatabase;
+import org.hucompute.wikidragon.core.util.WikiTextLinkExtraction;
+import org.hucompute.wikidragon.core.util.WikiTextLinkExtraction.LinkTarget;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class WikiTextLinkExtractionTest {
+
+    private static File testTmpDir;
+    private static WikiDragonDatabase database;
+    private static WikiTextLinkExtraction extraction;
+
+    @BeforeClass
+    public static void setUp() throws WikiDragonException {
+        testTmpDir = TestUtil.prepareTmpDir(WikiTextLinkExtractionTest.class);
+        database = new NeoBatWikiDragonDatabase(new File(testTmpDir.getAbsolutePath()+File.separator+"db"), true);
+        MediaWiki lMediaWiki = TestUtil.importSample(database);
+        extraction = new WikiTextLinkExtraction(lMediaWiki);
+        extraction.addLinkTemplate("Main", null, "");
+        extraction.addLinkTemplate("Cat", MediaWikiConst.LinkType.CATEGORIZATION, "Category:", 1);
+    }
+
+    @AfterClass
+    public static void tearDown() throws WikiDragonException {
+        try {
+            database.close();
+        }
+        finally {
+            TestUtil.deleteTmpDir(testTmpDir);
+        }
+    }
+
+    private static List<LinkTarget> scan(String pWikiText) {
+        List<LinkTarget> lResult = new ArrayList<>();
+        extraction.scan(pWikiText, (pTarget, pRedirect, pLinkType) -> lResult.addAll(extraction.getLinkTargets(pTarget, pRedirect, pLinkType)));
+        return lResult;
+    }
+
+    private static LinkTarget article(String pTitle) {
+        return new LinkTarget(MediaWikiConst.LinkType.ARTICLE, 0, pTitle);
+    }
+
+    private static LinkTarget category(String pTitle) {
+        return new LinkTarget(MediaWikiConst.LinkType.CATEGORIZATION, 14, pTitle);
+    }
+
+    @Test
+    public void opaqueTest() {
+        Assert.assertEquals(Collections.singletonList(article("B")), scan("<nowiki>[[A]]</nowiki> [[B]]"));
+        Assert.assertEquals(Collections.singletonList(article("B")), scan("<NoWiki attr=\"x\">[[A]]</NOWIKI>[[B]]"));
+        Assert.assertEquals(Arrays.asList(article("A"), article("B")), scan("[[A]]<nowiki/>[[B]]"));
+        Assert.assertEquals(Collections.singletonList(article("B")), scan("<pre>\n[[A]]\n</pre>\n<math>[[x]]</math>[[B]]"));
+        // An unterminated opaque element hides the rest of the text
+        Assert.assertEquals(Collections.singletonList(article("A")), scan("[[A]]<nowiki>[[B]]"));
+        // Tags only sharing a prefix are not opaque
+        Assert.assertEquals(Collections.singletonList(article("A")), scan("<preview>[[A]]</preview>"));
+    }
+
+    @Test
+    public void commentTest() {
+        Assert.assertEquals(Collections.singletonList(article("B")), scan("<!-- [[A]] -->[[B]]"));
+        Assert.assertEquals(Collections.singletonList(article("B")), scan("<!--\n[[A]]\n<nowiki>-->[[B]]"));
+        Assert.assertEquals(Collections.emptyList(), scan("<!-- [[A]]"));
+    }
+
+    @Test
+    public void pipedLinkTest() {
+        Assert.assertEquals(Collections.singletonList(article("April fool's Day")), scan("[[april_fool's   Day|first of April]]"));
+        Assert.assertEquals(Collections.singletonList(article("April")), scan("[[April#Events|events]]"));
+        // Links within captions are found as well
+        Assert.assertEquals(Arrays.asList(article("A"), article("B")), scan("[[A|see [[B]]]]"));
+        // Embedded files are no links, but their captions may contain links
+        Assert.assertEquals(Collections.singletonList(article("August")), scan("[[File:X.png|thumb|[[August]]]]"));
+        Assert.assertEquals(Collections.singletonList(new LinkTarget(MediaWikiConst.LinkType.ARTICLE, 6, "X.png")), scan("[[:File:X.png|file]]"));
+        // Invalid targets are dropped
+        Assert.assertEquals(Collections.singletonList(article("B")), scan("[[A\n]] [[{{x}}]] [[|caption]] [[B]]"));
+        Assert.assertEquals(Arrays.asList(new LinkTarget(MediaWikiConst.LinkType.REDIRECT, 0, "April"), article("April")), scan("  #redirect: [[april]]"));
+        // Redirects are only recognized at the beginning
+        Assert.assertEquals(Arrays.asList(article("A"), article("April")), scan("[[A]]\n#REDIRECT [[April]]"));
+    }
+
+    @Test
+    public void categoryTest() {
+        Assert.assertEquals(Collections.singletonList(category("Computer science")), scan("[[Category:Computer science|Sortkey]]"));
+        Assert.assertEquals(Collections.singletonList(category("Computer science")), scan("[[category:computer_science| ]]"));
+        // A leading colon links to the category page instead of categorizing
+        Assert.assertEquals(Collections.singletonList(new LinkTarget(MediaWikiConst.LinkType.ARTICLE, 14, "Computer science")), scan("[[:Category:Computer science|sort]]"));
+    }
+
+    @Test
+    public void templateTest() {
+        // Links within the parameters of ordinary templates are found by the main scan
+        Assert.assertEquals(Arrays.asList(article("Paris"), article("France")), scan("{{Infobox city|name=[[Paris]]|country={{flag|[[France]]}}}}"));
+        // Template parameters in triple braces are no templates
+        Assert.assertEquals(Collections.singletonList(article("A")), scan("{{{1|[[A]]}}}"));
+        Assert.assertEquals(Arrays.asList(article("Page A"), article("Page B")), scan("{{Main|Page A|page_B}}"));
+        Assert.assertEquals(Collections.singletonList(article("Page C")), scan("{{template:main|label=Foo|Page C}}"));
+        Assert.assertEquals(Collections.singletonList(category("Foo")), scan("{{Cat|foo|ignored}}"));
+        // Parameters holding markup are left to the main scan
+        Assert.assertEquals(Collections.singletonList(article("B")), scan("{{Main|[[B]]}}"));
+        Assert.assertEquals(Collections.emptyList(), scan("{{Main|Unterminated"));
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018
+ * Text-Technology Lab
+ * Johann Wolfgang Goethe-Universität Frankfurt am Main
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/agpl-3.0.en.html.
+ */
+
+package org.hucompute.wikidragon.core.util;
+
+import org.hucompute.wikidragon.core.model.MediaWikiConst;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+public class LinkGraphAnalyticsTest {
+
+    private static final double DELTA = 1e-6;
+
+    /**
+     * In-memory snapshot with page ids 1..n and ARTICLE edges
+     */
+    private LinkGraphSnapshot snapshot(int pNodeCount, int[][] pEdges) {
+        int[] lSources = new int[pEdges.length];
+        int[] lTargets = new int[pEdges.length];
+        for (int i=0; i<pEdges.length; i++) {
+            lSources[i] = pEdges[i][0];
+            lTargets[i] = pEdges[i][1];
+        }
+        return LinkGraphSnapshot.fromEdges(pNodeCount, lSources, lTargets, MediaWikiConst.LinkType.ARTICLE);
+    }
+
+    private static double sum(double[] pValues) {
+        double lResult = 0;
+        for (double lValue:pValues) lResult += lValue;
+        return lResult;
+    }
+
+    @Test
+    public void cycleTest() {
+        try (LinkGraphSnapshot lSnapshot = snapshot(4, new int[][]{{0, 1}, {1, 2}, {2, 3}, {3, 0}})) {
+            LinkGraphAnalytics lAnalytics = new LinkGraphAnalytics(lSnapshot);
+            // Every page of a directed cycle has the same rank
+            for (double lRank:lAnalytics.getPageRank()) {
+                Assert.assertEquals(0.25, lRank, DELTA);
+            }
+            Assert.assertEquals(1, lAnalytics.getComponentCount());
+            Assert.assertArrayEquals(new int[]{0, 0, 0, 0}, lAnalytics.getComponents());
+            Assert.assertArrayEquals(new int[]{1, 1, 1, 1}, lAnalytics.getInDegrees());
+            Assert.assertArrayEquals(new int[]{1, 1, 1, 1}, lAnalytics.getOutDegrees());
+            Assert.assertEquals(0, lAnalytics.getReciprocity(), DELTA);
+        }
+    }
+
+    @Test
+    public void danglingStarTest() {
+        // Three leaves link to a hub without outgoing links
+        try (LinkGraphSnapshot lSnapshot = snapshot(4, new int[][]{{1, 0}, {2, 0}, {3, 0}})) {
+            LinkGraphAnalytics lAnalytics = new LinkGraphAnalytics(lSnapshot);
+            double[] lRank = lAnalytics.getPageRank();
+            Assert.assertEquals(1, sum(lRank), DELTA);
+            // The rank of the hub is distributed evenly, so leaves get 1/(n+3d) and the hub the remainder
+            double lLeaf = 1/(4+3*LinkGraphAnalytics.DEFAULT_DAMPING);
+            Assert.assertEquals(1-3*lLeaf, lRank[0], DELTA);
+            for (int i=1; i<4; i++) {
+                Assert.assertEquals(lLeaf, lRank[i], DELTA);
+            }
+            // A damping factor of 0 leaves only the uniform teleport probability
+            double[] lUndamped = lAnalytics.computePageRank(0, 1, 0);
+            Assert.assertArrayEquals(new double[]{0.25, 0.25, 0.25, 0.25}, lUndamped, DELTA);
+        }
+    }
+
+    @Test
+    public void componentsTest() {
+        // A reciprocal pair, a one-way pair linked from a later index, a self link and an isolated page
+        ForkJoinPool lPool = new ForkJoinPool(2);
+        try (LinkGraphSnapshot lSnapshot = snapshot(6, new int[][]{{0, 3}, {3, 0}, {4, 1}, {2, 2}})) {
+            LinkGraphAnalytics lAnalytics = new LinkGraphAnalytics(lSnapshot, lPool);
+            Assert.assertArrayEquals(new int[]{0, 1, 2, 0, 1, 5}, lAnalytics.getComponents());
+            Assert.assertEquals(4, lAnalytics.getComponentCount());
+            Assert.assertArrayEquals(new int[]{1, 0, 0, 1, 0, 0}, lAnalytics.getReciprocalDegrees());
+            // Self links are not counted as pairs
+            Assert.assertEquals(2/3d, lAnalytics.getReciprocity(), DELTA);
+            Assert.assertEquals(1, sum(lAnalytics.getPageRank()), DELTA);
+        }
+        finally {
+            lPool.shutdown();
+        }
+    }
+
+    @Test
+    public void multiBlockTest() {
+        // Several parallel blocks, the last one partial
+        int n = 3*LinkGraphAnalytics.SEQUENTIAL_THRESHOLD+5;
+        int[][] lEdges = new int[n][];
+        for (int i=0; i<n; i++) {
+            lEdges[i] = new int[]{i, (i+1) % n};
+        }
+        ForkJoinPool lPool = new ForkJoinPool(4);
+        try (LinkGraphSnapshot lSnapshot = snapshot(n, lEdges)) {
+            LinkGraphAnalytics lAnalytics = new LinkGraphAnalytics(lSnapshot, lPool);
+            for (double lRank:lAnalytics.getPageRank()) {
+                Assert.assertEquals(1d/n, lRank, 1e-12);
+            }
+            Assert.assertEquals(1, lAnalytics.getComponentCount());
+            Assert.assertEquals(0, lAnalytics.getReciprocity(), DELTA);
+        }
+        finally {
+            lPool.shutdown();
+        }
+    }
+
+    @Test
+    public void writeLoadTest() throws IOException {
+        File lFile = File.createTempFile("linkgraphsnapshot", ".dat");
+        try {
+            try (LinkGraphSnapshot lSnapshot = snapshot(3, new int[][]{{0, 1}, {0, 2}, {2, 1}})) {
+                lSnapshot.write(lFile);
+            }
+            try (LinkGraphSnapshot lSnapshot = LinkGraphSnapshot.load(lFile)) {
+                Assert.assertEquals(3, lSnapshot.getNodeCount());
+                Assert.assertEquals(3, lSnapshot.getEdgeCount());
+                Assert.assertEquals(2, lSnapshot.getIndex(3));
+                Assert.assertArrayEquals(new int[]{1, 2}, lSnapshot.getOutNeighbours(0));
+                Assert.assertArrayEquals(new int[]{0, 2}, lSnapshot.getInNeighbours(1));
+                Assert.assertEquals(MediaWikiConst.LinkType.ARTICLE, lSnapshot.getOutLinkType(0));
+            }
+        }
+        finally {
+            lFile.delete();
+        }
+    }
+
+}